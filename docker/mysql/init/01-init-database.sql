@@ -11,20 +11,35 @@ USE middleware_analyze;
 DROP TABLE IF EXISTS `t_task`;
 CREATE TABLE `t_task` (
   `task_id` varchar(64) NOT NULL COMMENT '任务ID',
+  `task_type` varchar(20) NOT NULL DEFAULT 'ANALYZE' COMMENT '任务类型：ANALYZE-访问分析，EXPORT-原始流量导出，REVERSE-出向依赖分析',
   `submitter` varchar(100) NOT NULL COMMENT '提交人',
   `description` text COMMENT '任务描述',
   `server_ips` json NOT NULL COMMENT '服务端IP列表',
-  `port` int NOT NULL COMMENT '服务端端口',
+  `port` int DEFAULT NULL COMMENT '服务端端口，为空时按实际端口拆分结果',
+  `port_ranges` json DEFAULT NULL COMMENT '端口为空时统计的端口范围',
+  `exclude_ports` json DEFAULT NULL COMMENT '端口为空时排除的端口',
   `start_date` date NOT NULL COMMENT '查询开始日期',
   `end_date` date NOT NULL COMMENT '查询结束日期',
+  `start_time` datetime DEFAULT NULL COMMENT '查询开始时间，为空时查询整天',
+  `end_time` datetime DEFAULT NULL COMMENT '查询结束时间，为空时查询整天',
   `status` varchar(20) NOT NULL DEFAULT 'SUBMITTED' COMMENT '任务状态',
+  `cost_estimate` json COMMENT '任务预检估算结果',
+  `query_stats` json COMMENT 'ES查询统计信息',
+  `export_format` varchar(20) DEFAULT NULL COMMENT '导出文件格式：NDJSON、CSV',
+  `export_progress` json COMMENT '导出进度',
+  `preview` json COMMENT '采样预览结果（近似）',
   `error_message` text COMMENT '错误信息',
+  `lease_owner` varchar(128) DEFAULT NULL COMMENT '持有执行租约的实例',
+  `lease_expire_time` datetime DEFAULT NULL COMMENT '执行租约到期时间',
+  `attempts` int NOT NULL DEFAULT '0' COMMENT '已领取执行的次数',
+  `fence_token` bigint NOT NULL DEFAULT '0' COMMENT '租约防护令牌，每次领取加一，写入时校验',
   `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `update_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   `deleted` tinyint(1) NOT NULL DEFAULT '0' COMMENT '逻辑删除标志',
   PRIMARY KEY (`task_id`),
   KEY `idx_submitter` (`submitter`),
   KEY `idx_status` (`status`),
+  KEY `idx_status_lease` (`status`, `lease_expire_time`),
   KEY `idx_create_time` (`create_time`),
   KEY `idx_deleted` (`deleted`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='任务表';
@@ -38,6 +53,11 @@ CREATE TABLE `t_task_result` (
   `server_ip` varchar(45) NOT NULL COMMENT '服务端IP',
   `port` int NOT NULL COMMENT '端口',
   `access_count` bigint NOT NULL DEFAULT '0' COMMENT '访问次数',
+  `total_bytes` bigint DEFAULT NULL COMMENT 'bytes字段合计',
+  `total_count` bigint DEFAULT NULL COMMENT 'count字段合计',
+  `first_seen` datetime DEFAULT NULL COMMENT '首次访问时间',
+  `last_seen` datetime DEFAULT NULL COMMENT '最后访问时间',
+  `hourly_distribution` json DEFAULT NULL COMMENT '按小时的访问次数分布',
   `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `deleted` tinyint(1) NOT NULL DEFAULT '0' COMMENT '逻辑删除标志',
   PRIMARY KEY (`id`),
@@ -72,6 +92,58 @@ CREATE TABLE `t_host_info` (
   KEY `idx_deleted` (`deleted`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='主机信息表';
 
+-- 创建日索引汇总检查点表
+DROP TABLE IF EXISTS `t_rollup_checkpoint`;
+CREATE TABLE `t_rollup_checkpoint` (
+  `index_date` date NOT NULL COMMENT '索引日期',
+  `status` varchar(20) NOT NULL COMMENT '汇总状态：RUNNING-汇总中，COMPLETED-汇总完成',
+  `after_key` json COMMENT '已写入段文件的最后一页composite after_key',
+  `segments` int NOT NULL DEFAULT '0' COMMENT '已写入的段文件数量',
+  `row_count` bigint NOT NULL DEFAULT '0' COMMENT '已写入的记录数',
+  `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `update_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`index_date`),
+  KEY `idx_status` (`status`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='日索引汇总检查点表';
+
+-- 创建任务执行单元表
+DROP TABLE IF EXISTS `t_task_unit`;
+CREATE TABLE `t_task_unit` (
+  `id` bigint NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+  `task_id` varchar(64) NOT NULL COMMENT '任务ID',
+  `unit_type` varchar(20) NOT NULL DEFAULT 'QUERY' COMMENT '单元类型：QUERY-ES查询（日期×目标批次），ENRICH-主机信息补全（访问对批次）',
+  `unit_index` int NOT NULL COMMENT '同类型单元内的序号',
+  `start_date` date NOT NULL COMMENT '单元开始日期',
+  `end_date` date NOT NULL COMMENT '单元结束日期',
+  `targets` json COMMENT '查询单元的目标IP（网段）批次，补全单元的访问对批次',
+  `shared` tinyint(1) NOT NULL DEFAULT '1' COMMENT '是否允许其他工作线程窃取执行：0-只由协调线程执行，1-允许窃取',
+  `status` varchar(20) NOT NULL DEFAULT 'PENDING' COMMENT '单元状态：PENDING-待执行，RUNNING-执行中，COMPLETED-已完成，FAILED-执行失败',
+  `result` json COMMENT '单元的部分结果：查询单元为部分聚合，补全单元为主机信息',
+  `error_message` text COMMENT '错误信息',
+  `lease_owner` varchar(128) DEFAULT NULL COMMENT '持有执行租约的实例',
+  `lease_expire_time` datetime DEFAULT NULL COMMENT '执行租约到期时间',
+  `next_attempt_time` datetime DEFAULT NULL COMMENT '失败后最早可重新领取的时间，按执行次数指数退避',
+  `attempts` int NOT NULL DEFAULT '0' COMMENT '已领取执行的次数',
+  `fence_token` bigint NOT NULL DEFAULT '0' COMMENT '租约防护令牌，每次领取加一，写入时校验',
+  `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `update_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_task_unit` (`task_id`, `unit_type`, `unit_index`),
+  KEY `idx_status_lease` (`status`, `lease_expire_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='任务执行单元表';
+
+-- 创建集群实例表
+DROP TABLE IF EXISTS `t_instance`;
+CREATE TABLE `t_instance` (
+  `instance_id` varchar(128) NOT NULL COMMENT '实例标识',
+  `host_name` varchar(255) DEFAULT NULL COMMENT '主机名',
+  `workers` int NOT NULL DEFAULT '0' COMMENT '任务工作线程数',
+  `start_time` datetime NOT NULL COMMENT '实例启动时间',
+  `heartbeat_time` datetime NOT NULL COMMENT '最后心跳时间',
+  PRIMARY KEY (`instance_id`),
+  KEY `idx_heartbeat_time` (`heartbeat_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='集群实例表';
+
 -- 插入测试数据
 INSERT INTO `t_task` (`task_id`, `submitter`, `description`, `server_ips`, `port`, `start_date`, `end_date`, `status`, `create_time`) VALUES
 ('task_test_001', '测试用户', '测试任务1', JSON_ARRAY('192.168.1.100', '192.168.1.101'), 8080, '2023-12-01', '2023-12-02', 'COMPLETED', NOW()),
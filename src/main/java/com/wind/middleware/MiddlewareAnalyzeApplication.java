@@ -3,12 +3,14 @@ package com.wind.middleware;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 中间件分析系统主启动类
  */
 @SpringBootApplication
 @MapperScan("com.wind.middleware.mapper")
+@EnableScheduling
 public class MiddlewareAnalyzeApplication {
 
     public static void main(String[] args) {
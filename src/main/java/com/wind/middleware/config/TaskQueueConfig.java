@@ -7,40 +7,31 @@ import org.springframework.context.annotation.Configuration;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 任务队列配置类
+ * 任务队列配置类，任务队列本身持久化在任务表中，见 {@link com.wind.middleware.service.TaskQueueStore}
  */
 @Slf4j
 @Configuration
 public class TaskQueueConfig {
 
-    @Value("${middleware.task.queue-capacity}")
-    private int queueCapacity;
+    @Value("${middleware.task.workers:4}")
+    private int workers;
 
     /**
-     * 任务队列
-     */
-    @Bean
-    public LinkedBlockingQueue<String> taskQueue() {
-        LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>(queueCapacity);
-        log.info("任务队列初始化完成，容量: {}", queueCapacity);
-        return queue;
-    }
-
-    /**
-     * 单线程执行器
+     * 任务工作线程池，每个工作线程独立从队列获取任务，多个任务并发执行
      */
     @Bean
     public ExecutorService taskExecutor() {
-        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
             Thread thread = new Thread(r);
-            thread.setName("task-processor");
+            thread.setName("task-worker-" + threadIndex.incrementAndGet());
             thread.setDaemon(false);
             return thread;
         });
-        log.info("任务处理线程池初始化完成");
+        log.info("任务处理线程池初始化完成，工作线程数: {}", Math.max(1, workers));
         return executor;
     }
 }
\ No newline at end of file
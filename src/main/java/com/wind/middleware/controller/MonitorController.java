@@ -0,0 +1,196 @@
+package com.wind.middleware.controller;
+
+import com.wind.middleware.dto.response.ClusterResponse;
+import com.wind.middleware.dto.response.EsConcurrencyResponse;
+import com.wind.middleware.dto.response.MyApiResponse;
+import com.wind.middleware.dto.response.WorkerPoolResponse;
+import com.wind.middleware.queue.TaskQueueManager;
+import com.wind.middleware.service.ClusterService;
+import com.wind.middleware.service.EsConcurrencyLimiter;
+import com.wind.middleware.service.EsSearchExecutor;
+import com.wind.middleware.service.ExternalAPIService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * 运行状态监控控制器
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/monitor")
+@Tag(name = "运行监控", description = "ES查询并发、限流、任务工作线程、集群实例等运行状态查询接口")
+public class MonitorController {
+
+    @Autowired
+    private EsSearchExecutor searchExecutor;
+
+    @Autowired
+    private EsConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private TaskQueueManager taskQueueManager;
+
+    @Autowired
+    private ExternalAPIService externalAPIService;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    /**
+     * ES并发控制状态查询
+     */
+    @Operation(
+        summary = "ES并发控制状态查询",
+        description = "查询ES自适应并发控制的当前并发上限、排队请求数及退避情况，用于判断是否在自我限流"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "查询成功",
+            content = @Content(schema = @Schema(implementation = EsConcurrencyResponse.class),
+                examples = @ExampleObject(value = """
+                {
+                    "code": 200,
+                    "message": "成功",
+                    "data": {
+                        "concurrencyLimit": 6,
+                        "inFlight": 6,
+                        "queueSize": 42,
+                        "baselineTookMillis": 850,
+                        "backoffEvents": 3,
+                        "lastBackoffTime": "2025-09-14 10:32:15",
+                        "lastBackoffReason": "429 Too Many Requests",
+                        "taskInFlight": {"task_1700123456789_abc12345": 4, "task_1700123499999_def67890": 2},
+                        "taskQueued": {"task_1700123456789_abc12345": 36, "task_1700123499999_def67890": 0}
+                    }
+                }
+                """))),
+        @ApiResponse(responseCode = "500", description = "系统内部错误")
+    })
+    @GetMapping("/es-concurrency")
+    public MyApiResponse<EsConcurrencyResponse> getEsConcurrency() {
+        EsConcurrencyResponse response = EsConcurrencyResponse.builder()
+                .concurrencyLimit(concurrencyLimiter.getLimit())
+                .inFlight(searchExecutor.getInFlight())
+                .queueSize(searchExecutor.getQueueSize())
+                .baselineTookMillis(concurrencyLimiter.getBaselineTook())
+                .backoffEvents(concurrencyLimiter.getBackoffEvents())
+                .lastBackoffTime(concurrencyLimiter.getLastBackoffTime())
+                .lastBackoffReason(concurrencyLimiter.getLastBackoffReason())
+                .taskInFlight(searchExecutor.getTaskInFlight())
+                .taskQueued(searchExecutor.getTaskQueued())
+                .build();
+        return MyApiResponse.success(response);
+    }
+
+    /**
+     * 任务工作线程池状态查询
+     */
+    @Operation(
+        summary = "任务工作线程池状态查询",
+        description = "查询任务队列长度、排队等待时间、各工作线程正在处理的任务及利用率，以及外部API调用的全局并发占用"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "查询成功",
+            content = @Content(schema = @Schema(implementation = WorkerPoolResponse.class),
+                examples = @ExampleObject(value = """
+                {
+                    "code": 200,
+                    "message": "成功",
+                    "data": {
+                        "queue": {
+                            "queueSize": 2,
+                            "isRunning": true,
+                            "capacity": 1000,
+                            "workers": 4,
+                            "busyWorkers": 4,
+                            "avgQueueWaitMillis": 35200,
+                            "maxQueueWaitMillis": 412000,
+                            "oldestQueuedMillis": 61000
+                        },
+                        "workers": [
+                            {
+                                "name": "task-worker-1",
+                                "currentTaskId": "task_1700123456789_abc12345",
+                                "currentTaskMillis": 845000,
+                                "processedTasks": 12,
+                                "lastQueueWaitMillis": 0,
+                                "utilization": 0.734
+                            }
+                        ],
+                        "apiActiveCalls": 3,
+                        "apiWaitingCalls": 0
+                    }
+                }
+                """))),
+        @ApiResponse(responseCode = "500", description = "系统内部错误")
+    })
+    @GetMapping("/workers")
+    public MyApiResponse<WorkerPoolResponse> getWorkers() {
+        WorkerPoolResponse response = WorkerPoolResponse.builder()
+                .queue(taskQueueManager.getQueueStatus())
+                .workers(taskQueueManager.getWorkerStatus())
+                .apiActiveCalls(externalAPIService.getActiveCalls())
+                .apiWaitingCalls(externalAPIService.getWaitingCalls())
+                .build();
+        return MyApiResponse.success(response);
+    }
+
+    /**
+     * 集群实例状态查询
+     */
+    @Operation(
+        summary = "集群实例状态查询",
+        description = "查询集群模式下已注册的实例及最后心跳时间，心跳超时的实例会被移除并释放其持有的租约"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "查询成功",
+            content = @Content(schema = @Schema(implementation = ClusterResponse.class),
+                examples = @ExampleObject(value = """
+                {
+                    "code": 200,
+                    "message": "成功",
+                    "data": {
+                        "enabled": true,
+                        "instanceId": "analyzer-0",
+                        "instances": [
+                            {
+                                "instanceId": "analyzer-0",
+                                "hostName": "analyzer-0",
+                                "workers": 4,
+                                "startTime": "2025-09-14 08:00:12",
+                                "heartbeatTime": "2025-09-14 10:32:15"
+                            },
+                            {
+                                "instanceId": "analyzer-1",
+                                "hostName": "analyzer-1",
+                                "workers": 4,
+                                "startTime": "2025-09-14 08:00:15",
+                                "heartbeatTime": "2025-09-14 10:32:18"
+                            }
+                        ]
+                    }
+                }
+                """))),
+        @ApiResponse(responseCode = "500", description = "系统内部错误")
+    })
+    @GetMapping("/cluster")
+    public MyApiResponse<ClusterResponse> getCluster() {
+        ClusterResponse response = ClusterResponse.builder()
+                .enabled(clusterService.isEnabled())
+                .instanceId(clusterService.getInstanceId())
+                .instances(clusterService.isEnabled() ? clusterService.getInstances() : List.of())
+                .build();
+        return MyApiResponse.success(response);
+    }
+}
@@ -1,16 +1,26 @@
 package com.wind.middleware.controller;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.wind.middleware.dto.es.CostEstimate;
+import com.wind.middleware.dto.es.ExportProgress;
+import com.wind.middleware.dto.es.PairKey;
+import com.wind.middleware.dto.es.PreviewResult;
 import com.wind.middleware.dto.request.TaskSubmitRequest;
 import com.wind.middleware.dto.response.HostInfoResponse;
+import com.wind.middleware.dto.response.TaskResumeResponse;
 import com.wind.middleware.dto.response.TaskStatusResponse;
 import com.wind.middleware.dto.response.TaskSubmitResponse;
+import com.wind.middleware.dto.response.TaskUnitResponse;
+import com.wind.middleware.dto.response.UnitProgress;
 import com.wind.middleware.entity.HostInfo;
 import com.wind.middleware.entity.Task;
 import com.wind.middleware.entity.TaskResult;
 import com.wind.middleware.entity.enums.TaskStatus;
+import com.wind.middleware.entity.enums.TaskType;
+import com.wind.middleware.entity.enums.TaskUnitType;
 import com.wind.middleware.exception.BusinessException;
 import com.wind.middleware.service.TaskService;
+import com.wind.middleware.service.TaskUnitService;
 import com.wind.middleware.queue.TaskQueueManager;
 import com.wind.middleware.dto.response.MyApiResponse;
 import io.swagger.v3.oas.annotations.Operation;
@@ -24,8 +34,11 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
@@ -47,12 +60,24 @@ public class TaskController {
     @Autowired
     private TaskQueueManager taskQueueManager;
 
+    @Autowired
+    private TaskUnitService taskUnitService;
+
+    /**
+     * 请求中时间的时区，与接口日期序列化使用的时区一致
+     */
+    @Value("${spring.jackson.time-zone:GMT+8}")
+    private ZoneId requestZone;
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
     /**
      * 提交分析任务
      */
     @Operation(
         summary = "提交分析任务",
-        description = "提交中间件网络流量分析任务，系统将异步处理ES查询和外部API调用"
+        description = "提交中间件网络流量分析任务，提交前预估扫描文档数及客户端数量并选择查询策略，系统将异步处理ES查询和外部API调用"
     )
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "任务提交成功",
@@ -64,7 +89,15 @@ public class TaskController {
                     "data": {
                         "taskId": "task_1700123456789_abc12345",
                         "status": "SUBMITTED",
-                        "estimatedTime": "预计10-15分钟完成"
+                        "estimatedTime": "预计1分钟内完成",
+                        "costEstimate": {
+                            "estimatedDocs": 12500000,
+                            "estimatedClients": 3200,
+                            "maxUnitClients": 1800,
+                            "matchedIndices": 7,
+                            "estimatedSeconds": 6,
+                            "strategy": "BATCH"
+                        }
                     }
                 }
                 """))),
@@ -83,24 +116,60 @@ public class TaskController {
             @Parameter(description = "任务提交请求参数", required = true)
             @Valid @RequestBody TaskSubmitRequest request) {
         try {
+            // 指定了时间窗口时，查询日期由时间窗口决定，只查询与窗口重叠的索引；
+            // 窗口先换算到索引时区（任务按索引时区保存时间窗口），再取日期
+            if (request.getStartTime() != null && request.getEndTime() != null) {
+                request.setStartTime(toIndexZone(request.getStartTime()));
+                request.setEndTime(toIndexZone(request.getEndTime()));
+                request.setStartDate(request.getStartTime().toLocalDate());
+                request.setEndDate(request.getEndTime().toLocalDate());
+            }
+
+            // 预检：预估查询代价并选择查询策略，超过代价上限的任务直接拒绝；
+            // 出向依赖分析固定使用composite聚合，且按客户端IP过滤，不做预检
+            CostEstimate costEstimate = request.getTaskType() == TaskType.REVERSE ? null : taskService.estimateTask(
+                    request.getSubmitter(),
+                    request.getServerIps(),
+                    request.getPort(),
+                    request.getPortRanges(),
+                    request.getExcludePorts(),
+                    request.getStartDate(),
+                    request.getEndDate(),
+                    request.getStartTime(),
+                    request.getEndTime()
+            );
+
             // 提交任务
             String taskId = taskService.submitTask(
                     request.getSubmitter(),
                     request.getDescription(),
                     request.getServerIps(),
                     request.getPort(),
+                    request.getPortRanges(),
+                    request.getExcludePorts(),
                     request.getStartDate(),
-                    request.getEndDate()
+                    request.getEndDate(),
+                    request.getStartTime(),
+                    request.getEndTime(),
+                    costEstimate,
+                    request.getTaskType(),
+                    request.getExportFormat()
             );
 
             // 计算预计处理时间
-            long days = ChronoUnit.DAYS.between(request.getStartDate(), request.getEndDate()) + 1;
-            String estimatedTime = calculateEstimatedTime(days, request.getServerIps().size());
+            String estimatedTime;
+            if (costEstimate != null) {
+                estimatedTime = formatEstimatedTime(costEstimate.getEstimatedSeconds());
+            } else {
+                long days = ChronoUnit.DAYS.between(request.getStartDate(), request.getEndDate()) + 1;
+                estimatedTime = calculateEstimatedTime(days, request.getServerIps().size());
+            }
 
             TaskSubmitResponse response = TaskSubmitResponse.builder()
                     .taskId(taskId)
                     .status(TaskStatus.SUBMITTED.name())
                     .estimatedTime(estimatedTime)
+                    .costEstimate(costEstimate)
                     .build();
 
             log.info("任务提交成功: {}", taskId);
@@ -108,6 +177,8 @@ public class TaskController {
         } catch (IllegalArgumentException e) {
             log.warn("任务提交参数错误: {}", e.getMessage());
             throw e;
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("任务提交失败", e);
             throw new BusinessException("任务提交失败: " + e.getMessage());
@@ -220,13 +291,45 @@ public class TaskController {
                         "status": "ES_QUERYING",
                         "statusDesc": "ES查询中",
                         "progress": {
-                            "currentStep": "正在从Elasticsearch查询数据",
-                            "percentage": 25.0,
+                            "currentStep": "已发布采样预览（近似结果），正在进行精确查询（查询单元 96/150）",
+                            "percentage": 28.8,
                             "estimatedRemaining": "预计还需5-15分钟"
                         },
                         "startTime": "2025-09-14 10:30:00",
                         "updateTime": "2025-09-14 10:32:15",
-                        "errorMessage": null
+                        "errorMessage": null,
+                        "resultTruncated": null,
+                        "queryStats": null,
+                        "taskType": "ANALYZE",
+                        "exportProgress": null,
+                        "approximate": true,
+                        "preview": {
+                            "approximate": true,
+                            "sampleStartDate": "2025-08-07",
+                            "sampleEndDate": "2025-08-07",
+                            "sampler": "SAMPLER",
+                            "shardSize": 5000,
+                            "matchedDocs": 1826400,
+                            "sampledDocs": 25000,
+                            "tookMillis": 412,
+                            "clients": [
+                                {
+                                    "clientIp": "10.100.6.218",
+                                    "serverIp": "10.106.60.172",
+                                    "sampledCount": 1210,
+                                    "estimatedCount": 88396
+                                }
+                            ]
+                        },
+                        "units": {
+                            "queryUnits": 150,
+                            "queryCompleted": 96,
+                            "enrichUnits": 0,
+                            "enrichCompleted": 0,
+                            "pending": 46,
+                            "running": 8,
+                            "failed": 0
+                        }
                     }
                 }
                 """))),
@@ -244,7 +347,8 @@ public class TaskController {
             }
 
             // 构建进度信息
-            TaskStatusResponse.ProgressInfo progress = buildProgressInfo(task);
+            UnitProgress units = taskUnitService.getProgress(taskId);
+            TaskStatusResponse.ProgressInfo progress = buildProgressInfo(task, units);
 
             TaskStatusResponse response = TaskStatusResponse.builder()
                     .taskId(task.getTaskId())
@@ -254,6 +358,13 @@ public class TaskController {
                     .startTime(task.getCreateTime())
                     .updateTime(task.getUpdateTime())
                     .errorMessage(task.getErrorMessage())
+                    .resultTruncated(task.getQueryStats() != null ? task.getQueryStats().isTruncated() : null)
+                    .queryStats(task.getQueryStats())
+                    .taskType(task.getTaskType() != null ? task.getTaskType().name() : null)
+                    .exportProgress(task.getExportProgress())
+                    .approximate(isPreviewing(task) ? Boolean.TRUE : null)
+                    .preview(isPreviewing(task) ? task.getPreview() : null)
+                    .units(units)
                     .build();
 
             return MyApiResponse.success(response);
@@ -270,7 +381,8 @@ public class TaskController {
      */
     @Operation(
         summary = "客户端IP访问结果查询",
-        description = "查询任务的ES查询结果，即访问指定服务的客户端IP列表和访问统计"
+        description = "查询任务的ES查询结果，即访问指定服务的客户端IP列表和访问统计；精确查询完成前返回采样预览得到的近似Top客户端，"
+                + "每条记录带 approximate=true，accessCount为按采样比例估算的访问次数"
     )
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "查询成功",
@@ -283,7 +395,12 @@ public class TaskController {
                             "clientIp": "10.100.6.218",
                             "serverIp": "10.106.60.172",
                             "port": 3306,
-                            "accessCount": 1245
+                            "accessCount": 1245,
+                            "totalBytes": 5832104,
+                            "totalCount": 1310,
+                            "firstSeen": "2025-08-01 09:15:30",
+                            "lastSeen": "2025-08-07 18:42:15",
+                            "hourlyDistribution": null
                         },
                         {
                             "clientIp": "10.100.6.219",
@@ -307,6 +424,9 @@ public class TaskController {
                 throw BusinessException.notFound("任务不存在");
             }
 
+            if (isPreviewing(task)) {
+                return MyApiResponse.success(buildPreviewResults(task));
+            }
             List<TaskResult> results = taskService.getTaskResults(taskId);
             return MyApiResponse.success(results);
         } catch (BusinessException e) {
@@ -422,24 +542,198 @@ public class TaskController {
     }
 
     /**
-     * 计算预计处理时间
+     * 任务恢复执行
+     */
+    @Operation(
+        summary = "任务恢复执行",
+        description = "失败的任务，或ES查询有（日期，服务端IP）失败的已完成任务重新排队执行。"
+                + "已完成的执行单元直接复用，失败的执行单元从检查点继续，只重新查询失败的（日期，目标）；"
+                + "未拆分为执行单元的任务整体重新执行"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "任务已重新排队",
+            content = @Content(examples = @ExampleObject(value = """
+                {
+                    "code": 200,
+                    "message": "成功",
+                    "data": {
+                        "taskId": "task_1700123456789_abc12345",
+                        "status": "SUBMITTED",
+                        "resumedUnits": 3,
+                        "reusedUnits": 147,
+                        "split": true
+                    }
+                }
+                """))),
+        @ApiResponse(responseCode = "400", description = "业务规则限制",
+            content = @Content(examples = @ExampleObject(value = """
+                {
+                    "code": 400,
+                    "message": "只能恢复执行失败或部分查询失败的任务",
+                    "data": null
+                }
+                """))),
+        @ApiResponse(responseCode = "404", description = "任务不存在"),
+        @ApiResponse(responseCode = "500", description = "系统内部错误")
+    })
+    @PostMapping("/resume")
+    public MyApiResponse<TaskResumeResponse> resumeTask(
+            @Parameter(description = "要恢复执行的任务ID", required = true, example = "task_1700123456789_abc12345")
+            @RequestParam String taskId) {
+        try {
+            if (taskService.getTaskById(taskId) == null) {
+                throw BusinessException.notFound("任务不存在");
+            }
+            int resumedUnits = taskService.resumeTask(taskId);
+            UnitProgress units = taskUnitService.getProgress(taskId);
+
+            TaskResumeResponse response = TaskResumeResponse.builder()
+                    .taskId(taskId)
+                    .status(TaskStatus.SUBMITTED.name())
+                    .resumedUnits(resumedUnits)
+                    .reusedUnits(units != null ? units.getQueryCompleted() + units.getEnrichCompleted() : 0)
+                    .split(units != null)
+                    .build();
+            return MyApiResponse.success(response);
+        } catch (BusinessException | IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("恢复执行任务失败: {}", taskId, e);
+            throw new BusinessException("恢复执行任务失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 任务执行单元查询
+     */
+    @Operation(
+        summary = "任务执行单元查询",
+        description = "查询任务拆分出的执行单元及各单元的状态、执行次数、耗时和失败原因；"
+                + "部分查询失败的单元返回检查点中仍未查询成功的（日期，目标）。任务未拆分时返回空列表"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "查询成功",
+            content = @Content(examples = @ExampleObject(value = """
+                {
+                    "code": 200,
+                    "message": "成功",
+                    "data": [
+                        {
+                            "unitType": "QUERY",
+                            "unitIndex": 12,
+                            "startDate": "2025-08-03",
+                            "endDate": "2025-08-03",
+                            "targets": ["10.106.60.172", "10.106.60.173"],
+                            "targetCount": 2,
+                            "status": "FAILED",
+                            "attempts": 3,
+                            "errorMessage": "1个（日期，目标）查询失败: [2025-08-03/10.106.60.173]",
+                            "failedUnits": ["2025-08-03/10.106.60.173"],
+                            "tookMillis": 5230,
+                            "leaseOwner": null,
+                            "updateTime": "2025-08-08 10:15:30"
+                        }
+                    ]
+                }
+                """))),
+        @ApiResponse(responseCode = "404", description = "任务不存在"),
+        @ApiResponse(responseCode = "500", description = "系统内部错误")
+    })
+    @GetMapping("/units")
+    public MyApiResponse<List<TaskUnitResponse>> getTaskUnits(
+            @Parameter(description = "任务ID", required = true, example = "task_1700123456789_abc12345")
+            @RequestParam String taskId) {
+        try {
+            if (taskService.getTaskById(taskId) == null) {
+                throw BusinessException.notFound("任务不存在");
+            }
+            List<TaskUnitResponse> responses = taskUnitService.getUnits(taskId).stream()
+                    .map(unit -> TaskUnitResponse.builder()
+                            .unitType(unit.getUnitType().name())
+                            .unitIndex(unit.getUnitIndex())
+                            .startDate(unit.getStartDate())
+                            .endDate(unit.getEndDate())
+                            .targets(unit.getUnitType() == TaskUnitType.QUERY ? unit.getTargets() : null)
+                            .targetCount(unit.getTargets() != null ? unit.getTargets().size() : 0)
+                            .status(unit.getStatus().name())
+                            .attempts(unit.getAttempts())
+                            .errorMessage(unit.getErrorMessage())
+                            .failedUnits(unit.getResult() != null ? unit.getResult().getFailedUnits() : null)
+                            .tookMillis(unit.getResult() != null ? unit.getResult().getTookMillis() : null)
+                            .leaseOwner(unit.getLeaseOwner())
+                            .updateTime(unit.getUpdateTime())
+                            .build())
+                    .collect(Collectors.toList());
+            return MyApiResponse.success(responses);
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("查询任务执行单元失败: {}", taskId, e);
+            throw new BusinessException("查询任务执行单元失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 计算预计处理时间（预检不可用时的粗略估算）
      */
     private String calculateEstimatedTime(long days, int serverIpCount) {
         // 简单的时间估算逻辑：每天每个IP大约需要10秒
-        long estimatedSeconds = days * serverIpCount * 10;
+        return formatEstimatedTime(days * serverIpCount * 10);
+    }
+
+    /**
+     * 格式化预计处理时间
+     */
+    private String formatEstimatedTime(long estimatedSeconds) {
         if (estimatedSeconds < 60) {
             return "预计1分钟内完成";
         } else if (estimatedSeconds < 600) {
             return "预计" + (estimatedSeconds / 60) + "-" + ((estimatedSeconds / 60) + 1) + "分钟完成";
-        } else {
+        } else if (estimatedSeconds < 1800) {
             return "预计10-30分钟完成";
+        } else {
+            return "预计" + (estimatedSeconds / 60) + "分钟以上";
+        }
+    }
+
+    /**
+     * 是否只有采样预览结果：已发布预览且精确查询尚未完成
+     */
+    private boolean isPreviewing(Task task) {
+        return task.getPreview() != null
+                && (task.getStatus() == TaskStatus.SUBMITTED || task.getStatus() == TaskStatus.ES_QUERYING);
+    }
+
+    /**
+     * 将请求时区的时间换算为索引时区的同一时刻
+     */
+    private LocalDateTime toIndexZone(LocalDateTime time) {
+        return time.atZone(requestZone).withZoneSameInstant(indexZone).toLocalDateTime();
+    }
+
+    /**
+     * 将采样预览转换为近似的客户端IP结果
+     */
+    private List<TaskResult> buildPreviewResults(Task task) {
+        List<TaskResult> results = new ArrayList<>();
+        for (PreviewResult.Client client : task.getPreview().getClients()) {
+            TaskResult result = new TaskResult();
+            result.setTaskId(task.getTaskId());
+            result.setClientIp(client.getClientIp());
+            result.setServerIp(client.getServerIp());
+            // 按实际端口拆分的预览带有端口，指定端口的任务使用任务端口
+            result.setPort(client.getPort() != null ? client.getPort() : task.getPort());
+            result.setAccessCount(client.getEstimatedCount());
+            result.setApproximate(true);
+            results.add(result);
         }
+        return results;
     }
 
     /**
      * 构建进度信息
      */
-    private TaskStatusResponse.ProgressInfo buildProgressInfo(Task task) {
+    private TaskStatusResponse.ProgressInfo buildProgressInfo(Task task, UnitProgress units) {
         String currentStep;
         Double percentage;
         String estimatedRemaining;
@@ -451,9 +745,24 @@ public class TaskController {
                 estimatedRemaining = "等待中";
                 break;
             case ES_QUERYING:
-                currentStep = "正在从Elasticsearch查询数据";
+                currentStep = task.getPreview() != null
+                        ? "已发布采样预览（近似结果），正在进行精确查询" : "正在从Elasticsearch查询数据";
                 percentage = 25.0;
                 estimatedRemaining = "预计还需5-15分钟";
+                if (units != null && units.getQueryUnits() > 0) {
+                    currentStep += String.format("（查询单元 %d/%d）", units.getQueryCompleted(), units.getQueryUnits());
+                    percentage = Math.round(450.0 * units.getQueryCompleted() / units.getQueryUnits()) / 10.0;
+                }
+                break;
+            case EXPORTING:
+                ExportProgress exportProgress = task.getExportProgress();
+                currentStep = "正在导出原始流量记录";
+                percentage = exportProgress != null && exportProgress.getTotalSlices() > 0
+                        ? Math.round(1000.0 * exportProgress.getCompletedSlices() / exportProgress.getTotalSlices()) / 10.0
+                        : 0.0;
+                estimatedRemaining = exportProgress != null
+                        ? String.format("已导出%d/%d条记录", exportProgress.getExportedDocs(), exportProgress.getTotalDocs())
+                        : "统计中";
                 break;
             case ES_COMPLETED:
                 currentStep = "ES查询完成，准备调用外部API";
@@ -464,6 +773,10 @@ public class TaskController {
                 currentStep = "正在调用外部API获取详细信息";
                 percentage = 75.0;
                 estimatedRemaining = "预计还需2-5分钟";
+                if (units != null && units.getEnrichUnits() > 0) {
+                    currentStep += String.format("（补全单元 %d/%d）", units.getEnrichCompleted(), units.getEnrichUnits());
+                    percentage = 50.0 + Math.round(500.0 * units.getEnrichCompleted() / units.getEnrichUnits()) / 10.0;
+                }
                 break;
             case COMPLETED:
                 currentStep = "任务处理完成";
@@ -494,7 +807,8 @@ public class TaskController {
     private List<HostInfoResponse> buildHostInfoResponse(List<HostInfo> hostInfoList) {
         // 按客户端IP和服务端IP分组
         Map<String, List<HostInfo>> groupedByHost = hostInfoList.stream()
-                .collect(Collectors.groupingBy(h -> h.getClientIp() + ":" + h.getServerIp() + ":" + h.getPort()));
+                .collect(Collectors.groupingBy(
+                        h -> PairKey.key(h.getClientIp(), h.getServerIp()) + PairKey.SEPARATOR + h.getPort()));
 
         List<HostInfoResponse> responses = new ArrayList<>();
 
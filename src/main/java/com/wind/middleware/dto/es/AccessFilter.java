@@ -0,0 +1,121 @@
+package com.wind.middleware.dto.es;
+
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.enums.FlowDirection;
+import com.wind.middleware.entity.enums.TaskType;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * ES访问查询的过滤条件（目标IP之外的部分）
+ * <p>
+ * 入向查询的目标IP为服务端IP，出向查询的目标IP为客户端IP。端口为空时不限服务端端口（端口发现），
+ * 结果按实际端口拆分，此时可通过端口范围和排除端口缩小范围。
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccessFilter {
+
+    /**
+     * 查询方向，默认入向
+     */
+    @Builder.Default
+    private FlowDirection direction = FlowDirection.INBOUND;
+
+    /**
+     * 服务端端口，为空时不限端口
+     */
+    private Integer port;
+
+    /**
+     * 端口为空时只统计这些范围内的端口，为空时不限
+     */
+    private List<PortRange> portRanges;
+
+    /**
+     * 端口为空时排除的端口
+     */
+    private List<Integer> excludePorts;
+
+    /**
+     * 查询开始时间（索引时区），为空时查询整天
+     */
+    private LocalDateTime startTime;
+
+    /**
+     * 查询结束时间（索引时区，包含），为空时查询整天
+     */
+    private LocalDateTime endTime;
+
+    /**
+     * 只按端口过滤
+     */
+    public static AccessFilter ofPort(Integer port) {
+        return AccessFilter.builder().port(port).build();
+    }
+
+    /**
+     * 任务的过滤条件，出向依赖分析任务的IP列表为客户端IP
+     */
+    public static AccessFilter forTask(Task task) {
+        return AccessFilter.builder()
+                .direction(task.getTaskType() == TaskType.REVERSE ? FlowDirection.OUTBOUND : FlowDirection.INBOUND)
+                .port(task.getPort())
+                .portRanges(task.getPortRanges() != null
+                        ? task.getPortRanges().stream().map(PortRange::parse).toList() : null)
+                .excludePorts(task.getExcludePorts())
+                .startTime(task.getStartTime())
+                .endTime(task.getEndTime())
+                .build();
+    }
+
+    /**
+     * 是否按实际端口拆分结果：未指定端口的入向查询，或出向查询
+     */
+    public boolean isPerPort() {
+        return port == null || isOutbound();
+    }
+
+    /**
+     * 是否限定了端口范围或排除端口
+     */
+    public boolean hasPortConditions() {
+        return port == null && ((portRanges != null && !portRanges.isEmpty())
+                || (excludePorts != null && !excludePorts.isEmpty()));
+    }
+
+    /**
+     * 端口是否满足过滤条件
+     */
+    public boolean matchesPort(int dport) {
+        if (port != null) {
+            return dport == port;
+        }
+        if (excludePorts != null && excludePorts.contains(dport)) {
+            return false;
+        }
+        return portRanges == null || portRanges.isEmpty()
+                || portRanges.stream().anyMatch(range -> range.contains(dport));
+    }
+
+    /**
+     * 是否为出向查询
+     */
+    public boolean isOutbound() {
+        return direction == FlowDirection.OUTBOUND;
+    }
+
+    /**
+     * 是否限定了时间窗口
+     */
+    public boolean hasTimeWindow() {
+        return startTime != null && endTime != null;
+    }
+}
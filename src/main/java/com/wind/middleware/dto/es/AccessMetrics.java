@@ -0,0 +1,98 @@
+package com.wind.middleware.dto.es;
+
+import lombok.Data;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * 一个客户端IP → 服务端IP访问对的流量指标
+ * <p>
+ * 访问次数为聚合桶的 doc_count；流量、首末次访问时间及小时分布在同一次聚合中通过子聚合得到，
+ * 来源不提供的指标保持为空（本地缓存、日索引汇总不含小时分布，汇总不含首末次访问时间）。
+ */
+@Data
+public class AccessMetrics {
+
+    /**
+     * 访问次数（文档数）
+     */
+    private long accessCount;
+
+    /**
+     * bytes 字段合计，未统计时为null
+     */
+    private Long totalBytes;
+
+    /**
+     * count 字段合计，未统计时为null
+     */
+    private Long totalCount;
+
+    /**
+     * 首次访问时间（UTC毫秒），未统计时为null
+     */
+    private Long firstSeen;
+
+    /**
+     * 最后访问时间（UTC毫秒），未统计时为null
+     */
+    private Long lastSeen;
+
+    /**
+     * 按小时（索引时区 0-23 点）统计的访问次数，未统计时为null
+     */
+    private long[] hourly;
+
+    /**
+     * 只有访问次数的指标
+     */
+    public static AccessMetrics of(long accessCount) {
+        AccessMetrics metrics = new AccessMetrics();
+        metrics.setAccessCount(accessCount);
+        return metrics;
+    }
+
+    /**
+     * 累加某个小时的访问次数
+     *
+     * @param epochMillis 该小时内的任一时刻（UTC毫秒）
+     * @param zone        索引时区，按该时区的钟点归入0-23点
+     */
+    public void addHourly(long epochMillis, ZoneId zone, long count) {
+        if (hourly == null) {
+            hourly = new long[24];
+        }
+        hourly[Instant.ofEpochMilli(epochMillis).atZone(zone).getHour()] += count;
+    }
+
+    /**
+     * 合并另一个指标：次数和流量累加，首末次访问时间取最早/最晚，小时分布按小时累加
+     */
+    public void merge(AccessMetrics other) {
+        accessCount += other.accessCount;
+        totalBytes = sum(totalBytes, other.totalBytes);
+        totalCount = sum(totalCount, other.totalCount);
+        if (other.firstSeen != null) {
+            firstSeen = firstSeen == null ? other.firstSeen : Math.min(firstSeen, other.firstSeen);
+        }
+        if (other.lastSeen != null) {
+            lastSeen = lastSeen == null ? other.lastSeen : Math.max(lastSeen, other.lastSeen);
+        }
+        if (other.hourly != null) {
+            if (hourly == null) {
+                hourly = new long[24];
+            }
+            for (int hour = 0; hour < 24; hour++) {
+                hourly[hour] += other.hourly[hour];
+            }
+        }
+    }
+
+    private static Long sum(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : a + b;
+    }
+}
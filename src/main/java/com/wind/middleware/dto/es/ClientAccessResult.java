@@ -0,0 +1,347 @@
+package com.wind.middleware.dto.es;
+
+import com.wind.middleware.entity.enums.QueryStrategy;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * ES客户端访问查询结果
+ * <p>
+ * 只保存按天拆分的结果，汇总结果在读取时按天累加得到，避免大结果集同时保存两份；value为访问对的流量指标。
+ * 指定端口的入向查询key格式为"clientIp|serverIp"，端口即查询端口；出向查询及未指定端口的入向查询按实际端口拆分，
+ * key格式为"clientIp|serverIp|port"（见 {@link PairKey}）。并发查询的结果在回调线程中写入，读写方法均为同步方法
+ */
+@Getter
+public class ClientAccessResult {
+
+    /**
+     * 查询统计中最多记录的失败（日期，服务端IP）明细数
+     */
+    private static final int MAX_FAILED_DETAILS = 100;
+
+    /**
+     * 按天拆分的流量指标
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<LocalDate, Map<String, AccessMetrics>> daily = new TreeMap<>();
+
+    /**
+     * 合并的执行单元结果（只有汇总结果，不含按天拆分的结果）
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, AccessMetrics> unitMetrics = new HashMap<>();
+
+    /**
+     * 客户端桶被截断的（日期，服务端IP），格式为"yyyy-MM-dd/serverIp"
+     */
+    private final Set<String> truncatedUnits = new LinkedHashSet<>();
+
+    /**
+     * 查询失败的（日期，服务端IP），格式为"yyyy-MM-dd/serverIp"
+     */
+    private final Set<String> failedUnits = new LinkedHashSet<>();
+
+    /**
+     * 查询时出现过分片失败、超时或查询失败的日期，这些日期的结果不写入缓存
+     */
+    @Getter(AccessLevel.NONE)
+    private final Set<LocalDate> degradedDays = new HashSet<>();
+
+    /**
+     * 本地聚合缓存命中的（日期，服务端IP）数量
+     */
+    private int localCacheHits;
+
+    /**
+     * 本地聚合缓存未命中的（日期，服务端IP）数量
+     */
+    private int localCacheMisses;
+
+    /**
+     * 从日索引汇总结果读取的（日期，服务端IP）数量
+     */
+    private int rollupUnits;
+
+    /**
+     * 存在性过滤器确定没有访问记录而跳过的（日期，服务端IP）数量
+     */
+    private int presenceSkips;
+
+    /**
+     * 使用的查询策略
+     */
+    @Setter
+    private QueryStrategy strategy;
+
+    /**
+     * 查询期间所查日期索引的分片请求缓存命中数（索引级近似值，包含同期其他任务的查询），未统计时为null
+     */
+    @Setter
+    private Long requestCacheHits;
+
+    /**
+     * 查询期间所查日期索引的分片请求缓存未命中数（索引级近似值，包含同期其他任务的查询），未统计时为null
+     */
+    @Setter
+    private Long requestCacheMisses;
+
+    /**
+     * 累加一条只有访问次数的访问记录
+     */
+    public synchronized void add(LocalDate day, String clientIp, String serverIp, long count) {
+        add(day, clientIp, serverIp, AccessMetrics.of(count));
+    }
+
+    /**
+     * 累加一条访问记录的流量指标
+     */
+    public synchronized void add(LocalDate day, String clientIp, String serverIp, AccessMetrics value) {
+        merge(day, PairKey.key(clientIp, serverIp), value);
+    }
+
+    /**
+     * 累加一条按实际端口拆分的访问记录的流量指标
+     */
+    public synchronized void add(LocalDate day, String clientIp, String serverIp, int port, AccessMetrics value) {
+        merge(day, PairKey.key(clientIp, serverIp, port), value);
+    }
+
+    private void merge(LocalDate day, String key, AccessMetrics value) {
+        daily.computeIfAbsent(day, d -> new HashMap<>()).computeIfAbsent(key, k -> new AccessMetrics()).merge(value);
+    }
+
+    /**
+     * 累加某个（日期，服务端IP）的全部客户端访问记录
+     */
+    public synchronized void addAll(LocalDate day, String serverIp, Map<String, AccessMetrics> clients) {
+        clients.forEach((clientIp, value) -> add(day, clientIp, serverIp, value));
+    }
+
+    /**
+     * 累加某个（日期，客户端IP）的全部出向访问记录
+     *
+     * @param servers key为"serverIp|port"
+     */
+    public synchronized void addAllOutbound(LocalDate day, String clientIp, Map<String, AccessMetrics> servers) {
+        servers.forEach((server, value) -> merge(day, PairKey.key(clientIp, server), value));
+    }
+
+    /**
+     * 合并一个执行单元的部分结果（任务拆分为多个执行单元时使用），只合并汇总结果及查询统计，不含按天拆分的结果
+     */
+    public synchronized void mergeUnit(UnitResult unit) {
+        unit.getMetrics().forEach((key, value) -> unitMetrics.computeIfAbsent(key, k -> new AccessMetrics()).merge(value));
+        truncatedUnits.addAll(unit.getTruncatedUnits());
+        failedUnits.addAll(unit.getFailedUnits());
+        localCacheHits += unit.getLocalCacheHits();
+        localCacheMisses += unit.getLocalCacheMisses();
+        rollupUnits += unit.getRollupUnits();
+        presenceSkips += unit.getPresenceSkips();
+        requestCacheHits = sum(requestCacheHits, unit.getRequestCacheHits());
+        requestCacheMisses = sum(requestCacheMisses, unit.getRequestCacheMisses());
+        if (strategy == null && unit.getStrategy() != null) {
+            strategy = QueryStrategy.valueOf(unit.getStrategy());
+        }
+    }
+
+    private static Long sum(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : a + b;
+    }
+
+    /**
+     * 汇总流量指标，按天累加得到（返回新的实例，修改不影响本结果）
+     */
+    public synchronized Map<String, AccessMetrics> getMetrics() {
+        Map<String, AccessMetrics> totals = new HashMap<>();
+        unitMetrics.forEach((key, value) -> totals.computeIfAbsent(key, k -> new AccessMetrics()).merge(value));
+        daily.values().forEach(values -> values.forEach((key, value) ->
+                totals.computeIfAbsent(key, k -> new AccessMetrics()).merge(value)));
+        return totals;
+    }
+
+    /**
+     * 汇总访问次数，key格式同汇总结果
+     */
+    public synchronized Map<String, Long> getTotals() {
+        Map<String, Long> totals = new HashMap<>();
+        unitMetrics.forEach((key, value) -> totals.merge(key, value.getAccessCount(), Long::sum));
+        daily.values().forEach(values -> values.forEach((key, value) ->
+                totals.merge(key, value.getAccessCount(), Long::sum)));
+        return totals;
+    }
+
+    /**
+     * 获取某个（日期，服务端IP）的客户端流量指标，key为clientIp
+     */
+    public synchronized Map<String, AccessMetrics> getUnit(LocalDate day, String serverIp) {
+        String suffix = PairKey.SEPARATOR + serverIp;
+        Map<String, AccessMetrics> clients = new HashMap<>();
+        daily.getOrDefault(day, Map.of()).forEach((key, value) -> {
+            if (key.endsWith(suffix)) {
+                clients.put(key.substring(0, key.length() - suffix.length()), value);
+            }
+        });
+        return clients;
+    }
+
+    /**
+     * 获取某个（日期，客户端IP）的出向流量指标，key为"serverIp|port"
+     */
+    public synchronized Map<String, AccessMetrics> getOutboundUnit(LocalDate day, String clientIp) {
+        String prefix = clientIp + PairKey.SEPARATOR;
+        Map<String, AccessMetrics> servers = new HashMap<>();
+        daily.getOrDefault(day, Map.of()).forEach((key, value) -> {
+            if (key.startsWith(prefix)) {
+                servers.put(key.substring(prefix.length()), value);
+            }
+        });
+        return servers;
+    }
+
+    /**
+     * 汇总结果中已完整查询的（日期，目标）部分：失败的（日期，目标）可能已合并了失败前的部分翻页结果，
+     * 排除后保存为执行单元的检查点，重新查询失败部分再合并时不会重复计数
+     *
+     * @param targets  查询的目标（入向为服务端IP，出向为客户端IP，支持网段及范围）
+     * @param outbound 是否为出向查询
+     */
+    public synchronized Map<String, AccessMetrics> getCompletedMetrics(Collection<String> targets, boolean outbound) {
+        if (failedUnits.isEmpty()) {
+            return getMetrics();
+        }
+        List<IpTarget> parsed = targets.stream().map(IpTarget::parse).toList();
+        Map<String, AccessMetrics> completed = new HashMap<>();
+        unitMetrics.forEach((key, value) -> completed.computeIfAbsent(key, k -> new AccessMetrics()).merge(value));
+        daily.forEach((day, values) -> values.forEach((key, value) -> {
+            PairKey pair = PairKey.parse(key, null);
+            String ip = pair == null ? null : outbound ? pair.clientIp() : pair.serverIp();
+            boolean failed = ip != null && parsed.stream().anyMatch(target -> target.contains(ip)
+                    && failedUnits.contains(day + "/" + target.getSpec()));
+            if (!failed) {
+                completed.computeIfAbsent(key, k -> new AccessMetrics()).merge(value);
+            }
+        }));
+        return completed;
+    }
+
+    /**
+     * 获取某天的流量指标（副本）
+     */
+    public synchronized Map<String, AccessMetrics> getDay(LocalDate day) {
+        return new HashMap<>(daily.getOrDefault(day, Map.of()));
+    }
+
+    /**
+     * 标记某天某个服务端IP的客户端结果被截断
+     */
+    public synchronized void markTruncated(LocalDate day, String serverIp) {
+        truncatedUnits.add(day + "/" + serverIp);
+    }
+
+    /**
+     * 标记某天某个服务端IP查询失败
+     */
+    public synchronized void markFailed(LocalDate day, String serverIp) {
+        failedUnits.add(day + "/" + serverIp);
+        degradedDays.add(day);
+    }
+
+    /**
+     * 标记某天有ES响应出现分片失败或超时（即使重试后结果完整）
+     */
+    public synchronized void markDegraded(LocalDate day) {
+        degradedDays.add(day);
+    }
+
+    /**
+     * 将出现过分片失败或超时的日期的全部目标标记为失败，这些日期不计入执行单元的检查点，重新执行时重新查询
+     *
+     * @param targets 查询的目标
+     */
+    public synchronized void failDegradedDays(Collection<String> targets) {
+        for (LocalDate day : degradedDays) {
+            targets.forEach(target -> failedUnits.add(day + "/" + target));
+        }
+    }
+
+    /**
+     * 某个（日期，服务端IP）的结果是否完整（未截断且未失败）
+     */
+    public synchronized boolean isComplete(LocalDate day, String serverIp) {
+        String unit = day + "/" + serverIp;
+        return !truncatedUnits.contains(unit) && !failedUnits.contains(unit);
+    }
+
+    /**
+     * 某个（日期，服务端IP）的结果是否可以缓存：结果完整，且当天的查询都没有出现分片失败、超时或查询失败
+     */
+    public synchronized boolean isCacheable(LocalDate day, String serverIp) {
+        return isComplete(day, serverIp) && !degradedDays.contains(day);
+    }
+
+    /**
+     * 记录本地聚合缓存命中
+     */
+    public synchronized void recordLocalCache(boolean hit) {
+        if (hit) {
+            localCacheHits++;
+        } else {
+            localCacheMisses++;
+        }
+    }
+
+    /**
+     * 记录从日索引汇总结果读取的（日期，服务端IP）数量
+     */
+    public synchronized void recordRollup(int units) {
+        rollupUnits += units;
+    }
+
+    /**
+     * 记录存在性过滤器跳过的（日期，服务端IP）数量
+     */
+    public synchronized void recordPresenceSkips(int units) {
+        presenceSkips += units;
+    }
+
+    /**
+     * 结果是否被截断
+     */
+    public boolean isTruncated() {
+        return !truncatedUnits.isEmpty();
+    }
+
+    /**
+     * 生成随任务保存的查询统计信息
+     */
+    public QueryStats toQueryStats() {
+        QueryStats stats = new QueryStats();
+        stats.setStrategy(strategy != null ? strategy.name() : null);
+        stats.setTruncated(isTruncated());
+        stats.setTruncatedUnits(truncatedUnits.size());
+        stats.setRequestCacheHits(requestCacheHits);
+        stats.setRequestCacheMisses(requestCacheMisses);
+        stats.setFailedUnits(failedUnits.size());
+        stats.setFailedUnitKeys(new ArrayList<>(failedUnits.stream().limit(MAX_FAILED_DETAILS).toList()));
+        stats.setLocalCacheHits(localCacheHits);
+        stats.setLocalCacheMisses(localCacheMisses);
+        stats.setRollupUnits(rollupUnits);
+        stats.setPresenceSkips(presenceSkips);
+        return stats;
+    }
+}
@@ -0,0 +1,49 @@
+package com.wind.middleware.dto.es;
+
+import com.wind.middleware.entity.enums.QueryStrategy;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 任务预检估算结果，提交任务时通过ES count及cardinality聚合得到，随任务一起保存
+ */
+@Data
+@Schema(description = "任务预检估算结果")
+public class CostEstimate {
+
+    /**
+     * 预计扫描的文档数
+     */
+    @Schema(description = "预计扫描的文档数", example = "12500000")
+    private long estimatedDocs;
+
+    /**
+     * 预计的客户端IP数量（各服务端IP在整个时间范围内去重后求和，HyperLogLog近似值）
+     */
+    @Schema(description = "预计的客户端IP数量（近似值）", example = "3200")
+    private long estimatedClients;
+
+    /**
+     * 单个（日期，服务端IP）的最大客户端IP数量
+     */
+    @Schema(description = "单个（日期，服务端IP）的最大客户端IP数量", example = "1800")
+    private long maxUnitClients;
+
+    /**
+     * 有数据的索引数量
+     */
+    @Schema(description = "有数据的索引数量", example = "7")
+    private int matchedIndices;
+
+    /**
+     * 预计处理耗时（秒）
+     */
+    @Schema(description = "预计ES查询耗时（秒）", example = "25")
+    private long estimatedSeconds;
+
+    /**
+     * 根据估算结果选择的查询策略
+     */
+    @Schema(description = "选择的查询策略", example = "BATCH")
+    private QueryStrategy strategy;
+}
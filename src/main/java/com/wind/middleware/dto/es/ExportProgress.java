@@ -0,0 +1,53 @@
+package com.wind.middleware.dto.es;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 原始流量导出进度，随任务一起保存
+ */
+@Data
+public class ExportProgress {
+
+    /**
+     * 导出文件格式
+     */
+    private String format;
+
+    /**
+     * 导出目录
+     */
+    private String outputDir;
+
+    /**
+     * 切片总数（所有日期索引的切片之和）
+     */
+    private int totalSlices;
+
+    /**
+     * 已完成的切片数
+     */
+    private int completedSlices;
+
+    /**
+     * 匹配的文档总数，所有切片开始滚动后才准确
+     */
+    private long totalDocs;
+
+    /**
+     * 已导出的文档数
+     */
+    private long exportedDocs;
+
+    /**
+     * 已写入的压缩后字节数（已完成切片）
+     */
+    private long bytesWritten;
+
+    /**
+     * 已完成的导出文件名
+     */
+    private List<String> files = new ArrayList<>();
+}
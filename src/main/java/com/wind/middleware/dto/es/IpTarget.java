@@ -0,0 +1,205 @@
+package com.wind.middleware.dto.es;
+
+import lombok.Getter;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.network.InetAddresses;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 查询目标IP：单个IP、CIDR网段（如 10.106.60.0/24）或IP范围（如 10.106.60.10-10.106.60.50）
+ * <p>
+ * 网段和范围直接转换为 ip 字段上的 terms（CIDR）/ range 过滤条件，由 composite 聚合按实际IP拆分结果，
+ * 不展开为逐IP查询。
+ */
+@Getter
+public class IpTarget {
+
+    /**
+     * 单个网段或范围允许包含的最大地址数
+     */
+    public static final long MAX_NETWORK_SIZE = 65536;
+
+    /**
+     * 原始写法
+     */
+    private final String spec;
+
+    /**
+     * 是否为CIDR网段
+     */
+    private final boolean cidr;
+
+    /**
+     * 是否为IP范围
+     */
+    private final boolean range;
+
+    /**
+     * 起始地址（网段或范围的第一个地址）
+     */
+    private final String from;
+
+    /**
+     * 结束地址（包含）
+     */
+    private final String to;
+
+    /**
+     * 包含的地址数，超过 long 范围时为 Long.MAX_VALUE
+     */
+    private final long size;
+
+    private final byte[] low;
+
+    private final byte[] high;
+
+    private IpTarget(String spec, boolean cidr, boolean range, byte[] low, byte[] high) {
+        this.spec = spec;
+        this.cidr = cidr;
+        this.range = range;
+        this.low = low;
+        this.high = high;
+        this.from = toAddress(low);
+        this.to = toAddress(high);
+        this.size = countAddresses(low, high);
+    }
+
+    /**
+     * 解析目标IP
+     *
+     * @throws IllegalArgumentException 格式不正确、范围起止地址族不一致或起始地址大于结束地址
+     */
+    public static IpTarget parse(String spec) {
+        if (spec == null || spec.isBlank()) {
+            throw new IllegalArgumentException("IP地址不能为空");
+        }
+        String value = spec.trim();
+        try {
+            if (value.contains("/")) {
+                Tuple<InetAddress, Integer> network = InetAddresses.parseCidr(value);
+                byte[] address = network.v1().getAddress();
+                int prefix = network.v2();
+                byte[] low = address.clone();
+                byte[] high = address.clone();
+                for (int bit = prefix; bit < address.length * 8; bit++) {
+                    low[bit / 8] &= (byte) ~(0x80 >>> (bit % 8));
+                    high[bit / 8] |= (byte) (0x80 >>> (bit % 8));
+                }
+                return new IpTarget(value, true, false, low, high);
+            }
+            int dash = value.indexOf('-');
+            if (dash > 0) {
+                byte[] low = InetAddresses.forString(value.substring(0, dash).trim()).getAddress();
+                byte[] high = InetAddresses.forString(value.substring(dash + 1).trim()).getAddress();
+                if (low.length != high.length || Arrays.compareUnsigned(low, high) > 0) {
+                    throw new IllegalArgumentException("IP范围不正确: " + spec);
+                }
+                return new IpTarget(value, false, true, low, high);
+            }
+            byte[] address = InetAddresses.forString(value).getAddress();
+            return new IpTarget(value, false, false, address, address);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("IP地址格式不正确: " + spec, e);
+        }
+    }
+
+    /**
+     * 是否为网段或范围（非单个IP），只按写法判断，不做完整解析
+     */
+    public static boolean isNetwork(String spec) {
+        return spec.indexOf('/') >= 0 || spec.indexOf('-') > 0;
+    }
+
+    /**
+     * 目标列表中是否包含网段或范围
+     */
+    public static boolean hasNetwork(Collection<String> specs) {
+        return specs.stream().anyMatch(IpTarget::isNetwork);
+    }
+
+    /**
+     * 目标列表的匹配器，只有单个IP时直接按集合匹配
+     */
+    public static Predicate<String> matcher(Collection<String> specs) {
+        Set<String> literals = new HashSet<>();
+        List<IpTarget> networks = new ArrayList<>();
+        for (String spec : specs) {
+            if (isNetwork(spec)) {
+                networks.add(parse(spec));
+            } else {
+                literals.add(spec);
+            }
+        }
+        if (networks.isEmpty()) {
+            return literals::contains;
+        }
+        return ip -> literals.contains(ip) || networks.stream().anyMatch(network -> network.contains(ip));
+    }
+
+    /**
+     * 目标列表包含的地址总数，超过 cap 时返回 cap
+     */
+    public static long totalSize(Collection<String> specs, long cap) {
+        long total = 0;
+        for (String spec : specs) {
+            total += isNetwork(spec) ? parse(spec).getSize() : 1;
+            if (total >= cap) {
+                return cap;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 是否为网段或范围
+     */
+    public boolean isNetwork() {
+        return cidr || range;
+    }
+
+    /**
+     * 是否包含指定IP，IP格式不正确时返回false
+     */
+    public boolean contains(String ip) {
+        if (!isNetwork()) {
+            return spec.equals(ip);
+        }
+        byte[] address;
+        try {
+            address = InetAddresses.forString(ip).getAddress();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return address.length == low.length
+                && Arrays.compareUnsigned(address, low) >= 0
+                && Arrays.compareUnsigned(address, high) <= 0;
+    }
+
+    private static String toAddress(byte[] address) {
+        try {
+            return InetAddresses.toAddrString(InetAddress.getByAddress(address));
+        } catch (java.net.UnknownHostException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private static long countAddresses(byte[] low, byte[] high) {
+        long count = 0;
+        for (int i = 0; i < low.length; i++) {
+            int diff = (high[i] & 0xFF) - (low[i] & 0xFF);
+            if (count > (Long.MAX_VALUE - 255) / 256) {
+                return Long.MAX_VALUE;
+            }
+            count = count * 256 + diff;
+        }
+        return count == Long.MAX_VALUE ? count : count + 1;
+    }
+}
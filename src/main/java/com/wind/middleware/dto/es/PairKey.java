@@ -0,0 +1,48 @@
+package com.wind.middleware.dto.es;
+
+/**
+ * 查询结果的访问对，指定端口的入向key为"clientIp|serverIp"（端口为任务端口），
+ * 按实际端口拆分的结果key为"clientIp|serverIp|port"。分隔符不能使用":"，IPv6地址本身含":"
+ */
+public record PairKey(String clientIp, String serverIp, Integer port) {
+
+    /**
+     * key中各字段的分隔符
+     */
+    public static final char SEPARATOR = '|';
+
+    /**
+     * 生成不含端口的key
+     */
+    public static String key(String clientIp, String serverIp) {
+        return clientIp + SEPARATOR + serverIp;
+    }
+
+    /**
+     * 生成含端口的key
+     */
+    public static String key(String clientIp, String serverIp, int port) {
+        return clientIp + SEPARATOR + serverIp + SEPARATOR + port;
+    }
+
+    /**
+     * 解析结果key
+     *
+     * @param taskPort 任务端口，key不含端口时使用
+     * @return 访问对，key格式无效时返回null
+     */
+    public static PairKey parse(String key, Integer taskPort) {
+        String[] parts = key.split("\\" + SEPARATOR);
+        if (parts.length == 2) {
+            return new PairKey(parts[0], parts[1], taskPort);
+        }
+        if (parts.length == 3) {
+            try {
+                return new PairKey(parts[0], parts[1], Integer.valueOf(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.wind.middleware.dto.es;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 端口范围（包含两端）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PortRange {
+
+    /**
+     * 起始端口
+     */
+    private int from;
+
+    /**
+     * 结束端口
+     */
+    private int to;
+
+    /**
+     * 解析 "8000-8100" 或单个端口 "9090"
+     *
+     * @throws IllegalArgumentException 格式不正确或端口超出范围
+     */
+    public static PortRange parse(String value) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("端口范围不能为空");
+        }
+        String[] parts = value.trim().split("\\s*-\\s*", -1);
+        try {
+            int from = Integer.parseInt(parts[0]);
+            int to = parts.length == 2 ? Integer.parseInt(parts[1]) : from;
+            if (parts.length > 2 || from < 1 || to > 65535 || from > to) {
+                throw new IllegalArgumentException("端口范围不正确: " + value);
+            }
+            return new PortRange(from, to);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("端口范围格式不正确: " + value);
+        }
+    }
+
+    public boolean contains(int port) {
+        return port >= from && port <= to;
+    }
+
+    @Override
+    public String toString() {
+        return from == to ? String.valueOf(from) : from + "-" + to;
+    }
+}
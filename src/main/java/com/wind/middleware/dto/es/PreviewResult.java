@@ -0,0 +1,87 @@
+package com.wind.middleware.dto.es;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 近似预览结果，随任务一起保存
+ * <p>
+ * 正式查询前对最近几天的索引做采样聚合（sampler / diversified_sampler），每个分片只聚合前 shardSize 个命中文档，
+ * 按采样比例放大得到估算访问次数。精确结果保存后预览不再作为客户端列表返回。
+ */
+@Data
+public class PreviewResult {
+
+    /**
+     * 是否为近似结果，预览始终为true
+     */
+    private boolean approximate = true;
+
+    /**
+     * 采样的开始日期（索引日期，yyyy-MM-dd）
+     */
+    private String sampleStartDate;
+
+    /**
+     * 采样的结束日期（索引日期，yyyy-MM-dd）
+     */
+    private String sampleEndDate;
+
+    /**
+     * 采样方式：SAMPLER 或 DIVERSIFIED_SAMPLER
+     */
+    private String sampler;
+
+    /**
+     * 每个分片采样的文档数
+     */
+    private int shardSize;
+
+    /**
+     * 采样日期内匹配的文档总数
+     */
+    private long matchedDocs;
+
+    /**
+     * 实际参与聚合的采样文档数
+     */
+    private long sampledDocs;
+
+    /**
+     * 预览查询耗时（毫秒）
+     */
+    private long tookMillis;
+
+    /**
+     * 按采样访问次数排序的Top客户端
+     */
+    private List<Client> clients = new ArrayList<>();
+
+    /**
+     * 采样得到的一个客户端IP → 服务端IP访问对
+     */
+    @Data
+    public static class Client {
+
+        private String clientIp;
+
+        private String serverIp;
+
+        /**
+         * 服务端端口：按实际端口拆分的查询（端口发现及出向）为采样中的实际端口，指定端口的查询为null（即任务端口）
+         */
+        private Integer port;
+
+        /**
+         * 采样文档中的访问次数
+         */
+        private long sampledCount;
+
+        /**
+         * 按采样比例放大后的估算访问次数（采样日期内）
+         */
+        private long estimatedCount;
+    }
+}
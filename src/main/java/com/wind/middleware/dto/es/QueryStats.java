@@ -0,0 +1,72 @@
+package com.wind.middleware.dto.es;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * ES查询统计信息，随任务一起保存
+ */
+@Data
+public class QueryStats {
+
+    /**
+     * 使用的查询策略
+     */
+    private String strategy;
+
+    /**
+     * 结果是否因terms聚合桶数量限制被截断
+     */
+    private boolean truncated;
+
+    /**
+     * 被截断的（日期，服务端IP）数量
+     */
+    private int truncatedUnits;
+
+    /**
+     * 查询期间所查日期索引的分片请求缓存命中数（索引级近似值）
+     * <p>
+     * 取自查询前后 {@code _stats/request_cache} 的差值，同一时间查询这些索引的其他任务也会计入，仅作参考
+     */
+    @Schema(description = "分片请求缓存命中数（索引级近似值：查询前后索引统计之差，包含同期其他任务的查询）")
+    private Long requestCacheHits;
+
+    /**
+     * 查询期间所查日期索引的分片请求缓存未命中数（索引级近似值），统计口径同 {@link #requestCacheHits}
+     */
+    @Schema(description = "分片请求缓存未命中数（索引级近似值：查询前后索引统计之差，包含同期其他任务的查询）")
+    private Long requestCacheMisses;
+
+    /**
+     * 查询失败的（日期，服务端IP）数量
+     */
+    private int failedUnits;
+
+    /**
+     * 查询失败的（日期，服务端IP）明细，格式为"yyyy-MM-dd/serverIp"，最多记录100个；可通过恢复执行重新查询
+     */
+    private List<String> failedUnitKeys;
+
+    /**
+     * 本地聚合缓存命中的（日期，服务端IP）数量
+     */
+    private int localCacheHits;
+
+    /**
+     * 本地聚合缓存未命中的（日期，服务端IP）数量
+     */
+    private int localCacheMisses;
+
+    /**
+     * 从日索引汇总结果读取的（日期，服务端IP）数量
+     */
+    private int rollupUnits;
+
+    /**
+     * 存在性过滤器确定没有访问记录而跳过的（日期，服务端IP）数量
+     */
+    private int presenceSkips;
+}
@@ -0,0 +1,183 @@
+package com.wind.middleware.dto.es;
+
+import com.wind.middleware.entity.HostInfo;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 执行单元的部分结果，随执行单元一起保存
+ * <p>
+ * 查询单元只保存汇总流量指标及查询统计，key格式同 {@link ClientAccessResult} 的汇总结果，
+ * 各单元的结果通过 {@link ClientAccessResult#mergeUnit} 合并为任务的查询结果；补全单元保存补全得到的主机信息。
+ * <p>
+ * 查询单元部分（日期，目标）失败时同样保存为检查点：汇总指标只含已完整查询的部分，失败的部分记录在 {@link #failedUnits}，
+ * 重新执行时只查询失败的部分并合并。ES响应出现过分片失败或超时的日期整天计为失败，不保存到检查点。
+ */
+@Data
+public class UnitResult {
+
+    /**
+     * 汇总流量指标
+     */
+    private Map<String, AccessMetrics> metrics = new HashMap<>();
+
+    /**
+     * 客户端桶被截断的（日期，服务端IP），格式为"yyyy-MM-dd/serverIp"
+     */
+    private List<String> truncatedUnits = new ArrayList<>();
+
+    /**
+     * 查询失败、待重新查询的（日期，目标），格式为"yyyy-MM-dd/serverIp"（出向查询为客户端IP）
+     */
+    private List<String> failedUnits = new ArrayList<>();
+
+    /**
+     * 使用的查询策略
+     */
+    private String strategy;
+
+    private int localCacheHits;
+
+    private int localCacheMisses;
+
+    private int rollupUnits;
+
+    private int presenceSkips;
+
+    private Long requestCacheHits;
+
+    private Long requestCacheMisses;
+
+    /**
+     * 补全单元得到的主机信息
+     */
+    private List<Host> hosts = new ArrayList<>();
+
+    /**
+     * 单元执行耗时（毫秒）
+     */
+    private long tookMillis;
+
+    /**
+     * 从单元的查询结果生成，失败的（日期，目标）及出现过分片失败或超时的日期不计入汇总指标
+     *
+     * @param targets  查询的目标
+     * @param outbound 是否为出向查询
+     */
+    public static UnitResult of(ClientAccessResult result, List<String> targets, boolean outbound, long tookMillis) {
+        UnitResult unit = new UnitResult();
+        synchronized (result) {
+            result.failDegradedDays(targets);
+            unit.metrics.putAll(result.getCompletedMetrics(targets, outbound));
+            unit.truncatedUnits.addAll(result.getTruncatedUnits());
+            unit.failedUnits.addAll(result.getFailedUnits());
+        }
+        unit.strategy = result.getStrategy() != null ? result.getStrategy().name() : null;
+        unit.localCacheHits = result.getLocalCacheHits();
+        unit.localCacheMisses = result.getLocalCacheMisses();
+        unit.rollupUnits = result.getRollupUnits();
+        unit.presenceSkips = result.getPresenceSkips();
+        unit.requestCacheHits = result.getRequestCacheHits();
+        unit.requestCacheMisses = result.getRequestCacheMisses();
+        unit.tookMillis = tookMillis;
+        return unit;
+    }
+
+    /**
+     * 合并重新查询失败部分得到的结果：累加汇总指标及查询统计，待重新查询的部分替换为本次仍失败的部分
+     */
+    public void mergeRetry(UnitResult retry) {
+        retry.metrics.forEach((key, value) -> metrics.computeIfAbsent(key, k -> new AccessMetrics()).merge(value));
+        retry.truncatedUnits.stream().filter(key -> !truncatedUnits.contains(key)).forEach(truncatedUnits::add);
+        failedUnits = new ArrayList<>(retry.failedUnits);
+        localCacheHits += retry.localCacheHits;
+        localCacheMisses += retry.localCacheMisses;
+        rollupUnits += retry.rollupUnits;
+        presenceSkips += retry.presenceSkips;
+        requestCacheHits = sum(requestCacheHits, retry.requestCacheHits);
+        requestCacheMisses = sum(requestCacheMisses, retry.requestCacheMisses);
+        if (strategy == null) {
+            strategy = retry.strategy;
+        }
+    }
+
+    private static Long sum(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : a + b;
+    }
+
+    /**
+     * 从补全单元得到的主机信息生成
+     */
+    public static UnitResult ofHosts(List<HostInfo> hostInfoList, long tookMillis) {
+        UnitResult unit = new UnitResult();
+        hostInfoList.forEach(hostInfo -> unit.hosts.add(Host.of(hostInfo)));
+        unit.tookMillis = tookMillis;
+        return unit;
+    }
+
+    /**
+     * 一条主机信息（不含时间字段，避免依赖JSON的时间类型支持）
+     */
+    @Data
+    public static class Host {
+
+        private String clientIp;
+
+        private String serverIp;
+
+        private Integer port;
+
+        private String hostname;
+
+        private String linuxPath;
+
+        private String appName;
+
+        private String appOwner;
+
+        private String appOwnerAccount;
+
+        private String department;
+
+        static Host of(HostInfo hostInfo) {
+            Host host = new Host();
+            host.clientIp = hostInfo.getClientIp();
+            host.serverIp = hostInfo.getServerIp();
+            host.port = hostInfo.getPort();
+            host.hostname = hostInfo.getHostname();
+            host.linuxPath = hostInfo.getLinuxPath();
+            host.appName = hostInfo.getAppName();
+            host.appOwner = hostInfo.getAppOwner();
+            host.appOwnerAccount = hostInfo.getAppOwnerAccount();
+            host.department = hostInfo.getDepartment();
+            return host;
+        }
+
+        /**
+         * 转换为待保存的主机信息
+         */
+        public HostInfo toHostInfo(String taskId) {
+            HostInfo hostInfo = new HostInfo();
+            hostInfo.setTaskId(taskId);
+            hostInfo.setClientIp(clientIp);
+            hostInfo.setServerIp(serverIp);
+            hostInfo.setPort(port);
+            hostInfo.setHostname(hostname);
+            hostInfo.setLinuxPath(linuxPath);
+            hostInfo.setAppName(appName);
+            hostInfo.setAppOwner(appOwner);
+            hostInfo.setAppOwnerAccount(appOwnerAccount);
+            hostInfo.setDepartment(department);
+            hostInfo.setCreateTime(LocalDateTime.now());
+            return hostInfo;
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.wind.middleware.dto.request;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wind.middleware.entity.enums.ExportFormat;
+import com.wind.middleware.entity.enums.TaskType;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.*;
 import lombok.Data;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -31,36 +34,76 @@ public class TaskSubmitRequest {
     private String description;
 
     /**
-     * 服务端IP列表
+     * 服务端IP列表，出向依赖分析任务中为客户端IP列表
      */
-    @Schema(description = "服务端IP列表", example = "[\"10.106.60.172\", \"10.106.60.173\"]",
+    @Schema(description = "服务端IP列表，支持CIDR网段（10.106.61.0/24）和IP范围（10.106.62.10-10.106.62.50）；"
+            + "REVERSE任务中为要分析的客户端IP列表", example = "[\"10.106.60.172\", \"10.106.61.0/24\"]",
             requiredMode = Schema.RequiredMode.REQUIRED)
     @NotEmpty(message = "服务端IP列表不能为空")
-    @Size(min = 1, max = 50, message = "服务端IP数量必须在1-50个之间")
+    @Size(min = 1, max = 50, message = "服务端IP（网段）数量必须在1-50个之间")
     private List<@NotBlank(message = "IP地址不能为空") String> serverIps;
 
     /**
-     * 服务端端口
+     * 服务端端口，省略时按实际端口拆分结果（端口发现）
      */
-    @Schema(description = "服务端端口", example = "3306", requiredMode = Schema.RequiredMode.REQUIRED)
-    @NotNull(message = "端口不能为空")
+    @Schema(description = "服务端端口；省略时统计全部服务端端口，结果按实际端口拆分", example = "3306")
     @Min(value = 1, message = "端口号不能小于1")
     @Max(value = 65535, message = "端口号不能大于65535")
     private Integer port;
 
+    /**
+     * 省略端口时统计的端口范围
+     */
+    @Schema(description = "省略端口时只统计这些端口范围，格式为 \"起始-结束\" 或单个端口", example = "[\"8000-8100\", \"9090\"]")
+    @Size(max = 20, message = "端口范围不能超过20个")
+    private List<@NotBlank(message = "端口范围不能为空") String> portRanges;
+
+    /**
+     * 省略端口时排除的端口
+     */
+    @Schema(description = "省略端口时排除的端口", example = "[22]")
+    @Size(max = 100, message = "排除端口不能超过100个")
+    private List<@NotNull(message = "排除端口不能为空") Integer> excludePorts;
+
     /**
      * 查询开始日期
      */
-    @Schema(description = "查询开始日期", example = "2025-08-01", requiredMode = Schema.RequiredMode.REQUIRED)
-    @NotNull(message = "开始日期不能为空")
+    @Schema(description = "查询开始日期，指定时间窗口时可省略", example = "2025-08-01")
     @JsonFormat(pattern = "yyyy-MM-dd")
     private LocalDate startDate;
 
     /**
      * 查询结束日期
      */
-    @Schema(description = "查询结束日期", example = "2025-08-07", requiredMode = Schema.RequiredMode.REQUIRED)
-    @NotNull(message = "结束日期不能为空")
+    @Schema(description = "查询结束日期，指定时间窗口时可省略", example = "2025-08-07")
     @JsonFormat(pattern = "yyyy-MM-dd")
     private LocalDate endDate;
-}
\ No newline at end of file
+
+    /**
+     * 查询开始时间（接口时区），与结束时间同时指定时只查询该时间窗口；提交时换算到索引时区，查询日期由换算后的时间窗口决定
+     */
+    @Schema(description = "查询开始时间（GMT+8），与结束时间同时指定时只查询该时间窗口，开始/结束日期可省略",
+            example = "2025-08-07 14:00:00")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime startTime;
+
+    /**
+     * 查询结束时间（包含）
+     */
+    @Schema(description = "查询结束时间（GMT+8，包含）", example = "2025-08-07 14:20:00")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime endTime;
+
+    /**
+     * 任务类型，默认为访问分析
+     */
+    @Schema(description = "任务类型：ANALYZE 访问分析（默认），EXPORT 原始流量导出，"
+            + "REVERSE 出向依赖分析（统计指定客户端访问的服务端IP及端口）", example = "ANALYZE")
+    private TaskType taskType;
+
+    /**
+     * 导出文件格式，仅导出任务使用
+     */
+    @Schema(description = "导出文件格式（gzip压缩）：NDJSON（默认）、CSV，仅导出任务使用", example = "NDJSON")
+    private ExportFormat exportFormat;
+}
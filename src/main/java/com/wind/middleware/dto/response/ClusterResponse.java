@@ -0,0 +1,39 @@
+package com.wind.middleware.dto.response;
+
+import com.wind.middleware.entity.ClusterInstance;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 集群状态响应DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "集群状态")
+public class ClusterResponse {
+
+    /**
+     * 是否开启集群模式
+     */
+    @Schema(description = "是否开启集群模式", example = "true")
+    private Boolean enabled;
+
+    /**
+     * 处理本次请求的实例
+     */
+    @Schema(description = "处理本次请求的实例标识", example = "analyzer-0")
+    private String instanceId;
+
+    /**
+     * 已注册的实例
+     */
+    @Schema(description = "已注册的实例及最后心跳时间")
+    private List<ClusterInstance> instances;
+}
@@ -0,0 +1,77 @@
+package com.wind.middleware.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * ES并发控制状态响应DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "ES并发控制状态")
+public class EsConcurrencyResponse {
+
+    /**
+     * 当前并发上限
+     */
+    @Schema(description = "当前并发上限", example = "6")
+    private Integer concurrencyLimit;
+
+    /**
+     * 在途请求数
+     */
+    @Schema(description = "在途请求数", example = "6")
+    private Integer inFlight;
+
+    /**
+     * 排队请求数
+     */
+    @Schema(description = "排队请求数", example = "42")
+    private Integer queueSize;
+
+    /**
+     * 基线耗时（毫秒）
+     */
+    @Schema(description = "基线耗时（毫秒）", example = "850")
+    private Long baselineTookMillis;
+
+    /**
+     * 累计退避次数
+     */
+    @Schema(description = "累计退避次数", example = "3")
+    private Long backoffEvents;
+
+    /**
+     * 最近一次退避时间
+     */
+    @Schema(description = "最近一次退避时间", example = "2025-09-14 10:32:15")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime lastBackoffTime;
+
+    /**
+     * 最近一次退避原因
+     */
+    @Schema(description = "最近一次退避原因", example = "429 Too Many Requests")
+    private String lastBackoffReason;
+
+    /**
+     * 各任务的在途请求数，不在任务中发出的请求为 "-"
+     */
+    @Schema(description = "各任务的在途请求数，不在任务中发出的请求为 \"-\"")
+    private Map<String, Integer> taskInFlight;
+
+    /**
+     * 各任务的排队请求数
+     */
+    @Schema(description = "各任务的排队请求数")
+    private Map<String, Integer> taskQueued;
+}
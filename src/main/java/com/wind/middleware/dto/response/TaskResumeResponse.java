@@ -0,0 +1,33 @@
+package com.wind.middleware.dto.response;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 任务恢复执行响应DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "任务恢复执行响应")
+public class TaskResumeResponse {
+
+    @Schema(description = "任务ID", example = "task_1700123456789_abc12345")
+    private String taskId;
+
+    @Schema(description = "任务状态", example = "SUBMITTED")
+    private String status;
+
+    @Schema(description = "重新执行的失败单元数", example = "3")
+    private int resumedUnits;
+
+    @Schema(description = "直接复用的已完成单元数", example = "147")
+    private int reusedUnits;
+
+    @Schema(description = "任务是否拆分为执行单元，未拆分的任务整体重新执行", example = "true")
+    private boolean split;
+}
@@ -1,6 +1,9 @@
 package com.wind.middleware.dto.response;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wind.middleware.dto.es.ExportProgress;
+import com.wind.middleware.dto.es.PreviewResult;
+import com.wind.middleware.dto.es.QueryStats;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -54,6 +57,41 @@ public class TaskStatusResponse {
      */
     private String errorMessage;
 
+    /**
+     * 结果是否因聚合桶数量限制被截断
+     */
+    private Boolean resultTruncated;
+
+    /**
+     * ES查询统计信息（查询策略、截断情况、索引级近似的请求缓存命中等），ES查询完成后返回
+     */
+    private QueryStats queryStats;
+
+    /**
+     * 任务类型
+     */
+    private String taskType;
+
+    /**
+     * 导出进度（切片、文档数、导出文件），仅导出任务返回
+     */
+    private ExportProgress exportProgress;
+
+    /**
+     * 当前客户端IP结果是否为近似值：精确查询完成前返回采样预览时为true
+     */
+    private Boolean approximate;
+
+    /**
+     * 采样预览结果（近似），精确查询完成前返回
+     */
+    private PreviewResult preview;
+
+    /**
+     * 执行单元进度，任务拆分为执行单元时返回
+     */
+    private UnitProgress units;
+
     /**
      * 进度信息内部类
      */
@@ -1,5 +1,6 @@
 package com.wind.middleware.dto.response;
 
+import com.wind.middleware.dto.es.CostEstimate;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -33,4 +34,10 @@ public class TaskSubmitResponse {
      */
     @Schema(description = "预计处理时间", example = "预计10-15分钟完成")
     private String estimatedTime;
+
+    /**
+     * 预检估算结果，预检未启用或失败时为空
+     */
+    @Schema(description = "预检估算结果，包含预计扫描文档数、客户端数量及选择的查询策略")
+    private CostEstimate costEstimate;
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.wind.middleware.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 任务执行单元响应DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "任务执行单元")
+public class TaskUnitResponse {
+
+    @Schema(description = "单元类型：QUERY（ES查询）、ENRICH（主机信息补全）", example = "QUERY")
+    private String unitType;
+
+    @Schema(description = "单元序号", example = "12")
+    private Integer unitIndex;
+
+    @Schema(description = "查询开始日期", example = "2025-08-03")
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate startDate;
+
+    @Schema(description = "查询结束日期", example = "2025-08-03")
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate endDate;
+
+    @Schema(description = "查询的目标IP，仅查询单元返回", example = "[\"10.106.60.172\", \"10.106.60.173\"]")
+    private List<String> targets;
+
+    @Schema(description = "目标IP数（补全单元为访问对数）", example = "2")
+    private int targetCount;
+
+    @Schema(description = "单元状态：PENDING、RUNNING、COMPLETED、FAILED", example = "FAILED")
+    private String status;
+
+    @Schema(description = "执行次数", example = "3")
+    private Integer attempts;
+
+    @Schema(description = "最近一次失败的原因", example = "1个（日期，目标）查询失败: [2025-08-03/10.106.60.173]")
+    private String errorMessage;
+
+    @Schema(description = "检查点中仍未查询成功的（日期，目标），恢复执行时只重新查询这些部分",
+            example = "[\"2025-08-03/10.106.60.173\"]")
+    private List<String> failedUnits;
+
+    @Schema(description = "累计执行耗时（毫秒）", example = "5230")
+    private Long tookMillis;
+
+    @Schema(description = "持有租约的实例，执行中时返回", example = "middleware-analyze-1")
+    private String leaseOwner;
+
+    @Schema(description = "最后更新时间", example = "2025-08-08 10:15:30")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,33 @@
+package com.wind.middleware.dto.response;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 任务执行单元进度
+ */
+@Data
+@Schema(description = "任务执行单元进度，任务拆分为执行单元时返回")
+public class UnitProgress {
+
+    @Schema(description = "ES查询单元数（日期范围 × 目标IP批次）", example = "150")
+    private int queryUnits;
+
+    @Schema(description = "已完成的ES查询单元数", example = "96")
+    private int queryCompleted;
+
+    @Schema(description = "主机信息补全单元数（访问对批次），ES查询完成后创建", example = "0")
+    private int enrichUnits;
+
+    @Schema(description = "已完成的主机信息补全单元数", example = "0")
+    private int enrichCompleted;
+
+    @Schema(description = "待执行的单元数", example = "46")
+    private int pending;
+
+    @Schema(description = "执行中的单元数（可能分布在多个实例）", example = "8")
+    private int running;
+
+    @Schema(description = "执行失败的单元数", example = "0")
+    private int failed;
+}
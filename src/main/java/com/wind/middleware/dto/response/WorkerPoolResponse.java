@@ -0,0 +1,45 @@
+package com.wind.middleware.dto.response;
+
+import com.wind.middleware.queue.TaskQueueManager;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 任务工作线程池状态响应DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "任务工作线程池状态")
+public class WorkerPoolResponse {
+
+    /**
+     * 队列状态及排队等待时间
+     */
+    @Schema(description = "队列状态及排队等待时间")
+    private TaskQueueManager.QueueStatus queue;
+
+    /**
+     * 各工作线程状态
+     */
+    @Schema(description = "各工作线程状态")
+    private List<TaskQueueManager.WorkerStatus> workers;
+
+    /**
+     * 正在进行的外部API调用数
+     */
+    @Schema(description = "正在进行的外部API调用数（所有工作线程合计）", example = "3")
+    private Integer apiActiveCalls;
+
+    /**
+     * 等待外部API调用名额的线程数
+     */
+    @Schema(description = "等待外部API调用名额的线程数", example = "1")
+    private Integer apiWaitingCalls;
+}
@@ -0,0 +1,52 @@
+package com.wind.middleware.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDateTime;
+
+/**
+ * 集群实例实体类，每个实例启动时注册并定时心跳
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@TableName("t_instance")
+public class ClusterInstance {
+
+    /**
+     * 实例标识（任务租约持有者）
+     */
+    @TableId(value = "instance_id", type = IdType.INPUT)
+    private String instanceId;
+
+    /**
+     * 主机名
+     */
+    @TableField("host_name")
+    private String hostName;
+
+    /**
+     * 任务工作线程数
+     */
+    @TableField("workers")
+    private Integer workers;
+
+    /**
+     * 实例启动时间
+     */
+    @TableField("start_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime startTime;
+
+    /**
+     * 最后心跳时间
+     */
+    @TableField("heartbeat_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime heartbeatTime;
+}
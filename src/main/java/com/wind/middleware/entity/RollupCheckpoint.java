@@ -0,0 +1,65 @@
+package com.wind.middleware.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wind.middleware.entity.enums.RollupStatus;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * 日索引汇总检查点实体类
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@TableName(value = "t_rollup_checkpoint", autoResultMap = true)
+public class RollupCheckpoint {
+
+    /**
+     * 索引日期
+     */
+    @TableId(value = "index_date", type = IdType.INPUT)
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate indexDate;
+
+    /**
+     * 汇总状态
+     */
+    @TableField("status")
+    private RollupStatus status;
+
+    /**
+     * 已写入段文件的最后一页composite after_key，为空时从头开始
+     */
+    @TableField(value = "after_key", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private Map<String, Object> afterKey;
+
+    /**
+     * 已写入的段文件数量
+     */
+    @TableField("segments")
+    private Integer segments;
+
+    /**
+     * 已写入的记录数
+     */
+    @TableField("row_count")
+    private Long rowCount;
+
+    /**
+     * 创建时间
+     */
+    @TableField(value = "create_time", fill = FieldFill.INSERT)
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    @TableField(value = "update_time", fill = FieldFill.INSERT_UPDATE)
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime updateTime;
+}
@@ -2,7 +2,13 @@ package com.wind.middleware.entity;
 
 import com.baomidou.mybatisplus.annotation.*;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wind.middleware.dto.es.CostEstimate;
+import com.wind.middleware.dto.es.ExportProgress;
+import com.wind.middleware.dto.es.PreviewResult;
+import com.wind.middleware.dto.es.QueryStats;
+import com.wind.middleware.entity.enums.ExportFormat;
 import com.wind.middleware.entity.enums.TaskStatus;
+import com.wind.middleware.entity.enums.TaskType;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
@@ -15,7 +21,7 @@ import java.util.List;
  */
 @Data
 @EqualsAndHashCode(callSuper = false)
-@TableName("t_task")
+@TableName(value = "t_task", autoResultMap = true)
 public class Task {
 
     /**
@@ -24,6 +30,12 @@ public class Task {
     @TableId(value = "task_id", type = IdType.INPUT)
     private String taskId;
 
+    /**
+     * 任务类型
+     */
+    @TableField("task_type")
+    private TaskType taskType;
+
     /**
      * 提交人
      */
@@ -43,11 +55,23 @@ public class Task {
     private List<String> serverIps;
 
     /**
-     * 服务端端口
+     * 服务端端口，为空时按实际端口拆分结果（端口发现）
      */
     @TableField("port")
     private Integer port;
 
+    /**
+     * 端口为空时统计的端口范围，如 "8000-8100"、"9090"
+     */
+    @TableField(value = "port_ranges", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private List<String> portRanges;
+
+    /**
+     * 端口为空时排除的端口
+     */
+    @TableField(value = "exclude_ports", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private List<Integer> excludePorts;
+
     /**
      * 查询开始日期
      */
@@ -62,18 +86,87 @@ public class Task {
     @JsonFormat(pattern = "yyyy-MM-dd")
     private LocalDate endDate;
 
+    /**
+     * 查询开始时间，为空时查询整天
+     */
+    @TableField("start_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime startTime;
+
+    /**
+     * 查询结束时间，为空时查询整天
+     */
+    @TableField("end_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime endTime;
+
     /**
      * 任务状态
      */
     @TableField("status")
     private TaskStatus status;
 
+    /**
+     * 任务预检估算结果及选择的查询策略
+     */
+    @TableField(value = "cost_estimate", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private CostEstimate costEstimate;
+
+    /**
+     * ES查询统计信息
+     */
+    @TableField(value = "query_stats", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private QueryStats queryStats;
+
+    /**
+     * 导出文件格式，仅导出任务使用
+     */
+    @TableField("export_format")
+    private ExportFormat exportFormat;
+
+    /**
+     * 导出进度，仅导出任务使用
+     */
+    @TableField(value = "export_progress", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private ExportProgress exportProgress;
+
+    /**
+     * 采样得到的近似预览结果，精确查询完成前返回
+     */
+    @TableField(value = "preview", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private PreviewResult preview;
+
     /**
      * 错误信息
      */
     @TableField("error_message")
     private String errorMessage;
 
+    /**
+     * 持有执行租约的实例，未被领取时为空
+     */
+    @TableField("lease_owner")
+    private String leaseOwner;
+
+    /**
+     * 执行租约到期时间，执行中由心跳续期，到期未续期的任务会被重新领取
+     */
+    @TableField("lease_expire_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime leaseExpireTime;
+
+    /**
+     * 已领取执行的次数
+     */
+    @TableField("attempts")
+    private Integer attempts;
+
+    /**
+     * 租约防护令牌，每次领取加一；执行中的写入校验令牌，租约被重新领取后旧执行者的写入被拒绝
+     */
+    @TableField("fence_token")
+    private Long fenceToken;
+
     /**
      * 创建时间
      */
@@ -2,17 +2,19 @@ package com.wind.middleware.entity;
 
 import com.baomidou.mybatisplus.annotation.*;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 任务结果实体类
  */
 @Data
 @EqualsAndHashCode(callSuper = false)
-@TableName("t_task_result")
+@TableName(value = "t_task_result", autoResultMap = true)
 public class TaskResult {
 
     /**
@@ -51,6 +53,45 @@ public class TaskResult {
     @TableField("access_count")
     private Long accessCount;
 
+    /**
+     * bytes 字段合计
+     */
+    @TableField("total_bytes")
+    private Long totalBytes;
+
+    /**
+     * count 字段合计
+     */
+    @TableField("total_count")
+    private Long totalCount;
+
+    /**
+     * 首次访问时间（索引时区）
+     */
+    @TableField("first_seen")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime firstSeen;
+
+    /**
+     * 最后访问时间（索引时区）
+     */
+    @TableField("last_seen")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime lastSeen;
+
+    /**
+     * 按小时（0-23点）的访问次数分布，未开启小时分布统计时为空
+     */
+    @TableField(value = "hourly_distribution", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private List<Long> hourlyDistribution;
+
+    /**
+     * 是否为采样预览得到的近似结果，只在精确结果保存前返回，不入库
+     */
+    @TableField(exist = false)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean approximate;
+
     /**
      * 创建时间
      */
@@ -0,0 +1,139 @@
+package com.wind.middleware.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wind.middleware.dto.es.UnitResult;
+import com.wind.middleware.entity.enums.TaskUnitStatus;
+import com.wind.middleware.entity.enums.TaskUnitType;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 任务执行单元实体类
+ * <p>
+ * 大任务拆分为细粒度的执行单元：查询单元为（日期范围 × 目标IP批次），补全单元为一批访问对的主机信息补全。
+ * 各实例的工作线程以租约方式领取执行，单元的部分结果保存在单元中，全部完成后由持有任务租约的实例合并。
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@TableName(value = "t_task_unit", autoResultMap = true)
+public class TaskUnit {
+
+    /**
+     * 主键ID
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 任务ID
+     */
+    @TableField("task_id")
+    private String taskId;
+
+    /**
+     * 单元类型
+     */
+    @TableField("unit_type")
+    private TaskUnitType unitType;
+
+    /**
+     * 同类型单元内的序号，从0开始
+     */
+    @TableField("unit_index")
+    private Integer unitIndex;
+
+    /**
+     * 单元开始日期
+     */
+    @TableField("start_date")
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate startDate;
+
+    /**
+     * 单元结束日期
+     */
+    @TableField("end_date")
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate endDate;
+
+    /**
+     * 查询单元的目标IP（网段）批次，补全单元的访问对key批次
+     */
+    @TableField(value = "targets", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private List<String> targets;
+
+    /**
+     * 是否允许其他工作线程窃取执行，单元数未达到 min-units 的任务只由协调线程执行
+     */
+    @TableField("shared")
+    private Boolean shared;
+
+    /**
+     * 单元状态
+     */
+    @TableField("status")
+    private TaskUnitStatus status;
+
+    /**
+     * 部分结果，单元完成后写入
+     */
+    @TableField(value = "result", typeHandler = com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler.class)
+    private UnitResult result;
+
+    /**
+     * 错误信息
+     */
+    @TableField("error_message")
+    private String errorMessage;
+
+    /**
+     * 持有执行租约的实例
+     */
+    @TableField("lease_owner")
+    private String leaseOwner;
+
+    /**
+     * 执行租约到期时间
+     */
+    @TableField("lease_expire_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime leaseExpireTime;
+
+    /**
+     * 失败后最早可重新领取的时间，按执行次数指数退避
+     */
+    @TableField("next_attempt_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime nextAttemptTime;
+
+    /**
+     * 已领取执行的次数
+     */
+    @TableField("attempts")
+    private Integer attempts;
+
+    /**
+     * 租约防护令牌，每次领取加一
+     */
+    @TableField("fence_token")
+    private Long fenceToken;
+
+    /**
+     * 创建时间
+     */
+    @TableField(value = "create_time", fill = FieldFill.INSERT)
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    @TableField(value = "update_time", fill = FieldFill.INSERT_UPDATE)
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,33 @@
+package com.wind.middleware.entity.enums;
+
+/**
+ * 原始流量导出文件格式枚举
+ */
+public enum ExportFormat {
+    /**
+     * 每行一个文档的JSON，gzip压缩
+     */
+    NDJSON("ndjson", "NDJSON"),
+
+    /**
+     * 带表头的CSV，gzip压缩
+     */
+    CSV("csv", "CSV");
+
+    private final String extension;
+
+    private final String description;
+
+    ExportFormat(String extension, String description) {
+        this.extension = extension;
+        this.description = description;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
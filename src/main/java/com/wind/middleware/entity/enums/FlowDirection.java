@@ -0,0 +1,36 @@
+package com.wind.middleware.entity.enums;
+
+/**
+ * 流量查询方向枚举
+ */
+public enum FlowDirection {
+    /**
+     * 入向：按服务端IP过滤，统计访问它的客户端
+     */
+    INBOUND("dstip", "入向"),
+
+    /**
+     * 出向：按客户端IP过滤，统计它访问的服务端IP及端口
+     */
+    OUTBOUND("srcip", "出向");
+
+    /**
+     * 目标IP对应的文档字段
+     */
+    private final String targetField;
+
+    private final String description;
+
+    FlowDirection(String targetField, String description) {
+        this.targetField = targetField;
+        this.description = description;
+    }
+
+    public String getTargetField() {
+        return targetField;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
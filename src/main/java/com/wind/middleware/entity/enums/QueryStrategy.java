@@ -0,0 +1,41 @@
+package com.wind.middleware.entity.enums;
+
+/**
+ * ES查询策略枚举
+ */
+public enum QueryStrategy {
+    /**
+     * 逐个服务端IP查询
+     */
+    PER_IP("逐IP查询"),
+
+    /**
+     * 每天一次请求，dstip → srcip 嵌套聚合
+     */
+    BATCH("批量嵌套聚合"),
+
+    /**
+     * 多天索引一次请求，_index → dstip → srcip 嵌套聚合
+     */
+    MULTI_INDEX("多索引聚合"),
+
+    /**
+     * composite聚合分页，完整枚举所有客户端
+     */
+    COMPOSITE("composite分页聚合"),
+
+    /**
+     * 按cardinality估算结果将srcip分区，多个分区并发查询
+     */
+    PARTITIONED("terms分区聚合");
+
+    private final String description;
+
+    QueryStrategy(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,26 @@
+package com.wind.middleware.entity.enums;
+
+/**
+ * 日索引汇总状态枚举
+ */
+public enum RollupStatus {
+    /**
+     * 汇总中（可从检查点继续）
+     */
+    RUNNING("汇总中"),
+
+    /**
+     * 汇总完成，可代替原始索引查询
+     */
+    COMPLETED("汇总完成");
+
+    private final String description;
+
+    RollupStatus(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -14,6 +14,11 @@ public enum TaskStatus {
      */
     ES_QUERYING("ES查询中"),
 
+    /**
+     * 原始流量导出中
+     */
+    EXPORTING("导出中"),
+
     /**
      * ES查询完成
      */
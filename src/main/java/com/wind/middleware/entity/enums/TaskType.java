@@ -0,0 +1,31 @@
+package com.wind.middleware.entity.enums;
+
+/**
+ * 任务类型枚举
+ */
+public enum TaskType {
+    /**
+     * 访问分析：聚合访问服务的客户端并查询主机信息
+     */
+    ANALYZE("访问分析"),
+
+    /**
+     * 原始流量导出：将匹配的原始流量记录导出到本地压缩文件
+     */
+    EXPORT("原始流量导出"),
+
+    /**
+     * 出向依赖分析：聚合指定客户端访问的服务端IP及端口
+     */
+    REVERSE("出向依赖分析");
+
+    private final String description;
+
+    TaskType(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,36 @@
+package com.wind.middleware.entity.enums;
+
+/**
+ * 任务执行单元状态枚举
+ */
+public enum TaskUnitStatus {
+    /**
+     * 待执行
+     */
+    PENDING("待执行"),
+
+    /**
+     * 执行中（租约到期后可被重新领取）
+     */
+    RUNNING("执行中"),
+
+    /**
+     * 已完成，部分聚合结果已保存
+     */
+    COMPLETED("已完成"),
+
+    /**
+     * 执行失败（执行次数达到上限）
+     */
+    FAILED("执行失败");
+
+    private final String description;
+
+    TaskUnitStatus(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
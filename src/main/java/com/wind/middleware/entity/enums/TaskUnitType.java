@@ -0,0 +1,26 @@
+package com.wind.middleware.entity.enums;
+
+/**
+ * 任务执行单元类型枚举
+ */
+public enum TaskUnitType {
+    /**
+     * ES查询：一个日期范围 × 一批目标IP
+     */
+    QUERY("ES查询"),
+
+    /**
+     * 主机信息补全：一批访问对
+     */
+    ENRICH("主机信息补全");
+
+    private final String description;
+
+    TaskUnitType(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
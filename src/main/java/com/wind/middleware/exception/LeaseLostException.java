@@ -0,0 +1,35 @@
+package com.wind.middleware.exception;
+
+import lombok.Getter;
+
+/**
+ * 任务租约已失效异常
+ * <p>
+ * 执行者持有的防护令牌与任务当前令牌不一致（任务已被其他实例或工作线程重新领取），
+ * 执行者应停止处理该任务，不再写入任何状态或结果。
+ */
+@Getter
+public class LeaseLostException extends RuntimeException {
+
+    private final String taskId;
+
+    private final long fenceToken;
+
+    public LeaseLostException(String taskId, long fenceToken) {
+        super(String.format("任务租约已失效: %s, 防护令牌: %d", taskId, fenceToken));
+        this.taskId = taskId;
+        this.fenceToken = fenceToken;
+    }
+
+    /**
+     * 异常或其原因链中是否包含租约失效
+     */
+    public static boolean isCause(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LeaseLostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,35 @@
+package com.wind.middleware.exception;
+
+import lombok.Getter;
+
+/**
+ * ES查询结果不完整异常
+ * <p>
+ * 响应中有分片失败或查询超时，聚合结果只来自部分分片，不能当作完整结果合并、缓存或保存；
+ * 由查询执行器按失败重试，重试次数用尽后按查询失败处理。
+ */
+@Getter
+public class PartialResultException extends RuntimeException {
+
+    /**
+     * 是否由集群压力（分片线程池拒绝、查询超时）导致，重试时按指数退避
+     */
+    private final boolean pressure;
+
+    public PartialResultException(String message, boolean pressure) {
+        super(message);
+        this.pressure = pressure;
+    }
+
+    /**
+     * 异常或其原因链中是否包含结果不完整
+     */
+    public static boolean isCause(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PartialResultException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
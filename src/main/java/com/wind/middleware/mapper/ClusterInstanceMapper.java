@@ -0,0 +1,44 @@
+package com.wind.middleware.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wind.middleware.entity.ClusterInstance;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
+
+/**
+ * 集群实例 Mapper 接口
+ */
+@Mapper
+public interface ClusterInstanceMapper extends BaseMapper<ClusterInstance> {
+
+    /**
+     * 注册实例，实例标识已存在（同一实例重启）时覆盖；心跳时间使用数据库时间
+     */
+    @Insert("INSERT INTO t_instance (instance_id, host_name, workers, start_time, heartbeat_time) "
+            + "VALUES (#{instanceId}, #{hostName}, #{workers}, #{startTime}, NOW()) "
+            + "ON DUPLICATE KEY UPDATE host_name = VALUES(host_name), workers = VALUES(workers), "
+            + "start_time = VALUES(start_time), heartbeat_time = VALUES(heartbeat_time)")
+    int register(ClusterInstance instance);
+
+    /**
+     * 更新心跳时间为数据库当前时间，各实例的心跳时间不受本地时钟偏差影响
+     *
+     * @return 更新条数，0表示实例已被其他实例判定失联并移除
+     */
+    @Update("UPDATE t_instance SET heartbeat_time = NOW() WHERE instance_id = #{instanceId}")
+    int heartbeat(@Param("instanceId") String instanceId);
+
+    /**
+     * 查询心跳超时的实例
+     *
+     * @param timeoutMillis 最后心跳距数据库当前时间超过该时长（毫秒）视为失联
+     */
+    @Select("SELECT instance_id FROM t_instance "
+            + "WHERE heartbeat_time < TIMESTAMPADD(MICROSECOND, -#{timeoutMillis} * 1000, NOW())")
+    List<String> selectStaleInstanceIds(@Param("timeoutMillis") long timeoutMillis);
+}
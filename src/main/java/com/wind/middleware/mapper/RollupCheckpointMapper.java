@@ -0,0 +1,29 @@
+package com.wind.middleware.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wind.middleware.entity.RollupCheckpoint;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 日索引汇总检查点 Mapper 接口
+ */
+@Mapper
+public interface RollupCheckpointMapper extends BaseMapper<RollupCheckpoint> {
+
+    /**
+     * 查询日期范围内已完成汇总的日期
+     *
+     * @param startDate 开始日期
+     * @param endDate   结束日期
+     * @return 已完成汇总的日期列表
+     */
+    @Select("SELECT index_date FROM t_rollup_checkpoint WHERE status = 'COMPLETED' "
+            + "AND index_date BETWEEN #{startDate} AND #{endDate}")
+    List<LocalDate> selectCompletedDays(@Param("startDate") LocalDate startDate,
+                                        @Param("endDate") LocalDate endDate);
+}
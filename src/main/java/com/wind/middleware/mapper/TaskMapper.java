@@ -5,6 +5,11 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.wind.middleware.entity.Task;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 任务表 Mapper 接口
@@ -31,4 +36,70 @@ public interface TaskMapper extends BaseMapper<Task> {
      * @return 分页结果
      */
     Page<Task> selectAllTaskPage(Page<Task> page);
+
+    /**
+     * 锁定可领取的任务：已提交的任务，以及执行中但租约已过期（或没有租约）的任务，按提交时间排序；
+     * 已被其他事务锁定的行直接跳过，多个实例并发领取时互不等待。租约时间统一使用数据库时间，不受各实例时钟偏差影响
+     *
+     * @param limit 最多返回的任务数
+     * @return 任务ID列表
+     */
+    @Select("SELECT task_id FROM t_task WHERE deleted = 0 AND (status = 'SUBMITTED' "
+            + "OR (status IN ('ES_QUERYING', 'EXPORTING', 'ES_COMPLETED', 'API_CALLING') "
+            + "AND (lease_expire_time IS NULL OR lease_expire_time < NOW()))) "
+            + "ORDER BY create_time LIMIT #{limit} FOR UPDATE SKIP LOCKED")
+    List<String> lockClaimableTaskIds(@Param("limit") int limit);
+
+    /**
+     * 领取任务：设置租约（数据库当前时间 + 租约时长），执行次数及防护令牌加一，状态置为ES查询中
+     */
+    @Update("UPDATE t_task SET lease_owner = #{owner}, lease_expire_time = TIMESTAMPADD(MICROSECOND, #{leaseMillis} * 1000, NOW()), attempts = attempts + 1, "
+            + "fence_token = fence_token + 1, status = 'ES_QUERYING', error_message = NULL, update_time = NOW() WHERE task_id = #{taskId}")
+    int claim(@Param("taskId") String taskId, @Param("owner") String owner,
+              @Param("leaseMillis") long leaseMillis);
+
+    /**
+     * 续期租约，租约已不属于该实例（或已被重新领取）时不更新
+     *
+     * @return 更新条数，0表示租约已失效
+     */
+    @Update("UPDATE t_task SET lease_expire_time = TIMESTAMPADD(MICROSECOND, #{leaseMillis} * 1000, NOW()) WHERE task_id = #{taskId} "
+            + "AND lease_owner = #{owner} AND fence_token = #{fenceToken}")
+    int renewLease(@Param("taskId") String taskId, @Param("owner") String owner,
+                   @Param("fenceToken") long fenceToken, @Param("leaseMillis") long leaseMillis);
+
+    /**
+     * 释放租约，租约已不属于该实例（或已被重新领取）时不更新
+     */
+    @Update("UPDATE t_task SET lease_owner = NULL, lease_expire_time = NULL WHERE task_id = #{taskId} "
+            + "AND lease_owner = #{owner} AND fence_token = #{fenceToken}")
+    int releaseLease(@Param("taskId") String taskId, @Param("owner") String owner,
+                     @Param("fenceToken") long fenceToken);
+
+    /**
+     * 锁定任务行并读取当前防护令牌，写入任务结果前校验，与重新领取任务互斥
+     */
+    @Select("SELECT fence_token FROM t_task WHERE task_id = #{taskId} FOR UPDATE")
+    Long lockFenceToken(@Param("taskId") String taskId);
+
+    /**
+     * 使指定实例持有的租约立即过期，用于该实例重启后尽快重新领取中断的任务
+     *
+     * @return 更新条数
+     */
+    @Update("UPDATE t_task SET lease_expire_time = NULL WHERE lease_owner = #{owner} "
+            + "AND status IN ('ES_QUERYING', 'EXPORTING', 'ES_COMPLETED', 'API_CALLING')")
+    int expireLeases(@Param("owner") String owner);
+
+    /**
+     * 统计等待领取的任务数
+     */
+    @Select("SELECT COUNT(*) FROM t_task WHERE deleted = 0 AND status = 'SUBMITTED'")
+    int countSubmitted();
+
+    /**
+     * 最早的等待领取任务的提交时间
+     */
+    @Select("SELECT MIN(create_time) FROM t_task WHERE deleted = 0 AND status = 'SUBMITTED'")
+    LocalDateTime selectOldestSubmittedTime();
 }
\ No newline at end of file
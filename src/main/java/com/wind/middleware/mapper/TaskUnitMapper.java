@@ -0,0 +1,75 @@
+package com.wind.middleware.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wind.middleware.entity.TaskUnit;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 任务执行单元 Mapper 接口
+ */
+@Mapper
+public interface TaskUnitMapper extends BaseMapper<TaskUnit> {
+
+    /**
+     * 锁定可领取的执行单元：所属任务处于该类型单元对应的阶段（查询单元为ES查询中，补全单元为API调用中），
+     * 单元待执行（失败重试的单元需到达退避后的重新领取时间）或执行中但租约已过期；只锁定单元行（不锁任务行），已被其他事务锁定的行直接跳过。
+     * <p>
+     * 协调实例按序号从前往后领取本任务的单元，其他工作线程从最早提交的任务的末尾窃取（只窃取允许共享的单元），
+     * 两端相向而行减少争用
+     *
+     * @param taskId 只领取该任务的单元，为null时领取任意任务的单元
+     * @param limit  最多返回的单元数
+     * @return 单元ID列表
+     */
+    @Select("<script>SELECT u.id FROM t_task_unit u JOIN t_task t ON t.task_id = u.task_id "
+            + "WHERE t.deleted = 0 AND ((u.unit_type = 'QUERY' AND t.status = 'ES_QUERYING') "
+            + "OR (u.unit_type = 'ENRICH' AND t.status = 'API_CALLING')) "
+            + "AND ((u.status = 'PENDING' AND (u.next_attempt_time IS NULL OR u.next_attempt_time &lt;= NOW())) "
+            + "OR (u.status = 'RUNNING' "
+            + "AND (u.lease_expire_time IS NULL OR u.lease_expire_time &lt; NOW()))) "
+            + "<choose><when test='taskId != null'>AND u.task_id = #{taskId} ORDER BY u.unit_index </when>"
+            + "<otherwise>AND u.shared = 1 ORDER BY t.create_time, u.unit_index DESC </otherwise></choose>"
+            + "LIMIT #{limit} FOR UPDATE OF u SKIP LOCKED</script>")
+    List<Long> lockClaimableUnitIds(@Param("taskId") String taskId, @Param("limit") int limit);
+
+    /**
+     * 领取执行单元：设置租约（数据库当前时间 + 租约时长），执行次数及防护令牌加一，状态置为执行中
+     */
+    @Update("UPDATE t_task_unit SET status = 'RUNNING', lease_owner = #{owner}, "
+            + "lease_expire_time = TIMESTAMPADD(MICROSECOND, #{leaseMillis} * 1000, NOW()), "
+            + "attempts = attempts + 1, fence_token = fence_token + 1, update_time = NOW() WHERE id = #{id}")
+    int claim(@Param("id") Long id, @Param("owner") String owner, @Param("leaseMillis") long leaseMillis);
+
+    /**
+     * 续期租约，单元已被重新领取时不更新
+     *
+     * @return 更新条数，0表示租约已失效
+     */
+    @Update("UPDATE t_task_unit SET lease_expire_time = TIMESTAMPADD(MICROSECOND, #{leaseMillis} * 1000, NOW()) WHERE id = #{id} "
+            + "AND lease_owner = #{owner} AND fence_token = #{fenceToken} AND status = 'RUNNING'")
+    int renewLease(@Param("id") Long id, @Param("owner") String owner,
+                   @Param("fenceToken") long fenceToken, @Param("leaseMillis") long leaseMillis);
+
+    /**
+     * 使指定实例持有的单元租约立即过期
+     *
+     * @return 更新条数
+     */
+    @Update("UPDATE t_task_unit SET lease_expire_time = NULL WHERE lease_owner = #{owner} AND status = 'RUNNING'")
+    int expireLeases(@Param("owner") String owner);
+
+    /**
+     * 按类型及状态统计任务的执行单元数
+     *
+     * @return 每行包含 unit_type、status 及 cnt
+     */
+    @Select("SELECT unit_type, status, COUNT(*) AS cnt FROM t_task_unit WHERE task_id = #{taskId} "
+            + "GROUP BY unit_type, status")
+    List<Map<String, Object>> countByStatus(@Param("taskId") String taskId);
+}
@@ -1,24 +1,36 @@
 package com.wind.middleware.queue;
 
-import com.wind.middleware.dto.external.HostDetailInfo;
-import com.wind.middleware.dto.external.MachineInfo;
-import com.wind.middleware.dto.external.ServiceInfo;
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.AccessMetrics;
+import com.wind.middleware.dto.es.ClientAccessResult;
+import com.wind.middleware.dto.es.CostEstimate;
+import com.wind.middleware.dto.es.PairKey;
+import com.wind.middleware.dto.es.PreviewResult;
 import com.wind.middleware.entity.HostInfo;
 import com.wind.middleware.entity.Task;
 import com.wind.middleware.entity.TaskResult;
 import com.wind.middleware.entity.enums.TaskStatus;
-import com.wind.middleware.service.ElasticsearchService;
-import com.wind.middleware.service.ExternalAPIService;
+import com.wind.middleware.entity.enums.TaskType;
+import com.wind.middleware.exception.LeaseLostException;
+import com.wind.middleware.service.FlowExportService;
+import com.wind.middleware.service.FlowSource;
+import com.wind.middleware.service.HostInfoEnricher;
+import com.wind.middleware.service.TaskContext;
 import com.wind.middleware.service.TaskDataService;
+import com.wind.middleware.service.TaskUnitService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 /**
  * 任务处理器
@@ -31,10 +43,25 @@ public class TaskProcessor {
     private TaskDataService taskDataService;
 
     @Autowired
-    private ElasticsearchService elasticsearchService;
+    private FlowSource flowSource;
 
     @Autowired
-    private ExternalAPIService externalAPIService;
+    private HostInfoEnricher hostInfoEnricher;
+
+    @Autowired
+    private FlowExportService flowExportService;
+
+    @Autowired
+    private TaskUnitService taskUnitService;
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
+    @Value("${middleware.preview.enabled:true}")
+    private boolean previewEnabled;
+
+    @Value("${middleware.preview.days:1}")
+    private int previewDays;
 
     /**
      * 处理任务
@@ -50,14 +77,31 @@ public class TaskProcessor {
                 return;
             }
 
-            // 2. 执行ES查询
-            Map<String, Long> clientIpAccess = executeESQuery(task);
+            // 中断后重新领取或恢复执行的任务：先清除上次执行保存的部分结果，保证重新执行的结果不重复
+            if (task.getAttempts() != null && task.getAttempts() > 1) {
+                taskDataService.clearTaskResults(taskId);
+            }
 
-            // 3. 更新任务状态
+            // 导出任务只导出原始流量记录，不做聚合和外部API调用
+            if (task.getTaskType() == TaskType.EXPORT) {
+                taskDataService.updateTaskStatus(taskId, TaskStatus.EXPORTING, null);
+                flowExportService.export(task);
+                taskDataService.updateTaskStatus(taskId, TaskStatus.COMPLETED, null);
+                log.info("导出任务处理完成: {}", taskId);
+                return;
+            }
+
+            // 2. 先发布采样得到的近似Top客户端，再执行精确的ES查询
+            publishPreview(task);
+            ClientAccessResult accessResult = executeESQuery(task);
+            Map<String, Long> clientIpAccess = accessResult.getTotals();
+
+            // 3. 更新任务状态及查询统计
+            taskDataService.updateQueryStats(taskId, accessResult.toQueryStats());
             taskDataService.updateTaskStatus(taskId, TaskStatus.ES_COMPLETED, null);
 
             // 4. 保存ES查询结果
-            saveTaskResults(taskId, clientIpAccess, task);
+            saveTaskResults(taskId, accessResult.getMetrics(), task);
 
             // 5. 调用外部API获取详细信息
             taskDataService.updateTaskStatus(taskId, TaskStatus.API_CALLING, null);
@@ -68,28 +112,71 @@ public class TaskProcessor {
             log.info("任务处理完成: {}", taskId);
 
         } catch (Exception e) {
+            // 任务已被其他执行者重新领取，停止处理且不再写入任何状态
+            if (LeaseLostException.isCause(e)) {
+                log.warn("任务租约已失效，停止处理: {}", taskId);
+                return;
+            }
+            // 停机中断的任务不记为失败，只由工作线程释放租约，重启后（或由其他实例）重新领取
+            if (TaskContext.isInterrupted(e)) {
+                log.warn("任务执行被停机中断，释放租约后重新领取: {}, {}", taskId, e.getMessage());
+                return;
+            }
             log.error("任务处理失败: {}", taskId, e);
             taskDataService.updateTaskStatus(taskId, TaskStatus.FAILED, e.getMessage());
         }
     }
 
+    /**
+     * 对任务结束日期前最近几天的索引做采样聚合，保存近似的Top客户端；预览失败不影响精确查询
+     */
+    private void publishPreview(Task task) {
+        if (!previewEnabled) {
+            return;
+        }
+        LocalDate sampleStart = task.getEndDate().minusDays(Math.max(1, previewDays) - 1L);
+        if (sampleStart.isBefore(task.getStartDate())) {
+            sampleStart = task.getStartDate();
+        }
+        try {
+            PreviewResult preview = flowSource.previewClientAccess(task.getServerIps(), AccessFilter.forTask(task),
+                    sampleStart, task.getEndDate());
+            if (preview != null) {
+                taskDataService.updatePreview(task.getTaskId(), preview);
+            }
+        } catch (Exception e) {
+            log.warn("采样预览失败，继续精确查询，任务ID: {}, {}", task.getTaskId(), e.getMessage());
+        }
+    }
+
     /**
      * 执行ES查询
      */
-    private Map<String, Long> executeESQuery(Task task) {
+    private ClientAccessResult executeESQuery(Task task) {
         try {
             log.info("开始ES查询，任务ID: {}, 服务端IP: {}, 端口: {}, 时间范围: {} - {}",
                     task.getTaskId(), task.getServerIps(), task.getPort(),
-                    task.getStartDate(), task.getEndDate());
+                    task.getStartTime() != null ? task.getStartTime() : task.getStartDate(),
+                    task.getEndTime() != null ? task.getEndTime() : task.getEndDate());
+
+            AccessFilter filter = AccessFilter.forTask(task);
+
+            // 拆分为（日期 × 目标批次）查询单元逐单元保存结果，大任务的单元由空闲工作线程（包括其他实例的）共同执行
+            if (taskUnitService.shouldSplit(task)) {
+                ClientAccessResult result = taskUnitService.executeQuery(task);
+                log.info("ES查询完成（执行单元合并），任务ID: {}, 获得客户端IP数量: {}, 结果截断: {}",
+                        task.getTaskId(), result.getTotals().size(), result.isTruncated());
+                return result;
+            }
 
-            Map<String, Long> result = elasticsearchService.queryClientIpAccess(
-                    task.getServerIps(),
-                    task.getPort(),
-                    task.getStartDate(),
-                    task.getEndDate()
-            );
+            // 优先使用提交时预检选择的查询策略
+            CostEstimate costEstimate = task.getCostEstimate();
+            ClientAccessResult result = flowSource.queryClientAccess(task.getServerIps(), filter,
+                    task.getStartDate(), task.getEndDate(),
+                    costEstimate != null ? costEstimate.getStrategy() : null);
 
-            log.info("ES查询完成，任务ID: {}, 获得客户端IP数量: {}", task.getTaskId(), result.size());
+            log.info("ES查询完成，任务ID: {}, 获得客户端IP数量: {}, 结果截断: {}",
+                    task.getTaskId(), result.getTotals().size(), result.isTruncated());
             return result;
         } catch (Exception e) {
             log.error("ES查询失败，任务ID: {}", task.getTaskId(), e);
@@ -100,30 +187,31 @@ public class TaskProcessor {
     /**
      * 保存ES查询结果
      */
-    private void saveTaskResults(String taskId, Map<String, Long> clientIpAccess, Task task) {
+    private void saveTaskResults(String taskId, Map<String, AccessMetrics> clientIpMetrics, Task task) {
         try {
             List<TaskResult> taskResults = new ArrayList<>();
 
-            for (Map.Entry<String, Long> entry : clientIpAccess.entrySet()) {
-                String key = entry.getKey(); // 格式为"clientIp:serverIp"
-                Long accessCount = entry.getValue();
-
-                // 解析clientIp和serverIp
-                String[] parts = key.split(":");
-                if (parts.length != 2) {
-                    log.warn("无效的key格式: {}, 跳过", key);
+            for (Map.Entry<String, AccessMetrics> entry : clientIpMetrics.entrySet()) {
+                PairKey pair = PairKey.parse(entry.getKey(), task.getPort());
+                if (pair == null) {
+                    log.warn("无效的key格式: {}, 跳过", entry.getKey());
                     continue;
                 }
-
-                String clientIp = parts[0];
-                String serverIp = parts[1];
+                AccessMetrics metrics = entry.getValue();
 
                 TaskResult taskResult = new TaskResult();
                 taskResult.setTaskId(taskId);
-                taskResult.setClientIp(clientIp);
-                taskResult.setServerIp(serverIp);
-                taskResult.setPort(task.getPort());
-                taskResult.setAccessCount(accessCount);
+                taskResult.setClientIp(pair.clientIp());
+                taskResult.setServerIp(pair.serverIp());
+                taskResult.setPort(pair.port());
+                taskResult.setAccessCount(metrics.getAccessCount());
+                taskResult.setTotalBytes(metrics.getTotalBytes());
+                taskResult.setTotalCount(metrics.getTotalCount());
+                taskResult.setFirstSeen(toIndexTime(metrics.getFirstSeen()));
+                taskResult.setLastSeen(toIndexTime(metrics.getLastSeen()));
+                if (metrics.getHourly() != null) {
+                    taskResult.setHourlyDistribution(Arrays.stream(metrics.getHourly()).boxed().toList());
+                }
                 taskResult.setCreateTime(LocalDateTime.now());
 
                 taskResults.add(taskResult);
@@ -138,88 +226,19 @@ public class TaskProcessor {
     }
 
     /**
-     * 处理主机信息
+     * UTC毫秒转换为索引时区的时间
      */
-    private void processHostInfo(String taskId, Map<String, Long> clientIpAccess, Task task) {
-        List<HostInfo> hostInfoList = new ArrayList<>();
-        int processedCount = 0;
-        int totalCount = clientIpAccess.size();
-
-        log.info("开始处理主机信息，任务ID: {}, 总数: {}", taskId, totalCount);
-
-        for (Map.Entry<String, Long> entry : clientIpAccess.entrySet()) {
-            String key = entry.getKey(); // 格式为"clientIp:serverIp"
-
-            // 解析clientIp和serverIp
-            String[] parts = key.split(":");
-            if (parts.length != 2) {
-                log.warn("无效的key格式: {}, 跳过", key);
-                continue;
-            }
-
-            String clientIp = parts[0];
-            String serverIp = parts[1];
-
-            try {
-                processedCount++;
-
-                // 获取机器信息
-                Optional<MachineInfo> machineInfo = externalAPIService.getMachineByIp(clientIp);
-                if (machineInfo.isEmpty()) {
-                    log.debug("未找到客户端IP对应的机器信息: {}", clientIp);
-                    continue;
-                }
-
-                // 获取主机详细信息
-                Optional<HostDetailInfo> hostDetail = externalAPIService.getHostDetail(
-                        clientIp, serverIp, task.getPort());
-
-                if (hostDetail.isEmpty()) {
-                    log.debug("未找到主机详细信息: clientIp={}, serverIp={}, port={}",
-                            clientIp, serverIp, task.getPort());
-                    continue;
-                }
-
-                // 处理应用信息
-                HostDetailInfo detail = hostDetail.get();
-                if (detail.getApplications() != null) {
-                    for (String appName : detail.getApplications()) {
-                        Optional<ServiceInfo> serviceInfo = externalAPIService.getServiceInfo(appName);
-
-                        HostInfo hostInfo = new HostInfo();
-                        hostInfo.setTaskId(taskId);
-                        hostInfo.setClientIp(clientIp);
-                        hostInfo.setServerIp(serverIp);
-                        hostInfo.setPort(task.getPort());
-                        hostInfo.setHostname(machineInfo.get().getMachineName());
-                        hostInfo.setLinuxPath(detail.getLinuxPath());
-                        hostInfo.setAppName(appName);
-
-                        if (serviceInfo.isPresent()) {
-                            ServiceInfo service = serviceInfo.get();
-                            hostInfo.setAppOwner(service.getOwnerName());
-                            hostInfo.setAppOwnerAccount(service.getOwnerAccount());
-                            hostInfo.setDepartment(service.getDepartment());
-                        }
-
-                        hostInfo.setCreateTime(LocalDateTime.now());
-                        hostInfoList.add(hostInfo);
-                    }
-                }
-
-                // 定期记录进度
-                if (processedCount % 10 == 0) {
-                    log.info("任务ID: {} 主机信息处理进度: {}/{} ({}%)",
-                            taskId, processedCount, totalCount,
-                            (processedCount * 100 / totalCount));
-                }
+    private LocalDateTime toIndexTime(Long epochMillis) {
+        return epochMillis != null ? LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), indexZone) : null;
+    }
 
-            } catch (Exception e) {
-                log.warn("处理主机信息失败，跳过: clientIp={}, serverIp={}, 错误: {}",
-                        clientIp, serverIp, e.getMessage());
-                // 继续处理其他IP，不中断整个流程
-            }
-        }
+    /**
+     * 处理主机信息：拆分为执行单元的任务按批次由补全单元并行调用外部API，否则直接补全全部访问对
+     */
+    private void processHostInfo(String taskId, Map<String, Long> clientIpAccess, Task task) {
+        List<HostInfo> hostInfoList = taskUnitService.shouldSplit(task)
+                ? taskUnitService.executeEnrichment(task, new ArrayList<>(clientIpAccess.keySet()))
+                : hostInfoEnricher.enrich(taskId, clientIpAccess.keySet(), task.getPort());
 
         // 保存主机信息
         if (!hostInfoList.isEmpty()) {
@@ -234,4 +253,4 @@ public class TaskProcessor {
             log.warn("未获取到任何主机信息，任务ID: {}", taskId);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,27 +1,53 @@
 package com.wind.middleware.queue;
 
-import com.wind.middleware.entity.enums.TaskStatus;
-import com.wind.middleware.service.TaskDataService;
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.TaskUnit;
+import com.wind.middleware.service.ClusterService;
+import com.wind.middleware.service.TaskContext;
+import com.wind.middleware.service.TaskQueueStore;
+import com.wind.middleware.service.TaskUnitService;
 import com.wind.middleware.event.TaskSubmittedEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.event.EventListener;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 任务队列管理器
+ * <p>
+ * 任务队列持久化在任务表中（{@link TaskQueueStore}）：启动 {@code middleware.task.workers} 个工作线程，
+ * 各自通过 {@code SELECT ... FOR UPDATE SKIP LOCKED} 领取任务并持有租约，执行期间定时心跳续期；
+ * 实例崩溃后租约到期，执行中的任务由其他实例（或重启后的本实例）重新领取。任务提交事件只在事务提交后唤醒空闲工作线程，
+ * 没有事件时工作线程按 {@code poll-interval-ms} 轮询。
+ * <p>
+ * 大任务拆分为执行单元（{@link TaskUnitService}），空闲工作线程优先窃取正在执行的任务的单元，
+ * 没有可领取的单元时再领取新任务；多个实例（{@link ClusterService}）的工作线程共同执行同一个大任务。
+ * <p>
+ * ES请求及外部API调用的全局并发由 {@link com.wind.middleware.service.EsSearchExecutor} 和
+ * {@link com.wind.middleware.service.ExternalAPIService} 统一控制。记录每个工作线程的利用率及任务排队等待时间。
  */
 @Slf4j
 @Component
 public class TaskQueueManager {
 
     @Autowired
-    private LinkedBlockingQueue<String> taskQueue;
+    private TaskQueueStore queueStore;
 
     @Autowired
     private ExecutorService taskExecutor;
@@ -30,66 +56,133 @@ public class TaskQueueManager {
     private TaskProcessor taskProcessor;
 
     @Autowired
-    private TaskDataService taskDataService;
+    private ClusterService clusterService;
+
+    @Autowired
+    private TaskUnitService taskUnitService;
+
+    @Value("${middleware.task.workers:4}")
+    private int workers;
+
+    @Value("${middleware.task.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${middleware.task.lease-ms:120000}")
+    private long leaseMillis;
+
+    @Value("${middleware.task.heartbeat-interval-ms:30000}")
+    private long heartbeatIntervalMillis;
+
+    @Value("${middleware.task.poll-interval-ms:5000}")
+    private long pollIntervalMillis;
+
+    @Value("${middleware.task.shutdown-timeout-ms:60000}")
+    private long shutdownTimeoutMillis;
 
     private volatile boolean isRunning = true;
 
+    /**
+     * 本实例正在执行、需要心跳续期的任务及其防护令牌
+     */
+    private final Map<String, Long> leasedTasks = new ConcurrentHashMap<>();
+
+    private String instanceId;
+
+    private final Object wakeup = new Object();
+
+    private final List<Worker> workerList = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong dequeuedTasks = new AtomicLong();
+
+    private final AtomicLong totalQueueWaitMillis = new AtomicLong();
+
+    private final AtomicLong maxQueueWaitMillis = new AtomicLong();
+
+    private ScheduledExecutorService heartbeatScheduler;
+
     @PostConstruct
     public void initialize() {
-        log.info("任务队列管理器启动");
+        instanceId = clusterService.getInstanceId();
+        // 本实例上次运行时中断的任务立即可被重新领取，无需等待租约到期
+        int expired = queueStore.expireLeases(instanceId);
+        int workerCount = Math.max(1, workers);
+        log.info("任务队列管理器启动，实例: {}, 工作线程数: {}, 待恢复的中断任务: {}", instanceId, workerCount, expired);
+
+        heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setName("task-lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatScheduler.scheduleWithFixedDelay(this::renewLeases,
+                heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+
         // 启动任务消费线程
-        taskExecutor.submit(this::consumeTasks);
+        for (int i = 1; i <= workerCount; i++) {
+            Worker worker = new Worker("task-worker-" + i);
+            workerList.add(worker);
+            taskExecutor.submit(() -> consumeTasks(worker));
+        }
     }
 
     /**
-     * 监听任务提交事件
+     * 任务提交事务提交后唤醒空闲的工作线程；任务已在任务表中，事件丢失时由轮询领取
      */
-    @EventListener
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
     public void handleTaskSubmittedEvent(TaskSubmittedEvent event) {
-        submitTask(event.getTaskId());
-    }
-
-    /**
-     * 提交任务到队列
-     */
-    private boolean submitTask(String taskId) {
-        if (!isRunning) {
-            log.warn("任务队列管理器已停止，无法提交任务: {}", taskId);
-            return false;
-        }
-
-        try {
-            taskQueue.put(taskId);
-            log.info("任务提交成功: {}, 当前队列长度: {}", taskId, taskQueue.size());
-            return true;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("任务提交被中断: {}", taskId, e);
-            return false;
+        log.debug("收到任务提交事件，唤醒工作线程: {}", event.getTaskId());
+        synchronized (wakeup) {
+            wakeup.notifyAll();
         }
     }
 
     /**
      * 消费任务
      */
-    private void consumeTasks() {
-        log.info("任务消费线程启动");
+    private void consumeTasks(Worker worker) {
+        log.info("任务消费线程启动: {}", worker.name);
 
         while (isRunning) {
             try {
-                // 阻塞获取任务
-                String taskId = taskQueue.take();
-                log.info("开始处理任务: {}, 剩余队列长度: {}", taskId, taskQueue.size());
+                // 优先窃取正在执行的大任务的执行单元，让已开始的任务尽快完成
+                TaskUnit unit = taskUnitService.claimNext();
+                if (unit != null) {
+                    worker.start(unit.getTaskId() + "#" + unit.getUnitType() + "-" + unit.getUnitIndex(), 0);
+                    try {
+                        taskUnitService.execute(unit);
+                    } finally {
+                        worker.finish();
+                    }
+                    continue;
+                }
 
-                // 更新任务状态为处理中
-                taskDataService.updateTaskStatus(taskId, TaskStatus.ES_QUERYING, null);
+                Task task = queueStore.claimNext(instanceId, leaseMillis);
+                if (task == null) {
+                    synchronized (wakeup) {
+                        wakeup.wait(pollIntervalMillis);
+                    }
+                    continue;
+                }
+                String taskId = task.getTaskId();
+                long fenceToken = task.getFenceToken();
+                long waitMillis = recordQueueWait(task);
+                log.info("{} 开始处理任务: {}, 第 {} 次执行, 排队等待: {}ms",
+                        worker.name, taskId, task.getAttempts(), waitMillis);
 
-                // 处理任务
-                taskProcessor.processTask(taskId);
+                leasedTasks.put(taskId, fenceToken);
+                worker.start(taskId, waitMillis);
+                try {
+                    // 处理任务，任务内发出的ES请求按任务轮流派发，写入任务状态及结果时校验防护令牌
+                    TaskContext.run(taskId, fenceToken, () -> taskProcessor.processTask(taskId));
+                } finally {
+                    worker.finish();
+                    leasedTasks.remove(taskId, fenceToken);
+                    queueStore.releaseLease(taskId, instanceId, fenceToken);
+                }
 
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                log.info("任务消费线程被中断");
+                log.info("任务消费线程被中断: {}", worker.name);
                 break;
             } catch (Exception e) {
                 log.error("任务处理过程中发生异常", e);
@@ -97,30 +190,97 @@ public class TaskQueueManager {
             }
         }
 
-        log.info("任务消费线程结束");
+        log.info("任务消费线程结束: {}", worker.name);
+    }
+
+    /**
+     * 为本实例正在执行的任务及执行单元续期租约
+     */
+    private void renewLeases() {
+        leasedTasks.forEach((taskId, fenceToken) -> {
+            try {
+                if (!queueStore.renewLease(taskId, instanceId, fenceToken, leaseMillis)) {
+                    log.warn("任务租约已被重新领取: {}, 防护令牌: {}", taskId, fenceToken);
+                }
+            } catch (Exception e) {
+                log.warn("任务租约续期失败: {}, {}", taskId, e.getMessage());
+            }
+        });
+        taskUnitService.renewLeases();
+    }
+
+    /**
+     * 记录任务从提交到首次开始处理的等待时间，重新领取的中断任务不计入
+     */
+    private long recordQueueWait(Task task) {
+        if (task.getAttempts() > 1 || task.getCreateTime() == null) {
+            return 0;
+        }
+        long waitMillis = Math.max(0, Duration.between(task.getCreateTime(), LocalDateTime.now()).toMillis());
+        dequeuedTasks.incrementAndGet();
+        totalQueueWaitMillis.addAndGet(waitMillis);
+        maxQueueWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        return waitMillis;
     }
 
     /**
      * 获取队列状态
      */
     public QueueStatus getQueueStatus() {
+        long dequeued = dequeuedTasks.get();
+        LocalDateTime oldestSubmitTime = queueStore.oldestSubmittedTime();
         return QueueStatus.builder()
-                .queueSize(taskQueue.size())
+                .queueSize(queueStore.countSubmitted())
                 .isRunning(isRunning)
-                .capacity(taskQueue.size() + taskQueue.remainingCapacity())
+                .capacity(queueCapacity)
+                .workers(workerList.size())
+                .busyWorkers((int) workerList.stream().filter(worker -> worker.currentTaskId != null).count())
+                .avgQueueWaitMillis(dequeued > 0 ? totalQueueWaitMillis.get() / dequeued : 0)
+                .maxQueueWaitMillis(maxQueueWaitMillis.get())
+                .oldestQueuedMillis(oldestSubmitTime != null
+                        ? Math.max(0, Duration.between(oldestSubmitTime, LocalDateTime.now()).toMillis()) : 0)
+                .instanceId(instanceId)
                 .build();
     }
 
+    /**
+     * 获取各工作线程状态
+     */
+    public List<WorkerStatus> getWorkerStatus() {
+        long now = System.currentTimeMillis();
+        return workerList.stream().map(worker -> worker.snapshot(now)).toList();
+    }
+
     @PreDestroy
     public void shutdown() {
         log.info("任务队列管理器开始停止");
+        // 先停止领取新任务及执行单元，此后执行中的任务因停机失败时只释放租约，不记为失败
         isRunning = false;
+        TaskContext.markStopping();
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
 
-        // 中断任务执行器
+        // 等待执行中的任务完成，期间继续心跳续期；超时后中断工作线程，被中断的任务释放租约，重启后（或由其他实例）重新领取
         if (taskExecutor != null && !taskExecutor.isShutdown()) {
             taskExecutor.shutdown();
+            try {
+                if (!taskExecutor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    log.warn("等待执行中的任务完成超时（{}ms），中断工作线程: {}", shutdownTimeoutMillis, leasedTasks.keySet());
+                    taskExecutor.shutdownNow();
+                    if (!taskExecutor.awaitTermination(heartbeatIntervalMillis, TimeUnit.MILLISECONDS)) {
+                        log.warn("工作线程未响应中断，租约到期后任务由其他实例重新领取: {}", leasedTasks.keySet());
+                    }
+                }
+            } catch (InterruptedException e) {
+                taskExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
             log.info("任务执行器已关闭");
         }
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.shutdownNow();
+        }
 
         log.info("任务队列管理器停止完成");
     }
@@ -131,8 +291,71 @@ public class TaskQueueManager {
     @lombok.Data
     @lombok.Builder
     public static class QueueStatus {
-        private int queueSize;      // 当前队列长度
+        private int queueSize;      // 等待领取的任务数
         private boolean isRunning;  // 是否运行中
         private int capacity;       // 队列容量
+        private int workers;        // 工作线程数
+        private int busyWorkers;    // 正在处理任务的工作线程数
+        private long avgQueueWaitMillis;   // 已开始处理任务的平均排队等待时间
+        private long maxQueueWaitMillis;   // 最长排队等待时间
+        private long oldestQueuedMillis;   // 队列中最早任务已等待的时间
+        private String instanceId;  // 本实例标识（租约持有者）
+    }
+
+    /**
+     * 工作线程状态信息
+     */
+    @lombok.Data
+    @lombok.Builder
+    public static class WorkerStatus {
+        private String name;                // 工作线程名
+        private String currentTaskId;       // 正在处理的任务，空闲时为null
+        private long currentTaskMillis;     // 当前任务已处理时间
+        private long processedTasks;        // 已处理完成的任务数
+        private long lastQueueWaitMillis;   // 最近一个任务的排队等待时间
+        private double utilization;         // 启动以来处理任务的时间占比
+    }
+
+    /**
+     * 单个工作线程的运行统计，只由该工作线程更新
+     */
+    private static class Worker {
+        private final String name;
+        private final long startTime = System.currentTimeMillis();
+        private volatile String currentTaskId;
+        private volatile long taskStartTime;
+        private volatile long busyMillis;
+        private volatile long processedTasks;
+        private volatile long lastQueueWaitMillis;
+
+        private Worker(String name) {
+            this.name = name;
+        }
+
+        private void start(String taskId, long queueWaitMillis) {
+            taskStartTime = System.currentTimeMillis();
+            lastQueueWaitMillis = queueWaitMillis;
+            currentTaskId = taskId;
+        }
+
+        private void finish() {
+            busyMillis += System.currentTimeMillis() - taskStartTime;
+            processedTasks++;
+            currentTaskId = null;
+        }
+
+        private WorkerStatus snapshot(long now) {
+            String taskId = currentTaskId;
+            long current = taskId != null ? now - taskStartTime : 0;
+            long elapsed = Math.max(1, now - startTime);
+            return WorkerStatus.builder()
+                    .name(name)
+                    .currentTaskId(taskId)
+                    .currentTaskMillis(current)
+                    .processedTasks(processedTasks)
+                    .lastQueueWaitMillis(lastQueueWaitMillis)
+                    .utilization(Math.min(1.0, Math.round(1000.0 * (busyMillis + current) / elapsed) / 1000.0))
+                    .build();
+        }
     }
 }
\ No newline at end of file
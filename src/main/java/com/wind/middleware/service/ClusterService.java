@@ -0,0 +1,159 @@
+package com.wind.middleware.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.wind.middleware.entity.ClusterInstance;
+import com.wind.middleware.mapper.ClusterInstanceMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群实例管理
+ * <p>
+ * 多个实例只通过MySQL协调：每个实例启动时在 t_instance 注册并定时心跳；心跳超时的实例视为失联，
+ * 由任一存活实例使其持有的任务及执行单元租约立即过期，不必等租约到期即可被重新领取。
+ * 失联实例恢复后心跳更新失败，重新注册，其停顿期间被重新领取的任务由防护令牌拒绝旧的写入。
+ * <p>
+ * 实例标识即任务租约持有者，为空时使用主机名。未开启集群模式时只提供实例标识，不注册、不心跳。
+ */
+@Slf4j
+@Service
+public class ClusterService {
+
+    @Autowired
+    private ClusterInstanceMapper instanceMapper;
+
+    @Autowired
+    private TaskQueueStore queueStore;
+
+    @Value("${middleware.task.instance-id:}")
+    private String instanceId;
+
+    @Value("${middleware.task.workers:4}")
+    private int workers;
+
+    @Value("${middleware.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${middleware.cluster.heartbeat-interval-ms:10000}")
+    private long heartbeatIntervalMillis;
+
+    @Value("${middleware.cluster.instance-timeout-ms:30000}")
+    private long instanceTimeoutMillis;
+
+    private String hostName;
+
+    private LocalDateTime startTime;
+
+    private ScheduledExecutorService heartbeatScheduler;
+
+    @PostConstruct
+    public void initialize() {
+        hostName = resolveHostName();
+        if (!StringUtils.hasText(instanceId)) {
+            instanceId = hostName;
+        }
+        startTime = LocalDateTime.now();
+        if (!enabled) {
+            return;
+        }
+
+        register();
+        heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setName("cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat,
+                heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+        log.info("集群模式已开启，实例: {}, 心跳间隔: {}ms, 失联判定: {}ms",
+                instanceId, heartbeatIntervalMillis, instanceTimeoutMillis);
+    }
+
+    /**
+     * 本实例标识（任务租约持有者）
+     */
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * 是否开启集群模式（实例注册及心跳）
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 已注册的实例，按启动时间排序
+     */
+    public List<ClusterInstance> getInstances() {
+        return instanceMapper.selectList(Wrappers.<ClusterInstance>lambdaQuery()
+                .orderByAsc(ClusterInstance::getStartTime));
+    }
+
+    /**
+     * 心跳，并回收心跳超时实例的租约
+     */
+    private void heartbeat() {
+        try {
+            if (instanceMapper.heartbeat(instanceId) == 0) {
+                log.warn("本实例已被判定失联，重新注册: {}", instanceId);
+                register();
+            }
+            for (String staleId : instanceMapper.selectStaleInstanceIds(instanceTimeoutMillis)) {
+                if (staleId.equals(instanceId)) {
+                    continue;
+                }
+                int expired = queueStore.expireLeases(staleId);
+                instanceMapper.deleteById(staleId);
+                log.warn("实例心跳超时，释放其持有的租约: {}, 租约数: {}", staleId, expired);
+            }
+        } catch (Exception e) {
+            log.warn("集群心跳失败: {}", e.getMessage());
+        }
+    }
+
+    private void register() {
+        ClusterInstance instance = new ClusterInstance();
+        instance.setInstanceId(instanceId);
+        instance.setHostName(hostName);
+        instance.setWorkers(Math.max(1, workers));
+        instance.setStartTime(startTime);
+        instanceMapper.register(instance);
+    }
+
+    private String resolveHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "middleware-analyze";
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (heartbeatScheduler == null) {
+            return;
+        }
+        heartbeatScheduler.shutdownNow();
+        try {
+            instanceMapper.deleteById(instanceId);
+            log.info("实例已从集群注销: {}", instanceId);
+        } catch (Exception e) {
+            log.warn("实例注销失败: {}, {}", instanceId, e.getMessage());
+        }
+    }
+}
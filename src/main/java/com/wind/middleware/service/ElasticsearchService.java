@@ -2,42 +2,196 @@ package com.wind.middleware.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.AccessMetrics;
+import com.wind.middleware.dto.es.ClientAccessResult;
+import com.wind.middleware.dto.es.CostEstimate;
+import com.wind.middleware.dto.es.IpTarget;
+import com.wind.middleware.dto.es.PreviewResult;
+import com.wind.middleware.entity.enums.QueryStrategy;
+import com.wind.middleware.exception.PartialResultException;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.sampler.Sampler;
+import org.elasticsearch.search.aggregations.bucket.terms.IncludeExclude;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.cardinality.Cardinality;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.elasticsearch.search.aggregations.metrics.min.Min;
+import org.elasticsearch.search.aggregations.metrics.sum.Sum;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 
 /**
  * Elasticsearch查询服务
  */
 @Slf4j
 @Service
-public class ElasticsearchService {
+public class ElasticsearchService implements FlowSource {
 
     @Autowired
     private RestHighLevelClient esClient;
 
+    @Autowired
+    private EsSearchExecutor searchExecutor;
+
+    @Autowired
+    private EsStreamingParser streamingParser;
+
+    @Autowired
+    private LocalAggregateCache localCache;
+
+    @Autowired
+    private RollupService rollupService;
+
+    @Autowired
+    private RollupStore rollupStore;
+
+    @Autowired
+    private PresenceFilterService presenceFilter;
+
     @Value("${middleware.elasticsearch.index-prefix}")
     private String indexPrefix;
 
-    @Value("${middleware.elasticsearch.retry-count}")
-    private int retryCount;
+    @Value("${middleware.elasticsearch.query-strategy:BATCH}")
+    private QueryStrategy queryStrategy;
+
+    @Value("${middleware.elasticsearch.aggregation-size:10000}")
+    private int aggregationSize;
+
+    @Value("${middleware.elasticsearch.max-buckets:10000}")
+    private int maxBuckets;
+
+    @Value("${middleware.elasticsearch.min-client-buckets:1000}")
+    private int minClientBuckets;
+
+    @Value("${middleware.elasticsearch.composite-page-size:5000}")
+    private int compositePageSize;
+
+    @Value("${middleware.elasticsearch.msearch-batch-size:10}")
+    private int msearchBatchSize;
+
+    @Value("${middleware.elasticsearch.partition-target-size:5000}")
+    private int partitionTargetSize;
+
+    @Value("${middleware.elasticsearch.streaming-parse:true}")
+    private boolean streamingParse;
+
+    @Value("${middleware.elasticsearch.request-cache:true}")
+    private boolean requestCache;
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
+    @Value("${middleware.elasticsearch.traffic-metrics:true}")
+    private boolean trafficMetrics;
+
+    @Value("${middleware.elasticsearch.hourly-histogram:false}")
+    private boolean hourlyHistogram;
+
+    @Value("${middleware.preview.shard-size:5000}")
+    private int previewShardSize;
+
+    @Value("${middleware.preview.diversify-field:}")
+    private String previewDiversifyField;
+
+    @Value("${middleware.preview.max-docs-per-value:100}")
+    private int previewMaxDocsPerValue;
+
+    @Value("${middleware.preview.top-size:100}")
+    private int previewTopSize;
+
+    @Value("${middleware.preview.timeout-ms:10000}")
+    private long previewTimeoutMs;
+
+    private static final DateTimeFormatter INDEX_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    /**
+     * 按实际端口拆分的采样预览中，每个访问对最多保留的端口数
+     */
+    private static final int PREVIEW_PORTS_PER_PEER = 10;
+
+    /**
+     * 流式解析时只返回 srcip 聚合及其流量指标子聚合需要的字段
+     */
+    private static final String[] CLIENT_IPS_FILTER_PATH = {
+            "took", "timed_out", "error", "_shards.failed", "_shards.failures",
+            "aggregations.client_ips.sum_other_doc_count",
+            "aggregations.client_ips.buckets.key",
+            "aggregations.client_ips.buckets.key_as_string",
+            "aggregations.client_ips.buckets.doc_count",
+            "aggregations.client_ips.buckets." + EsStreamingParser.BYTES_SUM + ".value",
+            "aggregations.client_ips.buckets." + EsStreamingParser.COUNT_SUM + ".value",
+            "aggregations.client_ips.buckets." + EsStreamingParser.FIRST_SEEN + ".value",
+            "aggregations.client_ips.buckets." + EsStreamingParser.LAST_SEEN + ".value",
+            "aggregations.client_ips.buckets." + EsStreamingParser.HOURLY + ".buckets.key",
+            "aggregations.client_ips.buckets." + EsStreamingParser.HOURLY + ".buckets.doc_count"
+    };
+
+    /**
+     * 流式解析请求要求ES返回gzip压缩的响应，由低级客户端透明解压
+     */
+    private static final RequestOptions STREAMING_OPTIONS = RequestOptions.DEFAULT.toBuilder()
+            .addHeader("Accept-Encoding", "gzip")
+            .build();
+
+    private static final ContentType NDJSON_CONTENT_TYPE =
+            ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    /**
+     * 查询访问指定服务的客户端IP（使用配置的默认查询策略）
+     *
+     * @param serverIps 服务端IP列表
+     * @param port      服务端端口
+     * @param startDate 开始日期
+     * @param endDate   结束日期
+     * @return 客户端IP访问统计Map，key为"clientIp|serverIp"，value为访问次数
+     */
+    @Override
+    public Map<String, Long> queryClientIpAccess(List<String> serverIps, Integer port,
+                                                LocalDate startDate, LocalDate endDate) {
+        return queryClientAccess(serverIps, AccessFilter.ofPort(port), startDate, endDate, queryStrategy).getTotals();
+    }
+
     /**
      * 查询访问指定服务的客户端IP
      *
@@ -45,104 +199,1251 @@ public class ElasticsearchService {
      * @param port      服务端端口
      * @param startDate 开始日期
      * @param endDate   结束日期
-     * @return 客户端IP访问统计Map，key为"clientIp:serverIp"，value为访问次数
+     * @param strategy  查询策略
+     * @return 客户端IP访问统计Map，key为"clientIp|serverIp"，value为访问次数
      */
     public Map<String, Long> queryClientIpAccess(List<String> serverIps, Integer port,
+                                                LocalDate startDate, LocalDate endDate,
+                                                QueryStrategy strategy) {
+        return queryClientAccess(serverIps, AccessFilter.ofPort(port), startDate, endDate, strategy).getTotals();
+    }
+
+    /**
+     * 查询访问指定服务的客户端IP，返回汇总及按天拆分的结果（使用配置的默认查询策略）
+     */
+    public ClientAccessResult queryClientAccess(List<String> serverIps, AccessFilter filter,
                                                 LocalDate startDate, LocalDate endDate) {
-        Map<String, Long> result = new HashMap<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+        return queryClientAccess(serverIps, filter, startDate, endDate, queryStrategy);
+    }
 
-        // 分天查询策略
-        LocalDate currentDate = startDate;
-        while (!currentDate.isAfter(endDate)) {
-            String indexName = indexPrefix + currentDate.format(formatter);
-            log.info("开始查询索引: {}, 服务端IP: {}, 端口: {}", indexName, serverIps, port);
+    /**
+     * 查询访问指定服务的客户端IP，返回汇总及按天拆分的结果
+     *
+     * @param serverIps 目标IP列表，入向为服务端IP，出向为客户端IP
+     * @param filter    方向、端口及时间窗口过滤条件
+     * @param startDate 开始日期（索引日期）
+     * @param endDate   结束日期（索引日期）
+     * @param strategy  查询策略，为null时使用配置的默认查询策略；出向查询固定使用COMPOSITE
+     * @return 查询结果
+     */
+    @Override
+    public ClientAccessResult queryClientAccess(List<String> serverIps, AccessFilter filter,
+                                                LocalDate startDate, LocalDate endDate,
+                                                QueryStrategy strategy) {
+        if (strategy == null) {
+            strategy = queryStrategy;
+        }
+        boolean network = IpTarget.hasNetwork(serverIps);
+        if ((filter.isPerPort() || network) && strategy != QueryStrategy.COMPOSITE) {
+            // 出向及端口发现查询的结果按 dport 拆分，网段目标的结果按实际IP拆分，只有composite聚合能按多个字段分桶，
+            // 其余策略均基于单字段terms聚合且按目标IP个数计算桶数量
+            log.info("{}查询使用COMPOSITE策略，忽略查询策略: {}",
+                    network ? "网段" : filter.isOutbound() ? "出向" : "端口发现", strategy);
+            strategy = QueryStrategy.COMPOSITE;
+        }
+        ClientAccessResult result = new ClientAccessResult();
+        result.setStrategy(strategy);
+
+        // 已完成汇总的日期直接读取汇总结果，其余日期读取本地聚合缓存，命中的（日期，服务端IP）不再查询ES
+        List<LocalDate> rawDays = loadFromRollup(startDate, endDate, serverIps, filter, result);
+        Map<LocalDate, List<String>> pending = loadFromLocalCache(rawDays, serverIps, filter, result);
+        // 存在性过滤器确定没有访问记录的（日期，服务端IP）不再查询
+        skipAbsent(pending, filter, result);
+        List<LocalDate> days = new ArrayList<>(pending.keySet());
+
+        // 各查询单元通过异步执行器并发执行，结果到达后立即合并
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        CacheStats cacheBefore = requestCacheStats(days);
+        switch (strategy) {
+            case MULTI_INDEX:
+                // 需要查询全部服务端IP的日期合并为多索引查询，按天数分块控制桶数量；其余日期逐天批量查询
+                List<LocalDate> fullDays = days.stream()
+                        .filter(day -> pending.get(day).size() == serverIps.size())
+                        .toList();
+                for (List<LocalDate> chunk : splitDays(fullDays, serverIps.size())) {
+                    futures.add(queryClientIpForDays(chunk, serverIps, filter, result));
+                }
+                pending.forEach((day, dayServerIps) -> {
+                    if (dayServerIps.size() < serverIps.size()) {
+                        futures.add(guard(day, dayServerIps, result,
+                                queryClientIpForServers(day, dayServerIps, filter, result)));
+                    }
+                });
+                break;
+            case PARTITIONED:
+                pending.forEach((day, dayServerIps) -> futures.add(guard(day, dayServerIps, result,
+                        queryClientIpPartitioned(day, dayServerIps, filter, result))));
+                break;
+            case COMPOSITE:
+                pending.forEach((day, dayServerIps) -> futures.add(guard(day, dayServerIps, result,
+                        queryClientIpComposite(day, dayServerIps, filter, result))));
+                break;
+            case BATCH:
+                // 每天一次请求查询全部服务端IP，单个服务端IP与逐IP查询相同
+                List<IndexTarget> singleTargets = new ArrayList<>();
+                pending.forEach((day, dayServerIps) -> {
+                    if (dayServerIps.size() > 1) {
+                        futures.add(guard(day, dayServerIps, result,
+                                queryClientIpForServers(day, dayServerIps, filter, result)));
+                    } else {
+                        singleTargets.addAll(toTargets(List.of(day), dayServerIps));
+                    }
+                });
+                futures.add(queryClientIpPerServer(singleTargets, filter, result));
+                break;
+            default:
+                List<IndexTarget> targets = new ArrayList<>();
+                pending.forEach((day, dayServerIps) -> targets.addAll(toTargets(List.of(day), dayServerIps)));
+                futures.add(queryClientIpPerServer(targets, filter, result));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        // 完整的历史结果写入本地聚合缓存
+        storeToLocalCache(pending, filter, result);
+
+        // 查询期间的请求缓存命中数：索引级近似值，同一时间其他任务的查询也会计入，仅作参考
+        CacheStats cacheAfter = requestCacheStats(days);
+        if (cacheBefore != null && cacheAfter != null) {
+            result.setRequestCacheHits(Math.max(0, cacheAfter.hits() - cacheBefore.hits()));
+            result.setRequestCacheMisses(Math.max(0, cacheAfter.misses() - cacheBefore.misses()));
+        }
 
+        log.info("ES查询完成，总共获得 {} 个客户端IP-服务端IP对，被截断的（日期，服务端IP）: {}, 失败: {}, "
+                        + "请求缓存命中/未命中（索引级近似）: {}/{}, 本地缓存命中/未命中: {}/{}, 汇总结果: {}, "
+                        + "过滤器跳过: {}",
+                result.getTotals().size(), result.getTruncatedUnits().size(), result.getFailedUnits().size(),
+                result.getRequestCacheHits(), result.getRequestCacheMisses(),
+                result.getLocalCacheHits(), result.getLocalCacheMisses(), result.getRollupUnits(),
+                result.getPresenceSkips());
+        return result;
+    }
+
+    /**
+     * 读取已完成汇总日期的结果，汇总只包含整天数据且不含小时分布，限定时间窗口或统计小时分布时不使用汇总；
+     * 汇总按服务端分组存放，出向查询需要扫描全部分组，不使用汇总
+     *
+     * @return 仍需查询原始索引的日期
+     */
+    private List<LocalDate> loadFromRollup(LocalDate startDate, LocalDate endDate, List<String> serverIps,
+                                           AccessFilter filter, ClientAccessResult result) {
+        List<LocalDate> days = listDays(startDate, endDate);
+        if (filter.hasTimeWindow() || hourlyHistogram || filter.isOutbound()) {
+            return days;
+        }
+        Set<LocalDate> rolledUp = rollupService.completedDays(startDate, endDate);
+        if (rolledUp.isEmpty()) {
+            return days;
+        }
+        Predicate<String> serverIpMatcher = IpTarget.matcher(serverIps);
+        List<LocalDate> remaining = new ArrayList<>();
+        for (LocalDate day : days) {
+            if (!rolledUp.contains(day)) {
+                remaining.add(day);
+                continue;
+            }
+            // 读取完整后再合并，读取失败时改为查询原始索引，避免重复累加；
+            // 汇总按 (dstip, dport) 分组，未指定端口时直接得到每个端口的客户端
+            List<RollupHit> hits = new ArrayList<>();
             try {
-                // 为每个服务端IP分别查询
-                for (String serverIp : serverIps) {
-                    Map<String, Long> dayResult = queryClientIpForSingleServer(indexName, serverIp, port);
-                    // 合并结果，key格式为"clientIp:serverIp"
-                    for (Map.Entry<String, Long> entry : dayResult.entrySet()) {
-                        String key = entry.getKey() + ":" + serverIp;
-                        result.merge(key, entry.getValue(), Long::sum);
+                rollupStore.read(day, serverIpMatcher, filter.getPort(), (serverIp, port, clientIp, metrics) -> {
+                    if (filter.matchesPort(port)) {
+                        hits.add(new RollupHit(serverIp, port, clientIp, metrics));
                     }
+                });
+            } catch (IOException e) {
+                log.warn("读取索引 {} 的汇总结果失败，改为查询原始索引: {}", indexName(day), e.getMessage());
+                remaining.add(day);
+                continue;
+            }
+            for (RollupHit hit : hits) {
+                if (filter.isPerPort()) {
+                    result.add(day, hit.clientIp(), hit.serverIp(), hit.port(), hit.metrics());
+                } else {
+                    result.add(day, hit.clientIp(), hit.serverIp(), hit.metrics());
                 }
-                log.info("索引 {} 查询完成", indexName);
-            } catch (Exception e) {
-                log.error("查询索引 {} 失败: {}", indexName, e.getMessage());
-                // 继续处理其他天的数据，不中断整个流程
             }
+            result.recordRollup(serverIps.size());
+        }
+        return remaining;
+    }
 
-            currentDate = currentDate.plusDays(1);
+    /**
+     * 移除存在性过滤器确定没有访问记录的（日期，服务端IP），整天都没有的日期一并移除；过滤器只记录服务端，出向查询不适用，
+     * 网段目标无法按单个IP判断，始终保留
+     */
+    private void skipAbsent(Map<LocalDate, List<String>> pending, AccessFilter filter, ClientAccessResult result) {
+        if (filter.isOutbound()) {
+            return;
         }
+        pending.entrySet().removeIf(entry -> {
+            LocalDate day = entry.getKey();
+            List<String> dayServerIps = entry.getValue();
+            int before = dayServerIps.size();
+            dayServerIps.removeIf(serverIp -> !IpTarget.isNetwork(serverIp)
+                    && !presenceFilter.mightContain(day, serverIp, filter.getPort()));
+            result.recordPresenceSkips(before - dayServerIps.size());
+            return dayServerIps.isEmpty();
+        });
+    }
 
-        log.info("ES查询完成，总共获得 {} 个客户端IP-服务端IP对", result.size());
-        return result;
+    /**
+     * 从本地聚合缓存读取历史结果
+     *
+     * @return 未命中、仍需查询ES的（日期 → 服务端IP列表）
+     */
+    private Map<LocalDate, List<String>> loadFromLocalCache(List<LocalDate> days, List<String> serverIps,
+                                                            AccessFilter filter, ClientAccessResult result) {
+        Map<LocalDate, List<String>> pending = new TreeMap<>();
+        for (LocalDate day : days) {
+            List<String> dayServerIps = new ArrayList<>();
+            for (String serverIp : serverIps) {
+                if (!IpTarget.isNetwork(serverIp) && isLocalCacheable(day, filter)) {
+                    Map<String, AccessMetrics> clients = localCache.get(day, filter.getDirection(), serverIp,
+                            filter.getPort());
+                    result.recordLocalCache(clients != null);
+                    if (clients != null) {
+                        if (filter.isOutbound()) {
+                            result.addAllOutbound(day, serverIp, clients);
+                        } else {
+                            result.addAll(day, serverIp, clients);
+                        }
+                        continue;
+                    }
+                }
+                dayServerIps.add(serverIp);
+            }
+            if (!dayServerIps.isEmpty()) {
+                pending.put(day, dayServerIps);
+            }
+        }
+        return pending;
     }
 
     /**
-     * 查询单个服务器的客户端IP访问统计
+     * 将完整（未截断、未失败）的历史结果写入本地聚合缓存；当天有ES响应出现分片失败或超时时整天不缓存
+     */
+    private void storeToLocalCache(Map<LocalDate, List<String>> queried, AccessFilter filter,
+                                   ClientAccessResult result) {
+        queried.forEach((day, dayServerIps) -> {
+            if (!isLocalCacheable(day, filter)) {
+                return;
+            }
+            for (String serverIp : dayServerIps) {
+                // 网段目标的结果按实际IP存放，缓存只按单个目标IP保存
+                if (!IpTarget.isNetwork(serverIp) && result.isCacheable(day, serverIp)) {
+                    localCache.put(day, filter.getDirection(), serverIp, filter.getPort(), filter.isOutbound()
+                            ? result.getOutboundUnit(day, serverIp) : result.getUnit(day, serverIp));
+                }
+            }
+        });
+    }
+
+    /**
+     * 本地缓存只保存整天的结果且不含小时分布，限定时间窗口或统计小时分布时不使用缓存；
+     * 端口发现查询的历史日期由日索引汇总提供，不使用缓存；网段目标不使用缓存
+     */
+    private boolean isLocalCacheable(LocalDate day, AccessFilter filter) {
+        return !filter.hasTimeWindow() && !hourlyHistogram && !filter.hasPortConditions()
+                && (filter.isOutbound() || filter.getPort() != null) && localCache.isCacheable(day);
+    }
+
+    /**
+     * 预估查询代价，用于任务提交前的预检
+     * <p>
+     * 一次多索引请求同时得到命中文档数（等价于 _count）和 cardinality 聚合：
+     * dstip → srcip 估算整个时间范围内的客户端数量，_index → dstip → srcip 估算单个（日期，服务端IP）的最大客户端数量。
      *
-     * @param indexName 索引名称
-     * @param serverIp  服务端IP
-     * @param port      端口
-     * @return 客户端IP访问统计
+     * @return 估算结果，不包含查询策略
      */
-    private Map<String, Long> queryClientIpForSingleServer(String indexName, String serverIp, Integer port) {
-        Map<String, Long> result = new HashMap<>();
+    public CostEstimate estimateClientAccess(List<String> serverIps, AccessFilter filter,
+                                             LocalDate startDate, LocalDate endDate) {
+        List<LocalDate> days = listDays(startDate, endDate);
+        String[] indexNames = days.stream().map(this::indexName).toArray(String[]::new);
 
-        for (int attempt = 1; attempt <= retryCount; attempt++) {
-            try {
-                SearchRequest searchRequest = new SearchRequest(indexName);
-                SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        SearchRequest searchRequest = new SearchRequest(indexNames);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.query(buildServerQuery(serverIps, filter));
+        // 网段目标按包含的地址数计算服务端桶数量
+        int serverBuckets = (int) IpTarget.totalSize(serverIps, maxBuckets);
+        sourceBuilder.aggregation(
+                AggregationBuilders.terms("server_ips")
+                        .field("dstip")
+                        .size(serverBuckets)
+                        .subAggregation(AggregationBuilders.cardinality("client_count").field("srcip"))
+        );
+        sourceBuilder.aggregation(
+                AggregationBuilders.terms("days")
+                        .field("_index")
+                        .size(days.size())
+                        .subAggregation(
+                                AggregationBuilders.terms("server_ips")
+                                        .field("dstip")
+                                        .size(serverBuckets)
+                                        .subAggregation(AggregationBuilders.cardinality("client_count").field("srcip"))
+                        )
+        );
+        sourceBuilder.size(0);
+        searchRequest.source(sourceBuilder);
+        applySearchOptions(searchRequest, "estimate/" + serverIps.hashCode());
 
-                // 构建查询条件 - 查询单个服务端IP
-                BoolQueryBuilder boolQuery = QueryBuilders.boolQuery()
-                        .must(QueryBuilders.termQuery("dstip", serverIp))
-                        .must(QueryBuilders.termQuery("dport", port));
+        String indexRange = indexNames[0] + " ~ " + indexNames[indexNames.length - 1];
+        SearchResponse searchResponse = searchExecutor.search(searchRequest, indexRange + " 代价估算").join();
 
-                sourceBuilder.query(boolQuery);
+        CostEstimate estimate = new CostEstimate();
+        estimate.setEstimatedDocs(searchResponse.getHits().getTotalHits());
+        if (isEmptyResponse(searchResponse)) {
+            log.info("代价估算完成: {}, 索引均不存在", indexRange);
+            return estimate;
+        }
 
-                // 添加srcip聚合
-                sourceBuilder.aggregation(
-                        AggregationBuilders.terms("client_ips")
-                                .field("srcip")
-                                .size(10000) // 设置聚合结果数量限制
-                );
+        Terms serverIpsAgg = searchResponse.getAggregations().get("server_ips");
+        long estimatedClients = 0;
+        for (Terms.Bucket serverBucket : serverIpsAgg.getBuckets()) {
+            Cardinality clientCount = serverBucket.getAggregations().get("client_count");
+            estimatedClients += clientCount.getValue();
+        }
+        estimate.setEstimatedClients(estimatedClients);
 
-                // 设置不返回具体文档，只要聚合结果
-                sourceBuilder.size(0);
-                searchRequest.source(sourceBuilder);
+        Terms daysAgg = searchResponse.getAggregations().get("days");
+        long maxUnitClients = 0;
+        for (Terms.Bucket dayBucket : daysAgg.getBuckets()) {
+            Terms dayServersAgg = dayBucket.getAggregations().get("server_ips");
+            for (Terms.Bucket serverBucket : dayServersAgg.getBuckets()) {
+                Cardinality clientCount = serverBucket.getAggregations().get("client_count");
+                maxUnitClients = Math.max(maxUnitClients, clientCount.getValue());
+            }
+        }
+        estimate.setMaxUnitClients(maxUnitClients);
+        estimate.setMatchedIndices(daysAgg.getBuckets().size());
 
-                // 执行查询
-                SearchResponse searchResponse = esClient.search(searchRequest, RequestOptions.DEFAULT);
+        log.info("代价估算完成: {}, 文档数: {}, 客户端数: {}, 单日单IP最大客户端数: {}",
+                indexRange, estimate.getEstimatedDocs(), estimatedClients, maxUnitClients);
+        return estimate;
+    }
 
-                // 解析聚合结果
-                Terms clientIpsAgg = searchResponse.getAggregations().get("client_ips");
-                for (Terms.Bucket bucket : clientIpsAgg.getBuckets()) {
-                    String clientIp = bucket.getKeyAsString();
-                    long count = bucket.getDocCount();
-                    result.put(clientIp, count);
-                }
+    /**
+     * 采样查询近似的Top客户端，用于正式查询前的快速预览
+     * <p>
+     * 一次多索引请求，sampler（配置了 diversify-field 时为 diversified_sampler）只聚合每个分片的前 shard-size 个命中文档，
+     * 其下按目标IP → 对端IP做terms聚合，按实际端口拆分的查询（端口发现及出向）再按端口拆分，与正式结果的访问对一致；
+     * 访问次数按 匹配文档数 / 采样文档数 放大。不使用任何缓存。
+     */
+    @Override
+    public PreviewResult previewClientAccess(List<String> serverIps, AccessFilter filter,
+                                             LocalDate startDate, LocalDate endDate) {
+        List<LocalDate> days = listDays(startDate, endDate);
+        String[] indexNames = days.stream().map(this::indexName).toArray(String[]::new);
+        String targetField = filter.getDirection().getTargetField();
+        String peerField = filter.isOutbound() ? "dstip" : "srcip";
+
+        AggregationBuilder sampler;
+        if (Strings.hasText(previewDiversifyField)) {
+            sampler = AggregationBuilders.diversifiedSampler("sample")
+                    .field(previewDiversifyField)
+                    .maxDocsPerValue(previewMaxDocsPerValue)
+                    .shardSize(previewShardSize);
+        } else {
+            sampler = AggregationBuilders.sampler("sample").shardSize(previewShardSize);
+        }
+        TermsAggregationBuilder peers = AggregationBuilders.terms("peers").field(peerField).size(previewTopSize);
+        if (filter.isPerPort()) {
+            peers.subAggregation(AggregationBuilders.terms("ports").field("dport").size(PREVIEW_PORTS_PER_PEER));
+        }
+        sampler.subAggregation(
+                AggregationBuilders.terms("targets")
+                        .field(targetField)
+                        .size((int) IpTarget.totalSize(serverIps, maxBuckets))
+                        .subAggregation(peers)
+        );
+
+        SearchRequest searchRequest = new SearchRequest(indexNames);
+        searchRequest.indicesOptions(IndicesOptions.lenientExpandOpen());
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(buildServerQuery(serverIps, filter))
+                .aggregation(sampler)
+                .timeout(TimeValue.timeValueMillis(previewTimeoutMs))
+                .size(0);
+        searchRequest.source(sourceBuilder);
 
-                return result;
-            } catch (Exception e) {
-                log.warn("查询索引 {} 服务端IP {} 第 {} 次尝试失败: {}", indexName, serverIp, attempt, e.getMessage());
-                if (attempt == retryCount) {
-                    throw new RuntimeException("查询ES失败，已重试 " + retryCount + " 次", e);
+        String indexRange = indexNames[0] + " ~ " + indexNames[indexNames.length - 1];
+        SearchResponse searchResponse = searchExecutor.search(searchRequest, indexRange + " 采样预览").join();
+        if (isEmptyResponse(searchResponse)) {
+            log.info("采样预览跳过: {}, 索引均不存在", indexRange);
+            return null;
+        }
+
+        Sampler sample = searchResponse.getAggregations().get("sample");
+        long matchedDocs = searchResponse.getHits().getTotalHits();
+        long sampledDocs = sample.getDocCount();
+        double scale = sampledDocs > 0 ? Math.max(1.0, (double) matchedDocs / sampledDocs) : 1.0;
+
+        PreviewResult preview = new PreviewResult();
+        preview.setSampleStartDate(startDate.toString());
+        preview.setSampleEndDate(endDate.toString());
+        preview.setSampler(Strings.hasText(previewDiversifyField) ? "DIVERSIFIED_SAMPLER" : "SAMPLER");
+        preview.setShardSize(previewShardSize);
+        preview.setMatchedDocs(matchedDocs);
+        preview.setSampledDocs(sampledDocs);
+        preview.setTookMillis(searchResponse.getTook().millis());
+
+        Terms targetsAgg = sample.getAggregations().get("targets");
+        List<PreviewResult.Client> clients = new ArrayList<>();
+        for (Terms.Bucket targetBucket : targetsAgg.getBuckets()) {
+            Terms peersAgg = targetBucket.getAggregations().get("peers");
+            for (Terms.Bucket peerBucket : peersAgg.getBuckets()) {
+                String clientIp = filter.isOutbound() ? targetBucket.getKeyAsString() : peerBucket.getKeyAsString();
+                String serverIp = filter.isOutbound() ? peerBucket.getKeyAsString() : targetBucket.getKeyAsString();
+                if (!filter.isPerPort()) {
+                    clients.add(previewClient(clientIp, serverIp, null, peerBucket.getDocCount(), scale));
+                    continue;
                 }
-                // 简单的延迟重试
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("查询中断", ie);
+                Terms portsAgg = peerBucket.getAggregations().get("ports");
+                for (Terms.Bucket portBucket : portsAgg.getBuckets()) {
+                    clients.add(previewClient(clientIp, serverIp, portBucket.getKeyAsNumber().intValue(),
+                            portBucket.getDocCount(), scale));
                 }
             }
         }
+        clients.sort(Comparator.comparingLong(PreviewResult.Client::getSampledCount).reversed());
+        preview.setClients(clients.size() > previewTopSize ? new ArrayList<>(clients.subList(0, previewTopSize)) : clients);
 
-        return result;
+        log.info("采样预览完成: {}, 匹配文档数: {}, 采样文档数: {}, 客户端IP-服务端IP对: {}, 耗时: {}ms",
+                indexRange, matchedDocs, sampledDocs, preview.getClients().size(), preview.getTookMillis());
+        return preview;
+    }
+
+    private static PreviewResult.Client previewClient(String clientIp, String serverIp, Integer port,
+                                                      long sampledCount, double scale) {
+        PreviewResult.Client client = new PreviewResult.Client();
+        client.setClientIp(clientIp);
+        client.setServerIp(serverIp);
+        client.setPort(port);
+        client.setSampledCount(sampledCount);
+        client.setEstimatedCount(Math.round(sampledCount * scale));
+        return client;
+    }
+
+    /**
+     * 为每个（日期，服务端IP）分别查询，按 msearch-batch-size 合并为 _msearch 请求
+     */
+    private CompletableFuture<Void> queryClientIpPerServer(List<IndexTarget> targets, AccessFilter filter,
+                                                           ClientAccessResult result) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < targets.size(); from += msearchBatchSize) {
+            List<IndexTarget> batch = targets.subList(from, Math.min(from + msearchBatchSize, targets.size()));
+            futures.add(queryClientIpBatch(batch, filter, result));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 执行一个 _msearch 批次，单个子请求失败时单独重试
+     */
+    private CompletableFuture<Void> queryClientIpBatch(List<IndexTarget> batch, AccessFilter filter,
+                                                       ClientAccessResult result) {
+        if (batch.size() == 1) {
+            return queryClientIpForSingleServer(batch.get(0), filter, result);
+        }
+
+        List<SearchRequest> searchRequests = new ArrayList<>();
+        batch.forEach(target -> searchRequests.add(buildSingleServerRequest(target, filter, null)));
+
+        String description = "msearch " + batch.size() + "个（索引，服务端IP）";
+        // 各子请求的失败信息，成功为null
+        CompletableFuture<List<String>> failures = streamingParse
+                ? streamClientIpBatch(batch, searchRequests, description, result)
+                : queryClientIpBatchObjects(batch, searchRequests, description, result);
+        return failures
+                .thenCompose(itemFailures -> {
+                    List<CompletableFuture<Void>> retries = new ArrayList<>();
+                    for (int i = 0; i < batch.size(); i++) {
+                        IndexTarget target = batch.get(i);
+                        String failure = i < itemFailures.size() ? itemFailures.get(i) : "缺少子响应";
+                        if (failure != null) {
+                            log.warn("索引 {} 服务端IP {} 批量查询失败，单独重试: {}",
+                                    target.indexName(), target.serverIp(), failure);
+                            retries.add(queryClientIpForSingleServer(target, filter, result));
+                        }
+                    }
+                    return CompletableFuture.allOf(retries.toArray(new CompletableFuture[0]));
+                })
+                .exceptionally(e -> {
+                    log.error("{} 失败: {}", description, rootMessage(e));
+                    batch.forEach(target -> result.markFailed(target.day(), target.serverIp()));
+                    // 继续处理其他批次的数据，不中断整个流程
+                    return null;
+                });
+    }
+
+    /**
+     * 通过高级客户端执行 _msearch，解析为 SearchResponse 对象后写入结果
+     */
+    private CompletableFuture<List<String>> queryClientIpBatchObjects(List<IndexTarget> batch,
+                                                                      List<SearchRequest> searchRequests,
+                                                                      String description,
+                                                                      ClientAccessResult result) {
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        searchRequests.forEach(multiSearchRequest::add);
+        return searchExecutor.multiSearch(multiSearchRequest, description)
+                .thenApply(response -> {
+                    List<String> failures = new ArrayList<>();
+                    MultiSearchResponse.Item[] items = response.getResponses();
+                    for (int i = 0; i < items.length; i++) {
+                        if (items[i].isFailure()) {
+                            failures.add(items[i].getFailureMessage());
+                            continue;
+                        }
+                        // 分片失败或超时的子响应只含部分分片的聚合结果，不写入结果，按失败单独重试
+                        PartialResultException partial = searchExecutor.checkComplete(items[i].getResponse(), description);
+                        if (partial != null) {
+                            result.markDegraded(batch.get(i).day());
+                            failures.add(partial.getMessage());
+                        } else {
+                            collectClientBuckets(batch.get(i), items[i].getResponse(), result);
+                            failures.add(null);
+                        }
+                    }
+                    return failures;
+                });
+    }
+
+    /**
+     * 通过低级客户端执行 _msearch，流式解析桶并直接写入结果
+     */
+    private CompletableFuture<List<String>> streamClientIpBatch(List<IndexTarget> batch,
+                                                                List<SearchRequest> searchRequests,
+                                                                String description,
+                                                                ClientAccessResult result) {
+        return searchExecutor.streamSearch(toLowLevelMultiSearch(searchRequests), description,
+                        response -> streamingParser.parseMultiSearch(response, "client_ips",
+                                (item, clientIp, metrics) -> {
+                                    IndexTarget target = batch.get(item);
+                                    result.add(target.day(), clientIp, target.serverIp(), metrics);
+                                }))
+                .thenApply(items -> {
+                    List<String> failures = new ArrayList<>();
+                    for (int i = 0; i < items.size() && i < batch.size(); i++) {
+                        EsStreamingParser.ItemResult item = items.get(i);
+                        if (!item.isFailure()) {
+                            checkTruncated(batch.get(i), item.sumOtherDocCount(), result);
+                        } else if (item.isPartial()) {
+                            result.markDegraded(batch.get(i).day());
+                        }
+                        failures.add(item.failure());
+                    }
+                    return failures;
+                });
+    }
+
+    /**
+     * 一次请求查询多个服务端IP的客户端访问统计
+     * <p>
+     * 使用 dstip terms 过滤 + dstip → srcip 嵌套聚合，桶数量上限按服务端IP平均分配；
+     * 客户端桶被截断的服务端IP，或整个请求失败时，回退到逐IP查询。
+     */
+    private CompletableFuture<Void> queryClientIpForServers(LocalDate day, List<String> serverIps, AccessFilter filter,
+                                                            ClientAccessResult result) {
+        String indexName = indexName(day);
+        int clientBucketSize = Math.max(1, Math.min(aggregationSize, maxBuckets / serverIps.size()));
+
+        SearchRequest searchRequest = new SearchRequest(indexName);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.query(buildServerQuery(serverIps, filter));
+
+        // 添加dstip → srcip嵌套聚合
+        sourceBuilder.aggregation(buildServerAggregation(serverIps.size(), clientBucketSize));
+
+        sourceBuilder.size(0);
+        searchRequest.source(sourceBuilder);
+        applySearchOptions(searchRequest, indexName + "/" + serverIps.hashCode());
+
+        log.info("开始查询索引: {}, 服务端IP: {}, 端口: {}", indexName, serverIps, filter.getPort());
+        return searchExecutor.search(searchRequest, indexName + " 批量" + serverIps.size() + "个IP")
+                .thenCompose(searchResponse -> {
+                    if (isEmptyResponse(searchResponse)) {
+                        log.info("索引 {} 不存在，当天没有数据", indexName);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    // 解析聚合结果，拆分为"clientIp|serverIp"；没有命中的服务端IP无需回退，只有被截断的需要单独查询
+                    Terms serverIpsAgg = searchResponse.getAggregations().get("server_ips");
+                    List<String> truncatedServers = collectServerBuckets(day, serverIpsAgg, clientBucketSize, result);
+                    log.info("索引 {} 查询完成", indexName);
+                    return queryClientIpPerServer(toTargets(List.of(day), truncatedServers), filter, result);
+                })
+                .exceptionallyCompose(e -> {
+                    log.warn("索引 {} 批量查询失败，回退到逐IP查询: {}", indexName, rootMessage(e));
+                    if (PartialResultException.isCause(e)) {
+                        result.markDegraded(day);
+                    }
+                    return queryClientIpPerServer(toTargets(List.of(day), serverIps), filter, result);
+                });
+    }
+
+    /**
+     * 一次请求查询多天索引
+     * <p>
+     * 所有日期索引放在同一个请求中，缺失的索引自动跳过，由ES在各分片上并行执行；
+     * 通过 _index → dstip → srcip 嵌套聚合拆分出每天的结果。
+     * 被截断的（日期，服务端IP）回退到单IP查询，整个请求失败时回退到逐天查询。
+     */
+    private CompletableFuture<Void> queryClientIpForDays(List<LocalDate> days, List<String> serverIps, AccessFilter filter,
+                                                         ClientAccessResult result) {
+        int clientBucketSize = Math.max(1,
+                Math.min(aggregationSize, maxBuckets / (days.size() * serverIps.size())));
+        String[] indexNames = days.stream().map(this::indexName).toArray(String[]::new);
+        String indexRange = indexNames[0] + " ~ " + indexNames[indexNames.length - 1];
+        log.info("开始多索引查询: {}, 服务端IP: {}, 端口: {}", indexRange, serverIps, filter.getPort());
+
+        SearchRequest searchRequest = new SearchRequest(indexNames);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.query(buildServerQuery(serverIps, filter));
+
+        // 添加 _index → dstip → srcip 嵌套聚合，按索引名拆分每天的结果
+        sourceBuilder.aggregation(
+                AggregationBuilders.terms("days")
+                        .field("_index")
+                        .size(days.size())
+                        .subAggregation(buildServerAggregation(serverIps.size(), clientBucketSize))
+        );
+
+        sourceBuilder.size(0);
+        searchRequest.source(sourceBuilder);
+        applySearchOptions(searchRequest, indexRange + "/" + serverIps.hashCode());
+
+        return searchExecutor.search(searchRequest, indexRange + " 多索引" + serverIps.size() + "个IP")
+                .thenCompose(searchResponse -> {
+                    if (isEmptyResponse(searchResponse)) {
+                        log.info("多索引查询 {} 完成，索引均不存在", indexRange);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    List<IndexTarget> truncatedTargets = new ArrayList<>();
+                    Terms daysAgg = searchResponse.getAggregations().get("days");
+                    for (Terms.Bucket dayBucket : daysAgg.getBuckets()) {
+                        LocalDate day = LocalDate.parse(
+                                dayBucket.getKeyAsString().substring(indexPrefix.length()), INDEX_DATE_FORMATTER);
+                        Terms serverIpsAgg = dayBucket.getAggregations().get("server_ips");
+                        List<String> truncatedServers = collectServerBuckets(day, serverIpsAgg, clientBucketSize, result);
+                        truncatedTargets.addAll(toTargets(List.of(day), truncatedServers));
+                    }
+                    log.info("多索引查询 {} 完成，命中 {} 个索引", indexRange, daysAgg.getBuckets().size());
+                    return queryClientIpPerServer(truncatedTargets, filter, result);
+                })
+                .exceptionallyCompose(e -> {
+                    log.warn("多索引查询 {} 失败，回退到逐天查询: {}", indexRange, rootMessage(e));
+                    if (PartialResultException.isCause(e)) {
+                        days.forEach(result::markDegraded);
+                    }
+                    List<CompletableFuture<Void>> futures = new ArrayList<>();
+                    for (LocalDate day : days) {
+                        futures.add(guard(day, serverIps, result, queryClientIpForServers(day, serverIps, filter, result)));
+                    }
+                    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+                });
+    }
+
+    /**
+     * 按桶数量上限拆分日期，保证每个（日期，服务端IP）至少分到 minClientBuckets 个客户端桶
+     */
+    private List<List<LocalDate>> splitDays(List<LocalDate> days, int serverCount) {
+        int chunkDays = Math.max(1, maxBuckets / (serverCount * Math.max(1, minClientBuckets)));
+        List<List<LocalDate>> chunks = new ArrayList<>();
+        for (int from = 0; from < days.size(); from += chunkDays) {
+            chunks.add(days.subList(from, Math.min(from + chunkDays, days.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * 构建目标IP + 端口过滤条件，目标IP按查询方向匹配 dstip 或 srcip；未指定端口时按端口范围及排除端口过滤
+     * <p>
+     * 单个IP和CIDR网段合并为一个 terms 过滤（ip 字段的 terms 查询直接支持CIDR写法），IP范围转换为 range 过滤。
+     * <p>
+     * 只使用 filter 上下文，不计算相关性得分，过滤结果可被节点缓存；原始流量导出使用相同的过滤条件
+     */
+    BoolQueryBuilder buildServerQuery(List<String> serverIps, AccessFilter filter) {
+        BoolQueryBuilder boolQuery = QueryBuilders.boolQuery()
+                .filter(buildTargetQuery(filter.getDirection().getTargetField(), serverIps));
+        if (filter.getPort() != null) {
+            boolQuery.filter(QueryBuilders.termQuery("dport", filter.getPort()));
+        } else {
+            addPortConditions(boolQuery, filter);
+        }
+        addTimeWindow(boolQuery, filter);
+        return boolQuery;
+    }
+
+    /**
+     * 构建目标IP过滤条件，只有单个IP和CIDR网段时为一个 terms 查询，含IP范围时为任一命中的 bool should
+     */
+    private QueryBuilder buildTargetQuery(String field, List<String> targets) {
+        List<String> terms = new ArrayList<>();
+        List<IpTarget> ranges = new ArrayList<>();
+        for (String target : targets) {
+            IpTarget ipTarget = IpTarget.isNetwork(target) ? IpTarget.parse(target) : null;
+            if (ipTarget != null && ipTarget.isRange()) {
+                ranges.add(ipTarget);
+            } else {
+                terms.add(target);
+            }
+        }
+        if (ranges.isEmpty()) {
+            return QueryBuilders.termsQuery(field, terms);
+        }
+        BoolQueryBuilder targetQuery = QueryBuilders.boolQuery().minimumShouldMatch(1);
+        if (!terms.isEmpty()) {
+            targetQuery.should(QueryBuilders.termsQuery(field, terms));
+        }
+        ranges.forEach(range -> targetQuery.should(
+                QueryBuilders.rangeQuery(field).gte(range.getFrom()).lte(range.getTo())));
+        return targetQuery;
+    }
+
+    /**
+     * 添加端口范围（任一范围命中即可）及排除端口条件
+     */
+    private void addPortConditions(BoolQueryBuilder boolQuery, AccessFilter filter) {
+        if (filter.getPortRanges() != null && !filter.getPortRanges().isEmpty()) {
+            BoolQueryBuilder rangesQuery = QueryBuilders.boolQuery().minimumShouldMatch(1);
+            filter.getPortRanges().forEach(range -> rangesQuery.should(
+                    QueryBuilders.rangeQuery("dport").gte(range.getFrom()).lte(range.getTo())));
+            boolQuery.filter(rangesQuery);
+        }
+        if (filter.getExcludePorts() != null && !filter.getExcludePorts().isEmpty()) {
+            boolQuery.mustNot(QueryBuilders.termsQuery("dport", filter.getExcludePorts()));
+        }
+    }
+
+    /**
+     * 限定了时间窗口时添加 @timestamp 范围过滤，时间按索引时区换算为UTC毫秒
+     */
+    private void addTimeWindow(BoolQueryBuilder boolQuery, AccessFilter filter) {
+        if (!filter.hasTimeWindow()) {
+            return;
+        }
+        boolQuery.filter(QueryBuilders.rangeQuery("@timestamp")
+                .gte(filter.getStartTime().atZone(indexZone).toInstant().toEpochMilli())
+                .lte(filter.getEndTime().atZone(indexZone).toInstant().toEpochMilli())
+                .format("epoch_millis"));
+    }
+
+    /**
+     * 设置索引选项、请求缓存及分片副本偏好
+     * <p>
+     * 不存在（或已关闭）的日索引直接跳过，不作为请求失败，该天按没有数据处理，见 {@link #isEmptyResponse}；
+     * 历史日索引不再变化，相同的聚合请求可直接命中分片请求缓存；
+     * 同一查询目标使用固定的 preference，保证重复查询落到相同的分片副本上。
+     */
+    private void applySearchOptions(SearchRequest searchRequest, String preference) {
+        searchRequest.indicesOptions(IndicesOptions.lenientExpandOpen());
+        if (requestCache) {
+            searchRequest.requestCache(true);
+            searchRequest.preference(preference);
+        }
+    }
+
+    /**
+     * 请求的索引都不存在时ES返回没有任何分片的空响应，其中没有聚合结果
+     */
+    private static boolean isEmptyResponse(SearchResponse searchResponse) {
+        return searchResponse.getAggregations() == null;
+    }
+
+    /**
+     * 构建 dstip → srcip 嵌套聚合
+     */
+    private TermsAggregationBuilder buildServerAggregation(int serverCount, int clientBucketSize) {
+        return AggregationBuilders.terms("server_ips")
+                .field("dstip")
+                .size(serverCount)
+                .subAggregation(
+                        addMetricAggregations(AggregationBuilders.terms("client_ips")
+                                .field("srcip")
+                                .size(clientBucketSize))
+                );
+    }
+
+    /**
+     * 为客户端桶添加流量指标子聚合：bytes、count 合计，首末次访问时间，以及可选的按小时分布
+     * <p>
+     * 子聚合与访问次数在同一次聚合中计算，不增加请求数；小时分布每个客户端桶最多24个子桶，
+     * 会计入 search.max_buckets，默认关闭。
+     */
+    private <T extends AggregationBuilder> T addMetricAggregations(T clientAgg) {
+        if (!trafficMetrics) {
+            return clientAgg;
+        }
+        clientAgg.subAggregation(AggregationBuilders.sum(EsStreamingParser.BYTES_SUM).field("bytes"))
+                .subAggregation(AggregationBuilders.sum(EsStreamingParser.COUNT_SUM).field("count"))
+                .subAggregation(AggregationBuilders.min(EsStreamingParser.FIRST_SEEN).field("@timestamp"))
+                .subAggregation(AggregationBuilders.max(EsStreamingParser.LAST_SEEN).field("@timestamp"));
+        if (hourlyHistogram) {
+            clientAgg.subAggregation(AggregationBuilders.dateHistogram(EsStreamingParser.HOURLY)
+                    .field("@timestamp")
+                    .dateHistogramInterval(DateHistogramInterval.HOUR)
+                    .format("epoch_millis")
+                    .minDocCount(1));
+        }
+        return clientAgg;
+    }
+
+    /**
+     * 读取客户端桶的访问次数及流量指标子聚合
+     */
+    private AccessMetrics readMetrics(long docCount, Aggregations aggregations) {
+        AccessMetrics metrics = AccessMetrics.of(docCount);
+        if (aggregations == null) {
+            return metrics;
+        }
+        Sum bytesSum = aggregations.get(EsStreamingParser.BYTES_SUM);
+        if (bytesSum != null) {
+            metrics.setTotalBytes(Math.round(bytesSum.getValue()));
+        }
+        Sum countSum = aggregations.get(EsStreamingParser.COUNT_SUM);
+        if (countSum != null) {
+            metrics.setTotalCount(Math.round(countSum.getValue()));
+        }
+        Min firstSeen = aggregations.get(EsStreamingParser.FIRST_SEEN);
+        if (firstSeen != null && Double.isFinite(firstSeen.getValue())) {
+            metrics.setFirstSeen(Math.round(firstSeen.getValue()));
+        }
+        Max lastSeen = aggregations.get(EsStreamingParser.LAST_SEEN);
+        if (lastSeen != null && Double.isFinite(lastSeen.getValue())) {
+            metrics.setLastSeen(Math.round(lastSeen.getValue()));
+        }
+        Histogram hourly = aggregations.get(EsStreamingParser.HOURLY);
+        if (hourly != null) {
+            for (Histogram.Bucket bucket : hourly.getBuckets()) {
+                metrics.addHourly(Long.parseLong(bucket.getKeyAsString()), indexZone, bucket.getDocCount());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 解析 dstip → srcip 嵌套聚合并写入结果
+     *
+     * @return 客户端桶被截断、需要单独查询的服务端IP
+     */
+    private List<String> collectServerBuckets(LocalDate day, Terms serverIpsAgg, int clientBucketSize,
+                                              ClientAccessResult result) {
+        List<String> truncatedServers = new ArrayList<>();
+        for (Terms.Bucket serverBucket : serverIpsAgg.getBuckets()) {
+            String serverIp = serverBucket.getKeyAsString();
+            Terms clientIpsAgg = serverBucket.getAggregations().get("client_ips");
+            if (clientIpsAgg.getSumOfOtherDocCounts() > 0) {
+                // 客户端桶被截断，保留在回退列表中
+                log.info("索引 {} 服务端IP {} 客户端数量超过批量桶上限 {}，回退到单IP查询",
+                        indexName(day), serverIp, clientBucketSize);
+                truncatedServers.add(serverIp);
+                continue;
+            }
+            for (Terms.Bucket bucket : clientIpsAgg.getBuckets()) {
+                result.add(day, bucket.getKeyAsString(), serverIp,
+                        readMetrics(bucket.getDocCount(), bucket.getAggregations()));
+            }
+        }
+        return truncatedServers;
+    }
+
+    /**
+     * 查询单个服务器的客户端IP访问统计
+     *
+     * @param target 索引及服务端IP
+     * @param filter 过滤条件
+     * @param result 查询结果
+     */
+    private CompletableFuture<Void> queryClientIpForSingleServer(IndexTarget target, AccessFilter filter,
+                                                                 ClientAccessResult result) {
+        return queryClientIpForSingleServer(target, filter, 0, 1, result);
+    }
+
+    /**
+     * 查询单个服务器的客户端IP访问统计
+     *
+     * @param target        索引及服务端IP
+     * @param filter        过滤条件
+     * @param partition     srcip分区编号
+     * @param numPartitions srcip分区总数，为1时不分区
+     * @param result        查询结果
+     */
+    private CompletableFuture<Void> queryClientIpForSingleServer(IndexTarget target, AccessFilter filter,
+                                                                 int partition, int numPartitions,
+                                                                 ClientAccessResult result) {
+        IncludeExclude includeExclude = numPartitions > 1 ? new IncludeExclude(partition, numPartitions) : null;
+        String description = target.indexName() + " 服务端IP " + target.serverIp()
+                + (numPartitions > 1 ? " 分区" + partition + "/" + numPartitions : "");
+        SearchRequest searchRequest = buildSingleServerRequest(target, filter, includeExclude);
+        CompletableFuture<Void> future;
+        if (streamingParse) {
+            future = searchExecutor.streamSearch(toLowLevelSearch(searchRequest), description,
+                            response -> streamingParser.parseSearch(response, "client_ips",
+                                    (clientIp, metrics) -> result.add(target.day(), clientIp, target.serverIp(), metrics)))
+                    .thenAccept(items -> {
+                        if (items.isEmpty()) {
+                            throw new IllegalStateException("ES响应中没有搜索结果");
+                        }
+                        if (items.get(0).isFailure()) {
+                            throw new IllegalStateException(items.get(0).failure());
+                        }
+                        checkTruncated(target, items.get(0).sumOtherDocCount(), result);
+                    });
+        } else {
+            future = searchExecutor.search(searchRequest, description)
+                    .thenAccept(searchResponse -> collectClientBuckets(target, searchResponse, result));
+        }
+        return future
+                .exceptionally(e -> {
+                    log.error("查询索引 {} 服务端IP {} 失败: {}", target.indexName(), target.serverIp(), rootMessage(e));
+                    result.markFailed(target.day(), target.serverIp());
+                    // 继续处理其他数据，不中断整个流程
+                    return null;
+                });
+    }
+
+    /**
+     * 构建单个服务端IP的查询请求
+     * <p>
+     * 只有 srcip 单字段terms聚合，结果不按端口拆分，只适用于指定端口的入向查询；
+     * 出向及端口发现查询固定使用COMPOSITE策略，不会走到这里
+     */
+    private SearchRequest buildSingleServerRequest(IndexTarget target, AccessFilter filter, IncludeExclude includeExclude) {
+        if (filter.isPerPort()) {
+            throw new IllegalArgumentException(filter.getDirection().getDescription()
+                    + (filter.getPort() == null ? "端口发现" : "") + "查询不支持逐服务端IP的terms聚合，应使用COMPOSITE策略");
+        }
+        SearchRequest searchRequest = new SearchRequest(target.indexName());
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+
+        // 构建查询条件 - 查询单个服务端IP
+        BoolQueryBuilder boolQuery = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery(filter.getDirection().getTargetField(), target.serverIp()))
+                .filter(QueryBuilders.termQuery("dport", filter.getPort()));
+        addTimeWindow(boolQuery, filter);
+
+        sourceBuilder.query(boolQuery);
+
+        // 添加srcip聚合及流量指标子聚合
+        TermsAggregationBuilder clientIpsAgg = addMetricAggregations(AggregationBuilders.terms("client_ips")
+                .field("srcip")
+                .size(aggregationSize)); // 设置聚合结果数量限制
+        if (includeExclude != null) {
+            clientIpsAgg.includeExclude(includeExclude);
+        }
+        sourceBuilder.aggregation(clientIpsAgg);
+
+        // 设置不返回具体文档，只要聚合结果
+        sourceBuilder.size(0);
+        searchRequest.source(sourceBuilder);
+        applySearchOptions(searchRequest, target.indexName() + "/" + target.serverIp());
+        return searchRequest;
+    }
+
+    /**
+     * 解析单个服务端IP的 srcip 聚合并写入结果
+     */
+    private void collectClientBuckets(IndexTarget target, SearchResponse searchResponse, ClientAccessResult result) {
+        if (isEmptyResponse(searchResponse)) {
+            return;
+        }
+        Terms clientIpsAgg = searchResponse.getAggregations().get("client_ips");
+        for (Terms.Bucket bucket : clientIpsAgg.getBuckets()) {
+            result.add(target.day(), bucket.getKeyAsString(), target.serverIp(),
+                    readMetrics(bucket.getDocCount(), bucket.getAggregations()));
+        }
+        checkTruncated(target, clientIpsAgg.getSumOfOtherDocCounts(), result);
+    }
+
+    /**
+     * srcip 聚合存在未返回的桶时标记结果被截断
+     */
+    private void checkTruncated(IndexTarget target, long sumOtherDocCount, ClientAccessResult result) {
+        if (sumOtherDocCount > 0) {
+            // 超出聚合桶数量限制的客户端被丢弃，标记结果不完整
+            log.warn("索引 {} 服务端IP {} 客户端数量超过聚合上限 {}，结果被截断，丢弃文档数: {}",
+                    target.indexName(), target.serverIp(), aggregationSize, sumOtherDocCount);
+            result.markTruncated(target.day(), target.serverIp());
+        }
+    }
+
+    /**
+     * 将查询请求转换为低级客户端的 _search 请求
+     */
+    private Request toLowLevelSearch(SearchRequest searchRequest) {
+        Request request = new Request("POST", "/" + String.join(",", searchRequest.indices()) + "/_search");
+        request.addParameter("filter_path", String.join(",", CLIENT_IPS_FILTER_PATH));
+        request.addParameter("ignore_unavailable", Boolean.toString(searchRequest.indicesOptions().ignoreUnavailable()));
+        request.addParameter("allow_no_indices", Boolean.toString(searchRequest.indicesOptions().allowNoIndices()));
+        if (searchRequest.requestCache() != null) {
+            request.addParameter("request_cache", searchRequest.requestCache().toString());
+        }
+        if (searchRequest.preference() != null) {
+            request.addParameter("preference", searchRequest.preference());
+        }
+        request.setJsonEntity(Strings.toString(searchRequest.source()));
+        request.setOptions(STREAMING_OPTIONS);
+        return request;
+    }
+
+    /**
+     * 将多个查询请求转换为低级客户端的 _msearch 请求
+     */
+    private Request toLowLevelMultiSearch(List<SearchRequest> searchRequests) {
+        StringBuilder body = new StringBuilder();
+        for (SearchRequest searchRequest : searchRequests) {
+            body.append("{\"index\":\"").append(String.join(",", searchRequest.indices())).append('"')
+                    .append(",\"ignore_unavailable\":").append(searchRequest.indicesOptions().ignoreUnavailable())
+                    .append(",\"allow_no_indices\":").append(searchRequest.indicesOptions().allowNoIndices());
+            if (searchRequest.requestCache() != null) {
+                body.append(",\"request_cache\":").append(searchRequest.requestCache());
+            }
+            if (searchRequest.preference() != null) {
+                body.append(",\"preference\":\"").append(searchRequest.preference()).append('"');
+            }
+            body.append("}\n").append(Strings.toString(searchRequest.source())).append('\n');
+        }
+        Request request = new Request("POST", "/_msearch");
+        request.addParameter("filter_path", "responses." + String.join(",responses.", CLIENT_IPS_FILTER_PATH));
+        request.setEntity(new NStringEntity(body.toString(), NDJSON_CONTENT_TYPE));
+        request.setOptions(STREAMING_OPTIONS);
+        return request;
+    }
+
+    /**
+     * 使用terms分区聚合查询单天索引，适用于客户端数量极多的服务端
+     * <p>
+     * 先通过 cardinality 聚合估算每个服务端IP的客户端数量，按 partition-target-size 计算分区数，
+     * 再以 include.partition / num_partitions 将 srcip 拆分为多个小请求并发执行，每个响应都保持较小。
+     */
+    private CompletableFuture<Void> queryClientIpPartitioned(LocalDate day, List<String> serverIps, AccessFilter filter,
+                                                             ClientAccessResult result) {
+        String indexName = indexName(day);
+
+        SearchRequest searchRequest = new SearchRequest(indexName);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.query(buildServerQuery(serverIps, filter));
+        sourceBuilder.aggregation(
+                AggregationBuilders.terms("server_ips")
+                        .field("dstip")
+                        .size(serverIps.size())
+                        .subAggregation(AggregationBuilders.cardinality("client_count").field("srcip"))
+        );
+        sourceBuilder.size(0);
+        searchRequest.source(sourceBuilder);
+        applySearchOptions(searchRequest, indexName + "/" + serverIps.hashCode());
+
+        log.info("开始分区查询索引: {}, 服务端IP: {}, 端口: {}", indexName, serverIps, filter.getPort());
+        return searchExecutor.search(searchRequest, indexName + " 客户端数量估算")
+                .thenCompose(searchResponse -> {
+                    if (isEmptyResponse(searchResponse)) {
+                        log.info("索引 {} 不存在，当天没有数据", indexName);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    List<CompletableFuture<Void>> futures = new ArrayList<>();
+                    Terms serverIpsAgg = searchResponse.getAggregations().get("server_ips");
+                    for (Terms.Bucket serverBucket : serverIpsAgg.getBuckets()) {
+                        Cardinality clientCount = serverBucket.getAggregations().get("client_count");
+                        int numPartitions = (int) Math.max(1,
+                                (clientCount.getValue() + partitionTargetSize - 1) / partitionTargetSize);
+                        IndexTarget target = new IndexTarget(day, indexName, serverBucket.getKeyAsString());
+                        log.info("索引 {} 服务端IP {} 预估客户端数量: {}, 分区数: {}",
+                                indexName, target.serverIp(), clientCount.getValue(), numPartitions);
+
+                        for (int partition = 0; partition < numPartitions; partition++) {
+                            futures.add(queryClientIpForSingleServer(target, filter, partition, numPartitions, result));
+                        }
+                    }
+                    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+                })
+                .exceptionallyCompose(e -> {
+                    log.warn("索引 {} 客户端数量估算失败，回退到逐IP查询: {}", indexName, rootMessage(e));
+                    if (PartialResultException.isCause(e)) {
+                        result.markDegraded(day);
+                    }
+                    return queryClientIpPerServer(toTargets(List.of(day), serverIps), filter, result);
+                });
+    }
+
+    /**
+     * 使用composite聚合分页查询单天索引，完整枚举所有客户端
+     * <p>
+     * 入向查询在多个服务端IP或网段时以 dstip + srcip 作为复合键，否则只使用 srcip，未指定端口时在 srcip 前加上 dport；
+     * 出向查询以 dstip + dport 作为复合键，多个客户端IP或网段时再加上 srcip。
+     * 每页结果直接合并到查询结果中，通过 after_key 翻页直到没有更多数据。
+     */
+    private CompletableFuture<Void> queryClientIpComposite(LocalDate day, List<String> serverIps, AccessFilter filter,
+                                                           ClientAccessResult result) {
+        boolean multiTarget = serverIps.size() > 1 || IpTarget.hasNetwork(serverIps);
+
+        List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<>();
+        if (filter.isOutbound()) {
+            if (multiTarget) {
+                sources.add(new TermsValuesSourceBuilder("client_ip").field("srcip"));
+            }
+            sources.add(new TermsValuesSourceBuilder("server_ip").field("dstip"));
+            sources.add(new TermsValuesSourceBuilder("port").field("dport"));
+        } else {
+            if (multiTarget) {
+                sources.add(new TermsValuesSourceBuilder("server_ip").field("dstip"));
+            }
+            if (filter.getPort() == null) {
+                sources.add(new TermsValuesSourceBuilder("port").field("dport"));
+            }
+            sources.add(new TermsValuesSourceBuilder("client_ip").field("srcip"));
+        }
+
+        log.info("开始composite查询索引: {}, {}IP: {}, 端口: {}",
+                indexName(day), filter.isOutbound() ? "客户端" : "服务端", serverIps, filter.getPort());
+        return queryCompositePage(day, serverIps, filter, sources, null, 1, result);
+    }
+
+    /**
+     * 查询composite聚合的一页，有后续数据时继续翻页
+     */
+    private CompletableFuture<Void> queryCompositePage(LocalDate day, List<String> serverIps, AccessFilter filter,
+                                                       List<CompositeValuesSourceBuilder<?>> sources,
+                                                       Map<String, Object> afterKey, int page,
+                                                       ClientAccessResult result) {
+        String indexName = indexName(day);
+        CompositeAggregationBuilder compositeAgg = addMetricAggregations(
+                new CompositeAggregationBuilder("clients", sources).size(compositePageSize));
+        if (afterKey != null) {
+            compositeAgg.aggregateAfter(afterKey);
+        }
+
+        SearchRequest searchRequest = new SearchRequest(indexName);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.query(buildServerQuery(serverIps, filter));
+        sourceBuilder.aggregation(compositeAgg);
+        sourceBuilder.size(0);
+        searchRequest.source(sourceBuilder);
+        applySearchOptions(searchRequest, indexName + "/" + serverIps.hashCode());
+
+        return searchExecutor.search(searchRequest, indexName + " composite第" + page + "页")
+                .thenCompose(searchResponse -> {
+                    if (isEmptyResponse(searchResponse)) {
+                        log.info("索引 {} 不存在，当天没有数据", indexName);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    CompositeAggregation clientsAgg = searchResponse.getAggregations().get("clients");
+                    List<? extends CompositeAggregation.Bucket> buckets = clientsAgg.getBuckets();
+                    for (CompositeAggregation.Bucket bucket : buckets) {
+                        Map<String, Object> key = bucket.getKey();
+                        AccessMetrics metrics = readMetrics(bucket.getDocCount(), bucket.getAggregations());
+                        // 不在复合键中的一端即为唯一的目标IP
+                        String clientIp = key.containsKey("client_ip") ? String.valueOf(key.get("client_ip")) : serverIps.get(0);
+                        String serverIp = key.containsKey("server_ip") ? String.valueOf(key.get("server_ip")) : serverIps.get(0);
+                        if (key.containsKey("port")) {
+                            result.add(day, clientIp, serverIp, ((Number) key.get("port")).intValue(), metrics);
+                        } else {
+                            result.add(day, clientIp, serverIp, metrics);
+                        }
+                    }
+
+                    if (buckets.size() < compositePageSize) {
+                        log.info("索引 {} composite聚合完成，共 {} 页", indexName, page);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    // 低版本ES不返回after_key，使用最后一个桶的key翻页
+                    Map<String, Object> nextKey = clientsAgg.afterKey() != null
+                            ? clientsAgg.afterKey() : buckets.get(buckets.size() - 1).getKey();
+                    return queryCompositePage(day, serverIps, filter, sources, nextKey, page + 1, result);
+                });
+    }
+
+    /**
+     * 单天查询失败时记录日志，不影响其他天的查询
+     */
+    private CompletableFuture<Void> guard(LocalDate day, List<String> serverIps, ClientAccessResult result,
+                                         CompletableFuture<Void> future) {
+        return future.exceptionally(e -> {
+            log.error("查询索引 {} 失败: {}", indexName(day), rootMessage(e));
+            serverIps.forEach(serverIp -> result.markFailed(day, serverIp));
+            // 继续处理其他天的数据，不中断整个流程
+            return null;
+        });
+    }
+
+    /**
+     * 生成（日期，服务端IP）查询单元
+     */
+    private List<IndexTarget> toTargets(List<LocalDate> days, List<String> serverIps) {
+        List<IndexTarget> targets = new ArrayList<>();
+        for (LocalDate day : days) {
+            for (String serverIp : serverIps) {
+                targets.add(new IndexTarget(day, indexName(day), serverIp));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * 日期范围内的所有日期
+     */
+    private List<LocalDate> listDays(LocalDate startDate, LocalDate endDate) {
+        List<LocalDate> days = new ArrayList<>();
+        for (LocalDate day = startDate; !day.isAfter(endDate); day = day.plusDays(1)) {
+            days.add(day);
+        }
+        return days;
+    }
+
+    /**
+     * 日期对应的索引名
+     */
+    private String indexName(LocalDate day) {
+        return indexPrefix + day.format(INDEX_DATE_FORMATTER);
+    }
+
+    /**
+     * 获取异步异常的根因信息
+     */
+    private String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage();
+    }
+
+    /**
+     * 查询日期索引的分片请求缓存累计命中数，未启用请求缓存或查询失败时返回null
+     */
+    private CacheStats requestCacheStats(List<LocalDate> days) {
+        if (!requestCache || days.isEmpty()) {
+            return null;
+        }
+        String indices = String.join(",", days.stream().map(this::indexName).toList());
+        Request request = new Request("GET", "/" + indices + "/_stats/request_cache");
+        request.addParameter("ignore_unavailable", "true");
+        request.addParameter("filter_path", "_all.total.request_cache");
+        try {
+            JsonNode cacheNode = objectMapper.readTree(
+                    esClient.getLowLevelClient().performRequest(request).getEntity().getContent())
+                    .path("_all").path("total").path("request_cache");
+            return new CacheStats(cacheNode.path("hit_count").asLong(), cacheNode.path("miss_count").asLong());
+        } catch (Exception e) {
+            log.warn("查询请求缓存统计失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 汇总结果中的一条（服务端IP，端口，客户端IP）记录
+     */
+    private record RollupHit(String serverIp, int port, String clientIp, AccessMetrics metrics) {
+    }
+
+    /**
+     * 分片请求缓存累计命中统计
+     */
+    private record CacheStats(long hits, long misses) {
+    }
+
+    /**
+     * 单个（日期，服务端IP）查询单元
+     */
+    private record IndexTarget(LocalDate day, String indexName, String serverIp) {
     }
 
     /**
@@ -0,0 +1,223 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.exception.PartialResultException;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.net.SocketTimeoutException;
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ES自适应并发控制器（AIMD）
+ * <p>
+ * 查询耗时（took）稳定时每个窗口并发上限加1；遇到429、EsRejectedExecutionException、
+ * 搜索线程池拒绝或超时等集群压力信号时，并发上限按比例骤减，同时重试间隔指数退避，
+ * 避免分析任务压垮共享的sflow集群。
+ * <p>
+ * 同一窗口内的多个压力信号（如同一批并发请求先后被拒绝）只骤减一次：上次骤减后成功完成一个窗口（骤减后的并发上限）的请求，
+ * 或经过 {@code backoff-window-ms} 之后，才再次响应压力信号。
+ */
+@Slf4j
+@Component
+public class EsConcurrencyLimiter {
+
+    @Value("${middleware.elasticsearch.concurrency.initial-limit:4}")
+    private int initialLimit;
+
+    @Value("${middleware.elasticsearch.concurrency.min-limit:1}")
+    private int minLimit;
+
+    @Value("${middleware.elasticsearch.max-in-flight:8}")
+    private int maxLimit;
+
+    @Value("${middleware.elasticsearch.concurrency.backoff-ratio:0.5}")
+    private double backoffRatio;
+
+    @Value("${middleware.elasticsearch.concurrency.latency-tolerance:2.0}")
+    private double latencyTolerance;
+
+    @Value("${middleware.elasticsearch.concurrency.backoff-window-ms:2000}")
+    private long backoffWindowMillis;
+
+    @Value("${middleware.elasticsearch.retry-delay:1000}")
+    private long retryDelay;
+
+    @Value("${middleware.elasticsearch.concurrency.max-retry-delay:30000}")
+    private long maxRetryDelay;
+
+    /**
+     * 基线耗时的平滑系数
+     */
+    private static final double BASELINE_ALPHA = 0.05;
+
+    private double limit;
+
+    private double baselineTook = -1;
+
+    private long backoffEvents;
+
+    private LocalDateTime lastBackoffTime;
+
+    /**
+     * 上次骤减的时间（System.nanoTime），未骤减过时为null
+     */
+    private Long lastBackoffNanos;
+
+    /**
+     * 上次骤减后成功完成的请求数；同一批被拒绝的请求不计入，全部失败时按 backoff-window-ms 计算窗口
+     */
+    private long completedSinceBackoff;
+
+    /**
+     * 上次骤减后的并发上限，即一个窗口的请求数
+     */
+    private double backoffLimit;
+
+    private String lastBackoffReason;
+
+    @PostConstruct
+    public void initialize() {
+        limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        log.info("ES自适应并发控制初始化完成，初始并发: {}, 范围: {}-{}", (int) limit, minLimit, maxLimit);
+    }
+
+    /**
+     * 当前允许的并发请求数
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 请求成功，耗时稳定时加性增长
+     *
+     * @param tookMillis ES返回的took耗时
+     */
+    public synchronized void onSuccess(long tookMillis) {
+        completedSinceBackoff++;
+        if (baselineTook < 0) {
+            baselineTook = tookMillis;
+        }
+        if (tookMillis <= baselineTook * latencyTolerance) {
+            // 每完成约一个窗口的请求，并发上限加1
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        baselineTook = baselineTook * (1 - BASELINE_ALPHA) + tookMillis * BASELINE_ALPHA;
+    }
+
+    /**
+     * 集群压力信号，乘性降低并发上限；与上次骤减处于同一窗口内时忽略
+     *
+     * @param reason 压力原因
+     */
+    public synchronized void onPressure(String reason) {
+        if (lastBackoffNanos != null && completedSinceBackoff < backoffLimit
+                && System.nanoTime() - lastBackoffNanos < backoffWindowMillis * 1_000_000) {
+            log.debug("ES集群压力与上次骤减处于同一窗口，忽略: {}", reason);
+            return;
+        }
+        double previous = limit;
+        limit = Math.max(minLimit, limit * backoffRatio);
+        backoffEvents++;
+        lastBackoffNanos = System.nanoTime();
+        completedSinceBackoff = 0;
+        backoffLimit = limit;
+        lastBackoffTime = LocalDateTime.now();
+        lastBackoffReason = reason;
+        log.warn("检测到ES集群压力: {}，并发上限 {} -> {}", reason, (int) previous, (int) limit);
+    }
+
+    /**
+     * 计算第 attempt 次失败后的重试间隔，集群压力导致的失败按指数退避并加入随机抖动
+     */
+    public long retryDelay(int attempt, boolean pressure) {
+        if (!pressure) {
+            return retryDelay;
+        }
+        long backoff = Math.min(maxRetryDelay, retryDelay << Math.min(attempt, 16));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * 判断异常是否为集群压力信号，返回压力原因，不是则返回null
+     */
+    public String pressureReason(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PartialResultException partial && partial.isPressure()) {
+                return partial.getMessage();
+            }
+            if (cause instanceof EsRejectedExecutionException) {
+                return "EsRejectedExecutionException";
+            }
+            if (cause instanceof ElasticsearchException
+                    && ((ElasticsearchException) cause).status() == RestStatus.TOO_MANY_REQUESTS) {
+                return "429 Too Many Requests";
+            }
+            if (cause instanceof ResponseException
+                    && ((ResponseException) cause).getResponse().getStatusLine().getStatusCode() == 429) {
+                return "429 Too Many Requests";
+            }
+            if (cause instanceof SocketTimeoutException || cause instanceof TimeoutException) {
+                return "请求超时";
+            }
+            String message = cause.getMessage();
+            if (message != null && (message.contains("es_rejected_execution_exception")
+                    || message.contains("rejected execution"))) {
+                return "搜索线程池拒绝";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 判断分片失败中是否有线程池拒绝
+     */
+    public boolean hasShardRejection(ShardSearchFailure[] shardFailures) {
+        if (shardFailures == null) {
+            return false;
+        }
+        for (ShardSearchFailure failure : shardFailures) {
+            if (failure.status() == RestStatus.TOO_MANY_REQUESTS || pressureReason(failure.getCause()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 累计退避次数
+     */
+    public synchronized long getBackoffEvents() {
+        return backoffEvents;
+    }
+
+    /**
+     * 最近一次退避时间
+     */
+    public synchronized LocalDateTime getLastBackoffTime() {
+        return lastBackoffTime;
+    }
+
+    /**
+     * 最近一次退避原因
+     */
+    public synchronized String getLastBackoffReason() {
+        return lastBackoffReason;
+    }
+
+    /**
+     * 当前基线耗时（毫秒）
+     */
+    public synchronized long getBaselineTook() {
+        return Math.max(0, Math.round(baselineTook));
+    }
+}
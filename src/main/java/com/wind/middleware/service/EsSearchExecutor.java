@@ -0,0 +1,540 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.exception.PartialResultException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * ES异步查询执行器
+ * <p>
+ * 所有ES查询通过 searchAsync / msearchAsync 发出，同时在途的请求数不超过
+ * {@link EsConcurrencyLimiter} 给出的自适应并发上限，超出的请求在内存队列中排队，
+ * 请求完成后再依次派发。派发过程不阻塞任何线程，查询结果在回调线程池中完成，
+ * 避免占用ES客户端的IO线程。
+ * <p>
+ * 排队请求按发起的任务（{@link TaskContext}）分组，派发时在各任务间轮流取请求，并限制单个任务的在途请求数，
+ * 多个任务并发执行时，大任务排队的大量请求不会让小任务一直等待。
+ * <p>
+ * 低级客户端请求（{@link #streamSearch}）及导出的滚动查询（{@link #scroll}）同样受并发上限控制，
+ * 低级客户端的响应在回调线程中流式解析。
+ */
+@Slf4j
+@Component
+public class EsSearchExecutor {
+
+    @Autowired
+    private RestHighLevelClient esClient;
+
+    @Autowired
+    private EsConcurrencyLimiter concurrencyLimiter;
+
+    @Value("${middleware.elasticsearch.retry-count}")
+    private int retryCount;
+
+    @Value("${middleware.elasticsearch.callback-threads:4}")
+    private int callbackThreads;
+
+    @Value("${middleware.elasticsearch.per-task-max-in-flight:4}")
+    private int perTaskMaxInFlight;
+
+    /**
+     * 不在任务中发出的请求（预检、汇总、过滤器构建等）归入该分组
+     */
+    private static final String NO_TASK = "-";
+
+    /**
+     * 用于统计流式解析的线程内存分配
+     */
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Object queueLock = new Object();
+
+    /**
+     * 按任务分组的排队请求，派发后该任务移到末尾，实现轮流派发
+     */
+    private final LinkedHashMap<String, TaskQueue> taskQueues = new LinkedHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    private ExecutorService callbackExecutor;
+
+    private ScheduledExecutorService retryScheduler;
+
+    @PostConstruct
+    public void initialize() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        callbackExecutor = Executors.newFixedThreadPool(callbackThreads, r -> {
+            Thread thread = new Thread(r);
+            thread.setName("es-callback-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setName("es-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("ES查询执行器初始化完成，回调线程数: {}", callbackThreads);
+    }
+
+    /**
+     * 异步执行单个查询
+     *
+     * @param searchRequest 查询请求
+     * @param target        查询目标描述，用于日志
+     * @return 查询结果
+     */
+    public CompletableFuture<SearchResponse> search(SearchRequest searchRequest, String target) {
+        return submit(target, listener -> esClient.searchAsync(searchRequest, RequestOptions.DEFAULT, listener));
+    }
+
+    /**
+     * 异步获取滚动查询的下一页，与其他查询共享并发名额；
+     * 滚动上下文在服务端已经前进，失败或结果不完整时不重试，以异常结束
+     *
+     * @param scrollRequest 滚动请求
+     * @param target        查询目标描述，用于日志
+     * @return 下一页结果
+     */
+    public CompletableFuture<SearchResponse> scroll(SearchScrollRequest scrollRequest, String target) {
+        return submit(target, false, listener -> esClient.scrollAsync(scrollRequest, RequestOptions.DEFAULT, listener));
+    }
+
+    /**
+     * 异步执行批量查询（_msearch），整个批次只占用一个并发名额
+     *
+     * @param multiSearchRequest 批量查询请求
+     * @param target             查询目标描述，用于日志
+     * @return 批量查询结果
+     */
+    public CompletableFuture<MultiSearchResponse> multiSearch(MultiSearchRequest multiSearchRequest, String target) {
+        return submit(target, listener -> esClient.msearchAsync(multiSearchRequest, RequestOptions.DEFAULT, listener));
+    }
+
+    /**
+     * 通过低级客户端异步执行请求，在回调线程中流式解析响应
+     *
+     * @param request 低级客户端请求
+     * @param target  查询目标描述，用于日志
+     * @param reader  响应读取器
+     * @return 各子请求的解析结果
+     */
+    public CompletableFuture<List<EsStreamingParser.ItemResult>> streamSearch(Request request, String target,
+                                                                            EsStreamingParser.ResponseReader reader) {
+        return streamSearch(request, target, reader, 1);
+    }
+
+    /**
+     * 流式查询的第 attempt 次尝试；各子响应均未成功且有结果不完整的子响应时（此时没有任何桶交给调用方），
+     * 按并发控制器的重试间隔整体重试，部分子响应不完整时由调用方单独重试这些子请求
+     */
+    private CompletableFuture<List<EsStreamingParser.ItemResult>> streamSearch(Request request, String target,
+                                                                             EsStreamingParser.ResponseReader reader,
+                                                                             int attempt) {
+        CompletableFuture<Response> future = submit(target, listener ->
+                esClient.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        listener.onResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        listener.onFailure(e);
+                    }
+                }));
+        return future.thenApply(response -> {
+            long allocatedBefore = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+            List<EsStreamingParser.ItemResult> items;
+            try {
+                items = reader.read(response);
+            } catch (IOException e) {
+                throw new CompletionException("解析ES响应失败: " + target, e);
+            }
+            if (log.isDebugEnabled()) {
+                long buckets = items.stream().mapToLong(EsStreamingParser.ItemResult::bucketCount).sum();
+                log.debug("流式解析 {} 完成，桶数: {}, 分配内存: {} 字节", target, buckets,
+                        THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - allocatedBefore);
+            }
+            return items;
+        }).thenCompose(items -> {
+            long took = -1;
+            boolean rejected = false;
+            EsStreamingParser.ItemResult partial = null;
+            boolean anySuccess = false;
+            for (EsStreamingParser.ItemResult item : items) {
+                took = Math.max(took, item.took());
+                rejected |= item.rejected() || item.timedOut();
+                if (!item.isFailure()) {
+                    anySuccess = true;
+                } else if (item.isPartial()) {
+                    partial = item;
+                }
+            }
+            feedback(target, took, rejected);
+            if (anySuccess || partial == null) {
+                return CompletableFuture.completedFuture(items);
+            }
+
+            String message = "查询 " + target + " " + partial.failure();
+            log.warn("{}，第 {} 次尝试", message, attempt);
+            if (attempt >= retryCount) {
+                throw new CompletionException(new PartialResultException(message, rejected));
+            }
+            return retryLater(attempt, rejected, () -> streamSearch(request, target, reader, attempt + 1));
+        });
+    }
+
+    /**
+     * 延迟后在原任务中重新执行
+     */
+    private <T> CompletableFuture<T> retryLater(int attempt, boolean pressure,
+                                                Supplier<CompletableFuture<T>> retry) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        String taskId = TaskContext.currentTaskId();
+        Long fenceToken = TaskContext.currentFenceToken();
+        Runnable action = () -> retry.get().whenComplete((value, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(value);
+            }
+        });
+        retryScheduler.schedule(() -> {
+            if (taskId != null) {
+                TaskContext.run(taskId, fenceToken, action);
+            } else {
+                action.run();
+            }
+        }, concurrencyLimiter.retryDelay(attempt, pressure), TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * 当前在途请求数
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 当前排队请求数
+     */
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    /**
+     * 各任务的在途请求数，key为任务ID，不在任务中发出的请求为 "-"
+     */
+    public Map<String, Integer> getTaskInFlight() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        synchronized (queueLock) {
+            taskQueues.forEach((taskKey, queue) -> result.put(taskKey, queue.inFlight));
+        }
+        return result;
+    }
+
+    /**
+     * 各任务的排队请求数
+     */
+    public Map<String, Integer> getTaskQueued() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        synchronized (queueLock) {
+            taskQueues.forEach((taskKey, queue) -> result.put(taskKey, queue.pending.size()));
+        }
+        return result;
+    }
+
+    private <T> CompletableFuture<T> submit(String target, Consumer<ActionListener<T>> call) {
+        return submit(target, true, call);
+    }
+
+    private <T> CompletableFuture<T> submit(String target, boolean retryable, Consumer<ActionListener<T>> call) {
+        PendingRequest<T> request = new PendingRequest<>(target, TaskContext.currentTaskId(),
+                TaskContext.currentFenceToken(), retryable, call);
+        enqueue(request);
+        dispatch();
+        return request.future;
+    }
+
+    private void enqueue(PendingRequest<?> request) {
+        synchronized (queueLock) {
+            taskQueues.computeIfAbsent(request.taskKey(), k -> new TaskQueue()).pending.offer(request);
+            queueSize.incrementAndGet();
+        }
+    }
+
+    /**
+     * 在并发上限内派发排队中的请求，发送在锁外进行
+     */
+    private void dispatch() {
+        List<PendingRequest<?>> ready = new ArrayList<>();
+        synchronized (queueLock) {
+            while (inFlight.get() < concurrencyLimiter.getLimit()) {
+                PendingRequest<?> request = pollNext();
+                if (request == null) {
+                    break;
+                }
+                inFlight.incrementAndGet();
+                ready.add(request);
+            }
+        }
+        ready.forEach(this::send);
+    }
+
+    /**
+     * 依次查看各任务，取出第一个未达到单任务在途上限的任务的队首请求，并将该任务移到末尾
+     */
+    private PendingRequest<?> pollNext() {
+        Iterator<Map.Entry<String, TaskQueue>> iterator = taskQueues.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, TaskQueue> entry = iterator.next();
+            TaskQueue queue = entry.getValue();
+            if (queue.pending.isEmpty() || (perTaskMaxInFlight > 0 && queue.inFlight >= perTaskMaxInFlight)) {
+                continue;
+            }
+            PendingRequest<?> request = queue.pending.poll();
+            queue.inFlight++;
+            queueSize.decrementAndGet();
+            iterator.remove();
+            taskQueues.put(entry.getKey(), queue);
+            return request;
+        }
+        return null;
+    }
+
+    private <T> void send(PendingRequest<T> request) {
+        request.attempt++;
+        try {
+            request.call.accept(new ActionListener<>() {
+                @Override
+                public void onResponse(T response) {
+                    // 分片失败或超时的结果不完整，按失败重试，不交给调用方合并
+                    PartialResultException partial = checkResponse(request.target, response);
+                    release(request);
+                    if (partial != null) {
+                        handleFailure(request, partial);
+                        return;
+                    }
+                    recordResponse(request, response);
+                    complete(request, () -> request.future.complete(response));
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    release(request);
+                    handleFailure(request, e);
+                }
+            });
+        } catch (Exception e) {
+            release(request);
+            handleFailure(request, e);
+        }
+    }
+
+    /**
+     * 在回调线程中完成请求，恢复发起请求的任务，后续在回调中发出的请求归属同一任务
+     */
+    private void complete(PendingRequest<?> request, Runnable completion) {
+        callbackExecutor.execute(() -> {
+            if (request.taskId != null) {
+                TaskContext.run(request.taskId, request.fenceToken, completion);
+            } else {
+                completion.run();
+            }
+        });
+    }
+
+    /**
+     * 检查单个搜索响应是否完整，有分片失败或查询超时时返回不完整异常，完整时返回null
+     */
+    public PartialResultException checkComplete(SearchResponse response, String target) {
+        if (response.getFailedShards() <= 0 && !response.isTimedOut()) {
+            return null;
+        }
+        String message = String.format("查询 %s 结果不完整: %d/%d 个分片失败%s", target,
+                response.getFailedShards(), response.getTotalShards(), response.isTimedOut() ? "，查询超时" : "");
+        return new PartialResultException(message,
+                response.isTimedOut() || concurrencyLimiter.hasShardRejection(response.getShardFailures()));
+    }
+
+    /**
+     * 检查响应是否需要整体重试：单个查询不完整；批量查询没有任何完整的子响应且至少一个子响应不完整
+     * （部分子响应不完整时由调用方单独重试这些子请求）
+     */
+    private PartialResultException checkResponse(String target, Object response) {
+        if (response instanceof SearchResponse searchResponse) {
+            return checkComplete(searchResponse, target);
+        }
+        if (response instanceof MultiSearchResponse multiSearchResponse) {
+            PartialResultException partial = null;
+            for (MultiSearchResponse.Item item : multiSearchResponse.getResponses()) {
+                if (item.isFailure()) {
+                    continue;
+                }
+                PartialResultException itemPartial = checkComplete(item.getResponse(), target);
+                if (itemPartial == null) {
+                    return null;
+                }
+                partial = itemPartial;
+            }
+            return partial;
+        }
+        return null;
+    }
+
+    /**
+     * 将响应耗时及分片拒绝情况反馈给并发控制器
+     */
+    private void recordResponse(PendingRequest<?> request, Object response) {
+        boolean rejected = false;
+        long took;
+        if (response instanceof SearchResponse searchResponse) {
+            took = searchResponse.getTook().millis();
+            rejected = concurrencyLimiter.hasShardRejection(searchResponse.getShardFailures());
+        } else if (response instanceof MultiSearchResponse multiSearchResponse) {
+            // 批量查询取各子请求中最长的took
+            took = -1;
+            for (MultiSearchResponse.Item item : multiSearchResponse.getResponses()) {
+                if (item.isFailure()) {
+                    rejected |= concurrencyLimiter.pressureReason(item.getFailure()) != null;
+                } else {
+                    took = Math.max(took, item.getResponse().getTook().millis());
+                    rejected |= concurrencyLimiter.hasShardRejection(item.getResponse().getShardFailures());
+                }
+            }
+        } else {
+            return;
+        }
+
+        feedback(request.target, took, rejected);
+    }
+
+    private void feedback(String target, long took, boolean rejected) {
+        if (rejected) {
+            concurrencyLimiter.onPressure("查询 " + target + " 存在分片拒绝或超时");
+        } else if (took >= 0) {
+            concurrencyLimiter.onSuccess(took);
+        }
+    }
+
+    private void release(PendingRequest<?> request) {
+        synchronized (queueLock) {
+            inFlight.decrementAndGet();
+            TaskQueue queue = taskQueues.get(request.taskKey());
+            if (queue != null) {
+                queue.inFlight--;
+                if (queue.inFlight == 0 && queue.pending.isEmpty()) {
+                    taskQueues.remove(request.taskKey());
+                }
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * 失败重试，延迟后重新排队；集群压力导致的失败会降低并发上限并指数退避，超过重试次数（或不可重试）则以异常结束
+     */
+    private <T> void handleFailure(PendingRequest<T> request, Exception e) {
+        String pressureReason = concurrencyLimiter.pressureReason(e);
+        if (pressureReason != null) {
+            concurrencyLimiter.onPressure(pressureReason);
+        }
+
+        log.warn("查询 {} 第 {} 次尝试失败: {}", request.target, request.attempt, e.getMessage());
+        if (!request.retryable) {
+            complete(request, () -> request.future.completeExceptionally(new RuntimeException("查询ES失败", e)));
+            return;
+        }
+        if (request.attempt >= retryCount) {
+            RuntimeException failure = new RuntimeException("查询ES失败，已重试 " + retryCount + " 次", e);
+            complete(request, () -> request.future.completeExceptionally(failure));
+            return;
+        }
+        long delay = concurrencyLimiter.retryDelay(request.attempt, pressureReason != null);
+        retryScheduler.schedule(() -> {
+            enqueue(request);
+            dispatch();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        callbackExecutor.shutdown();
+        log.info("ES查询执行器已关闭");
+    }
+
+    /**
+     * 排队中的请求
+     */
+    private static class PendingRequest<T> {
+        private final String target;
+        private final String taskId;
+        private final Long fenceToken;
+        private final boolean retryable;
+        private final Consumer<ActionListener<T>> call;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private int attempt;
+
+        private PendingRequest(String target, String taskId, Long fenceToken, boolean retryable,
+                               Consumer<ActionListener<T>> call) {
+            this.target = target;
+            this.taskId = taskId;
+            this.fenceToken = fenceToken;
+            this.retryable = retryable;
+            this.call = call;
+        }
+
+        private String taskKey() {
+            return taskId != null ? taskId : NO_TASK;
+        }
+    }
+
+    /**
+     * 单个任务的排队请求及在途请求数，由 queueLock 保护
+     */
+    private static class TaskQueue {
+        private final Deque<PendingRequest<?>> pending = new ArrayDeque<>();
+        private int inFlight;
+    }
+}
@@ -0,0 +1,404 @@
+package com.wind.middleware.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.wind.middleware.dto.es.AccessMetrics;
+import org.elasticsearch.client.Response;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ES搜索响应流式解析器
+ * <p>
+ * 直接从低级客户端的响应流中逐个读取 terms 聚合桶的 key / doc_count 及流量指标子聚合并交给调用方合并，
+ * 不构建 SearchResponse / Terms 对象树。
+ * 同时读取 took、分片失败、超时及错误信息，用于并发控制和失败重试。
+ * 有分片失败或超时的响应只含部分分片的聚合结果，其中的桶不交给调用方，该响应按失败处理；
+ * ES在 aggregations 之前输出 timed_out 及 _shards，聚合结果出现在分片状态之前时同样不交给调用方。
+ */
+@Component
+public class EsStreamingParser {
+
+    /**
+     * bytes 合计子聚合名称
+     */
+    public static final String BYTES_SUM = "bytes_sum";
+
+    /**
+     * count 合计子聚合名称
+     */
+    public static final String COUNT_SUM = "count_sum";
+
+    /**
+     * 首次访问时间子聚合名称
+     */
+    public static final String FIRST_SEEN = "first_seen";
+
+    /**
+     * 最后访问时间子聚合名称
+     */
+    public static final String LAST_SEEN = "last_seen";
+
+    /**
+     * 按小时分布子聚合名称
+     */
+    public static final String HOURLY = "hourly";
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * 解析 _search 响应
+     *
+     * @param response 低级客户端响应
+     * @param aggName  terms聚合名称
+     * @param consumer 桶消费者
+     * @return 单个元素的解析结果
+     */
+    public List<ItemResult> parseSearch(Response response, String aggName, BucketConsumer consumer) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return parseSearch(content, aggName, consumer);
+        }
+    }
+
+    /**
+     * 解析 _search 响应体
+     *
+     * @param content  响应体（已解压）
+     * @param aggName  terms聚合名称
+     * @param consumer 桶消费者
+     * @return 单个元素的解析结果
+     */
+    public List<ItemResult> parseSearch(InputStream content, String aggName, BucketConsumer consumer) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(content)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            return List.of(parseBody(parser, 0, aggName, (item, key, metrics) -> consumer.accept(key, metrics)));
+        }
+    }
+
+    /**
+     * 解析 _msearch 响应，子响应按请求顺序编号
+     *
+     * @param response 低级客户端响应
+     * @param aggName  terms聚合名称
+     * @param consumer 桶消费者
+     * @return 每个子请求的解析结果
+     */
+    public List<ItemResult> parseMultiSearch(Response response, String aggName, ItemBucketConsumer consumer)
+            throws IOException {
+        List<ItemResult> items = new ArrayList<>();
+        try (InputStream content = response.getEntity().getContent();
+             JsonParser parser = jsonFactory.createParser(content)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("responses".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        items.add(parseBody(parser, items.size(), aggName, consumer));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 解析单个搜索响应体，解析器位于响应体的 START_OBJECT
+     */
+    private ItemResult parseBody(JsonParser parser, int item, String aggName, ItemBucketConsumer consumer)
+            throws IOException {
+        long took = -1;
+        long sumOtherDocCount = 0;
+        long bucketCount = 0;
+        boolean rejected = false;
+        boolean timedOut = false;
+        int failedShards = 0;
+        boolean shardsRead = false;
+        boolean aggregationsSkipped = false;
+        String failure = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "took":
+                    took = parser.getLongValue();
+                    break;
+                case "timed_out":
+                    timedOut = token == JsonToken.VALUE_TRUE;
+                    break;
+                case "error":
+                    failure = readError(parser, token);
+                    rejected = failure.contains("rejected_execution");
+                    break;
+                case "_shards":
+                    ShardStatus shards = readShards(parser, token);
+                    failedShards = shards.failed();
+                    rejected |= shards.rejected();
+                    shardsRead = true;
+                    break;
+                case "aggregations":
+                    if (!shardsRead || failedShards > 0 || timedOut) {
+                        // 不完整（或无法确认完整）的聚合结果不交给调用方
+                        aggregationsSkipped = true;
+                        parser.skipChildren();
+                        break;
+                    }
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.currentName();
+                        parser.nextToken();
+                        if (!aggName.equals(name)) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String aggField = parser.currentName();
+                            JsonToken aggToken = parser.nextToken();
+                            if ("sum_other_doc_count".equals(aggField)) {
+                                sumOtherDocCount = parser.getLongValue();
+                            } else if ("buckets".equals(aggField) && aggToken == JsonToken.START_ARRAY) {
+                                bucketCount += parseBuckets(parser, item, consumer);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (failure == null && (failedShards > 0 || timedOut)) {
+            failure = String.format("结果不完整: %d 个分片失败%s", failedShards, timedOut ? "，查询超时" : "");
+        } else if (failure == null && aggregationsSkipped) {
+            failure = "响应缺少分片状态，无法确认聚合结果完整";
+        }
+        return new ItemResult(took, sumOtherDocCount, bucketCount, rejected, failure, failedShards, timedOut);
+    }
+
+    /**
+     * 解析桶数组，解析器位于 START_ARRAY
+     */
+    private long parseBuckets(JsonParser parser, int item, ItemBucketConsumer consumer) throws IOException {
+        long count = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String key = null;
+            String keyAsString = null;
+            AccessMetrics metrics = new AccessMetrics();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "key":
+                        key = parser.getText();
+                        break;
+                    case "key_as_string":
+                        keyAsString = parser.getText();
+                        break;
+                    case "doc_count":
+                        metrics.setAccessCount(parser.getLongValue());
+                        break;
+                    case BYTES_SUM:
+                        metrics.setTotalBytes(readValue(parser, token));
+                        break;
+                    case COUNT_SUM:
+                        metrics.setTotalCount(readValue(parser, token));
+                        break;
+                    case FIRST_SEEN:
+                        metrics.setFirstSeen(readValue(parser, token));
+                        break;
+                    case LAST_SEEN:
+                        metrics.setLastSeen(readValue(parser, token));
+                        break;
+                    case HOURLY:
+                        readHourly(parser, token, metrics);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            consumer.accept(item, keyAsString != null ? keyAsString : key, metrics);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 读取数值子聚合的 value，没有文档时 value 为null
+     */
+    private Long readValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        Long value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken valueToken = parser.nextToken();
+            if ("value".equals(field) && valueToken.isNumeric()) {
+                value = Math.round(parser.getDoubleValue());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 读取按小时的 date_histogram 子聚合，桶的 key 为该小时起始的UTC毫秒
+     */
+    private void readHourly(JsonParser parser, JsonToken token, AccessMetrics metrics) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldToken = parser.nextToken();
+            if (!"buckets".equals(field) || fieldToken != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                long hourStart = 0;
+                long docCount = 0;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String bucketField = parser.currentName();
+                    parser.nextToken();
+                    if ("key".equals(bucketField)) {
+                        hourStart = parser.getLongValue();
+                    } else if ("doc_count".equals(bucketField)) {
+                        docCount = parser.getLongValue();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                metrics.addHourly(hourStart, indexZone, docCount);
+            }
+        }
+    }
+
+    /**
+     * 读取错误信息，取第一个 type 和 reason
+     */
+    private String readError(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            return parser.getText();
+        }
+        String type = null;
+        String reason = null;
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken next = parser.nextToken();
+            if (next == JsonToken.START_OBJECT || next == JsonToken.START_ARRAY) {
+                depth++;
+            } else if (next == JsonToken.END_OBJECT || next == JsonToken.END_ARRAY) {
+                depth--;
+            } else if (next == JsonToken.VALUE_STRING) {
+                String field = parser.currentName();
+                if (type == null && "type".equals(field)) {
+                    type = parser.getText();
+                } else if (reason == null && "reason".equals(field)) {
+                    reason = parser.getText();
+                }
+            }
+        }
+        return type + ": " + reason;
+    }
+
+    /**
+     * 读取 _shards 的失败分片数，并判断 failures 中是否有线程池拒绝
+     */
+    private ShardStatus readShards(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY) {
+            return new ShardStatus(0, false);
+        }
+        int failed = 0;
+        boolean rejected = false;
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken next = parser.nextToken();
+            if (next == JsonToken.START_OBJECT || next == JsonToken.START_ARRAY) {
+                depth++;
+            } else if (next == JsonToken.END_OBJECT || next == JsonToken.END_ARRAY) {
+                depth--;
+            } else if (depth == 1 && next == JsonToken.VALUE_NUMBER_INT && "failed".equals(parser.currentName())) {
+                failed = parser.getIntValue();
+            } else if (next == JsonToken.VALUE_STRING && !rejected) {
+                rejected = parser.getText().contains("rejected_execution");
+            }
+        }
+        return new ShardStatus(failed, rejected);
+    }
+
+    private record ShardStatus(int failed, boolean rejected) {
+    }
+
+    private void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("ES响应格式错误，期望 " + expected + "，实际 " + actual);
+        }
+    }
+
+    /**
+     * 聚合桶消费者
+     */
+    @FunctionalInterface
+    public interface BucketConsumer {
+        void accept(String key, AccessMetrics metrics);
+    }
+
+    /**
+     * 带子请求序号的聚合桶消费者
+     */
+    @FunctionalInterface
+    public interface ItemBucketConsumer {
+        void accept(int item, String key, AccessMetrics metrics);
+    }
+
+    /**
+     * 响应读取器，在回调线程中执行
+     */
+    @FunctionalInterface
+    public interface ResponseReader {
+        List<ItemResult> read(Response response) throws IOException;
+    }
+
+    /**
+     * 单个搜索响应的解析结果
+     *
+     * @param took             ES耗时，缺失时为-1
+     * @param sumOtherDocCount 未返回的桶的文档数，大于0说明结果被截断
+     * @param bucketCount      桶数量
+     * @param rejected         是否存在线程池拒绝
+     * @param failure          子请求失败信息（包括结果不完整），成功时为null
+     * @param failedShards     失败的分片数
+     * @param timedOut         查询是否超时
+     */
+    public record ItemResult(long took, long sumOtherDocCount, long bucketCount, boolean rejected, String failure,
+                             int failedShards, boolean timedOut) {
+
+        public boolean isFailure() {
+            return failure != null;
+        }
+
+        /**
+         * 是否因分片失败或超时结果不完整，这类失败可以重试
+         */
+        public boolean isPartial() {
+            return failedShards > 0 || timedOut;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wind.middleware.dto.external.HostDetailInfo;
 import com.wind.middleware.dto.external.MachineInfo;
 import com.wind.middleware.dto.external.ServiceInfo;
+import jakarta.annotation.PostConstruct;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
@@ -15,13 +16,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
 
 /**
  * 外部API调用服务
+ * <p>
+ * 多个任务工作线程共用同一个公平信号量，同时进行的外部API调用数不超过 {@code middleware.external-api.max-concurrency}，
+ * 按等待顺序获得名额。
  */
 @Slf4j
 @Service
@@ -39,6 +45,11 @@ public class ExternalAPIService {
     @Value("${middleware.external-api.retry-count}")
     private int retryCount;
 
+    @Value("${middleware.external-api.max-concurrency:4}")
+    private int maxConcurrency;
+
+    private Semaphore permits;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     // 缓存机器信息，避免重复调用
@@ -83,7 +94,7 @@ public class ExternalAPIService {
             try {
                 log.info("开始刷新机器信息缓存，第 {} 次尝试", attempt);
                 HttpGet request = new HttpGet(machineListUrl);
-                String response = httpClient.execute(request, this::handleResponse);
+                String response = execute(request);
 
                 List<MachineInfo> machines = objectMapper.readValue(response,
                     new TypeReference<List<MachineInfo>>() {});
@@ -130,7 +141,7 @@ public class ExternalAPIService {
 
                 log.debug("调用主机信息API: {}", url);
                 HttpGet request = new HttpGet(url);
-                String response = httpClient.execute(request, this::handleResponse);
+                String response = execute(request);
 
                 HostDetailInfo hostDetail = objectMapper.readValue(response, HostDetailInfo.class);
                 return Optional.of(hostDetail);
@@ -163,7 +174,7 @@ public class ExternalAPIService {
 
                 log.debug("调用服务信息API: {}", url);
                 HttpGet request = new HttpGet(url);
-                String response = httpClient.execute(request, this::handleResponse);
+                String response = execute(request);
 
                 ServiceInfo serviceInfo = objectMapper.readValue(response, ServiceInfo.class);
                 return Optional.of(serviceInfo);
@@ -186,6 +197,42 @@ public class ExternalAPIService {
         return Optional.empty();
     }
 
+    @PostConstruct
+    public void initialize() {
+        permits = new Semaphore(Math.max(1, maxConcurrency), true);
+    }
+
+    /**
+     * 在全局并发名额内执行请求
+     */
+    private String execute(HttpGet request) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待外部API调用名额被中断", e);
+        }
+        try {
+            return httpClient.execute(request, this::handleResponse);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 当前正在进行的外部API调用数
+     */
+    public int getActiveCalls() {
+        return Math.max(1, maxConcurrency) - permits.availablePermits();
+    }
+
+    /**
+     * 等待外部API调用名额的线程数
+     */
+    public int getWaitingCalls() {
+        return permits.getQueueLength();
+    }
+
     /**
      * 处理HTTP响应
      */
@@ -0,0 +1,378 @@
+package com.wind.middleware.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.AccessMetrics;
+import com.wind.middleware.dto.es.ClientAccessResult;
+import com.wind.middleware.dto.es.IpTarget;
+import com.wind.middleware.entity.enums.QueryStrategy;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 基于sflow导出文件的离线数据源
+ * <p>
+ * 读取目录下按索引命名的NDJSON导出文件（{@code sflow-yyyy.MM.dd*.ndjson}，可为 {@code .ndjson.gz}），
+ * 每行为一个文档的 {@code _source}，或包含 {@code _source} 的完整命中记录。
+ * 未压缩文件通过内存映射按行边界切分为多个分块，与其他文件一起在线程池中并行扫描；
+ * 压缩文件无法切分，每个文件一个分块。每个分块在本地Map中聚合后再合并到查询结果，
+ * 访问次数与ES的 doc_count 口径一致（每个文档计一次），bytes、count 合计及首末次访问时间与ES子聚合口径一致。
+ * 出向查询按 srcip 过滤，按 dstip + dport 聚合；未指定端口的入向查询按 dport 拆分客户端。
+ * <p>
+ * 通过 {@code middleware.flow-source.type=file} 启用，启用后替代ES作为任务的数据源。
+ */
+@Slf4j
+@Primary
+@Service
+@ConditionalOnProperty(name = "middleware.flow-source.type", havingValue = "file")
+public class FileFlowSource implements FlowSource {
+
+    private static final DateTimeFormatter INDEX_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    @Value("${middleware.flow-source.file.dir:data/export}")
+    private String exportDir;
+
+    @Value("${middleware.flow-source.file.threads:0}")
+    private int threads;
+
+    @Value("${middleware.flow-source.file.chunk-size-mb:64}")
+    private int chunkSizeMb;
+
+    @Value("${middleware.elasticsearch.index-prefix}")
+    private String indexPrefix;
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
+    @Value("${middleware.elasticsearch.hourly-histogram:false}")
+    private boolean hourlyHistogram;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private ExecutorService scanExecutor;
+
+    @PostConstruct
+    public void initialize() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        scanExecutor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r);
+            thread.setName("flow-scan-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("文件数据源初始化完成，目录: {}, 扫描线程数: {}", Paths.get(exportDir).toAbsolutePath(), poolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scanExecutor.shutdownNow();
+    }
+
+    /**
+     * 扫描日期范围内的导出文件，查询策略对文件数据源无意义，忽略
+     */
+    @Override
+    public ClientAccessResult queryClientAccess(List<String> serverIps, AccessFilter filter,
+                                                LocalDate startDate, LocalDate endDate, QueryStrategy strategy) {
+        ClientAccessResult result = new ClientAccessResult();
+        Predicate<String> targetIps = IpTarget.matcher(serverIps);
+        long[] window = timeWindow(filter);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (LocalDate day = startDate; !day.isAfter(endDate); day = day.plusDays(1)) {
+            LocalDate fileDay = day;
+            List<Chunk> chunks;
+            try {
+                chunks = splitChunks(listFiles(day));
+            } catch (IOException e) {
+                log.error("读取 {} 的导出文件失败: {}", indexName(day), e.getMessage());
+                serverIps.forEach(serverIp -> result.markFailed(fileDay, serverIp));
+                continue;
+            }
+            for (Chunk chunk : chunks) {
+                futures.add(CompletableFuture
+                        .supplyAsync(() -> scanChunk(chunk, targetIps, filter, window), scanExecutor)
+                        .thenAccept(pairs -> pairs.forEach((pair, metrics) -> {
+                            if (filter.isPerPort()) {
+                                result.add(fileDay, pair.clientIp(), pair.serverIp(), pair.port(), metrics);
+                            } else {
+                                result.add(fileDay, pair.clientIp(), pair.serverIp(), metrics);
+                            }
+                        }))
+                        .exceptionally(e -> {
+                            log.error("扫描导出文件 {} 失败: {}", chunk.file(), e.getMessage());
+                            serverIps.forEach(serverIp -> result.markFailed(fileDay, serverIp));
+                            return null;
+                        }));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        log.info("导出文件扫描完成，总共获得 {} 个客户端IP-服务端IP对，失败的（日期，服务端IP）: {}",
+                result.getTotals().size(), result.getFailedUnits().size());
+        return result;
+    }
+
+    /**
+     * 列出某天的导出文件
+     */
+    private List<Path> listFiles(LocalDate day) throws IOException {
+        Path dir = Paths.get(exportDir);
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, indexName(day) + "*.{ndjson,ndjson.gz,json,json.gz}")) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    /**
+     * 将未压缩文件按行边界切分为不超过 chunk-size-mb 的分块，压缩文件整体作为一个分块
+     */
+    private List<Chunk> splitChunks(List<Path> files) throws IOException {
+        long chunkSize = Math.max(1, chunkSizeMb) * 1024L * 1024L;
+        List<Chunk> chunks = new ArrayList<>();
+        for (Path file : files) {
+            long size = Files.size(file);
+            if (isGzip(file)) {
+                chunks.add(new Chunk(file, 0, size));
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long start = 0;
+                while (start < size) {
+                    long end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize, size);
+                    chunks.add(new Chunk(file, start, end));
+                    start = end;
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 从 position 开始查找下一行的起始位置
+     */
+    private long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * 扫描一个分块
+     *
+     * @return 访问对 → 流量指标，不按端口拆分时访问对的端口为-1
+     */
+    private Map<Pair, AccessMetrics> scanChunk(Chunk chunk, Predicate<String> targetIps, AccessFilter filter, long[] window) {
+        boolean outbound = filter.isOutbound();
+        boolean perPort = filter.isPerPort();
+        Map<Pair, AccessMetrics> pairs = new HashMap<>();
+        try {
+            InputStream input;
+            if (isGzip(chunk.file())) {
+                input = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(chunk.file()), 65536), 65536);
+            } else {
+                // 映射在通道关闭后仍然有效
+                try (FileChannel channel = FileChannel.open(chunk.file(), StandardOpenOption.READ)) {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                            chunk.start(), chunk.end() - chunk.start());
+                    input = new ByteBufferBackedInputStream(mapped);
+                }
+            }
+            // 多个根对象以换行分隔，解析器依次读取
+            try (input; JsonParser parser = jsonFactory.createParser(input)) {
+                FlowRecord record = new FlowRecord();
+                JsonToken token;
+                while ((token = parser.nextToken()) != null) {
+                    if (token != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    record.reset();
+                    readDocument(parser, record);
+                    if (!record.matches(targetIps, outbound, filter, window)) {
+                        continue;
+                    }
+                    Pair pair = new Pair(record.srcip, record.dstip, perPort ? record.dport : -1);
+                    accumulate(pairs.computeIfAbsent(pair, k -> new AccessMetrics()), record);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        return pairs;
+    }
+
+    /**
+     * 将一条记录累加到访问对的指标上
+     */
+    private void accumulate(AccessMetrics metrics, FlowRecord record) {
+        metrics.setAccessCount(metrics.getAccessCount() + 1);
+        metrics.setTotalBytes((metrics.getTotalBytes() != null ? metrics.getTotalBytes() : 0) + record.bytes);
+        metrics.setTotalCount((metrics.getTotalCount() != null ? metrics.getTotalCount() : 0) + record.count);
+        if (record.timestamp == Long.MIN_VALUE) {
+            return;
+        }
+        if (metrics.getFirstSeen() == null || record.timestamp < metrics.getFirstSeen()) {
+            metrics.setFirstSeen(record.timestamp);
+        }
+        if (metrics.getLastSeen() == null || record.timestamp > metrics.getLastSeen()) {
+            metrics.setLastSeen(record.timestamp);
+        }
+        if (hourlyHistogram) {
+            metrics.addHourly(record.timestamp, indexZone, 1);
+        }
+    }
+
+    /**
+     * 读取一个文档，解析器位于文档的 START_OBJECT；命中记录格式时读取其中的 _source
+     */
+    private void readDocument(JsonParser parser, FlowRecord record) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "_source" -> {
+                    if (token == JsonToken.START_OBJECT) {
+                        readDocument(parser, record);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                case "srcip" -> record.srcip = parser.getValueAsString();
+                case "dstip" -> record.dstip = parser.getValueAsString();
+                case "dport" -> record.dport = parser.getValueAsInt(-1);
+                case "bytes" -> record.bytes = parser.getValueAsLong(0);
+                case "count" -> record.count = parser.getValueAsLong(0);
+                case "@timestamp" -> record.timestamp = token == JsonToken.VALUE_NUMBER_INT
+                        ? parser.getLongValue() : parseTimestamp(parser.getValueAsString());
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private long parseTimestamp(String value) {
+        if (value == null) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * 时间窗口对应的UTC毫秒范围，未限定时返回null
+     */
+    private long[] timeWindow(AccessFilter filter) {
+        if (!filter.hasTimeWindow()) {
+            return null;
+        }
+        Instant start = filter.getStartTime().atZone(indexZone).toInstant();
+        Instant end = filter.getEndTime().atZone(indexZone).toInstant();
+        return new long[]{start.toEpochMilli(), end.toEpochMilli()};
+    }
+
+    private boolean isGzip(Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    private String indexName(LocalDate day) {
+        return indexPrefix + day.format(INDEX_DATE_FORMATTER);
+    }
+
+    /**
+     * 客户端IP → 服务端IP:端口 访问对
+     */
+    private record Pair(String clientIp, String serverIp, int port) {
+    }
+
+    /**
+     * 文件中 [start, end) 范围的一个分块，起止位置均为行边界
+     */
+    private record Chunk(Path file, long start, long end) {
+    }
+
+    /**
+     * 解析中的一条流量记录，每个分块复用一个实例
+     */
+    private static final class FlowRecord {
+        private String srcip;
+        private String dstip;
+        private int dport;
+        private long bytes;
+        private long count;
+        private long timestamp;
+
+        void reset() {
+            srcip = null;
+            dstip = null;
+            dport = -1;
+            bytes = 0;
+            count = 0;
+            timestamp = Long.MIN_VALUE;
+        }
+
+        boolean matches(Predicate<String> targetIps, boolean outbound, AccessFilter filter, long[] window) {
+            if (srcip == null || dstip == null || !targetIps.test(outbound ? srcip : dstip)) {
+                return false;
+            }
+            if (!filter.matchesPort(dport)) {
+                return false;
+            }
+            return window == null || (timestamp >= window[0] && timestamp <= window[1]);
+        }
+    }
+}
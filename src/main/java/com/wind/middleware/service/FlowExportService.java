@@ -0,0 +1,354 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.ExportProgress;
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.enums.ExportFormat;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 原始流量导出服务
+ * <p>
+ * 对每个日期索引发起切片滚动查询（sliced scroll），各切片在固定大小的线程池中并发执行，
+ * 每页命中直接写入该切片自己的gzip文件，内存占用只与页大小和并发数有关，与导出总量无关。
+ * 首次查询及每次翻页都经由 {@link EsSearchExecutor} 发出，与分析任务的查询共享自适应并发上限并按任务轮流派发；
+ * 不存在的日期索引按没有数据处理。
+ * 导出进度定期写回任务，导出目录为 {@code middleware.export.dir/taskId}。
+ */
+@Slf4j
+@Service
+public class FlowExportService {
+
+    @Autowired
+    private RestHighLevelClient esClient;
+
+    @Autowired
+    private ElasticsearchService elasticsearchService;
+
+    @Autowired
+    private EsSearchExecutor searchExecutor;
+
+    @Autowired
+    private TaskDataService taskDataService;
+
+    @Value("${middleware.export.dir:data/export-tasks}")
+    private String exportDir;
+
+    @Value("${middleware.export.slices:4}")
+    private int slices;
+
+    @Value("${middleware.export.parallelism:4}")
+    private int parallelism;
+
+    @Value("${middleware.export.page-size:2000}")
+    private int pageSize;
+
+    @Value("${middleware.export.scroll-keep-alive:2m}")
+    private String scrollKeepAlive;
+
+    @Value("${middleware.export.progress-interval-ms:3000}")
+    private long progressIntervalMs;
+
+    @Value("${middleware.export.fields:@timestamp,srcip,sport,dstip,dport,bytes,count,routerip}")
+    private String[] fields;
+
+    @Value("${middleware.elasticsearch.index-prefix}")
+    private String indexPrefix;
+
+    private static final DateTimeFormatter INDEX_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    private ExecutorService exportExecutor;
+
+    @PostConstruct
+    public void initialize() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        exportExecutor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r);
+            thread.setName("flow-export-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        exportExecutor.shutdownNow();
+    }
+
+    /**
+     * 导出任务匹配的原始流量记录，阻塞直到全部切片完成
+     *
+     * @return 导出进度（完成时）
+     * @throws IllegalStateException 任一切片导出失败
+     */
+    public ExportProgress export(Task task) {
+        ExportFormat format = task.getExportFormat() != null ? task.getExportFormat() : ExportFormat.NDJSON;
+        AccessFilter filter = AccessFilter.forTask(task);
+        Path outputDir = Paths.get(exportDir, task.getTaskId());
+
+        List<LocalDate> days = new ArrayList<>();
+        for (LocalDate day = task.getStartDate(); !day.isAfter(task.getEndDate()); day = day.plusDays(1)) {
+            days.add(day);
+        }
+        ExportProgress progress = new ExportProgress();
+        progress.setFormat(format.name());
+        progress.setOutputDir(outputDir.toAbsolutePath().toString());
+        progress.setTotalSlices(days.size() * slices);
+        ProgressReporter reporter = new ProgressReporter(task.getTaskId(), progress);
+
+        try {
+            Files.createDirectories(outputDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("创建导出目录失败: " + outputDir, e);
+        }
+        log.info("开始导出原始流量，任务ID: {}, 日期: {} - {}, 每个索引切片数: {}, 格式: {}, 目录: {}",
+                task.getTaskId(), task.getStartDate(), task.getEndDate(), slices, format, outputDir);
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        // 切片在导出线程中执行，其ES请求仍归属当前任务
+        String taskId = TaskContext.currentTaskId();
+        Long fenceToken = TaskContext.currentFenceToken();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (LocalDate day : days) {
+            for (int slice = 0; slice < slices; slice++) {
+                SliceTarget target = new SliceTarget(indexPrefix + day.format(INDEX_DATE_FORMATTER), slice);
+                Runnable exportAction = () -> {
+                    if (!cancelled.get()) {
+                        exportSlice(target, task.getServerIps(), filter, format, outputDir, reporter, cancelled);
+                    }
+                };
+                futures.add(CompletableFuture.runAsync(() -> {
+                    if (taskId != null) {
+                        TaskContext.run(taskId, fenceToken, exportAction);
+                    } else {
+                        exportAction.run();
+                    }
+                }, exportExecutor).whenComplete((v, e) -> {
+                    if (e != null) {
+                        // 一个切片失败后其余切片尽快停止
+                        cancelled.set(true);
+                    }
+                }));
+            }
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (Exception e) {
+            reporter.report(true);
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IllegalStateException("原始流量导出失败: " + cause.getMessage(), cause);
+        }
+        reporter.report(true);
+        log.info("原始流量导出完成，任务ID: {}, 文档数: {}, 文件数: {}, 压缩后大小: {} KB",
+                task.getTaskId(), progress.getExportedDocs(), progress.getFiles().size(),
+                progress.getBytesWritten() / 1024);
+        return progress;
+    }
+
+    /**
+     * 滚动导出一个切片，写入临时文件，完成后重命名为正式文件
+     */
+    private void exportSlice(SliceTarget target, List<String> serverIps, AccessFilter filter, ExportFormat format,
+                             Path outputDir, ProgressReporter reporter, AtomicBoolean cancelled) {
+        TimeValue keepAlive = TimeValue.parseTimeValue(scrollKeepAlive, "middleware.export.scroll-keep-alive");
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(elasticsearchService.buildServerQuery(serverIps, filter))
+                .fetchSource(fields, null)
+                .sort("_doc", SortOrder.ASC)
+                .size(pageSize);
+        if (slices > 1) {
+            sourceBuilder.slice(new SliceBuilder(target.slice(), slices));
+        }
+        SearchRequest searchRequest = new SearchRequest(target.indexName())
+                .source(sourceBuilder)
+                .scroll(keepAlive)
+                .indicesOptions(IndicesOptions.lenientExpandOpen());
+        String description = target.indexName() + " 导出切片" + target.slice();
+
+        String fileName = String.format("%s-slice-%02d.%s.gz", target.indexName(), target.slice(), format.getExtension());
+        Path file = outputDir.resolve(fileName);
+        Path tempFile = outputDir.resolve(fileName + ".tmp");
+        String scrollId = null;
+        long docs = 0;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(tempFile), 65536), StandardCharsets.UTF_8), 65536)) {
+            if (format == ExportFormat.CSV) {
+                writer.write(String.join(",", fields));
+                writer.write('\n');
+            }
+            SearchResponse response = searchExecutor.search(searchRequest, description).join();
+            reporter.addTotal(response.getHits().getTotalHits());
+            while (true) {
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0 || cancelled.get()) {
+                    break;
+                }
+                for (SearchHit hit : hits) {
+                    writeHit(writer, hit, format);
+                }
+                docs += hits.length;
+                reporter.addExported(hits.length);
+                response = searchExecutor.scroll(new SearchScrollRequest(scrollId).scroll(keepAlive), description).join();
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw new IllegalStateException(target.indexName() + " 切片" + target.slice() + ": " + e.getMessage(), e);
+        } finally {
+            clearScroll(scrollId);
+        }
+        if (cancelled.get()) {
+            deleteQuietly(tempFile);
+            return;
+        }
+
+        try {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            reporter.completeSlice(fileName, Files.size(file));
+        } catch (IOException e) {
+            throw new IllegalStateException("保存导出文件失败: " + file, e);
+        }
+        log.debug("索引 {} 切片 {} 导出完成，文档数: {}", target.indexName(), target.slice(), docs);
+    }
+
+    /**
+     * 写入一条命中记录
+     */
+    private void writeHit(Writer writer, SearchHit hit, ExportFormat format) throws IOException {
+        if (format == ExportFormat.NDJSON) {
+            writer.write(hit.getSourceAsString());
+            writer.write('\n');
+            return;
+        }
+        Map<String, Object> source = hit.getSourceAsMap();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = source.get(fields[i]);
+            if (value != null) {
+                writer.write(csvEscape(String.valueOf(value)));
+            }
+        }
+        writer.write('\n');
+    }
+
+    private String csvEscape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        try {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            esClient.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+        } catch (Exception e) {
+            // 滚动上下文到期后自动释放
+            log.warn("清除滚动上下文失败: {}", e.getMessage());
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除临时导出文件失败: {}", file);
+        }
+    }
+
+    /**
+     * 单个索引的一个切片
+     */
+    private record SliceTarget(String indexName, int slice) {
+    }
+
+    /**
+     * 汇总各切片进度，按间隔写回任务
+     */
+    private class ProgressReporter {
+
+        private final String taskId;
+
+        private final ExportProgress progress;
+
+        private long lastReport;
+
+        ProgressReporter(String taskId, ExportProgress progress) {
+            this.taskId = taskId;
+            this.progress = progress;
+        }
+
+        synchronized void addTotal(long docs) {
+            progress.setTotalDocs(progress.getTotalDocs() + docs);
+        }
+
+        synchronized void addExported(long docs) {
+            progress.setExportedDocs(progress.getExportedDocs() + docs);
+            report(false);
+        }
+
+        synchronized void completeSlice(String fileName, long bytes) {
+            progress.setCompletedSlices(progress.getCompletedSlices() + 1);
+            progress.setBytesWritten(progress.getBytesWritten() + bytes);
+            progress.getFiles().add(fileName);
+            report(false);
+        }
+
+        synchronized void report(boolean force) {
+            long now = System.currentTimeMillis();
+            if (!force && now - lastReport < progressIntervalMs) {
+                return;
+            }
+            lastReport = now;
+            try {
+                taskDataService.updateExportProgress(taskId, progress);
+            } catch (Exception e) {
+                log.warn("更新导出进度失败: {}, {}", taskId, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.ClientAccessResult;
+import com.wind.middleware.dto.es.PreviewResult;
+import com.wind.middleware.entity.enums.QueryStrategy;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * sflow流量数据源
+ * <p>
+ * 任务处理只依赖该接口查询访问指定服务的客户端（或指定客户端访问的服务），默认实现为 {@link ElasticsearchService}，
+ * 离线分析时可通过 {@code middleware.flow-source.type=file} 切换为 {@link FileFlowSource}。
+ */
+public interface FlowSource {
+
+    /**
+     * 查询访问指定服务的客户端IP，返回汇总及按天拆分的结果
+     *
+     * @param serverIps 目标IP列表，入向为服务端IP，出向为客户端IP
+     * @param filter    方向、端口及时间窗口过滤条件
+     * @param startDate 开始日期（索引日期）
+     * @param endDate   结束日期（索引日期）
+     * @param strategy  查询策略，为null时使用数据源的默认策略
+     * @return 查询结果
+     */
+    ClientAccessResult queryClientAccess(List<String> serverIps, AccessFilter filter,
+                                         LocalDate startDate, LocalDate endDate, QueryStrategy strategy);
+
+    /**
+     * 采样查询近似的Top客户端，用于正式查询前的快速预览
+     *
+     * @param startDate 采样开始日期（索引日期）
+     * @param endDate   采样结束日期（索引日期）
+     * @return 近似结果，数据源不支持采样时返回null
+     */
+    default PreviewResult previewClientAccess(List<String> serverIps, AccessFilter filter,
+                                              LocalDate startDate, LocalDate endDate) {
+        return null;
+    }
+
+    /**
+     * 查询访问指定服务的客户端IP（使用数据源的默认策略）
+     *
+     * @return 客户端IP访问统计Map，key为"clientIp|serverIp"，value为访问次数
+     */
+    default Map<String, Long> queryClientIpAccess(List<String> serverIps, Integer port,
+                                                 LocalDate startDate, LocalDate endDate) {
+        return queryClientAccess(serverIps, AccessFilter.ofPort(port), startDate, endDate, null).getTotals();
+    }
+}
@@ -0,0 +1,118 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.PairKey;
+import com.wind.middleware.dto.external.HostDetailInfo;
+import com.wind.middleware.dto.external.MachineInfo;
+import com.wind.middleware.dto.external.ServiceInfo;
+import com.wind.middleware.entity.HostInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 主机信息补全：按访问对调用外部API获取客户端的机器、应用及负责人信息
+ * <p>
+ * 任务处理器直接补全全部访问对；拆分为执行单元的任务按批次由补全单元分别调用（{@link TaskUnitService}）。
+ */
+@Slf4j
+@Component
+public class HostInfoEnricher {
+
+    @Autowired
+    private ExternalAPIService externalAPIService;
+
+    /**
+     * 补全一批访问对的主机信息，单个访问对失败时跳过
+     *
+     * @param taskId   任务ID
+     * @param pairKeys 查询结果的访问对key
+     * @param taskPort 任务端口，key不含端口时使用
+     * @return 主机信息（未保存）
+     */
+    public List<HostInfo> enrich(String taskId, Collection<String> pairKeys, Integer taskPort) {
+        List<HostInfo> hostInfoList = new ArrayList<>();
+        int processedCount = 0;
+        int totalCount = pairKeys.size();
+
+        log.info("开始处理主机信息，任务ID: {}, 总数: {}", taskId, totalCount);
+
+        for (String key : pairKeys) {
+            PairKey pair = PairKey.parse(key, taskPort);
+            if (pair == null) {
+                log.warn("无效的key格式: {}, 跳过", key);
+                continue;
+            }
+
+            String clientIp = pair.clientIp();
+            String serverIp = pair.serverIp();
+            Integer port = pair.port();
+
+            try {
+                processedCount++;
+
+                // 获取机器信息
+                Optional<MachineInfo> machineInfo = externalAPIService.getMachineByIp(clientIp);
+                if (machineInfo.isEmpty()) {
+                    log.debug("未找到客户端IP对应的机器信息: {}", clientIp);
+                    continue;
+                }
+
+                // 获取主机详细信息
+                Optional<HostDetailInfo> hostDetail = externalAPIService.getHostDetail(
+                        clientIp, serverIp, port);
+
+                if (hostDetail.isEmpty()) {
+                    log.debug("未找到主机详细信息: clientIp={}, serverIp={}, port={}",
+                            clientIp, serverIp, port);
+                    continue;
+                }
+
+                // 处理应用信息
+                HostDetailInfo detail = hostDetail.get();
+                if (detail.getApplications() != null) {
+                    for (String appName : detail.getApplications()) {
+                        Optional<ServiceInfo> serviceInfo = externalAPIService.getServiceInfo(appName);
+
+                        HostInfo hostInfo = new HostInfo();
+                        hostInfo.setTaskId(taskId);
+                        hostInfo.setClientIp(clientIp);
+                        hostInfo.setServerIp(serverIp);
+                        hostInfo.setPort(port);
+                        hostInfo.setHostname(machineInfo.get().getMachineName());
+                        hostInfo.setLinuxPath(detail.getLinuxPath());
+                        hostInfo.setAppName(appName);
+
+                        if (serviceInfo.isPresent()) {
+                            ServiceInfo service = serviceInfo.get();
+                            hostInfo.setAppOwner(service.getOwnerName());
+                            hostInfo.setAppOwnerAccount(service.getOwnerAccount());
+                            hostInfo.setDepartment(service.getDepartment());
+                        }
+
+                        hostInfo.setCreateTime(LocalDateTime.now());
+                        hostInfoList.add(hostInfo);
+                    }
+                }
+
+                // 定期记录进度
+                if (processedCount % 10 == 0) {
+                    log.info("任务ID: {} 主机信息处理进度: {}/{} ({}%)",
+                            taskId, processedCount, totalCount,
+                            (processedCount * 100 / totalCount));
+                }
+
+            } catch (Exception e) {
+                log.warn("处理主机信息失败，跳过: clientIp={}, serverIp={}, 错误: {}",
+                        clientIp, serverIp, e.getMessage());
+                // 继续处理其他IP，不中断整个流程
+            }
+        }
+        return hostInfoList;
+    }
+}
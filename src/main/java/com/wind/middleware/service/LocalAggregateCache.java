@@ -0,0 +1,296 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.AccessMetrics;
+import com.wind.middleware.entity.enums.FlowDirection;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 本地按天聚合结果缓存
+ * <p>
+ * 历史sflow索引不再变化，(日期, dstip, dport) 的 srcip → 流量指标 结果写入本地列式文件，
+ * 出向查询的 (日期, srcip, dport) 的 "dstip|dport" → 流量指标 结果以 out- 前缀的文件单独保存，
+ * 后续任务先读缓存，命中则不再查询ES。文件格式：
+ * <pre>
+ * int magic | int version | int n | long[n] 访问次数 | long[n] bytes合计 | long[n] count合计
+ * long[n] 首次访问时间 | long[n] 最后访问时间 | int[n+1] srcip偏移 | byte[] srcip(UTF-8)
+ * </pre>
+ * 未统计的指标以 Long.MIN_VALUE 表示；小时分布不缓存。
+ * 读取时通过内存映射访问；当天的索引仍在写入，结束后还会写入延迟到达的数据，结束超过 {@code settle-lag-minutes} 后才参与缓存。旧版本的缓存文件读取时删除，由下次查询重建。
+ * 缓存总大小超过上限时按最近访问时间淘汰。
+ */
+@Slf4j
+@Component
+public class LocalAggregateCache {
+
+    private static final int MAGIC = 0x53464C43;
+
+    private static final int VERSION = 3;
+
+    /**
+     * 每个客户端的指标列数
+     */
+    private static final int METRIC_COLUMNS = 5;
+
+    /**
+     * 未统计指标的占位值
+     */
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private static final DateTimeFormatter DIR_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    @Value("${middleware.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${middleware.cache.dir:data/aggregate-cache}")
+    private String cacheDir;
+
+    @Value("${middleware.cache.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
+    @Value("${middleware.elasticsearch.settle-lag-minutes:60}")
+    private long settleLagMinutes;
+
+    private Path root;
+
+    private final AtomicLong totalSize = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        if (!enabled) {
+            log.info("本地聚合缓存未启用");
+            return;
+        }
+        root = Paths.get(cacheDir);
+        try {
+            Files.createDirectories(root);
+            totalSize.set(listCacheFiles().stream().mapToLong(this::fileSize).sum());
+        } catch (IOException e) {
+            log.error("本地聚合缓存目录初始化失败，禁用缓存: {}", root, e);
+            enabled = false;
+            return;
+        }
+        log.info("本地聚合缓存初始化完成，目录: {}, 当前大小: {} KB, 上限: {} MB",
+                root.toAbsolutePath(), totalSize.get() / 1024, maxSizeMb);
+    }
+
+    /**
+     * 该日期的结果是否可以缓存：索引对应的一天（索引时区）结束已超过 settle-lag-minutes，延迟到达的数据已写入
+     */
+    public boolean isCacheable(LocalDate day) {
+        return enabled && ZonedDateTime.now(indexZone)
+                .isAfter(day.plusDays(1).atStartOfDay(indexZone).plusMinutes(settleLagMinutes));
+    }
+
+    /**
+     * 读取缓存
+     *
+     * @param direction 查询方向
+     * @param targetIp  目标IP，入向为服务端IP，出向为客户端IP
+     * @param port      端口，出向查询不限端口时为null
+     * @return 对端 → 流量指标，未命中时返回null
+     */
+    public Map<String, AccessMetrics> get(LocalDate day, FlowDirection direction, String targetIp, Integer port) {
+        if (!isCacheable(day)) {
+            return null;
+        }
+        Path file = filePath(day, direction, targetIp, port);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("本地聚合缓存文件格式不正确，删除: {}", file);
+                remove(file);
+                return null;
+            }
+            int n = buffer.getInt();
+            int columnsStart = buffer.position();
+            int offsetsStart = columnsStart + METRIC_COLUMNS * n * Long.BYTES;
+            int bytesStart = offsetsStart + (n + 1) * Integer.BYTES;
+
+            Map<String, AccessMetrics> clients = new LinkedHashMap<>(n * 4 / 3 + 1);
+            byte[] keyBytes = new byte[64];
+            for (int i = 0; i < n; i++) {
+                int from = buffer.getInt(offsetsStart + i * Integer.BYTES);
+                int to = buffer.getInt(offsetsStart + (i + 1) * Integer.BYTES);
+                int length = to - from;
+                if (keyBytes.length < length) {
+                    keyBytes = new byte[length];
+                }
+                buffer.get(bytesStart + from, keyBytes, 0, length);
+                AccessMetrics metrics = AccessMetrics.of(column(buffer, columnsStart, n, 0, i));
+                metrics.setTotalBytes(nullable(column(buffer, columnsStart, n, 1, i)));
+                metrics.setTotalCount(nullable(column(buffer, columnsStart, n, 2, i)));
+                metrics.setFirstSeen(nullable(column(buffer, columnsStart, n, 3, i)));
+                metrics.setLastSeen(nullable(column(buffer, columnsStart, n, 4, i)));
+                clients.put(new String(keyBytes, 0, length, StandardCharsets.UTF_8), metrics);
+            }
+            // 更新访问时间，用于淘汰
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return clients;
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取本地聚合缓存失败: {}, {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存，已存在时覆盖
+     *
+     * @param clients 对端 → 流量指标，必须是该（日期，目标IP，端口）的完整结果
+     */
+    public void put(LocalDate day, FlowDirection direction, String targetIp, Integer port,
+                    Map<String, AccessMetrics> clients) {
+        if (!isCacheable(day)) {
+            return;
+        }
+        Path file = filePath(day, direction, targetIp, port);
+        int n = clients.size();
+        List<byte[]> keys = new ArrayList<>(n);
+        int keyBytesTotal = 0;
+        for (String clientIp : clients.keySet()) {
+            byte[] key = clientIp.getBytes(StandardCharsets.UTF_8);
+            keys.add(key);
+            keyBytesTotal += key.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(3 * Integer.BYTES + METRIC_COLUMNS * n * Long.BYTES
+                + (n + 1) * Integer.BYTES + keyBytesTotal);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(n);
+        clients.values().forEach(metrics -> buffer.putLong(metrics.getAccessCount()));
+        clients.values().forEach(metrics -> buffer.putLong(orAbsent(metrics.getTotalBytes())));
+        clients.values().forEach(metrics -> buffer.putLong(orAbsent(metrics.getTotalCount())));
+        clients.values().forEach(metrics -> buffer.putLong(orAbsent(metrics.getFirstSeen())));
+        clients.values().forEach(metrics -> buffer.putLong(orAbsent(metrics.getLastSeen())));
+        int offset = 0;
+        buffer.putInt(offset);
+        for (byte[] key : keys) {
+            offset += key.length;
+            buffer.putInt(offset);
+        }
+        keys.forEach(buffer::put);
+        buffer.flip();
+
+        try {
+            Files.createDirectories(file.getParent());
+            long previousSize = Files.exists(file) ? fileSize(file) : 0;
+            Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            totalSize.addAndGet(fileSize(file) - previousSize);
+        } catch (IOException e) {
+            log.warn("写入本地聚合缓存失败: {}, {}", file, e.getMessage());
+            return;
+        }
+
+        if (totalSize.get() > maxSizeMb * 1024 * 1024) {
+            evict();
+        }
+    }
+
+    /**
+     * 按最近访问时间淘汰，直到总大小降到上限的90%
+     */
+    private synchronized void evict() {
+        long target = maxSizeMb * 1024 * 1024 * 9 / 10;
+        if (totalSize.get() <= target) {
+            return;
+        }
+        List<Path> files = listCacheFiles();
+        files.sort(Comparator.comparingLong(this::lastModified));
+        int evicted = 0;
+        for (Path file : files) {
+            if (totalSize.get() <= target) {
+                break;
+            }
+            remove(file);
+            evicted++;
+        }
+        log.info("本地聚合缓存淘汰 {} 个文件，当前大小: {} KB", evicted, totalSize.get() / 1024);
+    }
+
+    private long column(ByteBuffer buffer, int columnsStart, int n, int column, int row) {
+        return buffer.getLong(columnsStart + (column * n + row) * Long.BYTES);
+    }
+
+    private static Long nullable(long value) {
+        return value == ABSENT ? null : value;
+    }
+
+    private static long orAbsent(Long value) {
+        return value != null ? value : ABSENT;
+    }
+
+    private void remove(Path file) {
+        long size = fileSize(file);
+        try {
+            if (Files.deleteIfExists(file)) {
+                totalSize.addAndGet(-size);
+            }
+        } catch (IOException e) {
+            log.warn("删除本地聚合缓存文件失败: {}, {}", file, e.getMessage());
+        }
+    }
+
+    private List<Path> listCacheFiles() {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return new ArrayList<>(paths.filter(path -> path.toString().endsWith(".col")).toList());
+        } catch (IOException e) {
+            log.warn("遍历本地聚合缓存目录失败: {}", e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private Path filePath(LocalDate day, FlowDirection direction, String targetIp, Integer port) {
+        // IPv6地址中的冒号不能出现在部分文件系统的文件名中
+        String name = targetIp.replace(':', '-') + "_" + (port != null ? port : "all") + ".col";
+        return root.resolve(day.format(DIR_FORMATTER))
+                .resolve(direction == FlowDirection.OUTBOUND ? "out-" + name : name);
+    }
+
+    private long fileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
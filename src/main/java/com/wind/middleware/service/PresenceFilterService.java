@@ -0,0 +1,322 @@
+package com.wind.middleware.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.common.network.InetAddresses;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 日索引存在性过滤器
+ * <p>
+ * 每天为已结束写入的索引构建一个 dstip:dport 的布隆过滤器并保存到本地，查询前先检查过滤器，
+ * 确定不存在的（日期，服务端IP）直接跳过，不再对该天索引做聚合。
+ * 索引对应的一天结束后还会写入延迟到达的数据，结束超过 {@code settle-lag-minutes} 后才构建过滤器；
+ * 构建及查询时IP统一规范化为标准写法（IPv6压缩格式）。
+ * 过滤器只会误报不会漏报；没有过滤器的日期（当天、尚未构建）一律按存在处理。
+ * 文件格式：
+ * <pre>
+ * int magic | int version | int hashes | int words | long[words] 位图
+ * </pre>
+ */
+@Slf4j
+@Service
+public class PresenceFilterService {
+
+    private static final int MAGIC = 0x53464C42;
+
+    private static final int VERSION = 1;
+
+    private static final DateTimeFormatter FILE_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    @Autowired
+    private EsSearchExecutor searchExecutor;
+
+    @Value("${middleware.presence-filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${middleware.presence-filter.dir:data/presence}")
+    private String filterDir;
+
+    @Value("${middleware.presence-filter.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${middleware.presence-filter.lookback-days:30}")
+    private int lookbackDays;
+
+    @Value("${middleware.presence-filter.page-size:10000}")
+    private int pageSize;
+
+    @Value("${middleware.presence-filter.page-interval-ms:100}")
+    private long pageIntervalMs;
+
+    @Value("${middleware.elasticsearch.index-prefix}")
+    private String indexPrefix;
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
+    @Value("${middleware.elasticsearch.settle-lag-minutes:60}")
+    private long settleLagMinutes;
+
+    private Path root;
+
+    /**
+     * 已加载的过滤器，文件不变，加载后常驻内存
+     */
+    private final Map<LocalDate, BloomFilter> filters = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @PostConstruct
+    public void initialize() {
+        root = Paths.get(filterDir);
+    }
+
+    /**
+     * 某天的索引中是否可能存在访问 serverIp:port 的记录
+     *
+     * @return 确定不存在时返回false；没有过滤器或未指定端口时返回true
+     */
+    public boolean mightContain(LocalDate day, String serverIp, Integer port) {
+        if (!enabled || port == null) {
+            return true;
+        }
+        BloomFilter filter = load(day);
+        return filter == null || filter.mightContain(key(serverIp, port));
+    }
+
+    /**
+     * 定时为最近 lookback-days 天内尚未构建过滤器、且已不再写入的索引构建过滤器
+     */
+    @Scheduled(cron = "${middleware.presence-filter.cron:0 40 1 * * ?}", zone = "${middleware.elasticsearch.index-time-zone:GMT+8}")
+    public void buildClosedIndices() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            LocalDate today = LocalDate.now(indexZone);
+            // 超出回溯范围的过滤器不再需要常驻内存
+            filters.keySet().removeIf(day -> day.isBefore(today.minusDays(lookbackDays)));
+            for (LocalDate day = today.minusDays(lookbackDays); day.isBefore(today); day = day.plusDays(1)) {
+                if (!isSettled(day) || Files.exists(filePath(day))) {
+                    continue;
+                }
+                try {
+                    build(day);
+                } catch (Exception e) {
+                    // 单天失败不影响其他天，下次继续构建
+                    log.error("构建索引 {} 的存在性过滤器失败: {}", indexName(day), e.getMessage());
+                }
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 通过 (dstip, dport) composite聚合枚举单天索引中的全部服务端，构建过滤器
+     */
+    private void build(LocalDate day) throws Exception {
+        String indexName = indexName(day);
+        List<String> keys = new ArrayList<>();
+        List<CompositeValuesSourceBuilder<?>> sources = List.of(
+                new TermsValuesSourceBuilder("dstip").field("dstip"),
+                new TermsValuesSourceBuilder("dport").field("dport"));
+        Map<String, Object> afterKey = null;
+        int page = 0;
+        while (true) {
+            CompositeAggregationBuilder compositeAgg = new CompositeAggregationBuilder("servers", sources).size(pageSize);
+            if (afterKey != null) {
+                compositeAgg.aggregateAfter(afterKey);
+            }
+            SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                    .query(QueryBuilders.matchAllQuery())
+                    .aggregation(compositeAgg)
+                    .size(0);
+            // 索引不存在时没有聚合结果，构建空过滤器，查询时跳过该天
+            SearchRequest searchRequest = new SearchRequest(indexName).source(sourceBuilder).requestCache(false)
+                    .indicesOptions(IndicesOptions.lenientExpandOpen());
+            SearchResponse searchResponse = searchExecutor.search(searchRequest,
+                    indexName + " 存在性过滤器第" + (++page) + "页").join();
+            if (searchResponse.getAggregations() == null) {
+                break;
+            }
+
+            CompositeAggregation agg = searchResponse.getAggregations().get("servers");
+            List<? extends CompositeAggregation.Bucket> buckets = agg.getBuckets();
+            for (CompositeAggregation.Bucket bucket : buckets) {
+                Map<String, Object> key = bucket.getKey();
+                keys.add(key(String.valueOf(key.get("dstip")), ((Number) key.get("dport")).intValue()));
+            }
+            if (buckets.size() < pageSize) {
+                break;
+            }
+            // 低版本ES不返回after_key，使用最后一个桶的key翻页
+            afterKey = agg.afterKey() != null ? agg.afterKey() : buckets.get(buckets.size() - 1).getKey();
+            Thread.sleep(pageIntervalMs);
+        }
+
+        BloomFilter filter = BloomFilter.create(keys.size(), falsePositiveRate);
+        keys.forEach(filter::put);
+        save(day, filter);
+        filters.put(day, filter);
+        log.info("索引 {} 的存在性过滤器构建完成，服务端数: {}, 大小: {} KB",
+                indexName, keys.size(), filter.bits.length * Long.BYTES / 1024);
+    }
+
+    /**
+     * 索引对应的一天（索引时区）结束已超过 settle-lag-minutes，延迟到达的数据已写入
+     */
+    private boolean isSettled(LocalDate day) {
+        return ZonedDateTime.now(indexZone)
+                .isAfter(day.plusDays(1).atStartOfDay(indexZone).plusMinutes(settleLagMinutes));
+    }
+
+    private BloomFilter load(LocalDate day) {
+        BloomFilter cached = filters.get(day);
+        if (cached != null) {
+            return cached;
+        }
+        Path file = filePath(day);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("存在性过滤器文件格式不正确，忽略: {}", file);
+                return null;
+            }
+            int hashes = buffer.getInt();
+            long[] bits = new long[buffer.getInt()];
+            buffer.asLongBuffer().get(bits);
+            BloomFilter filter = new BloomFilter(bits, hashes);
+            filters.put(day, filter);
+            return filter;
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取存在性过滤器失败: {}, {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(LocalDate day, BloomFilter filter) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * Integer.BYTES + filter.bits.length * Long.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(filter.hashes).putInt(filter.bits.length);
+        for (long word : filter.bits) {
+            buffer.putLong(word);
+        }
+        buffer.flip();
+
+        Path file = filePath(day);
+        Files.createDirectories(root);
+        Path tempFile = Files.createTempFile(root, file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String key(String serverIp, int port) {
+        return normalize(serverIp) + "|" + port;
+    }
+
+    /**
+     * IP规范化为标准写法，同一地址的不同写法（如IPv6的完整及压缩格式）得到相同的key；无法解析时原样返回
+     */
+    private static String normalize(String ip) {
+        try {
+            return InetAddresses.toAddrString(InetAddresses.forString(ip));
+        } catch (IllegalArgumentException e) {
+            return ip;
+        }
+    }
+
+    private Path filePath(LocalDate day) {
+        return root.resolve(day.format(FILE_FORMATTER) + ".bloom");
+    }
+
+    private String indexName(LocalDate day) {
+        return indexPrefix + day.format(FILE_FORMATTER);
+    }
+
+    /**
+     * 基于 MurmurHash3 128位哈希双重散列的布隆过滤器
+     */
+    private static final class BloomFilter {
+
+        private final long[] bits;
+
+        private final int hashes;
+
+        private BloomFilter(long[] bits, int hashes) {
+            this.bits = bits;
+            this.hashes = hashes;
+        }
+
+        /**
+         * 按预期元素数量和误报率计算位数及哈希函数个数
+         */
+        static BloomFilter create(int expected, double fpp) {
+            long n = Math.max(1, expected);
+            long m = Math.max(64, (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+            int k = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+            return new BloomFilter(new long[(int) ((m + 63) / 64)], k);
+        }
+
+        void put(String key) {
+            MurmurHash3.Hash128 hash = hash(key);
+            long bitSize = (long) bits.length * 64;
+            for (int i = 0; i < hashes; i++) {
+                long index = Math.floorMod(hash.h1 + i * hash.h2, bitSize);
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+        }
+
+        boolean mightContain(String key) {
+            MurmurHash3.Hash128 hash = hash(key);
+            long bitSize = (long) bits.length * 64;
+            for (int i = 0; i < hashes; i++) {
+                long index = Math.floorMod(hash.h1 + i * hash.h2, bitSize);
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static MurmurHash3.Hash128 hash(String key) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            return MurmurHash3.hash128(bytes, 0, bytes.length, 0, new MurmurHash3.Hash128());
+        }
+    }
+}
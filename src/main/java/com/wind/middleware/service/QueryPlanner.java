@@ -0,0 +1,102 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.CostEstimate;
+import com.wind.middleware.entity.enums.QueryStrategy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 查询计划器
+ * <p>
+ * 任务提交前通过 count 及 cardinality 聚合预估扫描文档数和客户端数量，据此选择查询策略：
+ * 单个（日期，服务端IP）的客户端数量在批量桶上限内时使用 terms 嵌套聚合（BATCH），
+ * 超出时使用 terms 分区聚合（PARTITIONED），分区数过多时使用 composite 分页聚合（COMPOSITE）。
+ * 预估文档数超过上限的任务直接拒绝。
+ */
+@Slf4j
+@Component
+public class QueryPlanner {
+
+    @Autowired
+    private ElasticsearchService elasticsearchService;
+
+    @Value("${middleware.elasticsearch.planner.enabled:true}")
+    private boolean enabled;
+
+    @Value("${middleware.elasticsearch.planner.max-partitions:20}")
+    private int maxPartitions;
+
+    @Value("${middleware.elasticsearch.planner.docs-per-second:2000000}")
+    private long docsPerSecond;
+
+    @Value("${middleware.elasticsearch.aggregation-size:10000}")
+    private int aggregationSize;
+
+    @Value("${middleware.elasticsearch.max-buckets:10000}")
+    private int maxBuckets;
+
+    @Value("${middleware.elasticsearch.partition-target-size:5000}")
+    private int partitionTargetSize;
+
+    @Value("${middleware.task.max-estimated-docs:0}")
+    private long maxEstimatedDocs;
+
+    @Value("${middleware.flow-source.type:elasticsearch}")
+    private String flowSourceType;
+
+    /**
+     * 预估任务代价并选择查询策略
+     *
+     * @return 估算结果，未启用、预检失败或数据源不是ES时返回null，由任务使用默认查询策略
+     * @throws IllegalArgumentException 预估扫描文档数超过上限
+     */
+    public CostEstimate plan(List<String> serverIps, AccessFilter filter, LocalDate startDate, LocalDate endDate) {
+        if (!enabled || !"elasticsearch".equals(flowSourceType)) {
+            return null;
+        }
+
+        CostEstimate estimate;
+        try {
+            estimate = elasticsearchService.estimateClientAccess(serverIps, filter, startDate, endDate);
+        } catch (Exception e) {
+            // 预检失败不影响任务提交，使用默认查询策略
+            log.warn("任务代价预估失败，使用默认查询策略: {}", e.getMessage());
+            return null;
+        }
+
+        if (maxEstimatedDocs > 0 && estimate.getEstimatedDocs() > maxEstimatedDocs) {
+            throw new IllegalArgumentException(String.format(
+                    "预估扫描文档数 %d 超过上限 %d，请缩小查询时间范围或减少服务端IP",
+                    estimate.getEstimatedDocs(), maxEstimatedDocs));
+        }
+
+        estimate.setStrategy(chooseStrategy(estimate, serverIps.size()));
+        estimate.setEstimatedSeconds(Math.max(1, estimate.getEstimatedDocs() / Math.max(1, docsPerSecond)));
+        log.info("查询计划: 服务端IP: {}, 时间范围: {} - {}, 预估文档数: {}, 查询策略: {}",
+                serverIps, startDate, endDate, estimate.getEstimatedDocs(), estimate.getStrategy());
+        return estimate;
+    }
+
+    /**
+     * 根据单个（日期，服务端IP）的最大客户端数量选择查询策略
+     */
+    private QueryStrategy chooseStrategy(CostEstimate estimate, int serverCount) {
+        long maxUnitClients = estimate.getMaxUnitClients();
+        // BATCH模式下每个服务端IP分到的客户端桶数
+        int batchBucketSize = Math.max(1, Math.min(aggregationSize, maxBuckets / serverCount));
+        if (maxUnitClients <= batchBucketSize) {
+            return QueryStrategy.BATCH;
+        }
+        long partitions = (maxUnitClients + partitionTargetSize - 1) / partitionTargetSize;
+        if (partitions <= maxPartitions) {
+            return QueryStrategy.PARTITIONED;
+        }
+        return QueryStrategy.COMPOSITE;
+    }
+}
@@ -0,0 +1,256 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.entity.RollupCheckpoint;
+import com.wind.middleware.entity.enums.RollupStatus;
+import com.wind.middleware.exception.PartialResultException;
+import com.wind.middleware.mapper.RollupCheckpointMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.elasticsearch.search.aggregations.metrics.min.Min;
+import org.elasticsearch.search.aggregations.metrics.sum.Sum;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 日索引汇总服务
+ * <p>
+ * 每晚对已结束写入的日索引按 (dstip, dport, srcip) 做composite聚合，累计文档数、count、bytes 字段及首末次访问时间，
+ * 结果写入 {@link RollupStore}。汇总完成的日期由 {@link ElasticsearchService} 直接读取汇总结果，不再查询原始索引。
+ * <p>
+ * 每累计一定行数写入一个段文件，并将对应的 after_key 记录到检查点表；任务中断或超出运行时段后，
+ * 下次从检查点继续。翻页之间固定休眠，且只在配置的夜间时段运行，避免与白天的查询争抢ES资源。
+ */
+@Slf4j
+@Service
+public class RollupService {
+
+    @Autowired
+    private EsSearchExecutor searchExecutor;
+
+    @Autowired
+    private RollupStore rollupStore;
+
+    @Autowired
+    private RollupCheckpointMapper checkpointMapper;
+
+    @Value("${middleware.rollup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${middleware.rollup.page-size:5000}")
+    private int pageSize;
+
+    @Value("${middleware.rollup.segment-rows:500000}")
+    private int segmentRows;
+
+    @Value("${middleware.rollup.page-interval-ms:200}")
+    private long pageIntervalMs;
+
+    @Value("${middleware.rollup.window-start-hour:1}")
+    private int windowStartHour;
+
+    @Value("${middleware.rollup.window-end-hour:7}")
+    private int windowEndHour;
+
+    @Value("${middleware.rollup.lookback-days:7}")
+    private int lookbackDays;
+
+    @Value("${middleware.elasticsearch.index-prefix}")
+    private String indexPrefix;
+
+    @Value("${middleware.elasticsearch.index-time-zone:GMT+8}")
+    private ZoneId indexZone;
+
+    private static final DateTimeFormatter INDEX_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 查询日期范围内已完成汇总的日期
+     */
+    public Set<LocalDate> completedDays(LocalDate startDate, LocalDate endDate) {
+        if (!enabled) {
+            return Set.of();
+        }
+        try {
+            return new HashSet<>(checkpointMapper.selectCompletedDays(startDate, endDate));
+        } catch (Exception e) {
+            log.warn("查询汇总检查点失败，全部日期查询原始索引: {}", e.getMessage());
+            return Set.of();
+        }
+    }
+
+    /**
+     * 定时汇总最近 lookback-days 天内尚未完成汇总的日索引，当天的索引仍在写入，不参与汇总
+     */
+    @Scheduled(cron = "${middleware.rollup.cron:0 10 1 * * ?}", zone = "${middleware.elasticsearch.index-time-zone:GMT+8}")
+    public void rollupClosedIndices() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            LocalDate today = LocalDate.now(indexZone);
+            for (LocalDate day = today.minusDays(lookbackDays); day.isBefore(today); day = day.plusDays(1)) {
+                if (!inWindow()) {
+                    log.info("超出汇总运行时段 {}:00 - {}:00，暂停汇总，下次从检查点继续", windowStartHour, windowEndHour);
+                    return;
+                }
+                try {
+                    rollupDay(day);
+                } catch (Exception e) {
+                    // 单天失败不影响其他天，检查点保留，下次继续
+                    log.error("汇总索引 {} 失败: {}", indexName(day), e.getMessage());
+                }
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 汇总单天索引，从检查点继续
+     */
+    private void rollupDay(LocalDate day) throws Exception {
+        RollupCheckpoint checkpoint = checkpointMapper.selectById(day);
+        if (checkpoint != null && checkpoint.getStatus() == RollupStatus.COMPLETED) {
+            return;
+        }
+        if (checkpoint == null) {
+            checkpoint = new RollupCheckpoint();
+            checkpoint.setIndexDate(day);
+            checkpoint.setStatus(RollupStatus.RUNNING);
+            checkpoint.setSegments(0);
+            checkpoint.setRowCount(0L);
+            checkpointMapper.insert(checkpoint);
+        }
+        // 删除上次中断时已写入但未记录检查点的段文件
+        rollupStore.truncate(day, checkpoint.getSegments());
+
+        String indexName = indexName(day);
+        Map<String, Object> afterKey = checkpoint.getAfterKey();
+        log.info("开始汇总索引: {}, 已完成段数: {}, 已汇总记录数: {}",
+                indexName, checkpoint.getSegments(), checkpoint.getRowCount());
+
+        List<RollupStore.Row> rows = new ArrayList<>();
+        int page = 0;
+        while (true) {
+            if (!inWindow()) {
+                log.info("超出汇总运行时段，索引 {} 暂停于第 {} 段", indexName, checkpoint.getSegments());
+                return;
+            }
+            CompositeAggregation agg = queryPage(indexName, afterKey, ++page);
+            List<? extends CompositeAggregation.Bucket> buckets = agg != null ? agg.getBuckets() : List.of();
+            for (CompositeAggregation.Bucket bucket : buckets) {
+                Map<String, Object> key = bucket.getKey();
+                Sum countSum = bucket.getAggregations().get("count_sum");
+                Sum bytesSum = bucket.getAggregations().get("bytes_sum");
+                Min firstSeen = bucket.getAggregations().get("first_seen");
+                Max lastSeen = bucket.getAggregations().get("last_seen");
+                rows.add(new RollupStore.Row(String.valueOf(key.get("dstip")),
+                        ((Number) key.get("dport")).intValue(), String.valueOf(key.get("srcip")),
+                        bucket.getDocCount(), Math.round(countSum.getValue()), Math.round(bytesSum.getValue()),
+                        Math.round(firstSeen.getValue()), Math.round(lastSeen.getValue())));
+            }
+            boolean finished = buckets.size() < pageSize;
+            if (!finished) {
+                // 低版本ES不返回after_key，使用最后一个桶的key翻页
+                afterKey = agg.afterKey() != null ? agg.afterKey() : buckets.get(buckets.size() - 1).getKey();
+            }
+
+            if (finished || rows.size() >= segmentRows) {
+                // 空索引同样写入一个空段，标记该天已有汇总结果
+                if (!rows.isEmpty() || checkpoint.getSegments() == 0) {
+                    rollupStore.writeSegment(day, checkpoint.getSegments(), rows);
+                    checkpoint.setSegments(checkpoint.getSegments() + 1);
+                    checkpoint.setRowCount(checkpoint.getRowCount() + rows.size());
+                    rows.clear();
+                }
+                checkpoint.setAfterKey(afterKey);
+                if (finished) {
+                    checkpoint.setStatus(RollupStatus.COMPLETED);
+                }
+                checkpointMapper.updateById(checkpoint);
+            }
+            if (finished) {
+                log.info("索引 {} 汇总完成，共 {} 段，{} 条记录", indexName, checkpoint.getSegments(), checkpoint.getRowCount());
+                return;
+            }
+            Thread.sleep(pageIntervalMs);
+        }
+    }
+
+    /**
+     * 查询composite聚合的一页，经由异步执行器发出，受全局并发上限控制；结果不完整时抛出 {@link PartialResultException}
+     *
+     * @return 聚合结果，索引不存在时返回null（按空索引汇总）
+     */
+    private CompositeAggregation queryPage(String indexName, Map<String, Object> afterKey, int page) {
+        List<CompositeValuesSourceBuilder<?>> sources = List.of(
+                new TermsValuesSourceBuilder("dstip").field("dstip"),
+                new TermsValuesSourceBuilder("dport").field("dport"),
+                new TermsValuesSourceBuilder("srcip").field("srcip"));
+        CompositeAggregationBuilder compositeAgg = new CompositeAggregationBuilder("rollup", sources)
+                .size(pageSize)
+                .subAggregation(AggregationBuilders.sum("count_sum").field("count"))
+                .subAggregation(AggregationBuilders.sum("bytes_sum").field("bytes"))
+                .subAggregation(AggregationBuilders.min("first_seen").field("@timestamp"))
+                .subAggregation(AggregationBuilders.max("last_seen").field("@timestamp"));
+        if (afterKey != null) {
+            compositeAgg.aggregateAfter(afterKey);
+        }
+
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(QueryBuilders.matchAllQuery())
+                .aggregation(compositeAgg)
+                .size(0);
+        // 一次性扫描，不占用分片请求缓存
+        SearchRequest searchRequest = new SearchRequest(indexName).source(sourceBuilder).requestCache(false)
+                .indicesOptions(IndicesOptions.lenientExpandOpen());
+        String description = indexName + " 汇总第" + page + "页";
+        SearchResponse searchResponse = searchExecutor.search(searchRequest, description).join();
+        // 有分片失败或超时的页不写入段文件和检查点，抛出后该天保留上次检查点，下次从检查点重新汇总
+        PartialResultException partial = searchExecutor.checkComplete(searchResponse, description);
+        if (partial != null) {
+            throw partial;
+        }
+        return searchResponse.getAggregations() != null ? searchResponse.getAggregations().get("rollup") : null;
+    }
+
+    /**
+     * 当前是否处于允许汇总的时段
+     */
+    private boolean inWindow() {
+        int hour = LocalTime.now(indexZone).getHour();
+        if (windowStartHour <= windowEndHour) {
+            return hour >= windowStartHour && hour < windowEndHour;
+        }
+        // 跨零点的时段，如 22 - 6
+        return hour >= windowStartHour || hour < windowEndHour;
+    }
+
+    private String indexName(LocalDate day) {
+        return indexPrefix + day.format(INDEX_DATE_FORMATTER);
+    }
+}
@@ -0,0 +1,253 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.AccessMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * 日索引汇总存储
+ * <p>
+ * 每天的汇总结果按 (dstip, dport, srcip) 有序写入若干段文件 {@code yyyy.MM.dd/part-NNNNN.seg}，
+ * 段内同一 (dstip, dport) 的记录连续存放，文件格式：
+ * <pre>
+ * int magic | int version | int groups | int rows
+ * int[groups] dport | int[groups+1] 组起始行 | int[groups+1] dstip偏移 | byte[] dstip(UTF-8)
+ * long[rows] 文档数 | long[rows] count合计 | long[rows] bytes合计
+ * long[rows] 首次访问时间 | long[rows] 最后访问时间 | int[rows+1] srcip偏移 | byte[] srcip(UTF-8)
+ * </pre>
+ * 读取时只扫描组目录，命中的组再按行读取srcip列。版本1的段文件没有首末次访问时间两列，仍可读取。
+ */
+@Component
+public class RollupStore {
+
+    private static final int MAGIC = 0x53464C52;
+
+    private static final int VERSION = 2;
+
+    /**
+     * 不含首末次访问时间列的旧版本
+     */
+    private static final int VERSION_WITHOUT_SEEN = 1;
+
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+    private static final DateTimeFormatter DIR_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    @Value("${middleware.rollup.dir:data/rollup}")
+    private String rollupDir;
+
+    private Path root;
+
+    @PostConstruct
+    public void initialize() {
+        root = Paths.get(rollupDir);
+    }
+
+    /**
+     * 写入一个段文件，已存在时覆盖
+     *
+     * @param rows 按 (dstip, dport, srcip) 排序的汇总记录
+     */
+    public void writeSegment(LocalDate day, int segment, List<Row> rows) throws IOException {
+        List<Integer> groupStarts = new ArrayList<>();
+        List<byte[]> groupIps = new ArrayList<>();
+        List<Integer> groupPorts = new ArrayList<>();
+        List<byte[]> clientIps = new ArrayList<>(rows.size());
+        int groupIpBytes = 0;
+        int clientIpBytes = 0;
+        Row previous = null;
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            if (previous == null || row.dport() != previous.dport() || !row.dstip().equals(previous.dstip())) {
+                byte[] ip = row.dstip().getBytes(StandardCharsets.UTF_8);
+                groupStarts.add(i);
+                groupIps.add(ip);
+                groupPorts.add(row.dport());
+                groupIpBytes += ip.length;
+            }
+            byte[] clientIp = row.srcip().getBytes(StandardCharsets.UTF_8);
+            clientIps.add(clientIp);
+            clientIpBytes += clientIp.length;
+            previous = row;
+        }
+        int groups = groupStarts.size();
+        int n = rows.size();
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES
+                + groups * Integer.BYTES + 2 * (groups + 1) * Integer.BYTES + groupIpBytes
+                + 5 * n * Long.BYTES + (n + 1) * Integer.BYTES + clientIpBytes);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(groups).putInt(n);
+        groupPorts.forEach(buffer::putInt);
+        groupStarts.forEach(buffer::putInt);
+        buffer.putInt(n);
+        putOffsets(buffer, groupIps);
+        groupIps.forEach(buffer::put);
+        rows.forEach(row -> buffer.putLong(row.docCount()));
+        rows.forEach(row -> buffer.putLong(row.count()));
+        rows.forEach(row -> buffer.putLong(row.bytes()));
+        rows.forEach(row -> buffer.putLong(row.firstSeen()));
+        rows.forEach(row -> buffer.putLong(row.lastSeen()));
+        putOffsets(buffer, clientIps);
+        clientIps.forEach(buffer::put);
+        buffer.flip();
+
+        Path file = segmentPath(day, segment);
+        Files.createDirectories(file.getParent());
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 删除编号不小于 fromSegment 的段文件（上次中断后未记录检查点的部分结果）
+     */
+    public void truncate(LocalDate day, int fromSegment) throws IOException {
+        for (Path file : listSegments(day)) {
+            if (segmentNumber(file) >= fromSegment) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * 读取某天指定服务端IP的汇总结果，同一客户端可能分布在多个段中，由调用方累加
+     *
+     * @param serverIps 服务端IP匹配条件（单个IP或网段）
+     * @param port      服务端端口，为null时不限端口
+     * @param consumer  逐行回调
+     * @throws IOException 段文件缺失或格式不正确
+     */
+    public void read(LocalDate day, Predicate<String> serverIps, Integer port, RowConsumer consumer) throws IOException {
+        List<Path> segments = listSegments(day);
+        if (segments.isEmpty()) {
+            throw new NoSuchFileException(root.resolve(day.format(DIR_FORMATTER)).toString());
+        }
+        for (Path file : segments) {
+            readSegment(file, serverIps, port, consumer);
+        }
+    }
+
+    private void readSegment(Path file, Predicate<String> serverIps, Integer port, RowConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version = buffer.getInt(Integer.BYTES);
+            if (buffer.getInt() != MAGIC || (version != VERSION && version != VERSION_WITHOUT_SEEN)) {
+                throw new IOException("汇总段文件格式不正确: " + file);
+            }
+            buffer.getInt();
+            boolean hasSeen = version == VERSION;
+            int groups = buffer.getInt();
+            int n = buffer.getInt();
+            int portsStart = HEADER_BYTES;
+            int startsStart = portsStart + groups * Integer.BYTES;
+            int groupOffsetsStart = startsStart + (groups + 1) * Integer.BYTES;
+            int groupBytesStart = groupOffsetsStart + (groups + 1) * Integer.BYTES;
+            int docCountsStart = groupBytesStart + buffer.getInt(groupOffsetsStart + groups * Integer.BYTES);
+            int countsStart = docCountsStart + n * Long.BYTES;
+            int bytesStart = countsStart + n * Long.BYTES;
+            int firstSeenStart = bytesStart + n * Long.BYTES;
+            int lastSeenStart = firstSeenStart + n * Long.BYTES;
+            int clientOffsetsStart = hasSeen ? lastSeenStart + n * Long.BYTES : firstSeenStart;
+            int clientBytesStart = clientOffsetsStart + (n + 1) * Integer.BYTES;
+
+            byte[] keyBytes = new byte[64];
+            for (int g = 0; g < groups; g++) {
+                int groupPort = buffer.getInt(portsStart + g * Integer.BYTES);
+                if (port != null && groupPort != port) {
+                    continue;
+                }
+                String serverIp = readString(buffer, groupOffsetsStart, groupBytesStart, g, keyBytes);
+                if (!serverIps.test(serverIp)) {
+                    continue;
+                }
+                int from = buffer.getInt(startsStart + g * Integer.BYTES);
+                int to = buffer.getInt(startsStart + (g + 1) * Integer.BYTES);
+                for (int i = from; i < to; i++) {
+                    AccessMetrics metrics = AccessMetrics.of(buffer.getLong(docCountsStart + i * Long.BYTES));
+                    metrics.setTotalCount(buffer.getLong(countsStart + i * Long.BYTES));
+                    metrics.setTotalBytes(buffer.getLong(bytesStart + i * Long.BYTES));
+                    if (hasSeen) {
+                        metrics.setFirstSeen(buffer.getLong(firstSeenStart + i * Long.BYTES));
+                        metrics.setLastSeen(buffer.getLong(lastSeenStart + i * Long.BYTES));
+                    }
+                    consumer.accept(serverIp, groupPort,
+                            readString(buffer, clientOffsetsStart, clientBytesStart, i, keyBytes), metrics);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("汇总段文件已损坏: " + file, e);
+        }
+    }
+
+    private String readString(ByteBuffer buffer, int offsetsStart, int bytesStart, int index, byte[] scratch) {
+        int from = buffer.getInt(offsetsStart + index * Integer.BYTES);
+        int to = buffer.getInt(offsetsStart + (index + 1) * Integer.BYTES);
+        int length = to - from;
+        byte[] target = scratch.length >= length ? scratch : new byte[length];
+        buffer.get(bytesStart + from, target, 0, length);
+        return new String(target, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void putOffsets(ByteBuffer buffer, List<byte[]> values) {
+        int offset = 0;
+        buffer.putInt(offset);
+        for (byte[] value : values) {
+            offset += value.length;
+            buffer.putInt(offset);
+        }
+    }
+
+    private List<Path> listSegments(LocalDate day) throws IOException {
+        Path dir = root.resolve(day.format(DIR_FORMATTER));
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".seg"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(LocalDate day, int segment) {
+        return root.resolve(day.format(DIR_FORMATTER)).resolve(String.format("part-%05d.seg", segment));
+    }
+
+    private int segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("part-".length(), name.length() - ".seg".length()));
+    }
+
+    /**
+     * 一条汇总记录，首末次访问时间为UTC毫秒
+     */
+    public record Row(String dstip, int dport, String srcip, long docCount, long count, long bytes,
+                      long firstSeen, long lastSeen) {
+    }
+
+    /**
+     * 汇总记录回调
+     */
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(String serverIp, int port, String clientIp, AccessMetrics metrics);
+    }
+}
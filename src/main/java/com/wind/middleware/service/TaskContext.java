@@ -0,0 +1,99 @@
+package com.wind.middleware.service;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+
+/**
+ * 当前线程正在处理的任务
+ * <p>
+ * 任务工作线程处理任务时设置任务ID，{@link EsSearchExecutor} 据此按任务排队并轮流派发ES请求；
+ * 查询结果在回调线程中完成时会恢复发起请求的任务ID，翻页等后续请求仍归属同一任务。
+ * <p>
+ * 持有任务租约执行时同时设置租约防护令牌，{@link TaskService} 写入该任务的状态及结果时校验令牌，
+ * 任务被其他实例重新领取后，旧执行者的写入会被拒绝。
+ * <p>
+ * 实例开始停机后，执行中的任务因停机或线程中断而失败时不记为失败，只释放租约，见 {@link #isInterrupted}。
+ */
+public final class TaskContext {
+
+    private static final ThreadLocal<Current> CURRENT_TASK = new ThreadLocal<>();
+
+    private static volatile boolean stopping;
+
+    private TaskContext() {
+    }
+
+    /**
+     * 当前任务ID，不在任务中执行时返回null
+     */
+    public static String currentTaskId() {
+        Current current = CURRENT_TASK.get();
+        return current != null ? current.taskId : null;
+    }
+
+    /**
+     * 当前任务的租约防护令牌，不持有任务租约时返回null
+     */
+    public static Long currentFenceToken() {
+        Current current = CURRENT_TASK.get();
+        return current != null ? current.fenceToken : null;
+    }
+
+    /**
+     * 当前线程持有指定任务的租约时返回防护令牌，否则返回null（不校验）
+     */
+    public static Long fenceTokenFor(String taskId) {
+        Current current = CURRENT_TASK.get();
+        return current != null && current.taskId.equals(taskId) ? current.fenceToken : null;
+    }
+
+    /**
+     * 以指定任务ID执行（不持有任务租约），结束后恢复原来的任务
+     */
+    public static void run(String taskId, Runnable action) {
+        run(taskId, null, action);
+    }
+
+    /**
+     * 以指定任务ID及租约防护令牌执行，结束后恢复原来的任务
+     */
+    public static void run(String taskId, Long fenceToken, Runnable action) {
+        Current previous = CURRENT_TASK.get();
+        CURRENT_TASK.set(new Current(taskId, fenceToken));
+        try {
+            action.run();
+        } finally {
+            if (previous != null) {
+                CURRENT_TASK.set(previous);
+            } else {
+                CURRENT_TASK.remove();
+            }
+        }
+    }
+
+    /**
+     * 标记实例开始停机，由任务队列管理器在停止领取任务时调用
+     */
+    public static void markStopping() {
+        stopping = true;
+    }
+
+    /**
+     * 任务执行是否因停机而中断：实例已开始停机、当前线程已被中断，或异常原因链中包含中断异常
+     */
+    public static boolean isInterrupted(Throwable e) {
+        if (stopping || Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record Current(String taskId, Long fenceToken) {
+    }
+}
@@ -1,5 +1,8 @@
 package com.wind.middleware.service;
 
+import com.wind.middleware.dto.es.ExportProgress;
+import com.wind.middleware.dto.es.PreviewResult;
+import com.wind.middleware.dto.es.QueryStats;
 import com.wind.middleware.entity.HostInfo;
 import com.wind.middleware.entity.Task;
 import com.wind.middleware.entity.TaskResult;
@@ -22,6 +25,26 @@ public interface TaskDataService {
      */
     boolean updateTaskStatus(String taskId, TaskStatus status, String errorMessage);
 
+    /**
+     * 更新ES查询统计信息
+     */
+    boolean updateQueryStats(String taskId, QueryStats queryStats);
+
+    /**
+     * 更新导出进度
+     */
+    boolean updateExportProgress(String taskId, ExportProgress exportProgress);
+
+    /**
+     * 更新采样预览结果
+     */
+    boolean updatePreview(String taskId, PreviewResult preview);
+
+    /**
+     * 清除任务已保存的部分结果（任务中断后重新执行时调用）
+     */
+    void clearTaskResults(String taskId);
+
     /**
      * 保存任务结果
      */
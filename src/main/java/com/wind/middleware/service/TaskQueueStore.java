@@ -0,0 +1,299 @@
+package com.wind.middleware.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.wind.middleware.dto.es.UnitResult;
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.TaskUnit;
+import com.wind.middleware.entity.enums.TaskStatus;
+import com.wind.middleware.entity.enums.TaskUnitStatus;
+import com.wind.middleware.entity.enums.TaskUnitType;
+import com.wind.middleware.mapper.TaskMapper;
+import com.wind.middleware.mapper.TaskUnitMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于任务表的持久化任务队列
+ * <p>
+ * 任务以 t_task 中的行作为队列元素：通过 {@code SELECT ... FOR UPDATE SKIP LOCKED} 领取，领取后持有带到期时间的租约，
+ * 执行期间由心跳续期。实例崩溃或重启后租约到期（或被本实例启动时主动置为过期、被其他实例发现心跳超时），执行中的任务会被重新领取；
+ * 每次领取防护令牌加一，续期、释放租约及写入任务状态/结果时校验令牌，停顿后恢复的旧执行者无法覆盖新执行者的写入。
+ * 领取次数超过 {@code middleware.task.max-attempts} 的任务直接置为失败，避免反复中断的任务无限重试。
+ * <p>
+ * 任务拆分出的执行单元（t_task_unit）以同样的方式领取、续期和重新领取。
+ */
+@Slf4j
+@Service
+public class TaskQueueStore {
+
+    @Autowired
+    private TaskMapper taskMapper;
+
+    @Autowired
+    private TaskUnitMapper taskUnitMapper;
+
+    @Autowired
+    private EsConcurrencyLimiter concurrencyLimiter;
+
+    @Value("${middleware.task.max-attempts:3}")
+    private int maxAttempts;
+
+    /**
+     * 每次锁定的候选任务数，超过最大执行次数的任务置为失败后继续查看下一个
+     */
+    private static final int CLAIM_BATCH_SIZE = 5;
+
+    /**
+     * 领取下一个任务
+     *
+     * @param owner       实例标识
+     * @param leaseMillis 租约时长（毫秒）
+     * @return 领取到的任务（已设置租约及防护令牌、状态为ES查询中），没有可领取的任务时返回null
+     */
+    @Transactional
+    public Task claimNext(String owner, long leaseMillis) {
+        List<String> taskIds = taskMapper.lockClaimableTaskIds(CLAIM_BATCH_SIZE);
+        for (String taskId : taskIds) {
+            Task task = taskMapper.selectById(taskId);
+            int attempts = task.getAttempts() != null ? task.getAttempts() : 0;
+            if (task.getStatus() != TaskStatus.SUBMITTED && attempts >= maxAttempts) {
+                Task failed = new Task();
+                failed.setTaskId(taskId);
+                failed.setStatus(TaskStatus.FAILED);
+                failed.setErrorMessage(String.format("任务执行中断%d次，不再重试", attempts));
+                failed.setUpdateTime(LocalDateTime.now());
+                taskMapper.updateById(failed);
+                log.warn("任务执行中断次数达到上限，置为失败: {}, 执行次数: {}", taskId, attempts);
+                continue;
+            }
+            taskMapper.claim(taskId, owner, leaseMillis);
+            if (task.getStatus() != TaskStatus.SUBMITTED) {
+                log.warn("重新领取中断的任务: {}, 中断时状态: {}, 原租约: {}, 第 {} 次执行",
+                        taskId, task.getStatus(), task.getLeaseOwner(), attempts + 1);
+            }
+            task.setAttempts(attempts + 1);
+            task.setFenceToken((task.getFenceToken() != null ? task.getFenceToken() : 0L) + 1);
+            task.setLeaseOwner(owner);
+            return task;
+        }
+        return null;
+    }
+
+    /**
+     * 续期租约
+     *
+     * @return 租约是否仍属于该执行者
+     */
+    public boolean renewLease(String taskId, String owner, long fenceToken, long leaseMillis) {
+        return taskMapper.renewLease(taskId, owner, fenceToken, leaseMillis) > 0;
+    }
+
+    /**
+     * 任务执行结束后释放租约；任务未到达终态（如停机时被中断）时可被立即重新领取
+     */
+    public void releaseLease(String taskId, String owner, long fenceToken) {
+        withoutInterrupt(() -> taskMapper.releaseLease(taskId, owner, fenceToken));
+    }
+
+    /**
+     * 使指定实例持有的任务及执行单元租约立即过期：本实例启动时，或发现其他实例心跳超时时调用
+     *
+     * @return 过期的租约数
+     */
+    public int expireLeases(String owner) {
+        return taskMapper.expireLeases(owner) + taskUnitMapper.expireLeases(owner);
+    }
+
+    /**
+     * 创建任务的执行单元
+     */
+    @Transactional
+    public void createUnits(List<TaskUnit> units) {
+        units.forEach(taskUnitMapper::insert);
+    }
+
+    /**
+     * 查询任务的全部执行单元，按类型及单元序号排序
+     */
+    public List<TaskUnit> getUnits(String taskId) {
+        return taskUnitMapper.selectList(Wrappers.<TaskUnit>lambdaQuery()
+                .eq(TaskUnit::getTaskId, taskId)
+                .orderByDesc(TaskUnit::getUnitType)
+                .orderByAsc(TaskUnit::getUnitIndex));
+    }
+
+    /**
+     * 按序号分页查询任务某类型的执行单元（含部分结果），合并结果时逐页读取，避免一次加载全部单元的结果
+     *
+     * @param afterIndex 上一页最后一个单元的序号，第一页传-1
+     * @param limit      每页单元数
+     */
+    public List<TaskUnit> getUnits(String taskId, TaskUnitType unitType, int afterIndex, int limit) {
+        return taskUnitMapper.selectPage(new Page<>(1, limit, false), Wrappers.<TaskUnit>lambdaQuery()
+                .eq(TaskUnit::getTaskId, taskId)
+                .eq(TaskUnit::getUnitType, unitType)
+                .gt(TaskUnit::getUnitIndex, afterIndex)
+                .orderByAsc(TaskUnit::getUnitIndex)).getRecords();
+    }
+
+    /**
+     * 任务某类型的执行单元数
+     */
+    public int countUnits(String taskId, TaskUnitType unitType) {
+        return Math.toIntExact(taskUnitMapper.selectCount(Wrappers.<TaskUnit>lambdaQuery()
+                .eq(TaskUnit::getTaskId, taskId)
+                .eq(TaskUnit::getUnitType, unitType)));
+    }
+
+    /**
+     * 按类型及状态统计任务的执行单元数
+     */
+    public Map<TaskUnitType, Map<TaskUnitStatus, Integer>> countUnits(String taskId) {
+        Map<TaskUnitType, Map<TaskUnitStatus, Integer>> counts = new EnumMap<>(TaskUnitType.class);
+        for (Map<String, Object> row : taskUnitMapper.countByStatus(taskId)) {
+            counts.computeIfAbsent(TaskUnitType.valueOf((String) row.get("unit_type")),
+                            type -> new EnumMap<>(TaskUnitStatus.class))
+                    .put(TaskUnitStatus.valueOf((String) row.get("status")), ((Number) row.get("cnt")).intValue());
+        }
+        return counts;
+    }
+
+    /**
+     * 领取下一个执行单元
+     *
+     * @param owner       实例标识
+     * @param taskId      只领取该任务的单元（按序号从前往后），为null时从任意任务的单元末尾窃取
+     * @param leaseMillis 租约时长（毫秒）
+     * @return 领取到的单元（已设置租约及防护令牌），没有可领取的单元时返回null
+     */
+    @Transactional
+    public TaskUnit claimNextUnit(String owner, String taskId, long leaseMillis) {
+        List<Long> unitIds = taskUnitMapper.lockClaimableUnitIds(taskId, CLAIM_BATCH_SIZE);
+        for (Long unitId : unitIds) {
+            TaskUnit unit = taskUnitMapper.selectById(unitId);
+            int attempts = unit.getAttempts() != null ? unit.getAttempts() : 0;
+            if (unit.getStatus() == TaskUnitStatus.RUNNING && attempts >= maxAttempts) {
+                taskUnitMapper.update(null, Wrappers.<TaskUnit>lambdaUpdate()
+                        .set(TaskUnit::getStatus, TaskUnitStatus.FAILED)
+                        .set(TaskUnit::getErrorMessage, String.format("执行单元中断%d次，不再重试", attempts))
+                        .set(TaskUnit::getLeaseOwner, null)
+                        .set(TaskUnit::getLeaseExpireTime, null)
+                        .eq(TaskUnit::getId, unitId));
+                log.warn("执行单元中断次数达到上限，置为失败: {}#{}{}",
+                        unit.getTaskId(), unit.getUnitType(), unit.getUnitIndex());
+                continue;
+            }
+            taskUnitMapper.claim(unitId, owner, leaseMillis);
+            unit.setStatus(TaskUnitStatus.RUNNING);
+            unit.setAttempts(attempts + 1);
+            unit.setFenceToken((unit.getFenceToken() != null ? unit.getFenceToken() : 0L) + 1);
+            unit.setLeaseOwner(owner);
+            return unit;
+        }
+        return null;
+    }
+
+    /**
+     * 续期执行单元租约
+     *
+     * @return 租约是否仍属于该执行者
+     */
+    public boolean renewUnitLease(Long unitId, String owner, long fenceToken, long leaseMillis) {
+        return taskUnitMapper.renewLease(unitId, owner, fenceToken, leaseMillis) > 0;
+    }
+
+    /**
+     * 释放执行单元租约（停机时被中断），单元保持执行中状态并可被立即重新领取；防护令牌不一致时不更新
+     */
+    public void releaseUnitLease(TaskUnit unit) {
+        withoutInterrupt(() -> taskUnitMapper.update(null, Wrappers.<TaskUnit>lambdaUpdate()
+                .set(TaskUnit::getLeaseOwner, null)
+                .set(TaskUnit::getLeaseExpireTime, null)
+                .eq(TaskUnit::getId, unit.getId())
+                .eq(TaskUnit::getFenceToken, unit.getFenceToken())));
+    }
+
+    /**
+     * 保存执行单元的部分结果并置为已完成，防护令牌不一致（单元已被重新领取）时不更新
+     *
+     * @return 是否保存成功
+     */
+    public boolean completeUnit(TaskUnit unit, UnitResult result) {
+        TaskUnit completed = new TaskUnit();
+        completed.setStatus(TaskUnitStatus.COMPLETED);
+        completed.setResult(result);
+        return taskUnitMapper.update(completed, Wrappers.<TaskUnit>lambdaUpdate()
+                .set(TaskUnit::getErrorMessage, null)
+                .set(TaskUnit::getLeaseOwner, null)
+                .set(TaskUnit::getLeaseExpireTime, null)
+                .eq(TaskUnit::getId, unit.getId())
+                .eq(TaskUnit::getFenceToken, unit.getFenceToken())) > 0;
+    }
+
+    /**
+     * 记录执行单元失败：执行次数未达上限时重新置为待执行，按执行次数指数退避后才能重新领取，否则置为失败；
+     * 防护令牌不一致时不更新
+     */
+    public void failUnit(TaskUnit unit, String errorMessage) {
+        failUnit(unit, errorMessage, null);
+    }
+
+    /**
+     * 记录执行单元失败并保存部分结果作为检查点，重新执行时只查询检查点中失败的部分
+     *
+     * @param checkpoint 部分结果，为null时保留原有结果
+     */
+    public void failUnit(TaskUnit unit, String errorMessage, UnitResult checkpoint) {
+        int attempts = unit.getAttempts() != null ? unit.getAttempts() : 0;
+        boolean exhausted = attempts >= maxAttempts;
+        TaskUnit failed = new TaskUnit();
+        failed.setStatus(exhausted ? TaskUnitStatus.FAILED : TaskUnitStatus.PENDING);
+        failed.setResult(checkpoint);
+        // 失败多为ES压力或外部API故障，立即重新领取大概率再次失败；重新领取时间按数据库时间计算
+        long retryDelay = exhausted ? 0 : concurrencyLimiter.retryDelay(attempts, true);
+        taskUnitMapper.update(failed, Wrappers.<TaskUnit>lambdaUpdate()
+                .setSql(!exhausted, "next_attempt_time = TIMESTAMPADD(MICROSECOND, {0}, NOW())", retryDelay * 1000)
+                .set(TaskUnit::getErrorMessage, errorMessage)
+                .set(TaskUnit::getLeaseOwner, null)
+                .set(TaskUnit::getLeaseExpireTime, null)
+                .eq(TaskUnit::getId, unit.getId())
+                .eq(TaskUnit::getFenceToken, unit.getFenceToken()));
+    }
+
+    /**
+     * 暂时清除当前线程的中断标记后执行：被停机中断的工作线程获取数据库连接时不因中断而失败
+     */
+    private static void withoutInterrupt(Runnable action) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            action.run();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 等待领取的任务数
+     */
+    public int countSubmitted() {
+        return taskMapper.countSubmitted();
+    }
+
+    /**
+     * 最早的待领取任务的提交时间，没有待领取任务时返回null
+     */
+    public LocalDateTime oldestSubmittedTime() {
+        return taskMapper.selectOldestSubmittedTime();
+    }
+}
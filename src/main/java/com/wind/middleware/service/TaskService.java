@@ -1,14 +1,29 @@
 package com.wind.middleware.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.PortRange;
+import com.wind.middleware.dto.es.CostEstimate;
+import com.wind.middleware.dto.es.ExportProgress;
+import com.wind.middleware.dto.es.IpTarget;
+import com.wind.middleware.dto.es.PreviewResult;
+import com.wind.middleware.dto.es.QueryStats;
 import com.wind.middleware.entity.HostInfo;
 import com.wind.middleware.entity.Task;
 import com.wind.middleware.entity.TaskResult;
+import com.wind.middleware.entity.TaskUnit;
+import com.wind.middleware.entity.enums.ExportFormat;
 import com.wind.middleware.entity.enums.TaskStatus;
+import com.wind.middleware.entity.enums.TaskType;
+import com.wind.middleware.entity.enums.TaskUnitStatus;
+import com.wind.middleware.exception.BusinessException;
+import com.wind.middleware.exception.LeaseLostException;
 import com.wind.middleware.mapper.HostInfoMapper;
 import com.wind.middleware.mapper.TaskMapper;
 import com.wind.middleware.mapper.TaskResultMapper;
+import com.wind.middleware.mapper.TaskUnitMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -40,26 +55,107 @@ public class TaskService implements TaskDataService {
     @Autowired
     private HostInfoMapper hostInfoMapper;
 
+    @Autowired
+    private TaskUnitMapper taskUnitMapper;
+
     @Autowired
     private ApplicationEventPublisher eventPublisher;
 
-    @Value("${middleware.task.max-query-days}")
+    @Autowired
+    private QueryPlanner queryPlanner;
+
+    @Value("${middleware.task.max-query-days:30}")
     private int maxQueryDays;
 
-    @Value("${middleware.task.default-page-size}")
+    @Value("${middleware.task.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${middleware.task.default-page-size:10}")
     private int defaultPageSize;
 
-    @Value("${middleware.task.max-page-size}")
+    @Value("${middleware.task.max-page-size:100}")
     private int maxPageSize;
 
+    /**
+     * 任务预检：校验参数并预估查询代价，在提交任务前调用，不占用数据库事务
+     *
+     * @return 估算结果，预检未启用或失败时返回null
+     * @throws IllegalArgumentException 参数错误或预估代价超过上限
+     */
+    public CostEstimate estimateTask(String submitter, List<String> serverIps, Integer port,
+                                     LocalDate startDate, LocalDate endDate,
+                                     LocalDateTime startTime, LocalDateTime endTime) {
+        return estimateTask(submitter, serverIps, port, null, null, startDate, endDate, startTime, endTime);
+    }
+
+    /**
+     * 任务预检，未指定端口时按端口范围及排除端口过滤
+     */
+    public CostEstimate estimateTask(String submitter, List<String> serverIps, Integer port,
+                                     List<String> portRanges, List<Integer> excludePorts,
+                                     LocalDate startDate, LocalDate endDate,
+                                     LocalDateTime startTime, LocalDateTime endTime) {
+        validateTaskParams(submitter, serverIps, port, portRanges, excludePorts, startDate, endDate, startTime, endTime);
+        AccessFilter filter = AccessFilter.builder()
+                .port(port)
+                .portRanges(portRanges != null ? portRanges.stream().map(PortRange::parse).toList() : null)
+                .excludePorts(excludePorts)
+                .startTime(startTime)
+                .endTime(endTime)
+                .build();
+        return queryPlanner.plan(serverIps, filter, startDate, endDate);
+    }
+
     /**
      * 提交分析任务
      */
     @Transactional
     public String submitTask(String submitter, String description, List<String> serverIps,
                            Integer port, LocalDate startDate, LocalDate endDate) {
+        return submitTask(submitter, description, serverIps, port, startDate, endDate, null, null, null);
+    }
+
+    /**
+     * 提交分析任务，可限定时间窗口并附带预检估算结果
+     */
+    @Transactional
+    public String submitTask(String submitter, String description, List<String> serverIps,
+                           Integer port, LocalDate startDate, LocalDate endDate,
+                           LocalDateTime startTime, LocalDateTime endTime, CostEstimate costEstimate) {
+        return submitTask(submitter, description, serverIps, port, startDate, endDate, startTime, endTime,
+                costEstimate, TaskType.ANALYZE, null);
+    }
+
+    /**
+     * 提交任务，指定任务类型；导出任务可指定导出文件格式，默认NDJSON
+     */
+    @Transactional
+    public String submitTask(String submitter, String description, List<String> serverIps,
+                           Integer port, LocalDate startDate, LocalDate endDate,
+                           LocalDateTime startTime, LocalDateTime endTime, CostEstimate costEstimate,
+                           TaskType taskType, ExportFormat exportFormat) {
+        return submitTask(submitter, description, serverIps, port, null, null, startDate, endDate,
+                startTime, endTime, costEstimate, taskType, exportFormat);
+    }
+
+    /**
+     * 提交任务，未指定端口时按实际端口拆分结果，可限定端口范围及排除端口；等待领取的任务数达到队列容量时拒绝提交
+     */
+    @Transactional
+    public String submitTask(String submitter, String description, List<String> serverIps,
+                           Integer port, List<String> portRanges, List<Integer> excludePorts,
+                           LocalDate startDate, LocalDate endDate,
+                           LocalDateTime startTime, LocalDateTime endTime, CostEstimate costEstimate,
+                           TaskType taskType, ExportFormat exportFormat) {
         // 参数校验
-        validateTaskParams(submitter, serverIps, port, startDate, endDate);
+        validateTaskParams(submitter, serverIps, port, portRanges, excludePorts, startDate, endDate, startTime, endTime);
+
+        // 队列容量检查：各实例共享同一个任务表，按全部实例的待领取任务数计算
+        int pending = taskMapper.countSubmitted();
+        if (queueCapacity > 0 && pending >= queueCapacity) {
+            log.warn("任务队列已满，拒绝提交: 待执行任务数 {}, 队列容量 {}", pending, queueCapacity);
+            throw new BusinessException(429, String.format("任务队列已满（待执行任务数 %d），请稍后再提交", pending));
+        }
 
         // 生成任务ID
         String taskId = generateTaskId();
@@ -67,13 +163,22 @@ public class TaskService implements TaskDataService {
         // 创建任务实体
         Task task = new Task();
         task.setTaskId(taskId);
+        task.setTaskType(taskType != null ? taskType : TaskType.ANALYZE);
         task.setSubmitter(submitter);
         task.setDescription(description);
         task.setServerIps(serverIps);
         task.setPort(port);
+        task.setPortRanges(portRanges != null && !portRanges.isEmpty() ? portRanges : null);
+        task.setExcludePorts(excludePorts != null && !excludePorts.isEmpty() ? excludePorts : null);
         task.setStartDate(startDate);
         task.setEndDate(endDate);
+        task.setStartTime(startTime);
+        task.setEndTime(endTime);
         task.setStatus(TaskStatus.SUBMITTED);
+        task.setCostEstimate(costEstimate);
+        if (task.getTaskType() == TaskType.EXPORT) {
+            task.setExportFormat(exportFormat != null ? exportFormat : ExportFormat.NDJSON);
+        }
         task.setCreateTime(LocalDateTime.now());
         task.setUpdateTime(LocalDateTime.now());
 
@@ -169,11 +274,60 @@ public class TaskService implements TaskDataService {
         taskMapper.deleteById(taskId);
         taskResultMapper.deleteByTaskId(taskId);
         hostInfoMapper.deleteByTaskId(taskId);
+        taskUnitMapper.delete(Wrappers.<TaskUnit>lambdaQuery().eq(TaskUnit::getTaskId, taskId));
 
         log.info("任务删除成功: {}", taskId);
         return true;
     }
 
+    /**
+     * 恢复执行任务：失败的任务，或ES查询有（日期，服务端IP）失败的已完成任务重新排队执行。
+     * 已完成的执行单元直接复用，失败的执行单元重置执行次数后从检查点继续，只重新查询失败的部分；
+     * 未拆分为执行单元的任务整体重新执行
+     *
+     * @return 重新置为待执行的执行单元数
+     */
+    @Transactional
+    public int resumeTask(String taskId) {
+        Task task = taskMapper.selectById(taskId);
+        if (task == null) {
+            throw new RuntimeException("任务不存在");
+        }
+
+        boolean partiallyFailed = task.getStatus() == TaskStatus.COMPLETED
+                && task.getQueryStats() != null && task.getQueryStats().getFailedUnits() > 0;
+        if (task.getStatus() != TaskStatus.FAILED && !partiallyFailed) {
+            throw new IllegalArgumentException("只能恢复执行失败或部分查询失败的任务");
+        }
+
+        int units = taskUnitMapper.update(null, Wrappers.<TaskUnit>lambdaUpdate()
+                .set(TaskUnit::getStatus, TaskUnitStatus.PENDING)
+                .set(TaskUnit::getAttempts, 0)
+                .set(TaskUnit::getLeaseOwner, null)
+                .set(TaskUnit::getLeaseExpireTime, null)
+                .set(TaskUnit::getNextAttemptTime, null)
+                .eq(TaskUnit::getTaskId, taskId)
+                .eq(TaskUnit::getStatus, TaskUnitStatus.FAILED));
+
+        // 执行次数置为1：重新领取后执行次数大于1，处理前会先清除上次执行保存的部分结果，同时恢复中断重试次数
+        int updated = taskMapper.update(null, Wrappers.<Task>lambdaUpdate()
+                .set(Task::getStatus, TaskStatus.SUBMITTED)
+                .set(Task::getAttempts, 1)
+                .set(Task::getErrorMessage, null)
+                .set(Task::getLeaseOwner, null)
+                .set(Task::getLeaseExpireTime, null)
+                .set(Task::getUpdateTime, LocalDateTime.now())
+                .eq(Task::getTaskId, taskId)
+                .eq(Task::getStatus, task.getStatus()));
+        if (updated == 0) {
+            throw new IllegalArgumentException("任务状态已变化，请刷新后重试");
+        }
+
+        eventPublisher.publishEvent(new TaskSubmittedEvent(taskId));
+        log.info("任务恢复执行: {}, 原状态: {}, 重新执行的失败单元: {}", taskId, task.getStatus(), units);
+        return units;
+    }
+
     /**
      * 更新任务状态
      */
@@ -185,7 +339,7 @@ public class TaskService implements TaskDataService {
         task.setErrorMessage(errorMessage);
         task.setUpdateTime(LocalDateTime.now());
 
-        int updated = taskMapper.updateById(task);
+        int updated = updateFenced(task);
         if (updated > 0) {
             log.info("任务状态更新成功: {}, 状态: {}", taskId, status);
             return true;
@@ -195,12 +349,85 @@ public class TaskService implements TaskDataService {
         }
     }
 
+    /**
+     * 更新ES查询统计信息
+     */
+    @Transactional
+    public boolean updateQueryStats(String taskId, QueryStats queryStats) {
+        Task task = new Task();
+        task.setTaskId(taskId);
+        task.setQueryStats(queryStats);
+        task.setUpdateTime(LocalDateTime.now());
+
+        int updated = updateFenced(task);
+        if (updated > 0) {
+            log.info("任务查询统计更新成功: {}, 结果截断: {}", taskId, queryStats.isTruncated());
+            return true;
+        } else {
+            log.warn("任务查询统计更新失败: {}", taskId);
+            return false;
+        }
+    }
+
+    /**
+     * 更新导出进度
+     */
+    @Transactional
+    public boolean updateExportProgress(String taskId, ExportProgress exportProgress) {
+        Task task = new Task();
+        task.setTaskId(taskId);
+        task.setExportProgress(exportProgress);
+        task.setUpdateTime(LocalDateTime.now());
+
+        int updated = updateFenced(task);
+        if (updated > 0) {
+            log.debug("任务导出进度更新成功: {}, 已导出: {}/{}", taskId,
+                    exportProgress.getExportedDocs(), exportProgress.getTotalDocs());
+            return true;
+        } else {
+            log.warn("任务导出进度更新失败: {}", taskId);
+            return false;
+        }
+    }
+
+    /**
+     * 更新采样预览结果
+     */
+    @Transactional
+    public boolean updatePreview(String taskId, PreviewResult preview) {
+        Task task = new Task();
+        task.setTaskId(taskId);
+        task.setPreview(preview);
+        task.setUpdateTime(LocalDateTime.now());
+
+        int updated = updateFenced(task);
+        if (updated > 0) {
+            log.info("任务采样预览更新成功: {}, 客户端IP-服务端IP对: {}", taskId, preview.getClients().size());
+            return true;
+        } else {
+            log.warn("任务采样预览更新失败: {}", taskId);
+            return false;
+        }
+    }
+
+    /**
+     * 清除任务上次执行已保存的部分结果，重新执行任务（中断后重新领取或恢复执行）前调用
+     */
+    @Transactional
+    public void clearTaskResults(String taskId) {
+        checkFence(taskId);
+        int results = taskResultMapper.deleteByTaskId(taskId);
+        int hosts = hostInfoMapper.deleteByTaskId(taskId);
+        log.info("清除任务的部分结果: {}, 客户端IP结果: {}, 主机信息: {}", taskId, results, hosts);
+    }
+
     /**
      * 保存任务结果
      */
     @Transactional
     public void saveTaskResults(List<TaskResult> taskResults) {
         if (taskResults != null && !taskResults.isEmpty()) {
+            checkFence(taskResults.get(0).getTaskId());
             taskResultMapper.batchInsert(taskResults);
             log.info("任务结果保存成功，数量: {}", taskResults.size());
         }
@@ -212,16 +439,50 @@ public class TaskService implements TaskDataService {
     @Transactional
     public void saveHostInfo(List<HostInfo> hostInfoList) {
         if (hostInfoList != null && !hostInfoList.isEmpty()) {
+            checkFence(hostInfoList.get(0).getTaskId());
             hostInfoMapper.batchInsert(hostInfoList);
             log.info("主机信息保存成功，数量: {}", hostInfoList.size());
         }
     }
 
+    /**
+     * 更新任务；当前线程持有该任务的租约时只在防护令牌一致时更新，令牌不一致说明任务已被重新领取
+     */
+    private int updateFenced(Task task) {
+        Long fenceToken = TaskContext.fenceTokenFor(task.getTaskId());
+        if (fenceToken == null) {
+            return taskMapper.updateById(task);
+        }
+        int updated = taskMapper.update(task, Wrappers.<Task>lambdaUpdate()
+                .eq(Task::getTaskId, task.getTaskId())
+                .eq(Task::getFenceToken, fenceToken));
+        if (updated == 0) {
+            throw new LeaseLostException(task.getTaskId(), fenceToken);
+        }
+        return updated;
+    }
+
+    /**
+     * 写入任务结果前锁定任务行并校验防护令牌，与重新领取任务互斥，旧执行者的结果不会写入
+     */
+    private void checkFence(String taskId) {
+        Long fenceToken = TaskContext.fenceTokenFor(taskId);
+        if (fenceToken == null) {
+            return;
+        }
+        Long current = taskMapper.lockFenceToken(taskId);
+        if (current == null || current.longValue() != fenceToken) {
+            throw new LeaseLostException(taskId, fenceToken);
+        }
+    }
+
     /**
      * 参数校验
      */
     private void validateTaskParams(String submitter, List<String> serverIps,
-                                  Integer port, LocalDate startDate, LocalDate endDate) {
+                                  Integer port, List<String> portRanges, List<Integer> excludePorts,
+                                  LocalDate startDate, LocalDate endDate,
+                                  LocalDateTime startTime, LocalDateTime endTime) {
         if (!StringUtils.hasText(submitter)) {
             throw new IllegalArgumentException("提交人不能为空");
         }
@@ -232,17 +493,48 @@ public class TaskService implements TaskDataService {
             throw new IllegalArgumentException("服务端IP列表不能为空");
         }
         if (serverIps.size() > 50) {
-            throw new IllegalArgumentException("服务端IP数量不能超过50个");
+            throw new IllegalArgumentException("服务端IP（网段）数量不能超过50个");
+        }
+        // 网段和IP范围作为一个目标直接过滤，不展开为逐IP查询
+        for (String serverIp : serverIps) {
+            IpTarget target = IpTarget.parse(serverIp);
+            if (target.getSize() > IpTarget.MAX_NETWORK_SIZE) {
+                throw new IllegalArgumentException(String.format("网段 %s 包含的地址数不能超过%d个",
+                        serverIp, IpTarget.MAX_NETWORK_SIZE));
+            }
         }
-        if (port == null || port < 1 || port > 65535) {
+        // 未指定端口时统计全部服务端端口，可通过端口范围和排除端口缩小范围
+        if (port != null && (port < 1 || port > 65535)) {
             throw new IllegalArgumentException("端口号必须在1-65535范围内");
         }
+        boolean hasPortRanges = portRanges != null && !portRanges.isEmpty();
+        boolean hasExcludePorts = excludePorts != null && !excludePorts.isEmpty();
+        if (port != null && (hasPortRanges || hasExcludePorts)) {
+            throw new IllegalArgumentException("指定端口时不能再指定端口范围或排除端口");
+        }
+        if (hasPortRanges) {
+            portRanges.forEach(PortRange::parse);
+        }
+        if (hasExcludePorts && excludePorts.stream().anyMatch(p -> p == null || p < 1 || p > 65535)) {
+            throw new IllegalArgumentException("排除端口必须在1-65535范围内");
+        }
         if (startDate == null || endDate == null) {
             throw new IllegalArgumentException("开始日期和结束日期不能为空");
         }
         if (startDate.isAfter(endDate)) {
             throw new IllegalArgumentException("开始日期不能晚于结束日期");
         }
+        if ((startTime == null) != (endTime == null)) {
+            throw new IllegalArgumentException("开始时间和结束时间必须同时指定");
+        }
+        if (startTime != null) {
+            if (!startTime.isBefore(endTime)) {
+                throw new IllegalArgumentException("开始时间必须早于结束时间");
+            }
+            if (startTime.toLocalDate().isBefore(startDate) || endTime.toLocalDate().isAfter(endDate)) {
+                throw new IllegalArgumentException("查询时间窗口必须在开始日期和结束日期范围内");
+            }
+        }
 
         // 检查查询时间范围
         long daysBetween = ChronoUnit.DAYS.between(startDate, endDate) + 1;
@@ -0,0 +1,454 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.AccessFilter;
+import com.wind.middleware.dto.es.ClientAccessResult;
+import com.wind.middleware.dto.es.CostEstimate;
+import com.wind.middleware.dto.es.UnitResult;
+import com.wind.middleware.dto.response.UnitProgress;
+import com.wind.middleware.entity.HostInfo;
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.TaskUnit;
+import com.wind.middleware.entity.enums.QueryStrategy;
+import com.wind.middleware.entity.enums.TaskType;
+import com.wind.middleware.entity.enums.TaskUnitStatus;
+import com.wind.middleware.entity.enums.TaskUnitType;
+import com.wind.middleware.exception.LeaseLostException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 任务执行单元服务
+ * <p>
+ * 大任务拆分为细粒度的执行单元：ES查询阶段按（{@code unit-days} 天 × {@code target-batch-size} 个目标IP）拆分为查询单元，
+ * API调用阶段按 {@code enrich-batch-size} 个访问对拆分为补全单元。持有任务租约的工作线程负责协调：创建单元后按序号
+ * 从前往后执行本任务的单元，其余空闲工作线程（包括其他实例的）从最早提交的任务的单元末尾窃取执行，
+ * 全部单元完成后合并各单元的部分结果。每个单元的状态、执行次数及耗时都单独记录，已完成的单元在任务重新执行时直接复用。
+ * <p>
+ * 查询单元中部分（日期，目标）查询失败时不计为完成：已完整查询的部分保存为检查点，失败的部分单独记录，
+ * 重新执行（包括任务失败后恢复执行）时只查询失败的部分。
+ */
+@Slf4j
+@Service
+public class TaskUnitService {
+
+    @Autowired
+    private TaskQueueStore queueStore;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private FlowSource flowSource;
+
+    @Autowired
+    private HostInfoEnricher hostInfoEnricher;
+
+    @Autowired
+    private TaskDataService taskDataService;
+
+    @Value("${middleware.task.units.enabled:true}")
+    private boolean enabled;
+
+    @Value("${middleware.task.units.unit-days:1}")
+    private int unitDays;
+
+    @Value("${middleware.task.units.target-batch-size:10}")
+    private int targetBatchSize;
+
+    @Value("${middleware.task.units.enrich-batch-size:200}")
+    private int enrichBatchSize;
+
+    @Value("${middleware.task.units.min-units:4}")
+    private int minUnits;
+
+    @Value("${middleware.task.units.poll-interval-ms:1000}")
+    private long pollIntervalMillis;
+
+    @Value("${middleware.task.lease-ms:120000}")
+    private long leaseMillis;
+
+    /**
+     * 本实例正在执行、需要心跳续期的执行单元
+     */
+    private final Map<Long, TaskUnit> leasedUnits = new ConcurrentHashMap<>();
+
+    /**
+     * 合并单元结果时每页读取的单元数
+     */
+    private static final int MERGE_PAGE_SIZE = 50;
+
+    /**
+     * 任务是否拆分为执行单元执行：开启拆分时全部访问分析任务都按单元执行，逐单元保存结果及检查点，
+     * 任务重新执行时只执行未完成的单元；单元数未达到 {@code min-units} 的任务不允许其他工作线程窃取，见 {@link #isShared}
+     */
+    public boolean shouldSplit(Task task) {
+        return enabled && task.getTaskType() != TaskType.EXPORT;
+    }
+
+    /**
+     * 任务的执行单元是否允许其他工作线程窃取：查询单元数达到 {@code min-units} 的任务，
+     * 小任务的单元只由持有任务租约的协调线程依次执行
+     */
+    private boolean isShared(Task task) {
+        long days = ChronoUnit.DAYS.between(task.getStartDate(), task.getEndDate()) + 1;
+        long dayRanges = (days + Math.max(1, unitDays) - 1) / Math.max(1, unitDays);
+        int batchSize = Math.max(1, targetBatchSize);
+        long targetBatches = (task.getServerIps().size() + batchSize - 1) / batchSize;
+        return dayRanges * targetBatches >= Math.max(2, minUnits);
+    }
+
+    /**
+     * 拆分执行任务的ES查询：创建（或复用）查询单元，执行本任务的单元并等待其他工作线程窃取的单元完成后合并结果
+     *
+     * @param task 当前线程持有租约的任务
+     * @return 合并后的查询结果（不含按天拆分的结果）
+     */
+    public ClientAccessResult executeQuery(Task task) {
+        String taskId = task.getTaskId();
+        int units = ensureQueryUnits(task);
+        log.info("ES查询拆分为执行单元，任务ID: {}, 查询单元数: {}", taskId, units);
+
+        long startTime = System.currentTimeMillis();
+        int executed = runUnits(task, TaskUnitType.QUERY, units);
+
+        ClientAccessResult result = new ClientAccessResult();
+        forEachResult(taskId, TaskUnitType.QUERY, result::mergeUnit);
+        log.info("查询单元全部完成，任务ID: {}, 单元数: {}, 本线程执行: {}, 耗时: {}ms",
+                taskId, units, executed, System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    /**
+     * 拆分执行主机信息补全：按访问对创建（或复用）补全单元，各单元并行调用外部API，全部完成后汇总主机信息
+     *
+     * @param task     当前线程持有租约的任务
+     * @param pairKeys 查询结果的访问对key
+     * @return 主机信息（未保存）
+     */
+    public List<HostInfo> executeEnrichment(Task task, List<String> pairKeys) {
+        String taskId = task.getTaskId();
+        int units = ensureEnrichUnits(task, pairKeys);
+        if (units == 0) {
+            return new ArrayList<>();
+        }
+        log.info("主机信息补全拆分为执行单元，任务ID: {}, 访问对: {}, 补全单元数: {}", taskId, pairKeys.size(), units);
+
+        long startTime = System.currentTimeMillis();
+        int executed = runUnits(task, TaskUnitType.ENRICH, units);
+
+        List<HostInfo> hostInfoList = new ArrayList<>();
+        forEachResult(taskId, TaskUnitType.ENRICH,
+                unitResult -> unitResult.getHosts().forEach(host -> hostInfoList.add(host.toHostInfo(taskId))));
+        log.info("补全单元全部完成，任务ID: {}, 单元数: {}, 本线程执行: {}, 主机信息: {}, 耗时: {}ms",
+                taskId, units, executed, hostInfoList.size(), System.currentTimeMillis() - startTime);
+        return hostInfoList;
+    }
+
+    /**
+     * 窃取任意任务的执行单元，供空闲工作线程分担正在执行的大任务
+     *
+     * @return 领取到的单元，未开启拆分或没有可领取的单元时返回null
+     */
+    public TaskUnit claimNext() {
+        return enabled ? claimNext(null) : null;
+    }
+
+    /**
+     * 执行领取到的单元，保存部分结果；失败时按执行次数重新置为待执行或置为失败
+     */
+    public void execute(TaskUnit unit) {
+        Task task = taskDataService.getTaskById(unit.getTaskId());
+        if (task == null) {
+            queueStore.failUnit(unit, "任务不存在");
+            return;
+        }
+        execute(unit, task);
+    }
+
+    /**
+     * 为本实例正在执行的单元续期租约
+     */
+    public void renewLeases() {
+        String owner = clusterService.getInstanceId();
+        for (TaskUnit unit : leasedUnits.values()) {
+            try {
+                if (!queueStore.renewUnitLease(unit.getId(), owner, unit.getFenceToken(), leaseMillis)) {
+                    log.warn("执行单元租约已被重新领取: {}", unitName(unit));
+                }
+            } catch (Exception e) {
+                log.warn("执行单元租约续期失败: {}, {}", unitName(unit), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 任务执行单元的进度，任务未拆分时返回null
+     */
+    public UnitProgress getProgress(String taskId) {
+        Map<TaskUnitType, Map<TaskUnitStatus, Integer>> counts = queueStore.countUnits(taskId);
+        if (counts.isEmpty()) {
+            return null;
+        }
+        UnitProgress progress = new UnitProgress();
+        Map<TaskUnitStatus, Integer> query = counts.getOrDefault(TaskUnitType.QUERY, Map.of());
+        Map<TaskUnitStatus, Integer> enrich = counts.getOrDefault(TaskUnitType.ENRICH, Map.of());
+        progress.setQueryUnits(query.values().stream().mapToInt(Integer::intValue).sum());
+        progress.setQueryCompleted(query.getOrDefault(TaskUnitStatus.COMPLETED, 0));
+        progress.setEnrichUnits(enrich.values().stream().mapToInt(Integer::intValue).sum());
+        progress.setEnrichCompleted(enrich.getOrDefault(TaskUnitStatus.COMPLETED, 0));
+        for (Map<TaskUnitStatus, Integer> byStatus : counts.values()) {
+            progress.setPending(progress.getPending() + byStatus.getOrDefault(TaskUnitStatus.PENDING, 0));
+            progress.setRunning(progress.getRunning() + byStatus.getOrDefault(TaskUnitStatus.RUNNING, 0));
+            progress.setFailed(progress.getFailed() + byStatus.getOrDefault(TaskUnitStatus.FAILED, 0));
+        }
+        return progress;
+    }
+
+    /**
+     * 任务的全部执行单元（查询单元在前），任务未拆分时返回空列表
+     */
+    public List<TaskUnit> getUnits(String taskId) {
+        return queueStore.getUnits(taskId);
+    }
+
+    /**
+     * 协调执行某类型的单元：领取执行本任务的单元，没有可领取的单元时等待其他工作线程执行的单元完成
+     *
+     * @return 本线程执行的单元数
+     */
+    private int runUnits(Task task, TaskUnitType unitType, int total) {
+        String taskId = task.getTaskId();
+        int executed = 0;
+        while (true) {
+            TaskUnit unit = claimNext(taskId);
+            if (unit != null) {
+                execute(unit, task);
+                executed++;
+                continue;
+            }
+
+            Map<TaskUnitStatus, Integer> counts = queueStore.countUnits(taskId).getOrDefault(unitType, Map.of());
+            int failed = counts.getOrDefault(TaskUnitStatus.FAILED, 0);
+            if (failed > 0) {
+                throw new RuntimeException(String.format("%d个%s单元执行失败，可恢复执行任务重新执行失败的单元",
+                        failed, unitType.getDescription()));
+            }
+            if (counts.getOrDefault(TaskUnitStatus.COMPLETED, 0) >= total) {
+                return executed;
+            }
+            // 其余单元由其他工作线程执行中，等待期间确认任务仍由本执行者持有
+            checkTaskLease(taskId);
+            sleep(pollIntervalMillis);
+        }
+    }
+
+    private TaskUnit claimNext(String taskId) {
+        return queueStore.claimNextUnit(clusterService.getInstanceId(), taskId, leaseMillis);
+    }
+
+    private void execute(TaskUnit unit, Task task) {
+        leasedUnits.put(unit.getId(), unit);
+        long startTime = System.currentTimeMillis();
+        try {
+            AtomicReference<UnitResult> result = new AtomicReference<>();
+            // 单元的ES请求归属所属任务，与该任务的其他请求一起参与按任务轮流派发
+            TaskContext.run(task.getTaskId(), () -> result.set(unit.getUnitType() == TaskUnitType.ENRICH
+                    ? UnitResult.ofHosts(hostInfoEnricher.enrich(task.getTaskId(), unit.getTargets(), task.getPort()), 0)
+                    : queryUnit(unit, task)));
+
+            long tookMillis = System.currentTimeMillis() - startTime;
+            result.get().setTookMillis(result.get().getTookMillis() + tookMillis);
+            if (!result.get().getFailedUnits().isEmpty()) {
+                // 部分（日期，目标）查询失败：保存已完成部分作为检查点，重新执行时只查询失败的部分
+                log.warn("执行单元部分查询失败: {}, 第 {} 次执行, 失败: {}", unitName(unit), unit.getAttempts(),
+                        result.get().getFailedUnits());
+                queueStore.failUnit(unit, String.format("%d个（日期，目标）查询失败: %s",
+                        result.get().getFailedUnits().size(),
+                        result.get().getFailedUnits().stream().limit(10).toList()), result.get());
+                return;
+            }
+            if (queueStore.completeUnit(unit, result.get())) {
+                log.info("执行单元完成: {}, 目标: {}, 访问对: {}, 主机信息: {}, 耗时: {}ms", unitName(unit),
+                        unit.getTargets().size(), result.get().getMetrics().size(), result.get().getHosts().size(),
+                        tookMillis);
+            } else {
+                log.warn("执行单元已被重新领取，丢弃本次结果: {}", unitName(unit));
+            }
+        } catch (Exception e) {
+            // 停机中断的单元不计为失败，只释放租约，重新领取时不需要退避
+            if (TaskContext.isInterrupted(e)) {
+                log.warn("执行单元被停机中断，释放租约后重新领取: {}", unitName(unit));
+                queueStore.releaseUnitLease(unit);
+                return;
+            }
+            log.warn("执行单元失败: {}, 第 {} 次执行, {}", unitName(unit), unit.getAttempts(), e.getMessage());
+            queueStore.failUnit(unit, e.getMessage());
+        } finally {
+            leasedUnits.remove(unit.getId());
+        }
+    }
+
+    /**
+     * 执行查询单元；单元有上次执行保存的检查点时，只按天重新查询检查点中失败的（日期，目标）并合并
+     */
+    private UnitResult queryUnit(TaskUnit unit, Task task) {
+        AccessFilter filter = AccessFilter.forTask(task);
+        CostEstimate costEstimate = task.getCostEstimate();
+        QueryStrategy strategy = costEstimate != null ? costEstimate.getStrategy() : null;
+        UnitResult checkpoint = unit.getResult();
+        if (checkpoint == null || checkpoint.getFailedUnits().isEmpty()) {
+            ClientAccessResult result = flowSource.queryClientAccess(unit.getTargets(), filter,
+                    unit.getStartDate(), unit.getEndDate(), strategy);
+            return UnitResult.of(result, unit.getTargets(), filter.isOutbound(), 0);
+        }
+
+        // 失败的部分格式为"yyyy-MM-dd/目标"，目标为网段时自身也含"/"
+        Map<LocalDate, List<String>> failedByDay = new TreeMap<>();
+        for (String failed : checkpoint.getFailedUnits()) {
+            int separator = failed.indexOf('/');
+            failedByDay.computeIfAbsent(LocalDate.parse(failed.substring(0, separator)), day -> new ArrayList<>())
+                    .add(failed.substring(separator + 1));
+        }
+        log.info("执行单元从检查点恢复: {}, 重新查询失败的（日期，目标）: {}", unitName(unit), checkpoint.getFailedUnits().size());
+        UnitResult retry = new UnitResult();
+        List<String> stillFailed = new ArrayList<>();
+        failedByDay.forEach((day, targets) -> {
+            ClientAccessResult result = flowSource.queryClientAccess(targets, filter, day, day, strategy);
+            UnitResult dayResult = UnitResult.of(result, targets, filter.isOutbound(), 0);
+            stillFailed.addAll(dayResult.getFailedUnits());
+            retry.mergeRetry(dayResult);
+        });
+        retry.setFailedUnits(stillFailed);
+        checkpoint.mergeRetry(retry);
+        return checkpoint;
+    }
+
+    /**
+     * 逐页读取任务某类型单元的部分结果并合并，合并完一页后即可释放该页的结果
+     */
+    private void forEachResult(String taskId, TaskUnitType unitType, Consumer<UnitResult> consumer) {
+        int afterIndex = -1;
+        while (true) {
+            List<TaskUnit> page = queueStore.getUnits(taskId, unitType, afterIndex, MERGE_PAGE_SIZE);
+            for (TaskUnit unit : page) {
+                if (unit.getResult() != null) {
+                    consumer.accept(unit.getResult());
+                }
+            }
+            if (page.size() < MERGE_PAGE_SIZE) {
+                return;
+            }
+            afterIndex = page.get(page.size() - 1).getUnitIndex();
+        }
+    }
+
+    /**
+     * 查询任务已有的查询单元数，没有时按（日期范围 × 目标批次）拆分创建
+     *
+     * @return 查询单元数
+     */
+    private int ensureQueryUnits(Task task) {
+        int existing = queueStore.countUnits(task.getTaskId(), TaskUnitType.QUERY);
+        if (existing > 0) {
+            return existing;
+        }
+        List<TaskUnit> units = new ArrayList<>();
+        List<List<String>> batches = partition(task.getServerIps(), targetBatchSize);
+        boolean shared = isShared(task);
+        int days = Math.max(1, unitDays);
+        LocalDate start = task.getStartDate();
+        while (!start.isAfter(task.getEndDate())) {
+            LocalDate end = start.plusDays(days - 1L);
+            if (end.isAfter(task.getEndDate())) {
+                end = task.getEndDate();
+            }
+            for (List<String> batch : batches) {
+                units.add(newUnit(task, TaskUnitType.QUERY, units.size(), start, end, batch, shared));
+            }
+            start = end.plusDays(1);
+        }
+        queueStore.createUnits(units);
+        return units.size();
+    }
+
+    /**
+     * 查询任务已有的补全单元数，没有时按访问对批次拆分创建
+     *
+     * @return 补全单元数
+     */
+    private int ensureEnrichUnits(Task task, List<String> pairKeys) {
+        int existing = queueStore.countUnits(task.getTaskId(), TaskUnitType.ENRICH);
+        if (existing > 0 || pairKeys.isEmpty()) {
+            return existing;
+        }
+        List<TaskUnit> units = new ArrayList<>();
+        boolean shared = isShared(task);
+        for (List<String> batch : partition(pairKeys, enrichBatchSize)) {
+            units.add(newUnit(task, TaskUnitType.ENRICH, units.size(), task.getStartDate(), task.getEndDate(), batch,
+                    shared));
+        }
+        queueStore.createUnits(units);
+        return units.size();
+    }
+
+    private TaskUnit newUnit(Task task, TaskUnitType unitType, int index,
+                             LocalDate startDate, LocalDate endDate, List<String> targets, boolean shared) {
+        TaskUnit unit = new TaskUnit();
+        unit.setTaskId(task.getTaskId());
+        unit.setUnitType(unitType);
+        unit.setUnitIndex(index);
+        unit.setStartDate(startDate);
+        unit.setEndDate(endDate);
+        unit.setTargets(targets);
+        unit.setShared(shared);
+        unit.setStatus(TaskUnitStatus.PENDING);
+        unit.setAttempts(0);
+        unit.setFenceToken(0L);
+        return unit;
+    }
+
+    private static List<List<String>> partition(List<String> values, int size) {
+        int batchSize = Math.max(1, size);
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < values.size(); i += batchSize) {
+            batches.add(new ArrayList<>(values.subList(i, Math.min(values.size(), i + batchSize))));
+        }
+        return batches;
+    }
+
+    private void checkTaskLease(String taskId) {
+        Long fenceToken = TaskContext.fenceTokenFor(taskId);
+        if (fenceToken == null) {
+            return;
+        }
+        Task task = taskDataService.getTaskById(taskId);
+        if (task == null || !fenceToken.equals(task.getFenceToken())) {
+            throw new LeaseLostException(taskId, fenceToken);
+        }
+    }
+
+    private static String unitName(TaskUnit unit) {
+        return unit.getTaskId() + "#" + unit.getUnitType() + "-" + unit.getUnitIndex();
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待执行单元完成时被中断", e);
+        }
+    }
+}
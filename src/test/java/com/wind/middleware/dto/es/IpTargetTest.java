@@ -0,0 +1,95 @@
+package com.wind.middleware.dto.es;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 查询目标IP（单个IP、CIDR网段、IP范围）的解析、地址数及匹配测试
+ */
+class IpTargetTest {
+
+    @Test
+    void cidrCoversTheWholeNetwork() {
+        IpTarget target = IpTarget.parse("10.106.61.17/24");
+
+        assertTrue(target.isCidr());
+        assertEquals("10.106.61.0", target.getFrom());
+        assertEquals("10.106.61.255", target.getTo());
+        assertEquals(256, target.getSize());
+        assertTrue(target.contains("10.106.61.0"));
+        assertTrue(target.contains("10.106.61.255"));
+        assertFalse(target.contains("10.106.62.0"));
+        assertFalse(target.contains("2001:db8::1"));
+        assertFalse(target.contains("not-an-ip"));
+    }
+
+    @Test
+    void networkSizeLimit() {
+        assertEquals(IpTarget.MAX_NETWORK_SIZE, IpTarget.parse("10.106.0.0/16").getSize());
+        assertTrue(IpTarget.parse("10.106.0.0/15").getSize() > IpTarget.MAX_NETWORK_SIZE);
+        assertEquals(IpTarget.MAX_NETWORK_SIZE, IpTarget.parse("2001:db8::/112").getSize());
+        assertEquals(1L << 32, IpTarget.parse("0.0.0.0/0").getSize());
+        // 超过 long 范围的IPv6网段
+        assertEquals(Long.MAX_VALUE, IpTarget.parse("2001:db8::/64").getSize());
+        assertEquals(Long.MAX_VALUE, IpTarget.parse("::/0").getSize());
+    }
+
+    @Test
+    void rangeIsInclusive() {
+        IpTarget target = IpTarget.parse("10.106.62.10 - 10.106.62.50");
+
+        assertTrue(target.isRange());
+        assertEquals(41, target.getSize());
+        assertTrue(target.contains("10.106.62.10"));
+        assertTrue(target.contains("10.106.62.50"));
+        assertFalse(target.contains("10.106.62.51"));
+        assertEquals(1, IpTarget.parse("10.0.0.1-10.0.0.1").getSize());
+        assertEquals(65536 + 1, IpTarget.parse("10.0.0.0-10.1.0.0").getSize());
+    }
+
+    @Test
+    void invalidTargetsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> IpTarget.parse("10.0.0.50-10.0.0.10"));
+        assertThrows(IllegalArgumentException.class, () -> IpTarget.parse("10.0.0.1-2001:db8::1"));
+        assertThrows(IllegalArgumentException.class, () -> IpTarget.parse("10.0.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> IpTarget.parse("10.0.0.256"));
+        assertThrows(IllegalArgumentException.class, () -> IpTarget.parse(" "));
+    }
+
+    @Test
+    void ipv6NetworkMatchesAnyTextualForm() {
+        IpTarget target = IpTarget.parse("2001:db8::/112");
+
+        assertEquals("2001:db8::", target.getFrom());
+        assertEquals("2001:db8::ffff", target.getTo());
+        assertTrue(target.contains("2001:0db8:0000:0000:0000:0000:0000:0001"));
+        assertTrue(target.contains("2001:DB8::FFFF"));
+        assertFalse(target.contains("2001:db8::1:0"));
+        assertFalse(target.contains("10.0.0.1"));
+    }
+
+    @Test
+    void totalSizeIsCapped() {
+        assertEquals(258, IpTarget.totalSize(List.of("10.0.0.1", "10.0.1.0/24", "10.0.2.1"), 10_000));
+        assertEquals(100, IpTarget.totalSize(List.of("10.0.0.0/8", "10.0.0.1"), 100));
+        assertEquals(100, IpTarget.totalSize(List.of("2001:db8::/64"), 100));
+    }
+
+    @Test
+    void matcherCombinesLiteralsAndNetworks() {
+        Predicate<String> matcher = IpTarget.matcher(List.of("10.0.0.1", "10.0.1.0/24", "10.0.2.10-10.0.2.20"));
+
+        assertTrue(matcher.test("10.0.0.1"));
+        assertTrue(matcher.test("10.0.1.99"));
+        assertTrue(matcher.test("10.0.2.15"));
+        assertFalse(matcher.test("10.0.0.2"));
+        assertFalse(matcher.test("10.0.2.21"));
+    }
+}
@@ -0,0 +1,41 @@
+package com.wind.middleware.dto.es;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 访问对key的生成及解析测试，IPv6地址含":"，key必须能原样还原
+ */
+class PairKeyTest {
+
+    @Test
+    void ipv6KeyWithPortRoundTrips() {
+        String key = PairKey.key("2001:db8::10", "fe80::1:2", 3306);
+
+        assertEquals(new PairKey("2001:db8::10", "fe80::1:2", 3306), PairKey.parse(key, null));
+    }
+
+    @Test
+    void ipv6KeyWithoutPortUsesTaskPort() {
+        String key = PairKey.key("::1", "2001:db8::ffff");
+
+        assertEquals(new PairKey("::1", "2001:db8::ffff", 443), PairKey.parse(key, 443));
+        assertEquals(new PairKey("::1", "2001:db8::ffff", null), PairKey.parse(key, null));
+    }
+
+    @Test
+    void mixedFamiliesRoundTrip() {
+        String key = PairKey.key("10.0.0.1", "::ffff:10.0.0.2", 8080);
+
+        assertEquals(new PairKey("10.0.0.1", "::ffff:10.0.0.2", 8080), PairKey.parse(key, null));
+    }
+
+    @Test
+    void malformedKeysAreRejected() {
+        assertNull(PairKey.parse("2001:db8::1", 443));
+        assertNull(PairKey.parse("10.0.0.1|10.0.0.2|http", null));
+        assertNull(PairKey.parse("10.0.0.1|10.0.0.2|80|1", null));
+    }
+}
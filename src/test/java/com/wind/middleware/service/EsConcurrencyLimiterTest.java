@@ -0,0 +1,59 @@
+package com.wind.middleware.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * ES自适应并发控制的骤减窗口测试
+ */
+class EsConcurrencyLimiterTest {
+
+    private EsConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new EsConcurrencyLimiter();
+        ReflectionTestUtils.setField(limiter, "initialLimit", 8);
+        ReflectionTestUtils.setField(limiter, "minLimit", 1);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 16);
+        ReflectionTestUtils.setField(limiter, "backoffRatio", 0.5);
+        ReflectionTestUtils.setField(limiter, "latencyTolerance", 2.0);
+        ReflectionTestUtils.setField(limiter, "backoffWindowMillis", 60_000L);
+        limiter.initialize();
+    }
+
+    @Test
+    void pressureWithinOneWindowBacksOffOnce() {
+        // 同一批并发请求先后被拒绝
+        for (int i = 0; i < 8; i++) {
+            limiter.onPressure("429 Too Many Requests");
+        }
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getBackoffEvents());
+    }
+
+    @Test
+    void pressureAfterAWindowOfRequestsBacksOffAgain() {
+        limiter.onPressure("429 Too Many Requests");
+        for (int i = 0; i < 4; i++) {
+            limiter.onSuccess(100);
+        }
+        limiter.onPressure("429 Too Many Requests");
+
+        assertEquals(2, limiter.getLimit());
+        assertEquals(2, limiter.getBackoffEvents());
+    }
+
+    @Test
+    void pressureAfterBackoffWindowElapsedBacksOffAgain() {
+        ReflectionTestUtils.setField(limiter, "backoffWindowMillis", 0L);
+        limiter.onPressure("请求超时");
+        limiter.onPressure("请求超时");
+
+        assertEquals(2, limiter.getLimit());
+    }
+}
@@ -0,0 +1,173 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.AccessMetrics;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.xcontent.ContextParser;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.max.MaxAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.max.ParsedMax;
+import org.elasticsearch.search.aggregations.metrics.min.MinAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.min.ParsedMin;
+import org.elasticsearch.search.aggregations.metrics.sum.ParsedSum;
+import org.elasticsearch.search.aggregations.metrics.sum.SumAggregationBuilder;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 流式解析与高级客户端对象解析的耗时及内存分配对比
+ * <p>
+ * 使用与线上逐IP查询同构的10000个srcip桶（含 bytes/count 合计及首末次访问时间子聚合）的响应，
+ * 两种方式都把桶转换为 {@link AccessMetrics} 写入Map，统计每次解析的平均耗时、线程分配字节数及期间的GC次数。
+ */
+class EsStreamingParserBenchmarkTest {
+
+    private static final int BUCKETS = 10_000;
+
+    private static final int WARMUP = 20;
+
+    private static final int ITERATIONS = 50;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final NamedXContentRegistry REGISTRY = new NamedXContentRegistry(List.of(
+            entry(StringTerms.NAME, (p, c) -> ParsedStringTerms.fromXContent(p, (String) c)),
+            entry(SumAggregationBuilder.NAME, (p, c) -> ParsedSum.fromXContent(p, (String) c)),
+            entry(MinAggregationBuilder.NAME, (p, c) -> ParsedMin.fromXContent(p, (String) c)),
+            entry(MaxAggregationBuilder.NAME, (p, c) -> ParsedMax.fromXContent(p, (String) c))));
+
+    @Test
+    void compareStreamingWithObjectParsing() throws Exception {
+        EsStreamingParser streamingParser = new EsStreamingParser();
+        ReflectionTestUtils.setField(streamingParser, "indexZone", ZoneId.of("GMT+8"));
+        byte[] plainBody = responseBody(false);
+        byte[] typedBody = responseBody(true);
+
+        Map<String, AccessMetrics> streamed = parseStreaming(streamingParser, plainBody);
+        Map<String, AccessMetrics> objects = parseObjects(typedBody);
+        assertEquals(BUCKETS, streamed.size());
+        assertEquals(objects, streamed);
+
+        Stats streaming = measure(() -> parseStreaming(streamingParser, plainBody));
+        Stats object = measure(() -> parseObjects(typedBody));
+        System.out.printf("ES响应解析对比（%d个桶，响应 %d KB）%n", BUCKETS, plainBody.length / 1024);
+        System.out.printf("  流式解析: %s%n", streaming);
+        System.out.printf("  对象解析: %s%n", object);
+    }
+
+    private Map<String, AccessMetrics> parseStreaming(EsStreamingParser parser, byte[] body) throws Exception {
+        Map<String, AccessMetrics> result = new HashMap<>();
+        List<EsStreamingParser.ItemResult> items = parser.parseSearch(new ByteArrayInputStream(body), "client_ips",
+                result::put);
+        assertEquals(null, items.get(0).failure());
+        return result;
+    }
+
+    private Map<String, AccessMetrics> parseObjects(byte[] body) throws Exception {
+        Map<String, AccessMetrics> result = new HashMap<>();
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(REGISTRY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, new ByteArrayInputStream(body))) {
+            SearchResponse response = SearchResponse.fromXContent(parser);
+            Terms clientIps = response.getAggregations().get("client_ips");
+            for (Terms.Bucket bucket : clientIps.getBuckets()) {
+                Aggregations aggregations = bucket.getAggregations();
+                AccessMetrics metrics = AccessMetrics.of(bucket.getDocCount());
+                metrics.setTotalBytes(Math.round(((ParsedSum) aggregations.get(EsStreamingParser.BYTES_SUM)).getValue()));
+                metrics.setTotalCount(Math.round(((ParsedSum) aggregations.get(EsStreamingParser.COUNT_SUM)).getValue()));
+                metrics.setFirstSeen(Math.round(((ParsedMin) aggregations.get(EsStreamingParser.FIRST_SEEN)).getValue()));
+                metrics.setLastSeen(Math.round(((ParsedMax) aggregations.get(EsStreamingParser.LAST_SEEN)).getValue()));
+                result.put(bucket.getKeyAsString(), metrics);
+            }
+        }
+        return result;
+    }
+
+    private Stats measure(ParseAction action) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            action.run();
+        }
+        long gcBefore = gcCount();
+        long allocatedBefore = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            action.run();
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        return new Stats(nanos / ITERATIONS / 1_000_000.0, allocated / ITERATIONS / 1024 / 1024.0, gcCount() - gcBefore);
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    /**
+     * 生成逐IP查询的响应体，typedKeys 为true时聚合名带类型前缀（高级客户端请求带 typed_keys 参数）
+     */
+    private static byte[] responseBody(boolean typedKeys) {
+        StringBuilder body = new StringBuilder(BUCKETS * 256);
+        body.append("{\"took\":35,\"timed_out\":false,")
+                .append("\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0},")
+                .append("\"hits\":{\"total\":1234567,\"max_score\":0.0,\"hits\":[]},")
+                .append("\"aggregations\":{\"").append(typedKeys ? "sterms#" : "").append("client_ips\":{")
+                .append("\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,\"buckets\":[");
+        long firstSeen = 1_754_006_400_000L;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            long docCount = 100_000 - i * 7L;
+            body.append("{\"key\":\"10.").append(100 + i / 65536).append('.').append(i / 256 % 256).append('.')
+                    .append(i % 256).append("\",\"doc_count\":").append(docCount).append(',')
+                    .append(metric(typedKeys, "sum#", EsStreamingParser.BYTES_SUM, docCount * 1460.0)).append(',')
+                    .append(metric(typedKeys, "sum#", EsStreamingParser.COUNT_SUM, docCount * 3.0)).append(',')
+                    .append(metric(typedKeys, "min#", EsStreamingParser.FIRST_SEEN, firstSeen + i * 1000.0)).append(',')
+                    .append(metric(typedKeys, "max#", EsStreamingParser.LAST_SEEN, firstSeen + 86_000_000.0 + i))
+                    .append('}');
+        }
+        body.append("]}}}");
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String metric(boolean typedKeys, String type, String name, double value) {
+        return "\"" + (typedKeys ? type : "") + name + "\":{\"value\":" + value + "}";
+    }
+
+    private static NamedXContentRegistry.Entry entry(String type, ContextParser<Object, ? extends Aggregation> parser) {
+        return new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(type), parser);
+    }
+
+    @FunctionalInterface
+    private interface ParseAction {
+        Object run() throws Exception;
+    }
+
+    private record Stats(double millis, double allocatedMb, long gcCount) {
+
+        @Override
+        public String toString() {
+            return String.format("平均耗时 %.2f ms，平均分配 %.2f MB，GC %d 次", millis, allocatedMb, gcCount);
+        }
+    }
+}
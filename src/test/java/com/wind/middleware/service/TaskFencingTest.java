@@ -0,0 +1,133 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.UnitResult;
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.TaskResult;
+import com.wind.middleware.entity.TaskUnit;
+import com.wind.middleware.entity.enums.TaskStatus;
+import com.wind.middleware.entity.enums.TaskUnitStatus;
+import com.wind.middleware.entity.enums.TaskUnitType;
+import com.wind.middleware.exception.LeaseLostException;
+import com.wind.middleware.mapper.TaskMapper;
+import com.wind.middleware.mapper.TaskResultMapper;
+import com.wind.middleware.mapper.TaskUnitMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 防护令牌测试：任务或执行单元被重新领取后，旧执行者的写入被拒绝
+ */
+class TaskFencingTest {
+
+    private static final long LEASE_MILLIS = 60_000;
+
+    private TestDatabase database;
+
+    private TaskQueueStore queueStore;
+
+    private TaskService taskService;
+
+    private TaskResultMapper taskResultMapper;
+
+    @BeforeEach
+    void setUp() {
+        database = TestDatabase.create();
+        queueStore = new TaskQueueStore();
+        ReflectionTestUtils.setField(queueStore, "taskMapper", database.mapper(TaskMapper.class));
+        ReflectionTestUtils.setField(queueStore, "taskUnitMapper", database.mapper(TaskUnitMapper.class));
+        ReflectionTestUtils.setField(queueStore, "maxAttempts", 3);
+        taskResultMapper = mock(TaskResultMapper.class);
+        taskService = new TaskService();
+        ReflectionTestUtils.setField(taskService, "taskMapper", database.mapper(TaskMapper.class));
+        ReflectionTestUtils.setField(taskService, "taskResultMapper", taskResultMapper);
+        database.jdbc().update("INSERT INTO t_task (task_id, task_type, server_ips, port, start_date, end_date, status, "
+                + "create_time) VALUES ('task-1', 'ANALYZE', '[\"10.0.0.1\"]', 443, '2025-08-01', '2025-08-07', "
+                + "'SUBMITTED', NOW())");
+    }
+
+    @Test
+    void staleExecutorCannotUpdateStatus() {
+        Task stale = queueStore.claimNext("instance-a", LEASE_MILLIS);
+        // 实例A失联，其他实例使其租约过期后重新领取
+        queueStore.expireLeases("instance-a");
+        Task current = queueStore.claimNext("instance-b", LEASE_MILLIS);
+        assertNotNull(current);
+
+        assertThrows(LeaseLostException.class, () -> TaskContext.run("task-1", stale.getFenceToken(),
+                () -> taskService.updateTaskStatus("task-1", TaskStatus.FAILED, "旧执行者的失败")));
+        assertEquals(TaskStatus.ES_QUERYING, status("task-1"));
+
+        TaskContext.run("task-1", current.getFenceToken(),
+                () -> taskService.updateTaskStatus("task-1", TaskStatus.API_CALLING, null));
+        assertEquals(TaskStatus.API_CALLING, status("task-1"));
+    }
+
+    @Test
+    void staleExecutorCannotSaveResults() {
+        Task stale = queueStore.claimNext("instance-a", LEASE_MILLIS);
+        queueStore.expireLeases("instance-a");
+        assertNotNull(queueStore.claimNext("instance-b", LEASE_MILLIS));
+
+        TaskResult result = new TaskResult();
+        result.setTaskId("task-1");
+        result.setClientIp("10.0.0.2");
+        assertThrows(LeaseLostException.class, () -> TaskContext.run("task-1", stale.getFenceToken(),
+                () -> taskService.saveTaskResults(List.of(result))));
+        assertThrows(LeaseLostException.class, () -> TaskContext.run("task-1", stale.getFenceToken(),
+                () -> taskService.clearTaskResults("task-1")));
+        verify(taskResultMapper, never()).batchInsert(any());
+        verify(taskResultMapper, never()).deleteByTaskId(any());
+    }
+
+    @Test
+    void staleUnitExecutorCannotCompleteUnit() {
+        queueStore.claimNext("instance-a", LEASE_MILLIS);
+        TaskUnit unit = new TaskUnit();
+        unit.setTaskId("task-1");
+        unit.setUnitType(TaskUnitType.QUERY);
+        unit.setUnitIndex(0);
+        unit.setStartDate(LocalDate.of(2025, 8, 1));
+        unit.setEndDate(LocalDate.of(2025, 8, 7));
+        unit.setShared(true);
+        unit.setStatus(TaskUnitStatus.PENDING);
+        queueStore.createUnits(List.of(unit));
+
+        TaskUnit stale = queueStore.claimNextUnit("instance-b", null, LEASE_MILLIS);
+        assertNotNull(stale);
+        queueStore.expireLeases("instance-b");
+        TaskUnit current = queueStore.claimNextUnit("instance-c", null, LEASE_MILLIS);
+        assertNotNull(current);
+        assertEquals(stale.getFenceToken() + 1, current.getFenceToken());
+
+        assertFalse(queueStore.renewUnitLease(stale.getId(), "instance-b", stale.getFenceToken(), LEASE_MILLIS));
+        assertFalse(queueStore.completeUnit(stale, new UnitResult()));
+        assertEquals(TaskUnitStatus.RUNNING, unitStatus(current.getId()));
+
+        assertTrue(queueStore.completeUnit(current, new UnitResult()));
+        assertEquals(TaskUnitStatus.COMPLETED, unitStatus(current.getId()));
+    }
+
+    private TaskStatus status(String taskId) {
+        return TaskStatus.valueOf(database.jdbc().queryForObject(
+                "SELECT status FROM t_task WHERE task_id = ?", String.class, taskId));
+    }
+
+    private TaskUnitStatus unitStatus(Long unitId) {
+        return TaskUnitStatus.valueOf(database.jdbc().queryForObject(
+                "SELECT status FROM t_task_unit WHERE id = ?", String.class, unitId));
+    }
+}
@@ -0,0 +1,132 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.enums.TaskStatus;
+import com.wind.middleware.mapper.TaskMapper;
+import com.wind.middleware.mapper.TaskUnitMapper;
+import com.wind.middleware.queue.TaskProcessor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 持久化任务队列的领取、租约到期重新领取及停机中断测试
+ */
+class TaskQueueStoreTest {
+
+    private static final long LEASE_MILLIS = 60_000;
+
+    private TestDatabase database;
+
+    private TaskQueueStore queueStore;
+
+    @BeforeEach
+    void setUp() {
+        database = TestDatabase.create();
+        queueStore = new TaskQueueStore();
+        ReflectionTestUtils.setField(queueStore, "taskMapper", database.mapper(TaskMapper.class));
+        ReflectionTestUtils.setField(queueStore, "taskUnitMapper", database.mapper(TaskUnitMapper.class));
+        ReflectionTestUtils.setField(queueStore, "maxAttempts", 3);
+        database.jdbc().update("INSERT INTO t_task (task_id, task_type, server_ips, port, start_date, end_date, status, "
+                + "create_time) VALUES ('task-1', 'ANALYZE', '[\"10.0.0.1\"]', 443, '2025-08-01', '2025-08-01', "
+                + "'SUBMITTED', NOW())");
+    }
+
+    @Test
+    void leasedTaskIsNotClaimedAgain() {
+        Task task = queueStore.claimNext("instance-a", LEASE_MILLIS);
+
+        assertNotNull(task);
+        assertEquals(1, task.getAttempts());
+        assertEquals(1L, task.getFenceToken());
+        assertEquals(TaskStatus.ES_QUERYING, status("task-1"));
+        assertNull(queueStore.claimNext("instance-b", LEASE_MILLIS));
+    }
+
+    @Test
+    void expiredLeaseIsReclaimedWithNewFenceToken() {
+        Task first = queueStore.claimNext("instance-a", LEASE_MILLIS);
+        expireLease("task-1");
+
+        Task second = queueStore.claimNext("instance-b", LEASE_MILLIS);
+        assertNotNull(second);
+        assertEquals(2, second.getAttempts());
+        assertEquals(first.getFenceToken() + 1, second.getFenceToken());
+
+        // 旧执行者无法续期，也不能释放新执行者的租约
+        assertFalse(queueStore.renewLease("task-1", "instance-a", first.getFenceToken(), LEASE_MILLIS));
+        queueStore.releaseLease("task-1", "instance-a", first.getFenceToken());
+        assertNull(queueStore.claimNext("instance-c", LEASE_MILLIS));
+        assertTrue(queueStore.renewLease("task-1", "instance-b", second.getFenceToken(), LEASE_MILLIS));
+    }
+
+    @Test
+    void taskInterruptedTooOftenIsFailed() {
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(queueStore.claimNext("instance-a", LEASE_MILLIS));
+            expireLease("task-1");
+        }
+
+        assertNull(queueStore.claimNext("instance-a", LEASE_MILLIS));
+        assertEquals(TaskStatus.FAILED, status("task-1"));
+    }
+
+    @Test
+    void taskInterruptedByShutdownIsReclaimedNotFailed() {
+        Task task = queueStore.claimNext("instance-a", LEASE_MILLIS);
+        TaskDataService taskDataService = mock(TaskDataService.class);
+        FlowSource flowSource = mock(FlowSource.class);
+        TaskUnitService taskUnitService = mock(TaskUnitService.class);
+        when(taskDataService.getTaskById("task-1")).thenReturn(task);
+        // 停机超时后工作线程被中断，执行中的ES查询以中断异常结束
+        when(flowSource.queryClientAccess(any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待ES查询结果时被中断", new InterruptedException());
+        });
+        TaskProcessor taskProcessor = new TaskProcessor();
+        ReflectionTestUtils.setField(taskProcessor, "taskDataService", taskDataService);
+        ReflectionTestUtils.setField(taskProcessor, "flowSource", flowSource);
+        ReflectionTestUtils.setField(taskProcessor, "taskUnitService", taskUnitService);
+
+        try {
+            // 与工作线程相同：处理任务后在被中断的线程上释放租约
+            TaskContext.run("task-1", task.getFenceToken(), () -> taskProcessor.processTask("task-1"));
+            queueStore.releaseLease("task-1", "instance-a", task.getFenceToken());
+        } finally {
+            Thread.interrupted();
+        }
+
+        verify(taskDataService, never()).updateTaskStatus(eq("task-1"), eq(TaskStatus.FAILED), any());
+        assertEquals(TaskStatus.ES_QUERYING, status("task-1"));
+        Task reclaimed = queueStore.claimNext("instance-b", LEASE_MILLIS);
+        assertNotNull(reclaimed);
+        assertEquals("task-1", reclaimed.getTaskId());
+        assertEquals(2, reclaimed.getAttempts());
+        assertEquals(task.getFenceToken() + 1, reclaimed.getFenceToken());
+    }
+
+    private TaskStatus status(String taskId) {
+        return TaskStatus.valueOf(database.jdbc().queryForObject(
+                "SELECT status FROM t_task WHERE task_id = ?", String.class, taskId));
+    }
+
+    /**
+     * 模拟执行者崩溃后租约到期
+     */
+    private void expireLease(String taskId) {
+        database.jdbc().update("UPDATE t_task SET lease_expire_time = TIMESTAMPADD(SECOND, -1, NOW()) "
+                + "WHERE task_id = ?", taskId);
+    }
+}
@@ -0,0 +1,166 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.dto.es.ClientAccessResult;
+import com.wind.middleware.dto.es.PairKey;
+import com.wind.middleware.dto.es.UnitResult;
+import com.wind.middleware.entity.Task;
+import com.wind.middleware.entity.TaskUnit;
+import com.wind.middleware.entity.enums.TaskStatus;
+import com.wind.middleware.entity.enums.TaskType;
+import com.wind.middleware.entity.enums.TaskUnitStatus;
+import com.wind.middleware.entity.enums.TaskUnitType;
+import com.wind.middleware.mapper.TaskMapper;
+import com.wind.middleware.mapper.TaskUnitMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 查询单元的检查点恢复测试：部分（日期，目标）查询失败后，重新执行只查询失败的部分并与检查点合并
+ */
+class TaskUnitCheckpointTest {
+
+    private static final LocalDate DAY1 = LocalDate.of(2025, 8, 1);
+
+    private static final LocalDate DAY2 = LocalDate.of(2025, 8, 2);
+
+    private static final List<String> TARGETS = List.of("10.0.0.1", "10.0.0.2");
+
+    private TestDatabase database;
+
+    private TaskQueueStore queueStore;
+
+    private FlowSource flowSource;
+
+    private TaskUnitService taskUnitService;
+
+    @BeforeEach
+    void setUp() {
+        database = TestDatabase.create();
+        EsConcurrencyLimiter concurrencyLimiter = mock(EsConcurrencyLimiter.class);
+        when(concurrencyLimiter.retryDelay(anyInt(), anyBoolean())).thenReturn(60_000L);
+        queueStore = new TaskQueueStore();
+        ReflectionTestUtils.setField(queueStore, "taskMapper", database.mapper(TaskMapper.class));
+        ReflectionTestUtils.setField(queueStore, "taskUnitMapper", database.mapper(TaskUnitMapper.class));
+        ReflectionTestUtils.setField(queueStore, "concurrencyLimiter", concurrencyLimiter);
+        ReflectionTestUtils.setField(queueStore, "maxAttempts", 3);
+
+        database.jdbc().update("INSERT INTO t_task (task_id, task_type, server_ips, port, start_date, end_date, status, "
+                + "create_time) VALUES ('task-1', 'ANALYZE', '[\"10.0.0.1\",\"10.0.0.2\"]', 443, '2025-08-01', "
+                + "'2025-08-02', 'SUBMITTED', NOW())");
+        assertNotNull(queueStore.claimNext("coordinator", 60_000));
+        TaskUnit unit = new TaskUnit();
+        unit.setTaskId("task-1");
+        unit.setUnitType(TaskUnitType.QUERY);
+        unit.setUnitIndex(0);
+        unit.setStartDate(DAY1);
+        unit.setEndDate(DAY2);
+        unit.setTargets(TARGETS);
+        unit.setShared(true);
+        unit.setStatus(TaskUnitStatus.PENDING);
+        queueStore.createUnits(List.of(unit));
+
+        Task task = new Task();
+        task.setTaskId("task-1");
+        task.setTaskType(TaskType.ANALYZE);
+        task.setServerIps(TARGETS);
+        task.setPort(443);
+        task.setStartDate(DAY1);
+        task.setEndDate(DAY2);
+        task.setStatus(TaskStatus.ES_QUERYING);
+        TaskDataService taskDataService = mock(TaskDataService.class);
+        when(taskDataService.getTaskById("task-1")).thenReturn(task);
+        ClusterService clusterService = mock(ClusterService.class);
+        when(clusterService.getInstanceId()).thenReturn("instance-a");
+        flowSource = mock(FlowSource.class);
+
+        taskUnitService = new TaskUnitService();
+        ReflectionTestUtils.setField(taskUnitService, "queueStore", queueStore);
+        ReflectionTestUtils.setField(taskUnitService, "clusterService", clusterService);
+        ReflectionTestUtils.setField(taskUnitService, "flowSource", flowSource);
+        ReflectionTestUtils.setField(taskUnitService, "taskDataService", taskDataService);
+        ReflectionTestUtils.setField(taskUnitService, "enabled", true);
+        ReflectionTestUtils.setField(taskUnitService, "leaseMillis", 60_000L);
+    }
+
+    @Test
+    void resumedUnitQueriesOnlyFailedPartsOfTheCheckpoint() {
+        // 第一次执行：第二天10.0.0.2的查询失败，失败前已翻页的部分结果不应计入检查点
+        ClientAccessResult firstRun = new ClientAccessResult();
+        firstRun.add(DAY1, "192.168.0.1", "10.0.0.1", 5);
+        firstRun.add(DAY1, "192.168.0.2", "10.0.0.2", 3);
+        firstRun.add(DAY2, "192.168.0.1", "10.0.0.1", 7);
+        firstRun.add(DAY2, "192.168.0.2", "10.0.0.2", 1);
+        firstRun.markFailed(DAY2, "10.0.0.2");
+        when(flowSource.queryClientAccess(eq(TARGETS), any(), eq(DAY1), eq(DAY2), any())).thenReturn(firstRun);
+
+        taskUnitService.execute(taskUnitService.claimNext());
+
+        TaskUnit failed = queueStore.getUnits("task-1").get(0);
+        assertEquals(TaskUnitStatus.PENDING, failed.getStatus());
+        UnitResult checkpoint = failed.getResult();
+        // 出现查询失败的日期整天重新查询
+        assertEquals(Set.of(DAY2 + "/10.0.0.1", DAY2 + "/10.0.0.2"), Set.copyOf(checkpoint.getFailedUnits()));
+        assertEquals(5, accessCount(checkpoint, "192.168.0.1", "10.0.0.1"));
+        assertEquals(3, accessCount(checkpoint, "192.168.0.2", "10.0.0.2"));
+
+        // 恢复执行：只按天查询检查点中失败的部分
+        ClientAccessResult retry = new ClientAccessResult();
+        retry.add(DAY2, "192.168.0.1", "10.0.0.1", 7);
+        retry.add(DAY2, "192.168.0.2", "10.0.0.2", 4);
+        when(flowSource.queryClientAccess(any(), any(), eq(DAY2), eq(DAY2), any())).thenReturn(retry);
+        database.jdbc().update("UPDATE t_task_unit SET next_attempt_time = TIMESTAMPADD(SECOND, -1, NOW())");
+
+        taskUnitService.execute(taskUnitService.claimNext());
+
+        verify(flowSource, times(1)).queryClientAccess(any(), any(), eq(DAY1), any(), any());
+        verify(flowSource, times(1)).queryClientAccess(any(), any(), eq(DAY2), eq(DAY2), any());
+        TaskUnit completed = queueStore.getUnits("task-1").get(0);
+        assertEquals(TaskUnitStatus.COMPLETED, completed.getStatus());
+        assertTrue(completed.getResult().getFailedUnits().isEmpty());
+        assertEquals(12, accessCount(completed.getResult(), "192.168.0.1", "10.0.0.1"));
+        assertEquals(7, accessCount(completed.getResult(), "192.168.0.2", "10.0.0.2"));
+    }
+
+    @Test
+    void partsFailingAgainStayInTheCheckpoint() {
+        ClientAccessResult firstRun = new ClientAccessResult();
+        firstRun.add(DAY1, "192.168.0.1", "10.0.0.1", 5);
+        firstRun.markFailed(DAY2, "10.0.0.2");
+        when(flowSource.queryClientAccess(eq(TARGETS), any(), eq(DAY1), eq(DAY2), any())).thenReturn(firstRun);
+        taskUnitService.execute(taskUnitService.claimNext());
+
+        ClientAccessResult retry = new ClientAccessResult();
+        retry.add(DAY2, "192.168.0.1", "10.0.0.1", 2);
+        retry.markFailed(DAY2, "10.0.0.2");
+        when(flowSource.queryClientAccess(any(), any(), eq(DAY2), eq(DAY2), any())).thenReturn(retry);
+        database.jdbc().update("UPDATE t_task_unit SET next_attempt_time = TIMESTAMPADD(SECOND, -1, NOW())");
+        taskUnitService.execute(taskUnitService.claimNext());
+
+        TaskUnit unit = queueStore.getUnits("task-1").get(0);
+        assertEquals(TaskUnitStatus.PENDING, unit.getStatus());
+        assertEquals(2, unit.getAttempts());
+        assertTrue(unit.getResult().getFailedUnits().contains(DAY2 + "/10.0.0.2"));
+        assertEquals(5, accessCount(unit.getResult(), "192.168.0.1", "10.0.0.1"));
+    }
+
+    private static long accessCount(UnitResult result, String clientIp, String serverIp) {
+        return result.getMetrics().get(PairKey.key(clientIp, serverIp)).getAccessCount();
+    }
+}
@@ -0,0 +1,130 @@
+package com.wind.middleware.service;
+
+import com.wind.middleware.entity.TaskUnit;
+import com.wind.middleware.entity.enums.TaskUnitStatus;
+import com.wind.middleware.entity.enums.TaskUnitType;
+import com.wind.middleware.mapper.TaskMapper;
+import com.wind.middleware.mapper.TaskUnitMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 执行单元的领取顺序（协调者从前往后、空闲工作线程从最早任务的末尾窃取）及失败退避测试
+ */
+class TaskUnitClaimTest {
+
+    private static final long LEASE_MILLIS = 60_000;
+
+    private TestDatabase database;
+
+    private TaskQueueStore queueStore;
+
+    @BeforeEach
+    void setUp() {
+        database = TestDatabase.create();
+        EsConcurrencyLimiter concurrencyLimiter = mock(EsConcurrencyLimiter.class);
+        when(concurrencyLimiter.retryDelay(anyInt(), anyBoolean())).thenReturn(60_000L);
+        queueStore = new TaskQueueStore();
+        ReflectionTestUtils.setField(queueStore, "taskMapper", database.mapper(TaskMapper.class));
+        ReflectionTestUtils.setField(queueStore, "taskUnitMapper", database.mapper(TaskUnitMapper.class));
+        ReflectionTestUtils.setField(queueStore, "concurrencyLimiter", concurrencyLimiter);
+        ReflectionTestUtils.setField(queueStore, "maxAttempts", 2);
+        insertTask("task-old", "2025-08-10 08:00:00");
+        insertTask("task-new", "2025-08-10 09:00:00");
+        // 两个任务都被协调者领取，进入ES查询阶段
+        assertNotNull(queueStore.claimNext("coordinator-1", LEASE_MILLIS));
+        assertNotNull(queueStore.claimNext("coordinator-2", LEASE_MILLIS));
+    }
+
+    @Test
+    void coordinatorClaimsFromTheFrontAndIdleWorkersStealFromTheTail() {
+        createUnits("task-new", 4, true);
+        createUnits("task-old", 4, true);
+
+        TaskUnit stolen = queueStore.claimNextUnit("worker-a", null, LEASE_MILLIS);
+        assertEquals("task-old", stolen.getTaskId());
+        assertEquals(3, stolen.getUnitIndex());
+        TaskUnit own = queueStore.claimNextUnit("coordinator-1", "task-old", LEASE_MILLIS);
+        assertEquals("task-old", own.getTaskId());
+        assertEquals(0, own.getUnitIndex());
+        assertEquals(2, queueStore.claimNextUnit("worker-b", null, LEASE_MILLIS).getUnitIndex());
+        assertEquals(1, queueStore.claimNextUnit("coordinator-1", "task-old", LEASE_MILLIS).getUnitIndex());
+
+        // 最早的任务已没有可领取的单元，继续窃取下一个任务的末尾
+        TaskUnit next = queueStore.claimNextUnit("worker-a", null, LEASE_MILLIS);
+        assertEquals("task-new", next.getTaskId());
+        assertEquals(3, next.getUnitIndex());
+    }
+
+    @Test
+    void unsharedUnitsAreNotStolen() {
+        createUnits("task-old", 2, false);
+
+        assertNull(queueStore.claimNextUnit("worker-a", null, LEASE_MILLIS));
+        assertEquals(0, queueStore.claimNextUnit("coordinator-1", "task-old", LEASE_MILLIS).getUnitIndex());
+    }
+
+    @Test
+    void failedUnitIsClaimableAgainOnlyAfterBackoff() {
+        createUnits("task-old", 1, true);
+        TaskUnit unit = queueStore.claimNextUnit("worker-a", null, LEASE_MILLIS);
+
+        queueStore.failUnit(unit, "ES查询超时");
+        assertEquals(TaskUnitStatus.PENDING, unitStatus(unit.getId()));
+        assertTrue(database.jdbc().queryForObject("SELECT next_attempt_time > NOW() FROM t_task_unit WHERE id = ?",
+                Boolean.class, unit.getId()));
+        assertNull(queueStore.claimNextUnit("worker-b", null, LEASE_MILLIS));
+
+        database.jdbc().update("UPDATE t_task_unit SET next_attempt_time = TIMESTAMPADD(SECOND, -1, NOW()) "
+                + "WHERE id = ?", unit.getId());
+        TaskUnit retried = queueStore.claimNextUnit("worker-b", null, LEASE_MILLIS);
+        assertNotNull(retried);
+        assertEquals(2, retried.getAttempts());
+
+        // 执行次数达到上限后不再重试
+        queueStore.failUnit(retried, "ES查询超时");
+        assertEquals(TaskUnitStatus.FAILED, unitStatus(unit.getId()));
+        assertNull(queueStore.claimNextUnit("worker-c", null, LEASE_MILLIS));
+    }
+
+    private void insertTask(String taskId, String createTime) {
+        database.jdbc().update("INSERT INTO t_task (task_id, task_type, server_ips, port, start_date, end_date, status, "
+                + "create_time) VALUES (?, 'ANALYZE', '[\"10.0.0.1\"]', 443, '2025-08-01', '2025-08-07', "
+                + "'SUBMITTED', ?)", taskId, createTime);
+    }
+
+    private void createUnits(String taskId, int count, boolean shared) {
+        List<TaskUnit> units = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TaskUnit unit = new TaskUnit();
+            unit.setTaskId(taskId);
+            unit.setUnitType(TaskUnitType.QUERY);
+            unit.setUnitIndex(i);
+            unit.setStartDate(LocalDate.of(2025, 8, 1 + i));
+            unit.setEndDate(LocalDate.of(2025, 8, 1 + i));
+            unit.setShared(shared);
+            unit.setStatus(TaskUnitStatus.PENDING);
+            units.add(unit);
+        }
+        queueStore.createUnits(units);
+    }
+
+    private TaskUnitStatus unitStatus(Long unitId) {
+        return TaskUnitStatus.valueOf(database.jdbc().queryForObject(
+                "SELECT status FROM t_task_unit WHERE id = ?", String.class, unitId));
+    }
+}
@@ -0,0 +1,63 @@
+package com.wind.middleware.service;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.MybatisSqlSessionFactoryBuilder;
+import com.baomidou.mybatisplus.core.config.GlobalConfig;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.wind.middleware.config.MyBatisPlusConfig;
+import com.wind.middleware.mapper.TaskMapper;
+import com.wind.middleware.mapper.TaskUnitMapper;
+import org.apache.ibatis.mapping.Environment;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+
+/**
+ * 任务队列测试使用的H2内存数据库（MySQL兼容模式）
+ * <p>
+ * 按 {@code db/schema-h2.sql} 建表，使用与应用相同的MyBatis-Plus分页插件及自动填充配置注册Mapper，
+ * 每个实例是一个独立的数据库。
+ */
+final class TestDatabase {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final SqlSessionTemplate sqlSession;
+
+    private TestDatabase(DataSource dataSource, SqlSessionTemplate sqlSession) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.sqlSession = sqlSession;
+    }
+
+    static TestDatabase create() {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        new ResourceDatabasePopulator(new ClassPathResource("db/schema-h2.sql")).execute(dataSource);
+
+        MyBatisPlusConfig config = new MyBatisPlusConfig();
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.setEnvironment(new Environment("test", new SpringManagedTransactionFactory(), dataSource));
+        configuration.addInterceptor(config.mybatisPlusInterceptor());
+        GlobalConfig globalConfig = GlobalConfigUtils.defaults();
+        globalConfig.setMetaObjectHandler(config.metaObjectHandler());
+        GlobalConfigUtils.setGlobalConfig(configuration, globalConfig);
+        configuration.addMapper(TaskMapper.class);
+        configuration.addMapper(TaskUnitMapper.class);
+        return new TestDatabase(dataSource, new SqlSessionTemplate(new MybatisSqlSessionFactoryBuilder().build(configuration)));
+    }
+
+    <T> T mapper(Class<T> type) {
+        return sqlSession.getMapper(type);
+    }
+
+    JdbcTemplate jdbc() {
+        return jdbcTemplate;
+    }
+}
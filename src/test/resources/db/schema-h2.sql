@@ -0,0 +1,51 @@
+-- 任务队列测试使用的表结构（H2 MySQL兼容模式）
+
+CREATE TABLE t_task (
+    task_id           VARCHAR(64)  NOT NULL PRIMARY KEY,
+    task_type         VARCHAR(20),
+    submitter         VARCHAR(64),
+    description       VARCHAR(500),
+    server_ips        TEXT,
+    port              INT,
+    port_ranges       TEXT,
+    exclude_ports     TEXT,
+    start_date        DATE,
+    end_date          DATE,
+    start_time        DATETIME,
+    end_time          DATETIME,
+    status            VARCHAR(20)  NOT NULL,
+    cost_estimate     TEXT,
+    query_stats       TEXT,
+    export_format     VARCHAR(20),
+    export_progress   TEXT,
+    preview           TEXT,
+    error_message     TEXT,
+    lease_owner       VARCHAR(128),
+    lease_expire_time DATETIME(3),
+    attempts          INT          NOT NULL DEFAULT 0,
+    fence_token       BIGINT       NOT NULL DEFAULT 0,
+    create_time       DATETIME,
+    update_time       DATETIME,
+    deleted           TINYINT      NOT NULL DEFAULT 0
+);
+
+CREATE TABLE t_task_unit (
+    id                BIGINT       AUTO_INCREMENT PRIMARY KEY,
+    task_id           VARCHAR(64)  NOT NULL,
+    unit_type         VARCHAR(20)  NOT NULL,
+    unit_index        INT          NOT NULL,
+    start_date        DATE,
+    end_date          DATE,
+    targets           TEXT,
+    shared            TINYINT      NOT NULL DEFAULT 0,
+    status            VARCHAR(20)  NOT NULL,
+    result            TEXT,
+    error_message     TEXT,
+    lease_owner       VARCHAR(128),
+    lease_expire_time DATETIME(3),
+    next_attempt_time DATETIME(3),
+    attempts          INT          NOT NULL DEFAULT 0,
+    fence_token       BIGINT       NOT NULL DEFAULT 0,
+    create_time       DATETIME,
+    update_time       DATETIME
+);